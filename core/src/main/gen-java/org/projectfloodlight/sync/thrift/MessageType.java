@@ -35,7 +35,9 @@ import org.apache.thrift.TEnum;
   CLUSTER_JOIN_RESPONSE(21),
   LEADER(22),
   LEADER_CAND(23),
-  LEADER_ACK(24);
+  LEADER_ACK(24),
+  SYNC_DIGEST(25),
+  SYNC_DIGEST_RESPONSE(26);
 
   private final int value;
 
@@ -104,6 +106,10 @@ import org.apache.thrift.TEnum;
         return LEADER_CAND;
       case 24:
         return LEADER_ACK;
+      case 25:
+        return SYNC_DIGEST;
+      case 26:
+        return SYNC_DIGEST_RESPONSE;
       default:
         return null;
     }
@@ -58,6 +58,8 @@ import org.slf4j.LoggerFactory;
   private static final org.apache.thrift.protocol.TField LEADER_FIELD_DESC = new org.apache.thrift.protocol.TField("leader", org.apache.thrift.protocol.TType.STRUCT, (short)23);
   private static final org.apache.thrift.protocol.TField LEADER_CAND_FIELD_DESC = new org.apache.thrift.protocol.TField("leaderCand", org.apache.thrift.protocol.TType.STRUCT, (short)24);
   private static final org.apache.thrift.protocol.TField LEADER_ACK_FIELD_DESC = new org.apache.thrift.protocol.TField("leaderAck", org.apache.thrift.protocol.TType.STRUCT, (short)25);
+  private static final org.apache.thrift.protocol.TField SYNC_DIGEST_FIELD_DESC = new org.apache.thrift.protocol.TField("syncDigest", org.apache.thrift.protocol.TType.STRUCT, (short)26);
+  private static final org.apache.thrift.protocol.TField SYNC_DIGEST_RESPONSE_FIELD_DESC = new org.apache.thrift.protocol.TField("syncDigestResponse", org.apache.thrift.protocol.TType.STRUCT, (short)27);
 
   private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
   static {
@@ -94,6 +96,8 @@ import org.slf4j.LoggerFactory;
   public LeaderMessage leader; // optional
   public LeaderCandMessage leaderCand; // optional
   public LeaderAckMessage leaderAck; // optional
+  public SyncDigestMessage syncDigest; // optional
+  public SyncDigestResponseMessage syncDigestResponse; // optional
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -125,7 +129,9 @@ import org.slf4j.LoggerFactory;
     CLUSTER_JOIN_RESPONSE((short)22, "clusterJoinResponse"),
     LEADER((short)23, "leader"),
     LEADER_CAND((short)24, "leaderCand"),
-    LEADER_ACK((short)25, "leaderAck");
+    LEADER_ACK((short)25, "leaderAck"),
+    SYNC_DIGEST((short)26, "syncDigest"),
+    SYNC_DIGEST_RESPONSE((short)27, "syncDigestResponse");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -190,6 +196,10 @@ import org.slf4j.LoggerFactory;
           return LEADER_CAND;
         case 25: // LEADER_ACK
           return LEADER_ACK;
+        case 26: // SYNC_DIGEST
+          return SYNC_DIGEST;
+        case 27: // SYNC_DIGEST_RESPONSE
+          return SYNC_DIGEST_RESPONSE;
         default:
           return null;
       }
@@ -230,7 +240,7 @@ import org.slf4j.LoggerFactory;
   }
 
   // isset id assignments
-  private _Fields optionals[] = {_Fields.HELLO,_Fields.ERROR,_Fields.ECHO_REQUEST,_Fields.ECHO_REPLY,_Fields.GET_REQUEST,_Fields.GET_RESPONSE,_Fields.PUT_REQUEST,_Fields.PUT_RESPONSE,_Fields.DELETE_REQUEST,_Fields.DELETE_RESPONSE,_Fields.SYNC_VALUE,_Fields.SYNC_VALUE_RESPONSE,_Fields.SYNC_OFFER,_Fields.SYNC_REQUEST,_Fields.FULL_SYNC_REQUEST,_Fields.CURSOR_REQUEST,_Fields.CURSOR_RESPONSE,_Fields.REGISTER_REQUEST,_Fields.REGISTER_RESPONSE,_Fields.CLUSTER_JOIN_REQUEST,_Fields.CLUSTER_JOIN_RESPONSE,_Fields.LEADER,_Fields.LEADER_CAND,_Fields.LEADER_ACK};
+  private _Fields optionals[] = {_Fields.HELLO,_Fields.ERROR,_Fields.ECHO_REQUEST,_Fields.ECHO_REPLY,_Fields.GET_REQUEST,_Fields.GET_RESPONSE,_Fields.PUT_REQUEST,_Fields.PUT_RESPONSE,_Fields.DELETE_REQUEST,_Fields.DELETE_RESPONSE,_Fields.SYNC_VALUE,_Fields.SYNC_VALUE_RESPONSE,_Fields.SYNC_OFFER,_Fields.SYNC_REQUEST,_Fields.FULL_SYNC_REQUEST,_Fields.CURSOR_REQUEST,_Fields.CURSOR_RESPONSE,_Fields.REGISTER_REQUEST,_Fields.REGISTER_RESPONSE,_Fields.CLUSTER_JOIN_REQUEST,_Fields.CLUSTER_JOIN_RESPONSE,_Fields.LEADER,_Fields.LEADER_CAND,_Fields.LEADER_ACK,_Fields.SYNC_DIGEST,_Fields.SYNC_DIGEST_RESPONSE};
   public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
   static {
     Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
@@ -284,6 +294,10 @@ import org.slf4j.LoggerFactory;
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, LeaderCandMessage.class)));
     tmpMap.put(_Fields.LEADER_ACK, new org.apache.thrift.meta_data.FieldMetaData("leaderAck", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, LeaderAckMessage.class)));
+    tmpMap.put(_Fields.SYNC_DIGEST, new org.apache.thrift.meta_data.FieldMetaData("syncDigest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, SyncDigestMessage.class)));
+    tmpMap.put(_Fields.SYNC_DIGEST_RESPONSE, new org.apache.thrift.meta_data.FieldMetaData("syncDigestResponse", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, SyncDigestResponseMessage.class)));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(SyncMessage.class, metaDataMap);
   }
@@ -377,6 +391,12 @@ import org.slf4j.LoggerFactory;
     if (other.isSetLeaderAck()) {
       this.leaderAck = new LeaderAckMessage(other.leaderAck);
     }
+    if (other.isSetSyncDigest()) {
+      this.syncDigest = new SyncDigestMessage(other.syncDigest);
+    }
+    if (other.isSetSyncDigestResponse()) {
+      this.syncDigestResponse = new SyncDigestResponseMessage(other.syncDigestResponse);
+    }
   }
 
   public SyncMessage deepCopy() {
@@ -410,6 +430,8 @@ import org.slf4j.LoggerFactory;
     this.leader = null;
     this.leaderCand = null;
     this.leaderAck = null;
+    this.syncDigest = null;
+    this.syncDigestResponse = null;
   }
 
   /**
@@ -1020,6 +1042,54 @@ import org.slf4j.LoggerFactory;
     }
   }
 
+  public SyncDigestMessage getSyncDigest() {
+    return this.syncDigest;
+  }
+
+  public SyncMessage setSyncDigest(SyncDigestMessage syncDigest) {
+    this.syncDigest = syncDigest;
+    return this;
+  }
+
+  public void unsetSyncDigest() {
+    this.syncDigest = null;
+  }
+
+  /** Returns true if field syncDigest is set (has been assigned a value) and false otherwise */
+  public boolean isSetSyncDigest() {
+    return this.syncDigest != null;
+  }
+
+  public void setSyncDigestIsSet(boolean value) {
+    if (!value) {
+      this.syncDigest = null;
+    }
+  }
+
+  public SyncDigestResponseMessage getSyncDigestResponse() {
+    return this.syncDigestResponse;
+  }
+
+  public SyncMessage setSyncDigestResponse(SyncDigestResponseMessage syncDigestResponse) {
+    this.syncDigestResponse = syncDigestResponse;
+    return this;
+  }
+
+  public void unsetSyncDigestResponse() {
+    this.syncDigestResponse = null;
+  }
+
+  /** Returns true if field syncDigestResponse is set (has been assigned a value) and false otherwise */
+  public boolean isSetSyncDigestResponse() {
+    return this.syncDigestResponse != null;
+  }
+
+  public void setSyncDigestResponseIsSet(boolean value) {
+    if (!value) {
+      this.syncDigestResponse = null;
+    }
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case TYPE:
@@ -1222,6 +1292,22 @@ import org.slf4j.LoggerFactory;
       }
       break;
 
+    case SYNC_DIGEST:
+      if (value == null) {
+        unsetSyncDigest();
+      } else {
+        setSyncDigest((SyncDigestMessage)value);
+      }
+      break;
+
+    case SYNC_DIGEST_RESPONSE:
+      if (value == null) {
+        unsetSyncDigestResponse();
+      } else {
+        setSyncDigestResponse((SyncDigestResponseMessage)value);
+      }
+      break;
+
     }
   }
 
@@ -1302,6 +1388,12 @@ import org.slf4j.LoggerFactory;
     case LEADER_ACK:
       return getLeaderAck();
 
+    case SYNC_DIGEST:
+      return getSyncDigest();
+
+    case SYNC_DIGEST_RESPONSE:
+      return getSyncDigestResponse();
+
     }
     throw new IllegalStateException();
   }
@@ -1363,6 +1455,10 @@ import org.slf4j.LoggerFactory;
       return isSetLeaderCand();
     case LEADER_ACK:
       return isSetLeaderAck();
+    case SYNC_DIGEST:
+      return isSetSyncDigest();
+    case SYNC_DIGEST_RESPONSE:
+      return isSetSyncDigestResponse();
     }
     throw new IllegalStateException();
   }
@@ -1605,6 +1701,24 @@ import org.slf4j.LoggerFactory;
         return false;
     }
 
+    boolean this_present_syncDigest = true && this.isSetSyncDigest();
+    boolean that_present_syncDigest = true && that.isSetSyncDigest();
+    if (this_present_syncDigest || that_present_syncDigest) {
+      if (!(this_present_syncDigest && that_present_syncDigest))
+        return false;
+      if (!this.syncDigest.equals(that.syncDigest))
+        return false;
+    }
+
+    boolean this_present_syncDigestResponse = true && this.isSetSyncDigestResponse();
+    boolean that_present_syncDigestResponse = true && that.isSetSyncDigestResponse();
+    if (this_present_syncDigestResponse || that_present_syncDigestResponse) {
+      if (!(this_present_syncDigestResponse && that_present_syncDigestResponse))
+        return false;
+      if (!this.syncDigestResponse.equals(that.syncDigestResponse))
+        return false;
+    }
+
     return true;
   }
 
@@ -1871,6 +1985,26 @@ import org.slf4j.LoggerFactory;
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(isSetSyncDigest()).compareTo(typedOther.isSetSyncDigest());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetSyncDigest()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.syncDigest, typedOther.syncDigest);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
+    lastComparison = Boolean.valueOf(isSetSyncDigestResponse()).compareTo(typedOther.isSetSyncDigestResponse());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetSyncDigestResponse()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.syncDigestResponse, typedOther.syncDigestResponse);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -2138,6 +2272,26 @@ import org.slf4j.LoggerFactory;
       }
       first = false;
     }
+    if (isSetSyncDigest()) {
+      if (!first) sb.append(", ");
+      sb.append("syncDigest:");
+      if (this.syncDigest == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.syncDigest);
+      }
+      first = false;
+    }
+    if (isSetSyncDigestResponse()) {
+      if (!first) sb.append(", ");
+      sb.append("syncDigestResponse:");
+      if (this.syncDigestResponse == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.syncDigestResponse);
+      }
+      first = false;
+    }
     sb.append(")");
     return sb.toString();
   }
@@ -2220,6 +2374,12 @@ import org.slf4j.LoggerFactory;
     if (leaderAck != null) {
       leaderAck.validate();
     }
+    if (syncDigest != null) {
+      syncDigest.validate();
+    }
+    if (syncDigestResponse != null) {
+      syncDigestResponse.validate();
+    }
   }
 
   private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
@@ -2480,6 +2640,24 @@ import org.slf4j.LoggerFactory;
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
             }
             break;
+          case 26: // SYNC_DIGEST
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.syncDigest = new SyncDigestMessage();
+              struct.syncDigest.read(iprot);
+              struct.setSyncDigestIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
+          case 27: // SYNC_DIGEST_RESPONSE
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.syncDigestResponse = new SyncDigestResponseMessage();
+              struct.syncDigestResponse.read(iprot);
+              struct.setSyncDigestResponseIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
         }
@@ -2668,6 +2846,20 @@ import org.slf4j.LoggerFactory;
           oprot.writeFieldEnd();
         }
       }
+      if (struct.syncDigest != null) {
+        if (struct.isSetSyncDigest()) {
+          oprot.writeFieldBegin(SYNC_DIGEST_FIELD_DESC);
+          struct.syncDigest.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
+      if (struct.syncDigestResponse != null) {
+        if (struct.isSetSyncDigestResponse()) {
+          oprot.writeFieldBegin(SYNC_DIGEST_RESPONSE_FIELD_DESC);
+          struct.syncDigestResponse.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -2759,7 +2951,13 @@ import org.slf4j.LoggerFactory;
       if (struct.isSetLeaderAck()) {
         optionals.set(23);
       }
-      oprot.writeBitSet(optionals, 24);
+      if (struct.isSetSyncDigest()) {
+        optionals.set(24);
+      }
+      if (struct.isSetSyncDigestResponse()) {
+        optionals.set(25);
+      }
+      oprot.writeBitSet(optionals, 26);
       if (struct.isSetHello()) {
         struct.hello.write(oprot);
       }
@@ -2832,6 +3030,12 @@ import org.slf4j.LoggerFactory;
       if (struct.isSetLeaderAck()) {
         struct.leaderAck.write(oprot);
       }
+      if (struct.isSetSyncDigest()) {
+        struct.syncDigest.write(oprot);
+      }
+      if (struct.isSetSyncDigestResponse()) {
+        struct.syncDigestResponse.write(oprot);
+      }
     }
 
     @Override
@@ -2839,7 +3043,7 @@ import org.slf4j.LoggerFactory;
       TTupleProtocol iprot = (TTupleProtocol) prot;
       struct.type = MessageType.findByValue(iprot.readI32());
       struct.setTypeIsSet(true);
-      BitSet incoming = iprot.readBitSet(24);
+      BitSet incoming = iprot.readBitSet(26);
       if (incoming.get(0)) {
         struct.hello = new HelloMessage();
         struct.hello.read(iprot);
@@ -2960,6 +3164,16 @@ import org.slf4j.LoggerFactory;
         struct.leaderAck.read(iprot);
         struct.setLeaderAckIsSet(true);
       }
+      if (incoming.get(24)) {
+        struct.syncDigest = new SyncDigestMessage();
+        struct.syncDigest.read(iprot);
+        struct.setSyncDigestIsSet(true);
+      }
+      if (incoming.get(25)) {
+        struct.syncDigestResponse = new SyncDigestResponseMessage();
+        struct.syncDigestResponse.read(iprot);
+        struct.setSyncDigestResponseIsSet(true);
+      }
     }
   }
 
@@ -0,0 +1,112 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.openflow.protocol;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openflow.util.U8;
+
+/**
+ * A packet-in whose packet data is a view on the buffer it was decoded
+ * from. The packet data is only copied into a byte array the first time
+ * {@link #getPacketData()} is called. Header fields are decoded eagerly
+ * since they are small and fixed-size.
+ *
+ * The backing buffer must not be modified after the message is decoded.
+ */
+public class LazyOFPacketIn extends OFPacketIn {
+    protected ChannelBuffer packetDataBuffer;
+
+    public LazyOFPacketIn() {
+        super();
+    }
+
+    /**
+     * Check whether the packet data has been copied out of the backing
+     * buffer
+     * @return
+     */
+    public boolean isMaterialized() {
+        return this.packetDataBuffer == null;
+    }
+
+    @Override
+    public byte[] getPacketData() {
+        if (this.packetDataBuffer != null) {
+            byte[] data = new byte[this.packetDataBuffer.readableBytes()];
+            this.packetDataBuffer.getBytes(
+                    this.packetDataBuffer.readerIndex(), data);
+            this.packetData = data;
+            this.packetDataBuffer = null;
+        }
+        return this.packetData;
+    }
+
+    @Override
+    public int getPacketDataLength() {
+        if (this.packetDataBuffer != null)
+            return this.packetDataBuffer.readableBytes();
+        return super.getPacketDataLength();
+    }
+
+    @Override
+    public ChannelBuffer wrapPacketData() {
+        if (this.packetDataBuffer != null)
+            return this.packetDataBuffer.duplicate();
+        return super.wrapPacketData();
+    }
+
+    @Override
+    public OFPacketIn setPacketData(byte[] packetData) {
+        this.packetDataBuffer = null;
+        return super.setPacketData(packetData);
+    }
+
+    @Override
+    public void readFrom(ChannelBuffer data) {
+        this.version = data.readByte();
+        this.type = OFType.valueOf(data.readByte());
+        this.length = data.readShort();
+        this.xid = data.readInt();
+        this.bufferId = data.readInt();
+        this.totalLength = data.readShort();
+        this.inPort = data.readShort();
+        this.reason = OFPacketInReason.values()[U8.f(data.readByte())];
+        data.readByte(); // pad
+        this.packetData = null;
+        this.packetDataBuffer = data.readSlice(getLengthU() - MINIMUM_LENGTH);
+    }
+
+    @Override
+    public void writeTo(ChannelBuffer data) {
+        if (this.packetDataBuffer == null) {
+            super.writeTo(data);
+            return;
+        }
+        data.writeByte(version);
+        data.writeByte(type.getTypeValue());
+        data.writeShort(length);
+        data.writeInt(xid);
+        data.writeInt(bufferId);
+        data.writeShort(totalLength);
+        data.writeShort(inPort);
+        data.writeByte((byte) reason.ordinal());
+        data.writeByte((byte) 0x0); // pad
+        data.writeBytes(this.packetDataBuffer,
+                        this.packetDataBuffer.readerIndex(),
+                        this.packetDataBuffer.readableBytes());
+    }
+}
@@ -17,9 +17,9 @@
 
 package org.openflow.protocol;
 
-import java.util.Arrays;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.openflow.util.U16;
 import org.openflow.util.U32;
 import org.openflow.util.U8;
@@ -76,6 +76,37 @@ public class OFPacketIn extends OFMessage {
         return this.packetData;
     }
 
+    /**
+     * Returns the length of the packet data without requiring the packet
+     * data to be materialized
+     * @return
+     */
+    public int getPacketDataLength() {
+        return (this.packetData == null) ? 0 : this.packetData.length;
+    }
+
+    /**
+     * Returns a read-only view of the packet data. Use this instead of
+     * {@link #getPacketData()} when only a few header bytes are needed.
+     * @return
+     */
+    public ChannelBuffer getPacketDataBuffer() {
+        return ChannelBuffers.unmodifiableBuffer(wrapPacketData());
+    }
+
+    /**
+     * Returns a view of the packet data that shares its storage. Unlike
+     * {@link #getPacketDataBuffer()} it exposes the backing array, so the
+     * packet can be deserialized without another copy. For the
+     * controller's own packet processing; the view must not be modified.
+     * @return
+     */
+    public ChannelBuffer wrapPacketData() {
+        if (this.packetData == null)
+            return ChannelBuffers.EMPTY_BUFFER;
+        return ChannelBuffers.wrappedBuffer(this.packetData);
+    }
+
     /**
      * Sets the packet data, and updates the length of this message
      * @param packetData
@@ -166,7 +197,9 @@ public class OFPacketIn extends OFMessage {
         int result = super.hashCode();
         result = prime * result + bufferId;
         result = prime * result + inPort;
-        result = prime * result + Arrays.hashCode(packetData);
+        // Hash and compare the buffer views so lazily decoded packet data
+        // isn't copied out of its read buffer
+        result = prime * result + ChannelBuffers.hashCode(wrapPacketData());
         result = prime * result + ((reason == null) ? 0 : reason.hashCode());
         result = prime * result + totalLength;
         return result;
@@ -190,7 +223,8 @@ public class OFPacketIn extends OFMessage {
         if (inPort != other.inPort) {
             return false;
         }
-        if (!Arrays.equals(packetData, other.packetData)) {
+        if (!ChannelBuffers.equals(wrapPacketData(),
+                                   other.wrapPacketData())) {
             return false;
         }
         if (reason == null) {
@@ -19,6 +19,8 @@ package org.projectfloodlight.core;
 
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.projectfloodlight.packet.PacketHeaders;
+
 /**
  * This is a context object where floodlight listeners can register 
  * and later retrieve context information associated with an
@@ -29,7 +31,44 @@ public class FloodlightContext {
     protected ConcurrentHashMap<String, Object> storage =
             new ConcurrentHashMap<String, Object>();
 
+    // Reused across packets when the context is pooled
+    protected PacketHeaders packetHeaders;
+
     public ConcurrentHashMap<String, Object> getStorage() {
         return storage;
     }
+
+    /**
+     * Get the parsed headers of the packet-in payload
+     * @return the headers or null if no packet has been parsed into this
+     * context
+     */
+    public PacketHeaders getPacketHeaders() {
+        if (packetHeaders == null || packetHeaders.getData() == null)
+            return null;
+        return packetHeaders;
+    }
+
+    /**
+     * Get this context's reusable headers object, reset and ready to parse
+     * a new packet
+     * @return the headers object
+     */
+    public PacketHeaders newPacketHeaders() {
+        if (packetHeaders == null) {
+            packetHeaders = new PacketHeaders();
+        } else {
+            packetHeaders.reset();
+        }
+        return packetHeaders;
+    }
+
+    /**
+     * Drop the reference to the parsed packet, keeping the headers object
+     * for reuse
+     */
+    public void clearPacketHeaders() {
+        if (packetHeaders != null)
+            packetHeaders.reset();
+    }
 }
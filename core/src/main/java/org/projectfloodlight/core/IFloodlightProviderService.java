@@ -79,10 +79,11 @@ public interface IFloodlightProviderService extends
 
     /**
      * A FloodlightContextStore object that can be used to retrieve the
-     * packet-in payload
+     * packet-in payload. The payload is deserialized lazily from the
+     * context's packet headers the first time it is retrieved.
      */
     public static final FloodlightContextStore<Ethernet> bcStore =
-            new FloodlightContextStore<Ethernet>();
+            new PacketInPayloadContextStore();
 
     /**
      * Adds an OpenFlow message listener
@@ -36,6 +36,7 @@ import org.openflow.protocol.statistics.OFStatistics;
 import org.projectfloodlight.core.IFloodlightProviderService.Role;
 import org.projectfloodlight.core.bigdb.serializers.SwitchAttributesSerializer;
 import org.projectfloodlight.core.internal.Controller;
+import org.projectfloodlight.core.internal.OFSwitchOutputQueue;
 import org.projectfloodlight.db.data.annotation.BigDBIgnore;
 import org.projectfloodlight.db.data.annotation.BigDBProperty;
 import org.projectfloodlight.db.data.annotation.BigDBSerialize;
@@ -186,6 +187,22 @@ public interface IOFSwitch {
      */
     public void setChannel(Channel channel);
 
+    /**
+     * Set the shared output queue used to coalesce writes to this switch.
+     * If null (the default) writes are buffered per writer thread and sent
+     * on flush.
+     * Called immediately after setChannel
+     *
+     * @param outputQueue
+     */
+    public void setOutputQueue(OFSwitchOutputQueue outputQueue);
+
+    /**
+     * Get the shared output queue used to coalesce writes to this switch
+     * @return the queue or null if writes are not coalesced
+     */
+    public OFSwitchOutputQueue getOutputQueue();
+
     /**
      * Called when OFMessage enters pipeline. Returning true cause the message
      * to be dropped.
@@ -60,6 +60,7 @@ import org.projectfloodlight.core.bigdb.serializers.SwitchAttributesSerializer;
 import org.projectfloodlight.core.internal.Controller;
 import org.projectfloodlight.core.internal.OFFeaturesReplyFuture;
 import org.projectfloodlight.core.internal.OFStatisticsFuture;
+import org.projectfloodlight.core.internal.OFSwitchOutputQueue;
 import org.projectfloodlight.core.util.AppCookie;
 import org.projectfloodlight.db.data.annotation.BigDBIgnore;
 import org.projectfloodlight.db.data.annotation.BigDBProperty;
@@ -109,6 +110,9 @@ public abstract class OFSwitchBase implements IOFSwitch {
 
     private boolean startDriverHandshakeCalled = false;
     protected Channel channel;
+    // Shared output queue. If null messages are buffered in
+    // local_msg_buffer by each writer thread
+    protected volatile OFSwitchOutputQueue outputQueue;
 
     /**
      * Members hidden from subclasses
@@ -710,6 +714,17 @@ public abstract class OFSwitchBase implements IOFSwitch {
         this.channel = channel;
     }
 
+    @Override
+    public void setOutputQueue(OFSwitchOutputQueue outputQueue) {
+        this.outputQueue = outputQueue;
+    }
+
+    @Override
+    @BigDBIgnore
+    public OFSwitchOutputQueue getOutputQueue() {
+        return outputQueue;
+    }
+
     // For driver subclass to set throttling
     protected void enableWriteThrottle(boolean enable) {
         this.writeThrottleEnabled = enable;
@@ -767,6 +782,12 @@ public abstract class OFSwitchBase implements IOFSwitch {
         if (channel == null || !isConnected())
             return;
             //throws IOException {
+        OFSwitchOutputQueue queue = outputQueue;
+        if (queue != null) {
+            this.floodlightProvider.handleOutgoingMessage(this, m, bc);
+            queue.write(m);
+            return;
+        }
         Map<IOFSwitch,List<OFMessage>> msg_buffer_map = local_msg_buffer.get();
         List<OFMessage> msg_buffer = msg_buffer_map.get(this);
         if (msg_buffer == null) {
@@ -822,6 +843,11 @@ public abstract class OFSwitchBase implements IOFSwitch {
     protected void write(List<OFMessage> msglist) {
         if (channel == null || !isConnected())
             return;
+        OFSwitchOutputQueue queue = outputQueue;
+        if (queue != null) {
+            queue.write(msglist);
+            return;
+        }
         this.channel.write(msglist);
     }
 
@@ -829,6 +855,9 @@ public abstract class OFSwitchBase implements IOFSwitch {
     public void disconnectOutputStream() {
         if (channel == null)
             return;
+        OFSwitchOutputQueue queue = outputQueue;
+        if (queue != null)
+            queue.clear();
         channel.close();
     }
 
@@ -1129,10 +1158,17 @@ public abstract class OFSwitchBase implements IOFSwitch {
         OFMessage barrierMsg = floodlightProvider.getOFMessageFactory().getMessage(
                 OFType.BARRIER_REQUEST);
         barrierMsg.setXid(getNextTransactionId());
+        // Let outgoing message listeners, e.g. the flow shadow table, see
+        // that the flow table has been cleared
+        floodlightProvider.handleOutgoingMessage(this, fm, null);
         List<OFMessage> msglist = new ArrayList<OFMessage>(2);
         msglist.add(fm);
         msglist.add(barrierMsg);
-        channel.write(msglist);
+        OFSwitchOutputQueue queue = outputQueue;
+        if (queue != null)
+            queue.write(msglist);
+        else
+            channel.write(msglist);
     }
 
     @Override
@@ -1167,6 +1203,12 @@ public abstract class OFSwitchBase implements IOFSwitch {
 
     @Override
     public void flush() {
+        OFSwitchOutputQueue queue = outputQueue;
+        if (queue != null) {
+            // Coalesced with other writers; written within the flush delay
+            queue.flush();
+            return;
+        }
         Map<IOFSwitch,List<OFMessage>> msg_buffer_map = local_msg_buffer.get();
         List<OFMessage> msglist = msg_buffer_map.get(this);
         if ((msglist != null) && (msglist.size() > 0)) {
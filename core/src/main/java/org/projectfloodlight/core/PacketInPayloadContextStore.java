@@ -0,0 +1,46 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.core;
+
+import org.projectfloodlight.packet.Ethernet;
+import org.projectfloodlight.packet.PacketHeaders;
+
+/**
+ * Context store for the packet-in payload. If no {@link Ethernet} has been
+ * stored but the context holds parsed {@link PacketHeaders}, the Ethernet
+ * object is built from the headers on first access and cached in the
+ * context. Listeners that only need header fields can use
+ * {@link FloodlightContext#getPacketHeaders()} and never pay for it.
+ */
+public class PacketInPayloadContextStore
+        extends FloodlightContextStore<Ethernet> {
+
+    @Override
+    public Ethernet get(FloodlightContext bc, String key) {
+        Ethernet eth = super.get(bc, key);
+        if (eth == null &&
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD.equals(key)) {
+            PacketHeaders headers = bc.getPacketHeaders();
+            if (headers != null) {
+                eth = headers.getEthernet();
+                if (eth != null)
+                    super.put(bc, key, eth);
+            }
+        }
+        return eth;
+    }
+}
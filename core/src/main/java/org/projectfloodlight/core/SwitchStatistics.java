@@ -16,6 +16,7 @@ import org.openflow.protocol.statistics.OFStatistics;
 import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.util.HexString;
 import org.projectfloodlight.core.annotations.LogMessageDoc;
+import org.projectfloodlight.statistics.IStatisticsService;
 import org.slf4j.Logger;
 
 public class SwitchStatistics {
@@ -44,46 +45,7 @@ public class SwitchStatistics {
         Future<List<OFStatistics>> future;
         List<OFStatistics> values = null;
         if (sw != null) {
-            OFStatisticsRequest req = new OFStatisticsRequest();
-            req.setStatisticType(statType);
-            int requestLength = req.getLengthU();
-            if (statType == OFStatisticsType.FLOW) {
-                OFFlowStatisticsRequest specificReq = new OFFlowStatisticsRequest();
-                OFMatch match = new OFMatch();
-                match.setWildcards(0xffffffff);
-                specificReq.setMatch(match);
-                specificReq.setOutPort(OFPort.OFPP_NONE.getValue());
-                specificReq.setTableId((byte) 0xff);
-                req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-                requestLength += specificReq.getLength();
-            } else if (statType == OFStatisticsType.AGGREGATE) {
-                OFAggregateStatisticsRequest specificReq = new OFAggregateStatisticsRequest();
-                OFMatch match = new OFMatch();
-                match.setWildcards(0xffffffff);
-                specificReq.setMatch(match);
-                specificReq.setOutPort(OFPort.OFPP_NONE.getValue());
-                specificReq.setTableId((byte) 0xff);
-                req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-                requestLength += specificReq.getLength();
-            } else if (statType == OFStatisticsType.PORT) {
-                OFPortStatisticsRequest specificReq = new OFPortStatisticsRequest();
-                specificReq.setPortNumber((short)OFPort.OFPP_NONE.getValue());
-                req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-                requestLength += specificReq.getLength();
-            } else if (statType == OFStatisticsType.QUEUE) {
-                OFQueueStatisticsRequest specificReq = new OFQueueStatisticsRequest();
-                specificReq.setPortNumber((short)OFPort.OFPP_ALL.getValue());
-                // LOOK! openflowj does not define OFPQ_ALL! pulled this from openflow.h
-                // note that I haven't seen this work yet though...
-                specificReq.setQueueId(0xffffffff);
-                req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
-                requestLength += specificReq.getLength();
-            } else if (statType == OFStatisticsType.DESC ||
-                       statType == OFStatisticsType.TABLE) {
-                // pass - nothing todo besides set the type above
-            }
-            
-            req.setLengthU(requestLength);
+            OFStatisticsRequest req = buildStatisticsRequest(statType);
             try {
                 future = sw.queryStatistics(req);
                 values = future.get(10, TimeUnit.SECONDS);
@@ -96,7 +58,83 @@ public class SwitchStatistics {
         }
         return values;
     }
+
+    /**
+     * Retrieves switch statistics through the statistics service, sharing
+     * the query with any identical query in progress. Note that this method
+     * blocks for a maximum of 10 seconds. If a reply is not heard within 10
+     * seconds null is returned.
+     *
+     * @param switchId The DPID of the switch.
+     * @param statType The OFStatisticsType to get.
+     * @param statsService The IStatisticsService
+     * @param log A reference to the logger.
+     * @return List of OFStatistics, or null if there was an error.
+     */
+    public static List<OFStatistics> getSwitchStatistics(long switchId, OFStatisticsType statType,
+            IStatisticsService statsService, Logger log) {
+        List<OFStatistics> values = null;
+        try {
+            values = statsService.getStatistics(switchId, statType)
+                                 .get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.error("Failure retrieving statistics from switch " +
+                      HexString.toHexString(switchId), e);
+        }
+        return values;
+    }
     
+    /**
+     * Build a request for the statistics of the given type of all flows,
+     * ports or queues of a switch.
+     * @param statType The OFStatisticsType to get.
+     * @return the request, without a transaction id
+     */
+    public static OFStatisticsRequest buildStatisticsRequest(
+            OFStatisticsType statType) {
+        OFStatisticsRequest req = new OFStatisticsRequest();
+        req.setStatisticType(statType);
+        int requestLength = req.getLengthU();
+        if (statType == OFStatisticsType.FLOW) {
+            OFFlowStatisticsRequest specificReq = new OFFlowStatisticsRequest();
+            OFMatch match = new OFMatch();
+            match.setWildcards(0xffffffff);
+            specificReq.setMatch(match);
+            specificReq.setOutPort(OFPort.OFPP_NONE.getValue());
+            specificReq.setTableId((byte) 0xff);
+            req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+            requestLength += specificReq.getLength();
+        } else if (statType == OFStatisticsType.AGGREGATE) {
+            OFAggregateStatisticsRequest specificReq = new OFAggregateStatisticsRequest();
+            OFMatch match = new OFMatch();
+            match.setWildcards(0xffffffff);
+            specificReq.setMatch(match);
+            specificReq.setOutPort(OFPort.OFPP_NONE.getValue());
+            specificReq.setTableId((byte) 0xff);
+            req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+            requestLength += specificReq.getLength();
+        } else if (statType == OFStatisticsType.PORT) {
+            OFPortStatisticsRequest specificReq = new OFPortStatisticsRequest();
+            specificReq.setPortNumber((short)OFPort.OFPP_NONE.getValue());
+            req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+            requestLength += specificReq.getLength();
+        } else if (statType == OFStatisticsType.QUEUE) {
+            OFQueueStatisticsRequest specificReq = new OFQueueStatisticsRequest();
+            specificReq.setPortNumber((short)OFPort.OFPP_ALL.getValue());
+            // LOOK! openflowj does not define OFPQ_ALL! pulled this from openflow.h
+            // note that I haven't seen this work yet though...
+            specificReq.setQueueId(0xffffffff);
+            req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+            requestLength += specificReq.getLength();
+        } else if (statType == OFStatisticsType.DESC ||
+                   statType == OFStatisticsType.TABLE) {
+            // pass - nothing todo besides set the type above
+        }
+        
+        req.setLengthU(requestLength);
+        return req;
+    }
+
     /**
      * Retrieves switch statistics. Note that this method blocks for a maximum
      * of 10 seconds. If a reply is not heard within 10 seconds null is returned.
@@ -24,6 +24,7 @@ import org.projectfloodlight.db.data.annotation.BigDBPath;
 import org.projectfloodlight.db.data.annotation.BigDBQuery;
 import org.projectfloodlight.db.query.Query;
 import org.projectfloodlight.db.query.Step;
+import org.projectfloodlight.statistics.IStatisticsService;
 import org.projectfloodlight.util.FilterIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,8 +75,18 @@ public class SwitchResource extends FloodlightResource {
 
     protected static Object getOneSwitchStats(String dpid, OFStatisticsType statsType) {
 
-        List<OFStatistics> ofStats = SwitchStatistics.getSwitchStatistics(
-                dpid, statsType, getFloodlightProvider(), log);
+        // Share the query with other consumers when the statistics service
+        // is loaded
+        IStatisticsService statsService = getModuleContext()
+                .getServiceImpl(IStatisticsService.class);
+        List<OFStatistics> ofStats;
+        if (statsService != null) {
+            ofStats = SwitchStatistics.getSwitchStatistics(
+                    HexString.toLong(dpid), statsType, statsService, log);
+        } else {
+            ofStats = SwitchStatistics.getSwitchStatistics(
+                    dpid, statsType, getFloodlightProvider(), log);
+        }
 
         Object result = null;
 
@@ -37,6 +37,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.Stack;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -47,6 +48,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
@@ -101,7 +103,7 @@ import org.projectfloodlight.debugevent.IDebugEventService.EventType;
 import org.projectfloodlight.debugevent.IDebugEventService.MaxEventsRegistered;
 import org.projectfloodlight.notification.INotificationManager;
 import org.projectfloodlight.notification.NotificationManagerFactory;
-import org.projectfloodlight.packet.Ethernet;
+import org.projectfloodlight.packet.PacketHeaders;
 import org.projectfloodlight.perfmon.IPktInProcessingTimeService;
 import org.projectfloodlight.sync.IClosableIterator;
 import org.projectfloodlight.sync.IClusterListener;
@@ -170,6 +172,25 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
     // Configuration options
     protected int openFlowPort = 6633;
     protected int workerThreads = 0;
+    // Number of packet-in dispatch shards. 0 means packet-ins are
+    // dispatched inline on the I/O worker thread
+    protected int packetInDispatchThreads = 0;
+    protected int packetInDispatchQueueSize =
+            PacketInDispatcher.DEFAULT_QUEUE_SIZE;
+    protected PacketInDispatcher.HashMode packetInDispatchHashMode =
+            PacketInDispatcher.HashMode.PORT;
+    protected PacketInDispatcher packetInDispatcher;
+    // Decode packet-ins as views on the receive buffer instead of copying
+    // the packet data of each one
+    protected boolean lazyPacketInDecoding = false;
+    // Coalesce writes to each switch in a shared output queue and encode
+    // them into pooled direct buffers
+    protected boolean switchWriteCoalescing = false;
+    protected int switchWriteFlushThreshold =
+            OFSwitchOutputQueue.DEFAULT_FLUSH_THRESHOLD;
+    protected long switchWriteFlushDelayUs =
+            OFSwitchOutputQueue.DEFAULT_FLUSH_DELAY_US;
+    protected DirectBufferPool writeBufferPool;
 
     // The id for this controller node. Should be unique for each controller
     // node in a controller cluster.
@@ -1698,6 +1719,7 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
      */
     protected void flcontext_free(FloodlightContext flcontext) {
         flcontext.getStorage().clear();
+        flcontext.clearPacketHeaders();
         flcontext_cache.get().push(flcontext);
     }
 
@@ -1734,7 +1756,7 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
     protected void handleMessage(IOFSwitch sw, OFMessage m,
                                  FloodlightContext bContext)
             throws IOException {
-        Ethernet eth = null;
+        FloodlightContext bc = null;
 
         if (this.notifiedRole == Role.SLAVE) {
             counters.dispatchMessageWhileSlave.updateCounterNoFlush();
@@ -1747,17 +1769,26 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
             case PACKET_IN:
                 OFPacketIn pi = (OFPacketIn)m;
 
-                if (pi.getPacketData().length <= 0) {
+                if (pi.getPacketDataLength() <= 0) {
                     log.error("Ignoring PacketIn (Xid = " + pi.getXid() +
                               ") because the data field is empty.");
                     return;
                 }
 
                 if (Controller.ALWAYS_DECODE_ETH) {
-                    eth = new Ethernet();
-                    eth.deserialize(pi.getPacketData(), 0,
-                            pi.getPacketData().length);
-                    counterStore.updatePacketInCountersLocal(sw, m, eth);
+                    // Parse the headers into the context's reusable
+                    // headers object. The Ethernet object tree is only
+                    // built if a listener asks for it through bcStore.
+                    // Parse from a view of the packet data so a lazily
+                    // decoded packet-in isn't copied out of its read
+                    // buffer, and the Ethernet can be built straight from
+                    // the backing array.
+                    bc = (bContext == null) ? flcontext_alloc() : bContext;
+                    PacketHeaders headers = bc.newPacketHeaders();
+                    headers.parse(pi.wrapPacketData());
+                    IFloodlightProviderService.bcStore.remove(bc,
+                            IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+                    counterStore.updatePacketInCountersLocal(sw, m, headers);
                 }
                 // fall through to default case...
 
@@ -1769,20 +1800,12 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
                             getOrderedListeners();
                 }
 
-                FloodlightContext bc = null;
                 if (listeners != null) {
                     // Check if floodlight context is passed from the calling
                     // function, if so use that floodlight context, otherwise
                     // allocate one
-                    if (bContext == null) {
-                        bc = flcontext_alloc();
-                    } else {
-                        bc = bContext;
-                    }
-                    if (eth != null) {
-                        IFloodlightProviderService.bcStore.put(bc,
-                                IFloodlightProviderService.CONTEXT_PI_PAYLOAD,
-                                eth);
+                    if (bc == null) {
+                        bc = (bContext == null) ? flcontext_alloc() : bContext;
                     }
 
                     // Get the starting time (overall and per-component) of
@@ -1790,17 +1813,35 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
                     // monitoring is turned on
                     pktinProcTime.bootstrap(listeners);
                     pktinProcTime.recordStartTimePktIn();
+                    // The latency histograms are always on, so time with one
+                    // clock read per listener. Only packet-ins are recorded;
+                    // other message types share this listener loop.
+                    boolean recordLatency =
+                            m.getType() == OFType.PACKET_IN &&
+                            pktinProcTime.isLatencyRecordingEnabled();
+                    long pktStartNs = recordLatency ? System.nanoTime() : 0;
+                    long compStartNs = pktStartNs;
                     Command cmd;
                     for (IOFMessageListener listener : listeners) {
                         pktinProcTime.recordStartTimeComp(listener);
                         cmd = listener.receive(sw, m, bc);
                         pktinProcTime.recordEndTimeComp(listener);
+                        if (recordLatency) {
+                            long nowNs = System.nanoTime();
+                            pktinProcTime.recordListenerLatency(listener,
+                                    nowNs - compStartNs, nowNs);
+                            compStartNs = nowNs;
+                        }
 
                         if (Command.STOP.equals(cmd)) {
                             break;
                         }
                     }
                     pktinProcTime.recordEndTimePktIn(sw, m, bc);
+                    if (recordLatency && sw != null) {
+                        pktinProcTime.recordSwitchLatency(sw,
+                                compStartNs - pktStartNs, compStartNs);
+                    }
                 } else {
                     if (m.getType() != OFType.BARRIER_REPLY)
                         log.warn("Unhandled OF Message: {} from {}", m, sw);
@@ -1987,6 +2028,8 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
                    explanation="The controller is terminating")
     @SuppressFBWarnings(value="DM_EXIT")
     public synchronized void terminate() {
+        if (packetInDispatcher != null)
+            packetInDispatcher.stop();
         log.info("Calling System.exit");
         System.exit(1);
     }
@@ -2185,7 +2228,49 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
             this.workerThreads = Integer.parseInt(threads);
         }
         log.debug("Number of worker threads set to {}", this.workerThreads);
-
+        String dispatchThreads = configParams.get("packetindispatchthreads");
+        if (dispatchThreads != null) {
+            this.packetInDispatchThreads = Integer.parseInt(dispatchThreads);
+        }
+        String dispatchQueueSize =
+                configParams.get("packetindispatchqueuesize");
+        if (dispatchQueueSize != null) {
+            this.packetInDispatchQueueSize =
+                    Integer.parseInt(dispatchQueueSize);
+        }
+        String dispatchHash = configParams.get("packetindispatchhash");
+        if (dispatchHash != null) {
+            this.packetInDispatchHashMode =
+                    PacketInDispatcher.HashMode.valueOf(
+                            dispatchHash.trim().toUpperCase());
+        }
+        log.debug("Number of packet-in dispatch threads set to {}",
+                  this.packetInDispatchThreads);
+        String lazyDecode = configParams.get("lazypacketindecode");
+        if (lazyDecode != null) {
+            this.lazyPacketInDecoding = Boolean.parseBoolean(lazyDecode);
+        }
+        log.debug("Lazy packet-in decoding set to {}",
+                  this.lazyPacketInDecoding);
+        String coalescing = configParams.get("switchwritecoalescing");
+        if (coalescing != null) {
+            this.switchWriteCoalescing = Boolean.parseBoolean(coalescing);
+        }
+        String flushThreshold = configParams.get("switchwriteflushthreshold");
+        if (flushThreshold != null) {
+            this.switchWriteFlushThreshold = Integer.parseInt(flushThreshold);
+        }
+        String flushDelay = configParams.get("switchwriteflushdelayus");
+        if (flushDelay != null) {
+            this.switchWriteFlushDelayUs = Long.parseLong(flushDelay);
+        }
+        if (this.switchWriteCoalescing)
+            this.writeBufferPool = new DirectBufferPool();
+        log.debug("Switch write coalescing set to {}, threshold {}, " +
+                  "delay {}us",
+                  new Object[] { this.switchWriteCoalescing,
+                                 this.switchWriteFlushThreshold,
+                                 this.switchWriteFlushDelayUs });
     }
 
     private void initVendorMessages() {
@@ -2316,6 +2401,18 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
 
         addInfoProvider("summary", this);
 
+        if (packetInDispatchThreads > 0) {
+            packetInDispatcher =
+                    new PacketInDispatcher(this,
+                                           packetInDispatchThreads,
+                                           packetInDispatchQueueSize,
+                                           packetInDispatchHashMode);
+            packetInDispatcher.start();
+            addInfoProvider("packet-in-dispatch", packetInDispatcher);
+        }
+        if (switchWriteCoalescing)
+            addInfoProvider("switch-output-queue", this);
+
         registerControllerDebugEvents();
     }
 
@@ -2476,6 +2573,36 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
         debugEvents.flushEvents();
     }
 
+    /**
+     * Get the packet-in dispatcher
+     * @return the dispatcher or null if packet-ins are dispatched inline
+     */
+    PacketInDispatcher getPacketInDispatcher() {
+        return packetInDispatcher;
+    }
+
+    /**
+     * Create the output queue for a newly connected switch
+     * @param channel the switch's channel
+     * @return the queue or null if write coalescing is disabled
+     */
+    OFSwitchOutputQueue createSwitchOutputQueue(Channel channel) {
+        if (!switchWriteCoalescing)
+            return null;
+        return new OFSwitchOutputQueue(channel,
+                                       threadPool.getScheduledExecutor(),
+                                       switchWriteFlushThreshold,
+                                       switchWriteFlushDelayUs);
+    }
+
+    /**
+     * Get the pool of direct buffers used to encode switch output
+     * @return the pool or null if write coalescing is disabled
+     */
+    DirectBufferPool getWriteBufferPool() {
+        return writeBufferPool;
+    }
+
     short getAccessFlowPriority() {
         return accessPriority;
     }
@@ -2522,6 +2649,8 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
 
     @Override
     public Map<String, Object> getInfo(String type) {
+        if ("switch-output-queue".equals(type))
+            return getSwitchOutputQueueInfo();
         if (!"summary".equals(type)) return null;
 
         Map<String, Object> info = new HashMap<String, Object>();
@@ -2529,4 +2658,18 @@ public class Controller implements IFloodlightProviderService, IInfoProvider {
         info.put("# Switches", this.getAllSwitchDpids().size());
         return info;
     }
+
+    /**
+     * @return the coalescing and backpressure statistics of the output
+     * queue of each connected switch, by switch DPID
+     */
+    private Map<String, Object> getSwitchOutputQueueInfo() {
+        Map<String, Object> info = new TreeMap<String, Object>();
+        for (IOFSwitch sw : getAllSwitchMap().values()) {
+            OFSwitchOutputQueue queue = sw.getOutputQueue();
+            if (queue != null)
+                info.put(sw.getStringId(), queue.getStats());
+        }
+        return info;
+    }
 }
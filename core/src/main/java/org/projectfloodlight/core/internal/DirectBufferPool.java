@@ -0,0 +1,91 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.core.internal;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * A bounded pool of fixed-size direct ChannelBuffers. Allocating direct
+ * memory is expensive and netty 3 copies heap buffers into a direct buffer
+ * before each socket write, so encoding into pooled direct chunks saves
+ * both the allocation and the copy.
+ *
+ * Buffers must be returned with {@link #release(ChannelBuffer)} once netty
+ * is done with them. If the pool is empty a new buffer is allocated; if it
+ * is full a released buffer is simply dropped.
+ */
+public class DirectBufferPool {
+    public static final int DEFAULT_CHUNK_SIZE = 16384;
+    public static final int DEFAULT_MAX_POOLED = 256;
+
+    private final int chunkSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ChannelBuffer> pool;
+    private final AtomicInteger pooled;
+
+    public DirectBufferPool() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED);
+    }
+
+    public DirectBufferPool(int chunkSize, int maxPooled) {
+        this.chunkSize = chunkSize;
+        this.maxPooled = maxPooled;
+        this.pool = new ConcurrentLinkedQueue<ChannelBuffer>();
+        this.pooled = new AtomicInteger();
+    }
+
+    /**
+     * Get an empty buffer with a capacity of {@link #getChunkSize()}
+     */
+    public ChannelBuffer acquire() {
+        ChannelBuffer buf = pool.poll();
+        if (buf == null)
+            return ChannelBuffers.directBuffer(chunkSize);
+        pooled.decrementAndGet();
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquire()} to the pool. The
+     * caller must not use the buffer afterwards.
+     */
+    public void release(ChannelBuffer buf) {
+        if (buf == null || buf.capacity() != chunkSize || !buf.isDirect())
+            return;
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        pool.add(buf);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return the number of idle buffers in the pool
+     */
+    public int getPooledCount() {
+        return pooled.get();
+    }
+}
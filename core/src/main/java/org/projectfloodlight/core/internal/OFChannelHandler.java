@@ -93,6 +93,10 @@ class OFChannelHandler
     private final Counters counters;
     private IOFSwitch sw;
     private Channel channel;
+    // The switch's shared output queue, if write coalescing is enabled.
+    // Once it exists everything we send must go through it so our
+    // messages aren't reordered with queued ones.
+    private OFSwitchOutputQueue outputQueue;
     // State needs to be volatile because the HandshakeTimeoutHandler
     // needs to check if the handshake is complete
     private volatile ChannelState state;
@@ -689,6 +693,8 @@ class OFChannelHandler
                 h.sw.setFeaturesReply(h.featuresReply);
                 h.sw.setConnected(true);
                 h.sw.setChannel(h.channel);
+                h.outputQueue = h.controller.createSwitchOutputQueue(h.channel);
+                h.sw.setOutputQueue(h.outputQueue);
                 h.sw.setFloodlightProvider(h.controller);
                 h.sw.setThreadPoolService(h.controller.getThreadPoolService());
                 try {
@@ -909,6 +915,12 @@ class OFChannelHandler
                                       OFFlowRemoved m) throws IOException {
                 h.dispatchMessage(m);
             }
+
+            @Override
+            void processOFBarrierReply(OFChannelHandler h, OFBarrierReply m)
+                    throws IOException {
+                h.dispatchMessage(m);
+            }
         },
 
         /**
@@ -1257,7 +1269,7 @@ class OFChannelHandler
             reply.setXid(m.getXid());
             reply.setPayload(m.getPayload());
             reply.setLengthU(m.getLengthU());
-            h.channel.write(Collections.singletonList(reply));
+            h.write(Collections.<OFMessage>singletonList(reply));
         }
 
         void processOFEchoReply(OFChannelHandler h, OFEchoReply m)
@@ -1538,12 +1550,13 @@ class OFChannelHandler
                                 continue;
                             case HIGH:
                                 // Drop all packet-ins, except LLDP/BDDPs
-                                byte[] data = ((OFPacketIn)ofm).getPacketData();
-                                if (data.length > 14) {
-                                    if (((data[12] == (byte)0x88) &&
-                                         (data[13] == (byte)0xcc)) ||
-                                        ((data[12] == (byte)0x89) &&
-                                         (data[13] == (byte)0x42))) {
+                                ChannelBuffer data =
+                                    ((OFPacketIn)ofm).wrapPacketData();
+                                if (data.readableBytes() > 14) {
+                                    int ethType = data.getUnsignedShort(
+                                            data.readerIndex() + 12);
+                                    if (ethType == 0x88cc ||
+                                        ethType == 0x8942) {
                                         lldps_allowed++;
                                         packets_allowed++;
                                         break;
@@ -1642,6 +1655,13 @@ class OFChannelHandler
     }
 
     private void dispatchMessage(OFMessage m) throws IOException {
+        PacketInDispatcher dispatcher = this.controller.getPacketInDispatcher();
+        if (dispatcher != null) {
+            // packet-ins are queued, so other messages from this switch
+            // may reach the listeners before earlier packet-ins
+            dispatcher.dispatchMessage(this.sw, m, this.channel);
+            return;
+        }
         // handleMessage will count
         this.controller.handleMessage(this.sw, m, null);
     }
@@ -1678,6 +1698,18 @@ class OFChannelHandler
         this.state = state;
     }
 
+    /**
+     * Write messages to the switch. Goes through the switch's output queue
+     * if it has one, so messages sent by the channel handler itself stay
+     * ordered with those sent by other threads.
+     */
+    private void write(List<OFMessage> msglist) {
+        if (outputQueue != null)
+            outputQueue.write(msglist);
+        else
+            channel.write(msglist);
+    }
+
     /**
      * Send a message to the switch using the handshake transactions ids.
      * @throws IOException
@@ -1686,7 +1718,7 @@ class OFChannelHandler
         // Send initial Features Request
         OFMessage m = BasicFactory.getInstance().getMessage(type);
         m.setXid(handshakeTransactionIds--);
-        channel.write(Collections.singletonList(m));
+        write(Collections.singletonList(m));
     }
 
     /**
@@ -1703,7 +1735,7 @@ class OFChannelHandler
         l2TableSet.setVendorData(l2TableSetData);
         l2TableSet.setLengthU(OFVendor.MINIMUM_LENGTH +
                               l2TableSetData.getLength());
-        channel.write(Collections.singletonList(l2TableSet));
+        write(Collections.<OFMessage>singletonList(l2TableSet));
     }
 
 
@@ -1744,7 +1776,7 @@ class OFChannelHandler
                 BasicFactory.getInstance().getMessage(OFType.GET_CONFIG_REQUEST);
         configReq.setXid(handshakeTransactionIds--);
         msglist.add(configReq);
-        channel.write(msglist);
+        write(msglist);
     }
 
     /**
@@ -1757,7 +1789,7 @@ class OFChannelHandler
         req.setStatisticType(OFStatisticsType.DESC);
         req.setXid(handshakeTransactionIds--);
 
-        channel.write(Collections.singletonList(req));
+        write(Collections.<OFMessage>singletonList(req));
     }
 
     protected Query getCoreSwitchQuery(String dpid) throws BigDBException {
@@ -17,25 +17,43 @@
 
 package org.projectfloodlight.core.internal;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.openflow.protocol.LazyOFPacketIn;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
 import org.openflow.protocol.factory.BasicFactory;
-import org.openflow.protocol.factory.OFMessageFactory;
+import org.openflow.protocol.factory.MessageParseException;
 
 /**
  * Decode an openflow message from a Channel, for use in a netty
  * pipeline
+ *
+ * In lazy mode all complete messages in the input are copied out of the
+ * cumulation buffer with a single bulk copy. Packet-ins are then returned
+ * as {@link LazyOFPacketIn} views on that copy, so their packet data is
+ * only copied again if a listener asks for it as a byte array.
  * @author readams
  */
 public class OFMessageDecoder extends FrameDecoder {
 
-    OFMessageFactory factory = BasicFactory.getInstance();
-    
+    BasicFactory factory = BasicFactory.getInstance();
+    protected final boolean lazyPacketIn;
+
+    public OFMessageDecoder() {
+        this(false);
+    }
+
+    public OFMessageDecoder(boolean lazyPacketIn) {
+        super();
+        this.lazyPacketIn = lazyPacketIn;
+    }
+
     @Override
     protected Object decode(ChannelHandlerContext ctx, Channel channel,
                             ChannelBuffer buffer) throws Exception {
@@ -45,10 +63,65 @@ public class OFMessageDecoder extends FrameDecoder {
             return null;
         }
 
+        if (lazyPacketIn)
+            return parseMessagesLazy(buffer);
         List<OFMessage> message = factory.parseMessage(buffer);
         return message;
     }
 
+    /**
+     * Parse all complete messages in the buffer, returning packet-ins as
+     * views on a single copy of the input.
+     * @param buffer the input buffer
+     * @return the list of messages or null if no complete message is
+     * available yet
+     * @throws MessageParseException
+     */
+    protected List<OFMessage> parseMessagesLazy(ChannelBuffer buffer)
+            throws MessageParseException {
+        // Find the end of the last complete message
+        int start = buffer.readerIndex();
+        int end = start;
+        while (buffer.writerIndex() - end >= OFMessage.MINIMUM_LENGTH) {
+            int length = buffer.getUnsignedShort(end + 2);
+            if (length < OFMessage.MINIMUM_LENGTH) {
+                throw new MessageParseException("Invalid message length " +
+                                                length + " at offset " + end);
+            }
+            if (end + length > buffer.writerIndex())
+                break;
+            end += length;
+        }
+        if (end == start)
+            return null;
+
+        // The frame decoder may reuse its cumulation buffer once we return,
+        // so the messages must not be slices of it. Copy them all at once.
+        ChannelBuffer frames = buffer.readBytes(end - start);
+        List<OFMessage> msglist = new ArrayList<OFMessage>();
+        while (frames.readable()) {
+            byte type = frames.getByte(frames.readerIndex() + 1);
+            if (type == OFType.PACKET_IN.getTypeValue()) {
+                frames.markReaderIndex();
+                LazyOFPacketIn pi = new LazyOFPacketIn();
+                try {
+                    pi.readFrom(frames);
+                } catch (Exception e) {
+                    frames.resetReaderIndex();
+                    throw new MessageParseException(
+                            "Message Parse Error for packet-in", e);
+                }
+                msglist.add(pi);
+            } else {
+                OFMessage m = factory.parseMessageOne(frames);
+                if (m == null)
+                    break;
+                msglist.add(m);
+            }
+        }
+        return msglist;
+    }
+
     @Override
     protected Object decodeLast(ChannelHandlerContext ctx, Channel channel,
                             ChannelBuffer buffer) throws Exception {
@@ -17,21 +17,101 @@
 
 package org.projectfloodlight.core.internal;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 import org.openflow.protocol.OFMessage;
 
 /**
  * Encode an openflow message for output into a ChannelBuffer, for use in a
  * netty pipeline
+ *
+ * If constructed with a {@link DirectBufferPool} message lists are encoded
+ * into pooled direct chunks instead of a fresh heap buffer. A list that
+ * does not fit into one chunk is written as a gathering composite buffer.
+ * The chunks are returned to the pool when the write completes.
  * @author readams
  */
 public class OFMessageEncoder extends OneToOneEncoder {
+    protected final DirectBufferPool bufferPool;
+
+    public OFMessageEncoder() {
+        this(null);
+    }
+
+    public OFMessageEncoder(DirectBufferPool bufferPool) {
+        super();
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt)
+            throws Exception {
+        if (bufferPool == null || !(evt instanceof MessageEvent) ||
+                !(((MessageEvent) evt).getMessage() instanceof List)) {
+            super.handleDownstream(ctx, evt);
+            return;
+        }
+        MessageEvent e = (MessageEvent) evt;
+        @SuppressWarnings("unchecked")
+        List<OFMessage> msglist = (List<OFMessage>) e.getMessage();
+        final List<ChannelBuffer> chunks = encodePooled(msglist);
+        ChannelBuffer buf;
+        if (chunks.isEmpty()) {
+            buf = ChannelBuffers.EMPTY_BUFFER;
+        } else if (chunks.size() == 1) {
+            buf = chunks.get(0);
+        } else {
+            buf = ChannelBuffers.wrappedBuffer(true,
+                    chunks.toArray(new ChannelBuffer[chunks.size()]));
+        }
+        e.getFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                for (ChannelBuffer chunk : chunks)
+                    bufferPool.release(chunk);
+            }
+        });
+        Channels.write(ctx, e.getFuture(), buf, e.getRemoteAddress());
+    }
+
+    /**
+     * Encode the messages into chunks from the buffer pool. Messages never
+     * span chunks; a message larger than a chunk gets its own heap buffer.
+     * @param msglist
+     * @return the chunks in output order
+     */
+    protected List<ChannelBuffer> encodePooled(List<OFMessage> msglist) {
+        List<ChannelBuffer> chunks = new ArrayList<ChannelBuffer>(2);
+        int chunkSize = bufferPool.getChunkSize();
+        ChannelBuffer cur = null;
+        for (OFMessage ofm : msglist) {
+            int len = ofm.getLengthU();
+            if (len > chunkSize) {
+                ChannelBuffer big = ChannelBuffers.buffer(len);
+                ofm.writeTo(big);
+                chunks.add(big);
+                cur = null;
+                continue;
+            }
+            if (cur == null || cur.writableBytes() < len) {
+                cur = bufferPool.acquire();
+                chunks.add(cur);
+            }
+            ofm.writeTo(cur);
+        }
+        return chunks;
+    }
 
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel,
@@ -0,0 +1,226 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.core.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+
+/**
+ * Per-switch output queue shared by all writer threads.
+ *
+ * Messages are appended to a lock-free queue and written to the channel
+ * as one list, so that a burst of flow-mods from several threads turns
+ * into a few large socket writes instead of many small ones. The queue is
+ * flushed when
+ * <ul>
+ * <li>it holds at least flushThreshold messages,
+ * <li>flushDelayUs microseconds have passed since the first unflushed
+ * message was queued, or
+ * <li>a message other than PACKET_OUT or FLOW_MOD is queued. Barriers,
+ * stats requests etc. are therefore never delayed.
+ * </ul>
+ * Messages are written in the order they were queued.
+ */
+public class OFSwitchOutputQueue {
+    public static final int DEFAULT_FLUSH_THRESHOLD = Controller.BATCH_MAX_SIZE;
+    public static final long DEFAULT_FLUSH_DELAY_US = 200;
+
+    private final Channel channel;
+    private final ScheduledExecutorService timer;
+    private final int flushThreshold;
+    private final long flushDelayUs;
+
+    private final ConcurrentLinkedQueue<OFMessage> queue;
+    private final AtomicInteger size;
+    private final AtomicBoolean flushScheduled;
+    // Held while draining the queue and writing to the channel so that
+    // concurrent flushes don't reorder messages
+    private final Object writeLock;
+    private final Runnable flushTask;
+
+    // Statistics
+    private final AtomicLong messagesQueued;
+    private final AtomicLong channelWrites;
+    private final AtomicLong thresholdFlushes;
+    private final AtomicLong timerFlushes;
+    private final AtomicLong immediateFlushes;
+
+    public OFSwitchOutputQueue(Channel channel,
+                               ScheduledExecutorService timer,
+                               int flushThreshold,
+                               long flushDelayUs) {
+        this.channel = channel;
+        this.timer = timer;
+        this.flushThreshold = Math.max(1, flushThreshold);
+        this.flushDelayUs = flushDelayUs;
+        this.queue = new ConcurrentLinkedQueue<OFMessage>();
+        this.size = new AtomicInteger();
+        this.flushScheduled = new AtomicBoolean(false);
+        this.writeLock = new Object();
+        this.flushTask = new Runnable() {
+            @Override
+            public void run() {
+                flushScheduled.set(false);
+                if (drain() > 0)
+                    timerFlushes.incrementAndGet();
+            }
+        };
+        this.messagesQueued = new AtomicLong();
+        this.channelWrites = new AtomicLong();
+        this.thresholdFlushes = new AtomicLong();
+        this.timerFlushes = new AtomicLong();
+        this.immediateFlushes = new AtomicLong();
+    }
+
+    /**
+     * Whether a message must be written without waiting for more messages
+     * to coalesce with
+     */
+    protected static boolean isImmediate(OFMessage m) {
+        return m.getType() != OFType.PACKET_OUT &&
+               m.getType() != OFType.FLOW_MOD;
+    }
+
+    /**
+     * Queue a message for output
+     * @param m
+     */
+    public void write(OFMessage m) {
+        queue.add(m);
+        messagesQueued.incrementAndGet();
+        afterQueued(size.incrementAndGet(), isImmediate(m));
+    }
+
+    /**
+     * Queue a list of messages for output. The messages are written
+     * back-to-back but may be coalesced with messages from other threads.
+     * @param msglist
+     */
+    public void write(List<OFMessage> msglist) {
+        boolean immediate = false;
+        for (OFMessage m : msglist) {
+            queue.add(m);
+            immediate |= isImmediate(m);
+        }
+        messagesQueued.addAndGet(msglist.size());
+        afterQueued(size.addAndGet(msglist.size()), immediate);
+    }
+
+    private void afterQueued(int queued, boolean immediate) {
+        if (immediate) {
+            if (drain() > 0)
+                immediateFlushes.incrementAndGet();
+        } else if (queued >= flushThreshold) {
+            if (drain() > 0)
+                thresholdFlushes.incrementAndGet();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Make sure queued messages are written within the flush delay. This
+     * doesn't write anything by itself, so callers that flush after every
+     * message still get coalescing.
+     */
+    public void flush() {
+        if (size.get() > 0)
+            scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled.compareAndSet(false, true))
+            return;
+        try {
+            timer.schedule(flushTask, flushDelayUs, TimeUnit.MICROSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down: don't leave messages behind
+            flushScheduled.set(false);
+            drain();
+        }
+    }
+
+    /**
+     * Write everything in the queue to the channel as one list
+     * @return the number of messages written
+     */
+    private int drain() {
+        synchronized (writeLock) {
+            int n = size.get();
+            if (n <= 0)
+                return 0;
+            List<OFMessage> msglist = new ArrayList<OFMessage>(n);
+            OFMessage m;
+            while ((m = queue.poll()) != null) {
+                msglist.add(m);
+            }
+            size.addAndGet(-msglist.size());
+            if (msglist.isEmpty())
+                return 0;
+            channelWrites.incrementAndGet();
+            channel.write(msglist);
+            return msglist.size();
+        }
+    }
+
+    /**
+     * Drop all queued messages, e.g., when the switch disconnects
+     */
+    public void clear() {
+        synchronized (writeLock) {
+            int n = 0;
+            while (queue.poll() != null)
+                n++;
+            size.addAndGet(-n);
+        }
+    }
+
+    /**
+     * @return the number of messages waiting to be written
+     */
+    public int getQueueSize() {
+        return size.get();
+    }
+
+    /**
+     * @return the coalescing statistics of the queue, exposed through the
+     * controller's "switch-output-queue" info provider
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("queue-size", size.get());
+        stats.put("messages-queued", messagesQueued.get());
+        stats.put("channel-writes", channelWrites.get());
+        stats.put("threshold-flushes", thresholdFlushes.get());
+        stats.put("timer-flushes", timerFlushes.get());
+        stats.put("immediate-flushes", immediateFlushes.get());
+        return stats;
+    }
+}
@@ -57,8 +57,10 @@ public class OpenflowPipelineFactory
         OFChannelHandler handler = new OFChannelHandler(controller);
         
         ChannelPipeline pipeline = Channels.pipeline();
-        pipeline.addLast("ofmessagedecoder", new OFMessageDecoder());
-        pipeline.addLast("ofmessageencoder", new OFMessageEncoder());
+        pipeline.addLast("ofmessagedecoder",
+                         new OFMessageDecoder(controller.lazyPacketInDecoding));
+        pipeline.addLast("ofmessageencoder",
+                         new OFMessageEncoder(controller.getWriteBufferPool()));
         pipeline.addLast("idle", idleHandler);
         pipeline.addLast("timeout", readTimeoutHandler);
         pipeline.addLast("handshaketimeout",
@@ -0,0 +1,464 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.core.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFType;
+import org.projectfloodlight.core.IInfoProvider;
+import org.projectfloodlight.core.IOFSwitch;
+import org.projectfloodlight.core.annotations.LogMessageDoc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Optional dispatch stage that moves PACKET_IN processing off the Netty
+ * I/O workers. Each packet-in is hashed onto one of a fixed number of
+ * shards. A shard is a queue drained by exactly one thread, so messages
+ * with the same hash key are always processed in arrival order.
+ *
+ * Only packet-ins are queued. Other messages, e.g. PORT_STATUS,
+ * FLOW_REMOVED and ERROR, are still handled inline on the I/O worker, so
+ * listeners can see them before packet-ins that the same switch sent
+ * earlier. Listeners that need a packet-in to be ordered with other
+ * messages from its switch must not rely on dispatch order.
+ *
+ * The hash key is either (dpid, in-port) or, for IPv4 packets, the flow
+ * 5-tuple. Dispatching never blocks the I/O worker, so the queues aren't
+ * bounded. Instead, when a shard's queue reaches its high watermark the
+ * channel that produced the message stops reading until every shard it
+ * was throttled by has drained below its low watermark. The messages
+ * already decoded from that channel's last read are still queued, so a
+ * queue can briefly exceed its high watermark by that much.
+ *
+ * Packet-ins from switches that have disconnected by the time they are
+ * dequeued are dropped.
+ */
+public class PacketInDispatcher implements IInfoProvider {
+    protected static final Logger log =
+            LoggerFactory.getLogger(PacketInDispatcher.class);
+
+    public enum HashMode {
+        /** Hash on (dpid, in-port). */
+        PORT,
+        /** Hash on the IPv4 5-tuple, falling back to (dpid, in-port). */
+        FLOW,
+    }
+
+    public static final int DEFAULT_QUEUE_SIZE = 4096;
+
+    private static final short ETH_TYPE_IPV4 = 0x0800;
+    private static final short ETH_TYPE_VLAN = (short) 0x8100;
+    private static final byte IP_PROTO_TCP = 6;
+    private static final byte IP_PROTO_UDP = 17;
+
+    private final Controller controller;
+    private final Shard[] shards;
+    private final HashMode hashMode;
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private volatile boolean stopped;
+
+    /**
+     * Number of shards each throttled channel is throttled by. A channel
+     * is readable again only once all of them have drained. Guarded by
+     * itself; taken while holding a shard's lock but never the other way
+     * around.
+     */
+    private final Map<Channel, Integer> throttleCounts =
+            new HashMap<Channel, Integer>();
+
+    /**
+     * A single dispatch task. We keep the enqueue timestamp so we can
+     * account for time spent waiting in the shard queue.
+     */
+    private static class Task {
+        final IOFSwitch sw;
+        final OFMessage m;
+        final long enqueueNanos;
+
+        Task(IOFSwitch sw, OFMessage m) {
+            this.sw = sw;
+            this.m = m;
+            this.enqueueNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * A queue with a high and a low watermark and a single consumer thread.
+     */
+    private class Shard implements Runnable {
+        final int id;
+        final BlockingQueue<Task> queue;
+        final int highWatermark;
+        final int lowWatermark;
+        /** channels we stopped reading from; guarded by this */
+        final Set<Channel> throttledChannels = new HashSet<Channel>();
+
+        final AtomicLong dispatched = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong throttled = new AtomicLong();
+        final AtomicLong queueNanos = new AtomicLong();
+        final AtomicLong processNanos = new AtomicLong();
+        volatile long maxQueueNanos;
+        volatile long maxProcessNanos;
+
+        Shard(int id, int queueSize) {
+            this.id = id;
+            this.queue = new LinkedBlockingQueue<Task>();
+            this.highWatermark = queueSize;
+            this.lowWatermark = queueSize / 2;
+        }
+
+        /**
+         * Queue a task. This never blocks, since it's called on the Netty
+         * I/O worker that's shared by many channels.
+         */
+        void enqueue(Task t, Channel channel) {
+            queue.offer(t);
+            if (queue.size() < highWatermark)
+                return;
+            // The shard is full. Stop reading from the channel so the
+            // switch's TCP window closes. The channel is re-enabled once
+            // every shard that throttled it has drained.
+            throttled.incrementAndGet();
+            if (channel == null)
+                return;
+            synchronized (this) {
+                // Check again under the lock: once the consumer has
+                // resumed its channels it only looks again after another
+                // batch, so we must not throttle an empty queue. Nothing
+                // resumes channels after stop().
+                if (!stopped && queue.size() >= highWatermark &&
+                        throttledChannels.add(channel)) {
+                    throttleChannel(channel);
+                }
+            }
+        }
+
+        @Override
+        @LogMessageDoc(level="ERROR",
+                message="Exception in packet-in dispatch shard {id}",
+                explanation="A message listener threw an exception while " +
+                        "processing a packet-in",
+                recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+        public void run() {
+            List<Task> batch = new ArrayList<Task>(Controller.BATCH_MAX_SIZE);
+            while (!stopped) {
+                try {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, Controller.BATCH_MAX_SIZE - 1);
+                    for (Task t : batch) {
+                        process(t);
+                    }
+                    batch.clear();
+                    // Flush all thread local queues generated by this batch
+                    controller.flushAll();
+                    resumeChannels();
+                } catch (InterruptedException e) {
+                    log.debug("Packet-in dispatch shard {} interrupted", id);
+                    return;
+                } catch (Exception e) {
+                    log.error("Exception in packet-in dispatch shard " + id, e);
+                    batch.clear();
+                }
+            }
+        }
+
+        private void process(Task t) throws IOException {
+            if (stopped)
+                return;
+            if (!t.sw.isConnected()) {
+                // Nothing can be sent to the switch anymore, and the
+                // listeners have already been told it's gone
+                dropped.incrementAndGet();
+                return;
+            }
+            long start = System.nanoTime();
+            long waited = start - t.enqueueNanos;
+            controller.handleMessage(t.sw, t.m, null);
+            long took = System.nanoTime() - start;
+
+            dispatched.incrementAndGet();
+            queueNanos.addAndGet(waited);
+            processNanos.addAndGet(took);
+            // Only this thread writes the max values
+            if (waited > maxQueueNanos) maxQueueNanos = waited;
+            if (took > maxProcessNanos) maxProcessNanos = took;
+        }
+
+        private synchronized void resumeChannels() {
+            if (throttledChannels.isEmpty() ||
+                    (!stopped && queue.size() > lowWatermark))
+                return;
+            for (Channel channel : throttledChannels) {
+                releaseChannel(channel);
+            }
+            throttledChannels.clear();
+        }
+
+        Map<String, Object> getStats() {
+            Map<String, Object> stats = new LinkedHashMap<String, Object>();
+            long count = dispatched.get();
+            stats.put("queue-depth", queue.size());
+            stats.put("queue-capacity", highWatermark);
+            stats.put("dispatched", count);
+            stats.put("dropped", dropped.get());
+            stats.put("throttled", throttled.get());
+            synchronized (this) {
+                stats.put("throttled-channels", throttledChannels.size());
+            }
+            stats.put("avg-queue-latency-us",
+                      count == 0 ? 0 :
+                          TimeUnit.NANOSECONDS.toMicros(queueNanos.get()) / count);
+            stats.put("max-queue-latency-us",
+                      TimeUnit.NANOSECONDS.toMicros(maxQueueNanos));
+            stats.put("avg-process-time-us",
+                      count == 0 ? 0 :
+                          TimeUnit.NANOSECONDS.toMicros(processNanos.get()) / count);
+            stats.put("max-process-time-us",
+                      TimeUnit.NANOSECONDS.toMicros(maxProcessNanos));
+            return stats;
+        }
+    }
+
+    /**
+     * Create a new dispatcher
+     * @param controller the controller whose handleMessage is invoked
+     * @param numShards number of shards (and consumer threads)
+     * @param queueSize capacity of each shard's queue
+     * @param hashMode how packet-ins are mapped to shards
+     */
+    public PacketInDispatcher(Controller controller, int numShards,
+                              int queueSize, HashMode hashMode) {
+        if (numShards <= 0)
+            throw new IllegalArgumentException("numShards must be positive");
+        if (queueSize <= 0)
+            throw new IllegalArgumentException("queueSize must be positive");
+        this.controller = controller;
+        this.hashMode = hashMode;
+        this.shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new Shard(i, queueSize);
+        }
+    }
+
+    /**
+     * Start the consumer threads
+     */
+    public synchronized void start() {
+        if (stopped)
+            throw new IllegalStateException("Dispatcher has been stopped");
+        for (Shard shard : shards) {
+            Thread t = new Thread(shard, "PacketInDispatch-" + shard.id);
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     * Stop the consumer threads. Queued packet-ins are discarded and
+     * throttled channels are made readable again. Packet-ins dispatched
+     * after this are dropped.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+        threads.clear();
+        for (Shard shard : shards) {
+            shard.queue.clear();
+            shard.resumeChannels();
+        }
+    }
+
+    /**
+     * Stop reading from a channel on behalf of a shard
+     */
+    private void throttleChannel(Channel channel) {
+        synchronized (throttleCounts) {
+            Integer count = throttleCounts.get(channel);
+            if (count == null) {
+                throttleCounts.put(channel, 1);
+                channel.setReadable(false);
+            } else {
+                throttleCounts.put(channel, count + 1);
+            }
+        }
+    }
+
+    /**
+     * Release a shard's hold on a channel. The channel is made readable
+     * again once no shard holds it.
+     */
+    private void releaseChannel(Channel channel) {
+        synchronized (throttleCounts) {
+            Integer count = throttleCounts.get(channel);
+            if (count == null)
+                return;
+            if (count > 1) {
+                throttleCounts.put(channel, count - 1);
+                return;
+            }
+            throttleCounts.remove(channel);
+            if (channel.isOpen()) {
+                channel.setReadable(true);
+            }
+        }
+    }
+
+    /**
+     * Dispatch a message received from a switch. Packet-ins are queued on
+     * their shard; all other messages are handled right away on the
+     * calling thread, so they can overtake queued packet-ins from the same
+     * switch.
+     * @param sw the switch that sent the message
+     * @param m the message
+     * @param channel the channel the message was read from. May be null.
+     * @throws IOException
+     */
+    public void dispatchMessage(IOFSwitch sw, OFMessage m, Channel channel)
+            throws IOException {
+        if (m.getType() == OFType.PACKET_IN) {
+            dispatch(sw, (OFPacketIn) m, channel);
+        } else {
+            controller.handleMessage(sw, m, null);
+        }
+    }
+
+    /**
+     * Queue a packet-in for processing on its shard. Never blocks; if the
+     * shard is full the channel is marked as not readable until the shard
+     * catches up.
+     * @param sw the switch that sent the message
+     * @param m the packet-in message
+     * @param channel the channel the message was read from, used to apply
+     * backpressure. May be null.
+     */
+    public void dispatch(IOFSwitch sw, OFPacketIn m, Channel channel) {
+        if (stopped)
+            return;
+        Shard shard = shards[shardIndex(getHashKey(sw.getId(), m),
+                                        shards.length)];
+        shard.enqueue(new Task(sw, m), channel);
+    }
+
+    /**
+     * Compute the hash key of a packet-in according to the hash mode
+     */
+    long getHashKey(long dpid, OFPacketIn pi) {
+        if (hashMode == HashMode.FLOW) {
+            long key = getFlowKey(pi.wrapPacketData());
+            if (key != 0)
+                return key;
+        }
+        return dpid * 31 + (pi.getInPort() & 0xffff);
+    }
+
+    /**
+     * Compute a hash of the IPv4 5-tuple directly from the packet bytes
+     * without deserializing the packet. Returns 0 if the packet is not
+     * IPv4 or is truncated.
+     */
+    static long getFlowKey(ChannelBuffer data) {
+        int base = data.readerIndex();
+        int len = data.readableBytes();
+        int off = 12;
+        if (len < off + 2) return 0;
+        short etherType = data.getShort(base + off);
+        if (etherType == ETH_TYPE_VLAN) {
+            off += 4;
+            if (len < off + 2) return 0;
+            etherType = data.getShort(base + off);
+        }
+        if (etherType != ETH_TYPE_IPV4) return 0;
+        int ip = off + 2;
+        if (len < ip + 20) return 0;
+        int ihl = (data.getByte(base + ip) & 0x0f) * 4;
+        byte proto = data.getByte(base + ip + 9);
+        long key = proto;
+        for (int i = ip + 12; i < ip + 20; i++) {
+            key = key * 31 + data.getUnsignedByte(base + i);
+        }
+        int l4 = ip + ihl;
+        if ((proto == IP_PROTO_TCP || proto == IP_PROTO_UDP) &&
+                len >= l4 + 4) {
+            for (int i = l4; i < l4 + 4; i++) {
+                key = key * 31 + data.getUnsignedByte(base + i);
+            }
+        }
+        return key == 0 ? 1 : key;
+    }
+
+    /**
+     * Map a hash key onto a shard index
+     */
+    static int shardIndex(long key, int numShards) {
+        // spread the bits so keys that only differ in the high bits
+        // still land on different shards
+        long h = key ^ (key >>> 32);
+        h ^= (h >>> 16);
+        return (int) ((h & 0x7fffffffL) % numShards);
+    }
+
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    public HashMode getHashMode() {
+        return hashMode;
+    }
+
+    /**
+     * Get the current queue depth of each shard
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            depths[i] = shards[i].queue.size();
+        }
+        return depths;
+    }
+
+    @Override
+    public Map<String, Object> getInfo(String type) {
+        if (!"packet-in-dispatch".equals(type)) return null;
+
+        Map<String, Object> info = new LinkedHashMap<String, Object>();
+        info.put("hash-mode", hashMode.toString());
+        for (Shard shard : shards) {
+            info.put("shard-" + shard.id, shard.getStats());
+        }
+        return info;
+    }
+}
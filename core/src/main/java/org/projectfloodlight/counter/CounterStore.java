@@ -19,22 +19,30 @@ package org.projectfloodlight.counter;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
 import org.projectfloodlight.core.IOFSwitch;
+import org.projectfloodlight.core.annotations.LogMessageDoc;
 import org.projectfloodlight.core.module.FloodlightModuleContext;
 import org.projectfloodlight.core.module.FloodlightModuleException;
 import org.projectfloodlight.core.module.IFloodlightModule;
 import org.projectfloodlight.core.module.IFloodlightService;
+import org.projectfloodlight.core.util.SingletonTask;
 import org.projectfloodlight.counter.CounterValue.CounterType;
 import org.projectfloodlight.packet.Ethernet;
 import org.projectfloodlight.packet.IPv4;
+import org.projectfloodlight.packet.PacketHeaders;
+import org.projectfloodlight.threadpool.IThreadPoolService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -135,6 +143,36 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
         }
     };
 
+    /**
+     * Dense counter storage, used instead of the thread local buffers when
+     * the "denseCounters" module parameter is set. Each (switch, message
+     * type, ethertype class, L4 protocol) tuple is packed into a long key
+     * and counted in a row of a striped CounterTable, so the packet path
+     * neither allocates nor needs a flush. A periodic task adds the row
+     * deltas to the named counters and publishes a snapshot of all
+     * counters for getAll(), so the named counters and getAll() can be up
+     * to one aggregation interval behind. Tuples that do not fit in the
+     * table fall back to the thread local buffers.
+     */
+    protected boolean denseCounters = false;
+    protected int counterTableSize = DEFAULT_COUNTER_TABLE_SIZE;
+    protected int aggregateIntervalMs = DEFAULT_AGGREGATE_INTERVAL_MS;
+    protected static final int DEFAULT_COUNTER_TABLE_SIZE = 8192;
+    protected static final int DEFAULT_AGGREGATE_INTERVAL_MS = 1000;
+
+    protected LongKeyIndex switchSlots;
+    protected CounterTable pktinTable;
+    protected CounterTable pktoutTable;
+    protected AtomicReferenceArray<List<ICounter>> pktinRowCounters;
+    protected AtomicReferenceArray<List<ICounter>> pktoutRowCounters;
+    /** Row values already added to the named counters; aggregator only */
+    protected long[] pktinPublished;
+    protected long[] pktoutPublished;
+    protected volatile Map<String, ICounter> countersSnapshot;
+    protected SingletonTask aggregateTask;
+
+    protected IThreadPoolService threadPool;
+
     /**
      * A cache of counterName --> Counter used to retrieve counters quickly via
      * string-counter-keys
@@ -158,6 +196,17 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
         if (((OFPacketIn)m).getPacketData().length <= 0) {
             return;
         }
+        if (denseCounters) {
+            byte l4type = (eth.getPayload() instanceof IPv4) ?
+                    ((IPv4)eth.getPayload()).getProtocol() : 0;
+            int row = getPacketInRow(sw, m, eth.getEtherType(), l4type);
+            if (row < 0)
+                row = addPacketInRow(sw, m, eth.getEtherType(), l4type, eth);
+            if (row >= 0) {
+                pktinTable.add(row, 1);
+                return;
+            }
+        }
         CounterKeyTuple countersKey = this.getCountersKey(sw, m, eth);
         Map<CounterKeyTuple, MutableInt> pktin_buffer = this.pktin_local_buffer.get();
         MutableInt currval = pktin_buffer.get(countersKey);
@@ -171,8 +220,49 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
         return;
     }
 
+    @Override
+    public void updatePacketInCountersLocal(IOFSwitch sw, OFMessage m,
+                                            PacketHeaders headers) {
+        if (!headers.isValid()) {
+            return;
+        }
+        if (denseCounters) {
+            byte l4type = headers.isIPv4() ? headers.getNwProto() : 0;
+            int row = getPacketInRow(sw, m, headers.getEtherType(), l4type);
+            if (row < 0)
+                row = addPacketInRow(sw, m, headers.getEtherType(), l4type,
+                                     headers.getEthernet());
+            if (row >= 0) {
+                pktinTable.add(row, 1);
+                return;
+            }
+        }
+        CounterKeyTuple countersKey = this.getPacketInCountersKey(sw, m, headers);
+        Map<CounterKeyTuple, MutableInt> pktin_buffer = this.pktin_local_buffer.get();
+        MutableInt currval = pktin_buffer.get(countersKey);
+
+        if (currval == null) {
+            // Counters are only created once per key, so building the
+            // Ethernet object here does not affect the common case
+            this.createPacketInCounters(sw, m, headers.getEthernet());
+            currval = new MutableInt();
+            pktin_buffer.put(countersKey, currval);
+        }
+        currval.increment();
+        return;
+    }
+
     @Override
     public void updatePktOutFMCounterStoreLocal(IOFSwitch sw, OFMessage m) {
+        if (denseCounters) {
+            int row = getPktOutFMRow(sw, m);
+            if (row < 0)
+                row = addPktOutFMRow(sw, m);
+            if (row >= 0) {
+                pktoutTable.add(row, 1);
+                return;
+            }
+        }
         CounterKeyTuple countersKey = this.getCountersKey(sw, m, null);
         Map<CounterKeyTuple, MutableInt> pktout_buffer = this.pktout_local_buffer.get();
         MutableInt currval = pktout_buffer.get(countersKey);
@@ -248,11 +338,17 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
         }
     }
 
-    /* (non-Javadoc)
-     * @see org.projectfloodlight.counter.ICounterStoreService#getAll()
+    /**
+     * {@inheritDoc}
+     * With dense counters this returns the snapshot taken by the last
+     * aggregation, which can be up to one aggregation interval old.
      */
     @Override
     public Map<String, ICounter> getAll() {
+        Map<String, ICounter> snapshot = countersSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
         Map<String, ICounter> ret = new ConcurrentHashMap<String, ICounter>();
         for(Map.Entry<String, CounterEntry> counterEntry : this.nameToCEIndex.entrySet()) {
             String key = counterEntry.getKey();
@@ -305,6 +401,150 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
         return new CounterKeyTuple(mtype, sw.getId(), l3type, l4type);
     }
 
+    protected CounterKeyTuple getPacketInCountersKey(IOFSwitch sw,
+                                                     OFMessage m,
+                                                     PacketHeaders headers) {
+        byte mtype = m.getType().getTypeValue();
+        byte l4type = headers.isIPv4() ? headers.getNwProto() : 0;
+        return new CounterKeyTuple(mtype, sw.getId(),
+                                   headers.getEtherType(), l4type);
+    }
+
+    /**
+     * Pack a counter key for the dense counter tables. Ethertypes below
+     * 0x0600 are 802.3 lengths and all share the counters of class 0x0599.
+     */
+    protected static long packCountersKey(int switchSlot, OFMessage m,
+                                          short l3type, byte l4type) {
+        int l3class = l3type & 0xffff;
+        if (l3class < 0x0600) {
+            l3class = 0x0599;
+        }
+        return ((long)switchSlot << 32) |
+               ((m.getType().getTypeValue() & 0xffL) << 24) |
+               ((long)l3class << 8) |
+               (l4type & 0xff);
+    }
+
+    /**
+     * @return the dense table row for the packet-in tuple, or -1 if the
+     * tuple has no row yet
+     */
+    protected int getPacketInRow(IOFSwitch sw, OFMessage m,
+                                 short l3type, byte l4type) {
+        int slot = switchSlots.get(sw.getId());
+        if (slot < 0) {
+            return -1;
+        }
+        return pktinTable.getRow(packCountersKey(slot, m, l3type, l4type));
+    }
+
+    /**
+     * Create the named counters for a packet-in tuple and add its row to
+     * the dense table.
+     * @return the row, or -1 if the table is full
+     */
+    protected int addPacketInRow(IOFSwitch sw, OFMessage m,
+                                 short l3type, byte l4type, Ethernet eth) {
+        int slot = switchSlots.add(sw.getId());
+        if (slot < 0) {
+            return -1;
+        }
+        long key = packCountersKey(slot, m, l3type, l4type);
+        int row = pktinTable.getRow(key);
+        if (row >= 0) {
+            return row;
+        }
+        List<ICounter> counters = createPacketInCounters(sw, m, eth);
+        row = pktinTable.addRow(key);
+        if (row >= 0) {
+            pktinRowCounters.set(row, counters);
+        }
+        return row;
+    }
+
+    protected int getPktOutFMRow(IOFSwitch sw, OFMessage m) {
+        int slot = switchSlots.get(sw.getId());
+        if (slot < 0) {
+            return -1;
+        }
+        return pktoutTable.getRow(packCountersKey(slot, m, (short)0, (byte)0));
+    }
+
+    protected int addPktOutFMRow(IOFSwitch sw, OFMessage m) {
+        int slot = switchSlots.add(sw.getId());
+        if (slot < 0) {
+            return -1;
+        }
+        long key = packCountersKey(slot, m, (short)0, (byte)0);
+        int row = pktoutTable.getRow(key);
+        if (row >= 0) {
+            return row;
+        }
+        List<ICounter> counters = getPktOutFMCounters(sw, m);
+        row = pktoutTable.addRow(key);
+        if (row >= 0) {
+            pktoutRowCounters.set(row, counters);
+        }
+        return row;
+    }
+
+    /**
+     * Add what has been counted in the dense tables since the last call to
+     * the named counters, then publish a snapshot of all counters for
+     * getAll(). Called from the aggregation task.
+     */
+    protected void aggregateCounters() {
+        Date date = new Date();
+        aggregateTable(pktinTable, pktinRowCounters, pktinPublished, date);
+        aggregateTable(pktoutTable, pktoutRowCounters, pktoutPublished, date);
+
+        Map<String, ICounter> snapshot = new HashMap<String, ICounter>();
+        for (Map.Entry<String, CounterEntry> counterEntry :
+                this.nameToCEIndex.entrySet()) {
+            ICounter counter = counterEntry.getValue().counter;
+            ICounter copy;
+            synchronized (counter) {
+                CounterValue value = counter.getCounterValue();
+                CounterValue valueCopy = new CounterValue(value.getType());
+                if (value.getType() == CounterType.DOUBLE) {
+                    valueCopy.setDoubleValue(value.getDouble());
+                } else {
+                    valueCopy.setLongValue(value.getLong());
+                }
+                copy = SimpleCounter.createCounter(counter.getCounterDate(),
+                                                   value.getType());
+                copy.setCounter(counter.getCounterDate(), valueCopy);
+            }
+            snapshot.put(counterEntry.getKey(), copy);
+        }
+        countersSnapshot = Collections.unmodifiableMap(snapshot);
+    }
+
+    private static void aggregateTable(CounterTable table,
+                                       AtomicReferenceArray<List<ICounter>> rowCounters,
+                                       long[] published,
+                                       Date date) {
+        int numRows = table.getNumRows();
+        for (int row = 0; row < numRows; row++) {
+            // the row may be visible before its counters are set; pick
+            // up its count on the next round
+            List<ICounter> counters = rowCounters.get(row);
+            if (counters == null) {
+                continue;
+            }
+            long value = table.get(row);
+            long delta = value - published[row];
+            if (delta <= 0) {
+                continue;
+            }
+            published[row] = value;
+            for (ICounter c : counters) {
+                c.increment(date, delta);
+            }
+        }
+    }
+
     protected List<ICounter> createPacketInCounters(IOFSwitch sw, OFMessage m, Ethernet eth) {
         /* If possible, find and return counters for this tuple */
         CounterKeyTuple countersKey = this.getCountersKey(sw, m, eth);
@@ -561,19 +801,79 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
 
     @Override
     public Collection<Class<? extends IFloodlightService>> getModuleDependencies() {
-        // no-op, no dependencies
-        return null;
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IThreadPoolService.class);
+        return l;
     }
 
     @Override
     public void init(FloodlightModuleContext context)
                                  throws FloodlightModuleException {
-        // no-op for now
+        threadPool = context.getServiceImpl(IThreadPoolService.class);
+        Map<String, String> configParams = context.getConfigParams(this);
+        String dense = configParams.get("denseCounters");
+        if (dense != null) {
+            denseCounters = Boolean.parseBoolean(dense);
+        }
+        try {
+            String size = configParams.get("counterTableSize");
+            if (size != null) {
+                counterTableSize = Integer.parseInt(size);
+            }
+            String interval = configParams.get("aggregateIntervalMs");
+            if (interval != null) {
+                aggregateIntervalMs = Integer.parseInt(interval);
+            }
+        } catch (NumberFormatException e) {
+            throw new FloodlightModuleException("Invalid counter store " +
+                                                "parameter", e);
+        }
+        if (denseCounters) {
+            initDenseCounters();
+            log.info("Counter store uses dense counter tables of {} rows",
+                     counterTableSize);
+        }
+    }
+
+    protected void initDenseCounters() {
+        switchSlots = new LongKeyIndex(counterTableSize);
+        pktinTable = new CounterTable(counterTableSize);
+        pktoutTable = new CounterTable(counterTableSize);
+        pktinRowCounters =
+                new AtomicReferenceArray<List<ICounter>>(counterTableSize);
+        pktoutRowCounters =
+                new AtomicReferenceArray<List<ICounter>>(counterTableSize);
+        pktinPublished = new long[counterTableSize];
+        pktoutPublished = new long[counterTableSize];
+        denseCounters = true;
     }
 
     @Override
+    @LogMessageDoc(level="ERROR",
+            message="Error aggregating counters",
+            explanation="An unexpected error occurred while adding " +
+                        "packet counts to the counter store",
+            recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
     public void startUp(FloodlightModuleContext context) {
-        // no-op for now
+        if (!denseCounters) {
+            return;
+        }
+        ScheduledExecutorService ses = threadPool.getScheduledExecutor();
+        aggregateTask = new SingletonTask(ses, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    aggregateCounters();
+                } catch (Exception e) {
+                    log.error("Error aggregating counters", e);
+                } finally {
+                    aggregateTask.reschedule(aggregateIntervalMs,
+                                             TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+        aggregateTask.reschedule(aggregateIntervalMs, TimeUnit.MILLISECONDS);
     }
 
 }
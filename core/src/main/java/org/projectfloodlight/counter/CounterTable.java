@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.counter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size table of long counters, one row per packed long key.
+ * Each row is counted in a number of stripes picked by a hash of the
+ * updating thread, so threads updating the same row rarely contend on a
+ * cache line. Reading a row adds up its stripes.
+ *
+ * Updating an existing row does not allocate or lock. Adding a row is
+ * expected to be rare and is serialized.
+ */
+public class CounterTable {
+    /**
+     * Padding in longs at either end of each stripe so that the hot rows
+     * of two stripes never share a cache line
+     */
+    static final int PAD = 16;
+
+    static final int NUM_STRIPES;
+    static {
+        int ncpu = Runtime.getRuntime().availableProcessors();
+        int n = 2;
+        while (n < ncpu && n < 64)
+            n <<= 1;
+        NUM_STRIPES = n;
+    }
+
+    private final LongKeyIndex index;
+    private final AtomicLongArray[] stripes;
+
+    /**
+     * @param capacity the maximum number of rows
+     */
+    public CounterTable(int capacity) {
+        index = new LongKeyIndex(capacity);
+        stripes = new AtomicLongArray[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++)
+            stripes[i] = new AtomicLongArray(capacity + 2 * PAD);
+    }
+
+    /**
+     * @return the row for the key, or -1 if it has no row
+     */
+    public int getRow(long key) {
+        return index.get(key);
+    }
+
+    /**
+     * Add a row for the key if there is none
+     * @return the row for the key, or -1 if the table is full
+     */
+    public int addRow(long key) {
+        return index.add(key);
+    }
+
+    /**
+     * @return the number of rows in use. Rows are numbered from 0.
+     */
+    public int getNumRows() {
+        return index.size();
+    }
+
+    /**
+     * Add to the counter in a row
+     */
+    public void add(int row, long delta) {
+        stripes[stripe()].getAndAdd(row + PAD, delta);
+    }
+
+    /**
+     * Get the current value of a row. Concurrent updates may or may not
+     * be included.
+     */
+    public long get(int row) {
+        long sum = 0;
+        for (AtomicLongArray s : stripes)
+            sum += s.get(row + PAD);
+        return sum;
+    }
+
+    private static int stripe() {
+        // thread ids are sequential, so mix them before masking
+        long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (NUM_STRIPES - 1);
+    }
+}
@@ -24,6 +24,7 @@ import org.projectfloodlight.core.IOFSwitch;
 import org.projectfloodlight.core.module.IFloodlightService;
 import org.projectfloodlight.counter.CounterStore.NetworkLayer;
 import org.projectfloodlight.packet.Ethernet;
+import org.projectfloodlight.packet.PacketHeaders;
 
 public interface ICounterStoreService extends IFloodlightService {
 
@@ -47,6 +48,17 @@ public interface ICounterStoreService extends IFloodlightService {
      */
     public void updatePacketInCountersLocal(IOFSwitch sw, OFMessage m, Ethernet eth);
 
+    /**
+     * Update packetIn counters from parsed packet headers, without
+     * requiring the Ethernet object representation
+     *
+     * @param sw
+     * @param m
+     * @param headers
+     */
+    public void updatePacketInCountersLocal(IOFSwitch sw, OFMessage m,
+                                            PacketHeaders headers);
+
     /**
      * This method can only be used to update packetOut and flowmod counters
      *
@@ -87,6 +99,8 @@ public interface ICounterStoreService extends IFloodlightService {
      * Returns an immutable map of title:counter with all of the counters in the store.
      *
      * (Note - this method may be slow - primarily for debugging/UI)
+     * The values may lag the packets counted so far, e.g. by up to one
+     * aggregation interval when the counter store aggregates periodically.
      */
     public Map<String, ICounter> getAll();
 
@@ -0,0 +1,126 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.counter;
+
+/**
+ * Maps long keys to dense int slots 0, 1, 2, ... in the order the keys are
+ * first added. Lookups are lock-free and allocation-free; adding a key
+ * copies the table, so this is meant for key sets that are written rarely
+ * and read on every packet, such as switch DPIDs or counter keys.
+ */
+class LongKeyIndex {
+    private static final long EMPTY = 0L;
+
+    /**
+     * An immutable open-addressing table. Key 0 is stored out of band
+     * since 0 marks an empty entry.
+     */
+    private static class Table {
+        final long[] keys;
+        final int[] slots;
+        final int zeroSlot;
+        final int size;
+
+        Table(int capacity, int zeroSlot, int size) {
+            this.keys = new long[capacity];
+            this.slots = new int[capacity];
+            this.zeroSlot = zeroSlot;
+            this.size = size;
+        }
+    }
+
+    private final int maxSize;
+    private volatile Table table;
+
+    /**
+     * @param maxSize the largest number of keys that can be added
+     */
+    LongKeyIndex(int maxSize) {
+        this.maxSize = maxSize;
+        this.table = new Table(16, -1, 0);
+    }
+
+    /**
+     * @return the slot for the key or -1 if the key has not been added
+     */
+    int get(long key) {
+        Table t = table;
+        if (key == EMPTY)
+            return t.zeroSlot;
+        int mask = t.keys.length - 1;
+        int i = hash(key) & mask;
+        while (true) {
+            long k = t.keys[i];
+            if (k == key)
+                return t.slots[i];
+            if (k == EMPTY)
+                return -1;
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Add a key if it is not already present
+     * @return the slot for the key, or -1 if the index is full
+     */
+    synchronized int add(long key) {
+        int slot = get(key);
+        if (slot >= 0)
+            return slot;
+        Table t = table;
+        if (t.size >= maxSize)
+            return -1;
+        slot = t.size;
+
+        // keep the load factor at or below one half
+        int capacity = t.keys.length;
+        while (capacity < (t.size + 1) * 2)
+            capacity <<= 1;
+        Table nt = new Table(capacity,
+                             (key == EMPTY) ? slot : t.zeroSlot,
+                             t.size + 1);
+        for (int i = 0; i < t.keys.length; i++) {
+            if (t.keys[i] != EMPTY)
+                insert(nt, t.keys[i], t.slots[i]);
+        }
+        if (key != EMPTY)
+            insert(nt, key, slot);
+        table = nt;
+        return slot;
+    }
+
+    /**
+     * @return the number of keys added
+     */
+    int size() {
+        return table.size;
+    }
+
+    private static void insert(Table t, long key, int slot) {
+        int mask = t.keys.length - 1;
+        int i = hash(key) & mask;
+        while (t.keys[i] != EMPTY)
+            i = (i + 1) & mask;
+        t.keys[i] = key;
+        t.slots[i] = slot;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+}
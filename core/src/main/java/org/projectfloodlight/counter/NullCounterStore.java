@@ -32,6 +32,7 @@ import org.projectfloodlight.core.module.IFloodlightService;
 import org.projectfloodlight.counter.CounterStore.NetworkLayer;
 import org.projectfloodlight.counter.CounterValue.CounterType;
 import org.projectfloodlight.packet.Ethernet;
+import org.projectfloodlight.packet.PacketHeaders;
 
 /**
  * An ICounsterStoreService implementation that does nothing.
@@ -52,6 +53,12 @@ public class NullCounterStore implements IFloodlightModule,
         // no-op
     }
 
+    @Override
+    public void updatePacketInCountersLocal(IOFSwitch sw, OFMessage m,
+                                            PacketHeaders headers) {
+        // no-op
+    }
+
     @Override
     public void updatePktOutFMCounterStoreLocal(IOFSwitch sw, OFMessage ofMsg) {
         // no-op
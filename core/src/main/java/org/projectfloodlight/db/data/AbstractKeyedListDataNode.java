@@ -38,7 +38,7 @@ public abstract class AbstractKeyedListDataNode extends AbstractListDataNode {
 
         private Iterator<KeyedListEntry> entryIterator;
 
-        protected KeyedListIterator(Iterator<KeyedListEntry> entryIterator) {
+        public KeyedListIterator(Iterator<KeyedListEntry> entryIterator) {
             this.entryIterator = entryIterator;
         }
 
@@ -80,6 +80,27 @@ public abstract class AbstractKeyedListDataNode extends AbstractListDataNode {
     public abstract Iterable<KeyedListEntry> getKeyedListEntries()
             throws BigDBException;
 
+    /**
+     * Get the list entries that may match the predicates of a query step.
+     * All of the entries that match are returned, but entries that don't
+     * match may be returned too, so the caller still has to match the
+     * entries against the predicates. This implementation returns all of
+     * the entries. Lists that can look up the entries by the predicates
+     * more efficiently override it.
+     *
+     * @param listSchemaNode
+     *            the schema node for the list
+     * @param queryStep
+     *            the query step for the list
+     * @return the entries that may match the predicates, in key order
+     * @throws BigDBException
+     */
+    protected Iterable<KeyedListEntry> getKeyedListEntries(
+            ListSchemaNode listSchemaNode, Step queryStep)
+                    throws BigDBException {
+        return getKeyedListEntries();
+    }
+
     @Override
     public Iterator<DataNode> iterator() {
         try {
@@ -188,10 +209,11 @@ public abstract class AbstractKeyedListDataNode extends AbstractListDataNode {
                             listStep.getName(), keyValue, expandTrailingList);
                 }
             } else {
-                // Multiple elements. Iterate over all of the list entries,
+                // Multiple elements. Iterate over the candidate list entries,
                 // filtering against the specified predicates, and for any matching
                 // list elements continue the query operation recursively.
-                for (KeyedListEntry keyedListEntry : getKeyedListEntries()) {
+                for (KeyedListEntry keyedListEntry :
+                        getKeyedListEntries(listSchemaNode, listStep)) {
                     keyValue = keyedListEntry.getKeyValue();
                     Step listElementStep =
                             DataNodeUtilities.getListElementStep(
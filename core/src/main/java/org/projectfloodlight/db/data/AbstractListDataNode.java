@@ -270,10 +270,9 @@ public abstract class AbstractListDataNode extends AbstractDataNode implements
         // Evaluate the prefix match predicates
         if (prefixMatchPredicates != null) {
             for (PrefixMatchPredicate prefixMatchPredicate : prefixMatchPredicates) {
-                String pathString = prefixMatchPredicate.getName();
                 String prefix = prefixMatchPredicate.getPrefix();
                 LocationPathExpression path =
-                        LocationPathExpression.parse(pathString);
+                        prefixMatchPredicate.getPath().getSimpleLocationPath();
                 if (!matchesPredicate(listElementSchemaNode,
                         listElementDataNode, listElementStep,
                         PredicateType.PREFIX_MATCH, path, prefix)) {
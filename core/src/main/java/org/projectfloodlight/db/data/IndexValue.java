@@ -2,6 +2,7 @@ package org.projectfloodlight.db.data;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.projectfloodlight.db.BigDBException;
@@ -110,15 +111,31 @@ public final class IndexValue implements Comparable<IndexValue> {
         return elementDataNode;
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
     public int compareTo(IndexValue indexValue) {
+        return compareTo(indexValue, indexSpecifier.getFields().size());
+    }
+
+    /**
+     * Compare only the values of the leading fields of the index. Index values
+     * with the same values for the leading fields are adjacent in the order
+     * of the index, so this can be used to find the range of index values
+     * that start with the same values.
+     *
+     * @param indexValue the index value to compare to
+     * @param fieldCount the number of leading fields to compare
+     * @return the result of comparing the values of the leading fields
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public int compareTo(IndexValue indexValue, int fieldCount) {
         int result = 0;
         try {
             if ((indexValue == null) || !indexSpecifier.equals(indexValue.indexSpecifier)) {
                 throw new BigDBException("Invalid IndexValue.compareTo call");
             }
-            for (IndexSpecifier.Field field: indexSpecifier.getFields()) {
+            List<IndexSpecifier.Field> fields = indexSpecifier.getFields();
+            for (int i = 0; i < fieldCount; i++) {
+                IndexSpecifier.Field field = fields.get(i);
                 String name = field.getName();
                 DataNode dataNode1 = elementDataNode.getChild(name);
                 Comparable comparable1 = (Comparable<?>) dataNode1.getObject();
@@ -10,6 +10,11 @@ import org.projectfloodlight.db.data.DataNode;
 public class MemoryContainerDataNode extends MemoryDictionaryDataNode
         implements ContainerDataNode {
 
+    /** Constructor for lazily loaded subclasses, see loadChildNodes */
+    protected MemoryContainerDataNode() {
+        super();
+    }
+
     public MemoryContainerDataNode(boolean mutable,
             Map<String, DataNode> initNodes) throws BigDBException {
         super(mutable, initNodes);
@@ -56,6 +56,29 @@ public class MemoryDataSource extends AbstractDataSource
             new CopyOnWriteArrayList<PreCommitListener>();
     protected List<PostCommitListener> postCommitListeners =
             new CopyOnWriteArrayList<PostCommitListener>();
+    protected List<MutatedNodesListener> mutatedNodesListeners =
+            new CopyOnWriteArrayList<MutatedNodesListener>();
+
+    /**
+     * Listener that is told which location paths were written by each
+     * mutation operation. Unlike the post-commit listeners it's called with
+     * the data source lock held, so listeners see the mutations in the
+     * order they were applied.
+     */
+    public interface MutatedNodesListener {
+        /**
+         * @param newRoot
+         *            the root after the mutation
+         * @param mutatedNodes
+         *            the paths of the nodes that were written or deleted.
+         *            For written nodes the complete new value is the node
+         *            at that path in newRoot.
+         * @throws BigDBException
+         */
+        public void nodesMutated(DataNode newRoot,
+                Map<LocationPathExpression, MutationListener.Operation> mutatedNodes)
+                        throws BigDBException;
+    }
 
     private TreespaceImpl treespace;
 
@@ -64,6 +87,12 @@ public class MemoryDataSource extends AbstractDataSource
         root = new MemoryContainerDataNode(false, null);
     }
 
+    @Override
+    public synchronized void startup() throws BigDBException {
+        SecondaryIndexStats.registerMBean();
+        super.startup();
+    }
+
     @Override
     public void addPreCommitListener(PreCommitListener listener) {
         preCommitListeners.add(listener);
@@ -74,6 +103,10 @@ public class MemoryDataSource extends AbstractDataSource
         postCommitListeners.add(listener);
     }
 
+    public void addMutatedNodesListener(MutatedNodesListener listener) {
+        mutatedNodesListeners.add(listener);
+    }
+
     @Override
     public Iterable<DataNodeWithPath> queryData(Query query,
             AuthContext authContext) throws BigDBException {
@@ -350,11 +383,19 @@ public class MemoryDataSource extends AbstractDataSource
                 } else {
                     // More complex predicate(s) are specified. Create the
                     // iterator object that evaluates the predicates for each
-                    // element to see if it matches.
+                    // element to see if it matches. The memory keyed list
+                    // can narrow down the elements to evaluate by a key
+                    // prefix or a secondary index.
+                    Iterator<DataNode> candidateIterator =
+                            (dataNode instanceof MemoryKeyedListDataNode) ?
+                                    ((MemoryKeyedListDataNode) dataNode)
+                                            .getCandidateListElements(
+                                                    listSchemaNode, step) :
+                                    dataNode.iterator();
                     listElementIterator =
                             new PredicateMatchingListElementIterator(
                                     listElementSchemaNode,
-                                    dataNode.iterator(), step);
+                                    candidateIterator, step);
                 }
             } else {
                 // No predicates. In most cases this means that we're processing
@@ -530,6 +571,18 @@ public class MemoryDataSource extends AbstractDataSource
         // Update the root
         setRoot(mutateResult.newDataNode);
 
+        if (mutatedNodes.size() > 0) {
+            for (MutatedNodesListener listener: mutatedNodesListeners) {
+                try {
+                    listener.nodesMutated(root, mutatedNodes);
+                }
+                catch (BigDBException e) {
+                    logger.error("Exception thrown by mutated nodes listener: " +
+                            e.toString(), e);
+                }
+            }
+        }
+
         // FIXME: Convert this code to use a post-commit listener instead
         if (mutatedNodes.size() > 0) {
             Set<Query> deletedNodes = new HashSet<Query>();
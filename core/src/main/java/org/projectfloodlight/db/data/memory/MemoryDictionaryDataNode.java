@@ -9,6 +9,7 @@ import java.util.SortedSet;
 import javax.annotation.Nonnull;
 
 import org.projectfloodlight.db.BigDBException;
+import org.projectfloodlight.db.BigDBInternalError;
 import org.projectfloodlight.db.data.AbstractDictionaryDataNode;
 import org.projectfloodlight.db.data.ContainerDataNode;
 import org.projectfloodlight.db.data.DataNode;
@@ -18,7 +19,16 @@ import edu.stanford.ppl.concurrent.SnapTreeMap;
 
 public abstract class MemoryDictionaryDataNode extends AbstractDictionaryDataNode implements ContainerDataNode {
 
-    protected final SnapTreeMap<String, DataNode> childNodes;
+    /** null until loadChildNodes is called for a lazily loaded node */
+    private volatile SnapTreeMap<String, DataNode> childNodes;
+
+    /**
+     * Constructor for subclasses whose child nodes are loaded lazily, the
+     * first time they're accessed, by loadChildNodes.
+     */
+    protected MemoryDictionaryDataNode() {
+        super();
+    }
 
     public MemoryDictionaryDataNode(boolean mutable,
             Map<String, DataNode> initNodes) throws BigDBException {
@@ -35,7 +45,7 @@ public abstract class MemoryDictionaryDataNode extends AbstractDictionaryDataNod
             boolean mutable, Map<String, DataNode> updates,
             Set<String> deletions) throws BigDBException {
         super();
-        this.childNodes = baseNode.childNodes.clone();
+        this.childNodes = baseNode.getChildNodes().clone();
         if (updates != null) {
             this.childNodes.putAll(updates);
         }
@@ -47,53 +57,82 @@ public abstract class MemoryDictionaryDataNode extends AbstractDictionaryDataNod
             freeze();
     }
 
+    /**
+     * Load the child nodes of a node that was constructed with the lazy
+     * constructor. This is called at most once for each node.
+     */
+    protected SnapTreeMap<String, DataNode> loadChildNodes()
+            throws BigDBException {
+        throw new BigDBInternalError("Child nodes not initialized");
+    }
+
+    protected SnapTreeMap<String, DataNode> getChildNodes() {
+        SnapTreeMap<String, DataNode> nodes = childNodes;
+        if (nodes == null) {
+            synchronized (this) {
+                nodes = childNodes;
+                if (nodes == null) {
+                    try {
+                        nodes = loadChildNodes();
+                    }
+                    catch (BigDBException e) {
+                        throw new BigDBInternalError(
+                                "Error loading child data nodes", e);
+                    }
+                    childNodes = nodes;
+                }
+            }
+        }
+        return nodes;
+    }
+
     @Override
     public int childCount() {
-        return childNodes.size();
+        return getChildNodes().size();
     }
 
     @Override
     public boolean hasChildren() {
-        return !childNodes.isEmpty();
+        return !getChildNodes().isEmpty();
     }
 
     @Override
     public boolean hasChild(String name) throws BigDBException {
-        return childNodes.containsKey(name);
+        return getChildNodes().containsKey(name);
     }
 
     @Override
     public Iterator<DataNode> iterator() {
-        return childNodes.values().iterator();
+        return getChildNodes().values().iterator();
     }
 
     @Override
     public SortedSet<String> getChildNames() {
-        return Collections.unmodifiableSortedSet(childNodes.keySet());
+        return Collections.unmodifiableSortedSet(getChildNodes().keySet());
     }
 
     @Override
     public Set<String> getAllChildNames() {
-        return Collections.unmodifiableSortedSet(childNodes.keySet());
+        return Collections.unmodifiableSortedSet(getChildNodes().keySet());
     }
 
     @Override
     @Nonnull
     public DataNode getChild(Step step) throws BigDBException {
-        DataNode child = childNodes.get(step.getName());
+        DataNode child = getChildNodes().get(step.getName());
         return (child != null) ? child : DataNode.NULL;
     }
 
     @Override
     public void put(String name, DataNode dataNode) throws BigDBException {
         checkMutable();
-        childNodes.put(name, dataNode);
+        getChildNodes().put(name, dataNode);
     }
 
     @Override
     public DataNode remove(String name) throws BigDBException {
         checkMutable();
-        DataNode dataNode = childNodes.remove(name);
+        DataNode dataNode = getChildNodes().remove(name);
         return dataNode;
     }
 
@@ -101,9 +140,7 @@ public abstract class MemoryDictionaryDataNode extends AbstractDictionaryDataNod
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result =
-                prime * result +
-                        ((childNodes == null) ? 0 : childNodes.hashCode());
+        result = prime * result + getChildNodes().hashCode();
         return result;
     }
 
@@ -113,14 +150,13 @@ public abstract class MemoryDictionaryDataNode extends AbstractDictionaryDataNod
             return true;
         if (obj == null)
             return false;
-        if (getClass() != obj.getClass())
+        // Compare the node types rather than the classes, so that a lazily
+        // loaded node is equal to the same node constructed directly
+        if (!(obj instanceof MemoryDictionaryDataNode))
             return false;
         MemoryDictionaryDataNode other = (MemoryDictionaryDataNode) obj;
-        if (childNodes == null) {
-            if (other.childNodes != null)
-                return false;
-        } else if (!childNodes.equals(other.childNodes))
+        if (getNodeType() != other.getNodeType())
             return false;
-        return true;
+        return getChildNodes().equals(other.getChildNodes());
     }
 }
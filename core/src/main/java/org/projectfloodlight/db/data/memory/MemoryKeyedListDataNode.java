@@ -1,5 +1,8 @@
 package org.projectfloodlight.db.data.memory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -8,9 +11,16 @@ import java.util.Set;
 import org.projectfloodlight.db.BigDBException;
 import org.projectfloodlight.db.data.AbstractKeyedListDataNode;
 import org.projectfloodlight.db.data.DataNode;
+import org.projectfloodlight.db.data.DataNodeUtilities;
 import org.projectfloodlight.db.data.IndexSpecifier;
 import org.projectfloodlight.db.data.IndexValue;
+import org.projectfloodlight.db.expression.LocationPathExpression;
+import org.projectfloodlight.db.query.Step;
+import org.projectfloodlight.db.query.Step.ExactMatchPredicate;
+import org.projectfloodlight.db.query.Step.PrefixMatchPredicate;
+import org.projectfloodlight.db.schema.ListSchemaNode;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.UnmodifiableIterator;
 
@@ -45,9 +55,48 @@ public class MemoryKeyedListDataNode extends AbstractKeyedListDataNode {
         }
     }
 
+    /**
+     * Iterates over the entries whose keys start with the values of the
+     * leading key fields of a partial key value.
+     */
+    private class KeyPrefixEntryIterator extends AbstractIterator<KeyedListEntry> {
+
+        private final IndexValue prefixValue;
+        private final int prefixLength;
+        private final Iterator<Map.Entry<IndexValue, DataNode>> mapEntryIterator;
+
+        KeyPrefixEntryIterator(IndexValue prefixValue, int prefixLength) {
+            this.prefixValue = prefixValue;
+            this.prefixLength = prefixLength;
+            // The partial key value sorts before all of the keys that start
+            // with its values, so the range starts there.
+            this.mapEntryIterator =
+                    keyedElements.tailMap(prefixValue, true).entrySet().iterator();
+        }
+
+        @Override
+        protected KeyedListEntry computeNext() {
+            if (mapEntryIterator.hasNext()) {
+                Map.Entry<IndexValue, DataNode> mapEntry = mapEntryIterator.next();
+                if (prefixValue.compareTo(mapEntry.getKey(), prefixLength) == 0)
+                    return new KeyedListEntryImpl(mapEntry.getKey(), mapEntry.getValue());
+            }
+            return endOfData();
+        }
+    }
+
     private final IndexSpecifier keySpecifier;
     private final SnapTreeMap<IndexValue, DataNode> keyedElements;
 
+    /**
+     * The secondary indexes by the name of the indexed leaf. An index is
+     * built when a query first uses it and is then carried over (and kept
+     * up to date) to the lists that are derived from this list. The map is
+     * replaced rather than changed when an index is added.
+     */
+    private volatile Map<String, SecondaryIndex> secondaryIndexes =
+            Collections.emptyMap();
+
     public MemoryKeyedListDataNode(IndexSpecifier keySpecifier) throws BigDBException {
         this(true, keySpecifier, null);
     }
@@ -77,6 +126,7 @@ public class MemoryKeyedListDataNode extends AbstractKeyedListDataNode {
         assert keySpecifier != null;
 
         keyedElements = baseNode.keyedElements.clone();
+        secondaryIndexes = copySecondaryIndexes(baseNode.secondaryIndexes);
 
         if (deletions != null) {
             for (IndexValue keyValue : deletions) {
@@ -133,6 +183,203 @@ public class MemoryKeyedListDataNode extends AbstractKeyedListDataNode {
         return new KeyedListEntryIterable();
     }
 
+    /**
+     * If the exact match predicates of the query step specify the values of
+     * the leading fields of the key then only the range of entries whose keys
+     * start with those values is returned, since the other entries can't
+     * match. Otherwise if there's a predicate on an indexed leaf then only
+     * the entries that the secondary index has for the predicate are
+     * returned. Otherwise all of the entries are returned.
+     */
+    @Override
+    protected Iterable<KeyedListEntry> getKeyedListEntries(
+            ListSchemaNode listSchemaNode, Step queryStep)
+                    throws BigDBException {
+        if (keyedElements.isEmpty())
+            return getKeyedListEntries();
+        Iterable<KeyedListEntry> entries = getKeyPrefixEntries(queryStep);
+        if (entries == null)
+            entries = getSecondaryIndexEntries(listSchemaNode, queryStep);
+        return (entries != null) ? entries : getKeyedListEntries();
+    }
+
+    /**
+     * Get an iterator over the list elements that may match the predicates
+     * of a query step. The caller still has to match the list elements
+     * against the predicates.
+     */
+    Iterator<DataNode> getCandidateListElements(ListSchemaNode listSchemaNode,
+            Step queryStep) throws BigDBException {
+        return new KeyedListIterator(
+                getKeyedListEntries(listSchemaNode, queryStep).iterator());
+    }
+
+    /**
+     * @return the range of entries whose keys start with the values that the
+     *         exact match predicates specify, or null if they don't specify
+     *         the values of some leading fields of the key
+     */
+    private Iterable<KeyedListEntry> getKeyPrefixEntries(Step queryStep)
+            throws BigDBException {
+        List<IndexSpecifier.Field> keyFields = keySpecifier.getFields();
+        DataNode firstKeyDataNode = keyedElements.firstKey().getDataNode();
+        Map<String, DataNode> prefixValues = new HashMap<String, DataNode>();
+        int prefixLength = 0;
+        for (IndexSpecifier.Field keyField: keyFields) {
+            String fieldName = keyField.getName();
+            Object value = queryStep.getExactMatchPredicateValue(fieldName);
+            if (value == null)
+                break;
+            // The predicates are matched by comparing the string forms of the
+            // values, but the keys are ordered by comparing the values, so
+            // the range can only be used if the value types are the same.
+            Object keyObject = firstKeyDataNode.getChild(fieldName).getObject();
+            if ((keyObject == null) || (keyObject.getClass() != value.getClass()))
+                break;
+            prefixValues.put(fieldName,
+                    DataNodeUtilities.objectToLeafDataNode(value));
+            prefixLength++;
+        }
+        // A key with unspecified fields sorts before the keys with the same
+        // values for the specified fields unless the first unspecified field
+        // is in reverse order.
+        if ((prefixLength == 0) || (prefixLength == keyFields.size()) ||
+                (keyFields.get(prefixLength).getSortOrder() ==
+                        IndexSpecifier.SortOrder.REVERSE)) {
+            return null;
+        }
+        final IndexValue prefixValue =
+                IndexValue.fromValues(keySpecifier, prefixValues);
+        final int length = prefixLength;
+        return new Iterable<KeyedListEntry>() {
+            @Override
+            public Iterator<KeyedListEntry> iterator() {
+                return new KeyPrefixEntryIterator(prefixValue, length);
+            }
+        };
+    }
+
+    /**
+     * @return the entries that the secondary index on the leaf of one of the
+     *         predicates has for the predicate, or null if none of the
+     *         predicates are on an indexed leaf
+     */
+    private Iterable<KeyedListEntry> getSecondaryIndexEntries(
+            ListSchemaNode listSchemaNode, Step queryStep)
+                    throws BigDBException {
+        if (listSchemaNode == null)
+            return null;
+        List<ExactMatchPredicate> exactMatchPredicates =
+                queryStep.getExactMatchPredicates();
+        List<PrefixMatchPredicate> prefixMatchPredicates =
+                queryStep.getPrefixMatchPredicates();
+        int supportedPredicateCount =
+                ((exactMatchPredicates != null) ? exactMatchPredicates.size() : 0) +
+                ((prefixMatchPredicates != null) ? prefixMatchPredicates.size() : 0);
+        // Leave it to the predicate matching to report unsupported predicates
+        if (queryStep.getPredicates().size() != supportedPredicateCount)
+            return null;
+        if (exactMatchPredicates != null) {
+            for (ExactMatchPredicate predicate: exactMatchPredicates) {
+                SecondaryIndex index =
+                        getSecondaryIndex(listSchemaNode, predicate.getPath());
+                if (index != null) {
+                    String value = index.getIndexedValue(predicate.getValue());
+                    return getEntries(index.getKeys(value));
+                }
+            }
+        }
+        if (prefixMatchPredicates != null) {
+            for (PrefixMatchPredicate predicate: prefixMatchPredicates) {
+                SecondaryIndex index =
+                        getSecondaryIndex(listSchemaNode, predicate.getPath());
+                if (index != null) {
+                    String prefix = index.getIndexedValue(predicate.getPrefix());
+                    return getEntries(index.getKeysWithPrefix(prefix));
+                }
+            }
+        }
+        return null;
+    }
+
+    private List<KeyedListEntry> getEntries(List<IndexValue> keyValues) {
+        List<KeyedListEntry> entries =
+                new ArrayList<KeyedListEntry>(keyValues.size());
+        for (IndexValue keyValue: keyValues) {
+            DataNode dataNode = keyedElements.get(keyValue);
+            if (dataNode != null)
+                entries.add(new KeyedListEntryImpl(keyValue, dataNode));
+        }
+        SecondaryIndexStats.getInstance().indexLookedUp(entries.size(),
+                keyedElements.size());
+        return entries;
+    }
+
+    /**
+     * Get the secondary index for a predicate path, building it if the list
+     * doesn't have it yet.
+     *
+     * @return the index, or null if the path isn't an indexed leaf of the
+     *         list elements
+     */
+    private SecondaryIndex getSecondaryIndex(ListSchemaNode listSchemaNode,
+            LocationPathExpression path) throws BigDBException {
+        if (path.isAbsolute() || (path.size() != 1) || !path.isSimple())
+            return null;
+        Step step = path.getStep(0);
+        if (!Step.DEFAULT_AXIS_NAME.equals(step.getAxisName()))
+            return null;
+        String leafName = step.getName();
+        IndexSpecifier indexSpecifier =
+                listSchemaNode.getSecondaryIndexSpecifier(leafName);
+        if (indexSpecifier == null)
+            return null;
+        SecondaryIndex index = secondaryIndexes.get(leafName);
+        if ((index != null) && index.getIndexSpecifier().equals(indexSpecifier))
+            return index;
+        return buildSecondaryIndex(leafName, indexSpecifier);
+    }
+
+    private synchronized SecondaryIndex buildSecondaryIndex(String leafName,
+            IndexSpecifier indexSpecifier) throws BigDBException {
+        SecondaryIndex index = secondaryIndexes.get(leafName);
+        if ((index != null) && index.getIndexSpecifier().equals(indexSpecifier))
+            return index;
+        index = new SecondaryIndex(indexSpecifier);
+        for (Map.Entry<IndexValue, DataNode> entry: keyedElements.entrySet())
+            index.add(entry.getKey(), entry.getValue());
+        Map<String, SecondaryIndex> indexes =
+                new HashMap<String, SecondaryIndex>(secondaryIndexes);
+        indexes.put(leafName, index);
+        secondaryIndexes = indexes;
+        SecondaryIndexStats.getInstance().indexBuilt(keyedElements.size());
+        return index;
+    }
+
+    private static Map<String, SecondaryIndex> copySecondaryIndexes(
+            Map<String, SecondaryIndex> indexes) {
+        if (indexes.isEmpty())
+            return Collections.emptyMap();
+        Map<String, SecondaryIndex> copies =
+                new HashMap<String, SecondaryIndex>();
+        for (Map.Entry<String, SecondaryIndex> entry: indexes.entrySet())
+            copies.put(entry.getKey(), entry.getValue().copy());
+        return copies;
+    }
+
+    private void updateSecondaryIndexes(IndexValue keyValue,
+            DataNode oldDataNode, DataNode newDataNode) throws BigDBException {
+        if (secondaryIndexes.isEmpty())
+            return;
+        for (SecondaryIndex index: secondaryIndexes.values()) {
+            if (oldDataNode != null)
+                index.remove(keyValue, oldDataNode);
+            if (newDataNode != null)
+                index.add(keyValue, newDataNode);
+        }
+        SecondaryIndexStats.getInstance().indexUpdated();
+    }
+
     @Override
     public boolean hasChild(IndexValue indexValue) throws BigDBException {
         return keyedElements.containsKey(indexValue);
@@ -148,13 +395,15 @@ public class MemoryKeyedListDataNode extends AbstractKeyedListDataNode {
     public void add(DataNode dataNode) throws BigDBException {
         checkMutable();
         IndexValue keyValue = IndexValue.fromListElement(keySpecifier, dataNode);
-        keyedElements.put(keyValue, dataNode);
+        DataNode oldDataNode = keyedElements.put(keyValue, dataNode);
+        updateSecondaryIndexes(keyValue, oldDataNode, dataNode);
     }
 
     @Override
     public DataNode remove(IndexValue indexValue) throws BigDBException {
         checkMutable();
         DataNode dataNode = keyedElements.remove(indexValue);
+        updateSecondaryIndexes(indexValue, dataNode, null);
         return dataNode;
     }
 
@@ -166,7 +415,8 @@ public class MemoryKeyedListDataNode extends AbstractKeyedListDataNode {
     @Override
     public void add(IndexValue indexValue, DataNode dataNode)
             throws BigDBException {
-        keyedElements.put(indexValue, dataNode);
+        DataNode oldDataNode = keyedElements.put(indexValue, dataNode);
+        updateSecondaryIndexes(indexValue, oldDataNode, dataNode);
     }
 
     @Override
@@ -10,6 +10,11 @@ import org.projectfloodlight.db.data.ListElementDataNode;
 public class MemoryListElementDataNode extends MemoryDictionaryDataNode
         implements ListElementDataNode {
 
+    /** Constructor for lazily loaded subclasses, see loadChildNodes */
+    protected MemoryListElementDataNode() {
+        super();
+    }
+
     public MemoryListElementDataNode(boolean mutable,
             Map<String, DataNode> initNodes) throws BigDBException {
         super(mutable, initNodes);
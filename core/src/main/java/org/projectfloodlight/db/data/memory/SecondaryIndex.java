@@ -0,0 +1,169 @@
+package org.projectfloodlight.db.data.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.projectfloodlight.db.BigDBException;
+import org.projectfloodlight.db.data.DataNode;
+import org.projectfloodlight.db.data.IndexSpecifier;
+import org.projectfloodlight.db.data.IndexValue;
+
+import edu.stanford.ppl.concurrent.SnapTreeMap;
+
+/**
+ * Secondary index of a keyed list on a leaf of its list elements. It maps
+ * the values of the leaf to the keys of the list elements with that value.
+ *
+ * Predicates are matched by comparing the string forms of the values, in
+ * lower case if the leaf isn't case-sensitive, so the values are indexed
+ * in that form too. List elements that don't have the leaf aren't indexed,
+ * since no predicate on the leaf can match them.
+ *
+ * Like the list elements the index is a SnapTreeMap, so the index of a
+ * list that's derived from another list is a cheap copy-on-write clone of
+ * the index of the other list.
+ */
+class SecondaryIndex {
+
+    /**
+     * An entry of the index. The entries are ordered by value and then by
+     * key, so the keys for a value (or for the values that start with a
+     * prefix) are a contiguous range. An entry with a null key is the lower
+     * bound of the range for its value.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        private final String value;
+        private final IndexValue keyValue;
+
+        Entry(String value, IndexValue keyValue) {
+            this.value = value;
+            this.keyValue = keyValue;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = value.compareTo(other.value);
+            if (result != 0)
+                return result;
+            if (keyValue == null)
+                return (other.keyValue == null) ? 0 : -1;
+            if (other.keyValue == null)
+                return 1;
+            return keyValue.compareTo(other.keyValue);
+        }
+    }
+
+    private final IndexSpecifier indexSpecifier;
+    private final String fieldName;
+    private final boolean caseSensitive;
+    private final SnapTreeMap<Entry, Boolean> entries;
+
+    /**
+     * @param indexSpecifier
+     *            the index specifier with the indexed leaf as its only field
+     */
+    SecondaryIndex(IndexSpecifier indexSpecifier) {
+        assert indexSpecifier.getFields().size() == 1;
+        IndexSpecifier.Field field = indexSpecifier.getFields().get(0);
+        this.indexSpecifier = indexSpecifier;
+        this.fieldName = field.getName();
+        this.caseSensitive = field.isCaseSensitive();
+        this.entries = new SnapTreeMap<Entry, Boolean>();
+    }
+
+    private SecondaryIndex(SecondaryIndex baseIndex) {
+        this.indexSpecifier = baseIndex.indexSpecifier;
+        this.fieldName = baseIndex.fieldName;
+        this.caseSensitive = baseIndex.caseSensitive;
+        this.entries = baseIndex.entries.clone();
+    }
+
+    /**
+     * @return a copy of the index that can be updated independently of it
+     */
+    SecondaryIndex copy() {
+        return new SecondaryIndex(this);
+    }
+
+    IndexSpecifier getIndexSpecifier() {
+        return indexSpecifier;
+    }
+
+    /**
+     * @return the number of indexed list elements
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Convert a predicate value to the form that the values are indexed in.
+     */
+    String getIndexedValue(Object value) {
+        String valueString = (value != null) ? value.toString() : "";
+        return caseSensitive ? valueString : valueString.toLowerCase();
+    }
+
+    private String getIndexedValue(DataNode listElement)
+            throws BigDBException {
+        if (listElement.isNull())
+            return null;
+        DataNode leafDataNode = listElement.getChild(fieldName);
+        if (leafDataNode.isNull() ||
+                (leafDataNode.getNodeType() != DataNode.NodeType.LEAF))
+            return null;
+        return getIndexedValue(leafDataNode.getObject());
+    }
+
+    void add(IndexValue keyValue, DataNode listElement) throws BigDBException {
+        String value = getIndexedValue(listElement);
+        if (value != null)
+            entries.put(new Entry(value, keyValue), Boolean.TRUE);
+    }
+
+    void remove(IndexValue keyValue, DataNode listElement)
+            throws BigDBException {
+        String value = getIndexedValue(listElement);
+        if (value != null)
+            entries.remove(new Entry(value, keyValue));
+    }
+
+    /**
+     * Get the keys of the list elements whose leaf value is equal to the
+     * specified value.
+     *
+     * @param value
+     *            the value in the form returned by getIndexedValue
+     * @return the keys in key order
+     */
+    List<IndexValue> getKeys(String value) {
+        List<IndexValue> keys = new ArrayList<IndexValue>();
+        for (Entry entry: entries.tailMap(new Entry(value, null)).keySet()) {
+            if (!entry.value.equals(value))
+                break;
+            keys.add(entry.keyValue);
+        }
+        return keys;
+    }
+
+    /**
+     * Get the keys of the list elements whose leaf value starts with the
+     * specified prefix.
+     *
+     * @param prefix
+     *            the prefix in the form returned by getIndexedValue
+     * @return the keys in key order
+     */
+    List<IndexValue> getKeysWithPrefix(String prefix) {
+        List<IndexValue> keys = new ArrayList<IndexValue>();
+        for (Entry entry: entries.tailMap(new Entry(prefix, null)).keySet()) {
+            if (!entry.value.startsWith(prefix))
+                break;
+            keys.add(entry.keyValue);
+        }
+        // The keys are only ordered within each value
+        Collections.sort(keys);
+        return keys;
+    }
+}
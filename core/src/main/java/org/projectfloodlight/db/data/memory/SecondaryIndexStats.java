@@ -0,0 +1,103 @@
+package org.projectfloodlight.db.data.memory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Statistics of the secondary indexes of the in-memory keyed lists. The
+ * indexes belong to the immutable data nodes rather than to a data source,
+ * so the statistics are for all of the memory data sources.
+ */
+public class SecondaryIndexStats implements SecondaryIndexStatsMBean {
+    private final static Logger logger =
+            LoggerFactory.getLogger(SecondaryIndexStats.class);
+
+    private static final SecondaryIndexStats instance =
+            new SecondaryIndexStats();
+    private static boolean registered;
+
+    private final AtomicLong indexBuilds = new AtomicLong();
+    private final AtomicLong indexBuildElements = new AtomicLong();
+    private final AtomicLong indexUpdates = new AtomicLong();
+    private final AtomicLong indexLookups = new AtomicLong();
+    private final AtomicLong indexLookupElements = new AtomicLong();
+    private final AtomicLong skippedElements = new AtomicLong();
+
+    private SecondaryIndexStats() {
+    }
+
+    public static SecondaryIndexStats getInstance() {
+        return instance;
+    }
+
+    /**
+     * Expose the statistics as an MBean. Only the first call registers it.
+     */
+    public static synchronized void registerMBean() {
+        if (registered)
+            return;
+        registered = true;
+        try {
+            ObjectName objectName = new ObjectName(
+                    "org.projectfloodlight.db:type=SecondaryIndexes");
+            logger.debug("Registering as MBean " + objectName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    instance, objectName);
+        } catch (JMException e) {
+            logger.debug("Error exposing MBean for secondary indexes");
+            if (logger.isTraceEnabled())
+                logger.trace("Stacktrace: ", e);
+        }
+    }
+
+    void indexBuilt(int elementCount) {
+        indexBuilds.incrementAndGet();
+        indexBuildElements.addAndGet(elementCount);
+    }
+
+    void indexUpdated() {
+        indexUpdates.incrementAndGet();
+    }
+
+    void indexLookedUp(int elementCount, int listSize) {
+        indexLookups.incrementAndGet();
+        indexLookupElements.addAndGet(elementCount);
+        skippedElements.addAndGet(listSize - elementCount);
+    }
+
+    @Override
+    public long getIndexBuilds() {
+        return indexBuilds.get();
+    }
+
+    @Override
+    public long getIndexBuildElements() {
+        return indexBuildElements.get();
+    }
+
+    @Override
+    public long getIndexUpdates() {
+        return indexUpdates.get();
+    }
+
+    @Override
+    public long getIndexLookups() {
+        return indexLookups.get();
+    }
+
+    @Override
+    public long getIndexLookupElements() {
+        return indexLookupElements.get();
+    }
+
+    @Override
+    public long getSkippedElements() {
+        return skippedElements.get();
+    }
+}
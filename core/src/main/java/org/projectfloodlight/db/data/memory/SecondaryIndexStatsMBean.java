@@ -0,0 +1,38 @@
+package org.projectfloodlight.db.data.memory;
+
+public interface SecondaryIndexStatsMBean {
+
+    /**
+     * @return the number of secondary indexes built for keyed lists that
+     *         didn't have them yet, e.g. lists loaded from storage
+     */
+    public long getIndexBuilds();
+
+    /**
+     * @return the number of list elements indexed by those index builds
+     */
+    public long getIndexBuildElements();
+
+    /**
+     * @return the number of list element additions and removals applied
+     *         incrementally to secondary indexes
+     */
+    public long getIndexUpdates();
+
+    /**
+     * @return the number of queries that looked up list elements in a
+     *         secondary index instead of scanning the list
+     */
+    public long getIndexLookups();
+
+    /**
+     * @return the number of list elements returned by the index lookups
+     */
+    public long getIndexLookupElements();
+
+    /**
+     * @return the number of list elements that the index lookups didn't
+     *         have to match against the predicates of the queries
+     */
+    public long getSkippedElements();
+}
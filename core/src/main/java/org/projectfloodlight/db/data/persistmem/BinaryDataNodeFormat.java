@@ -0,0 +1,673 @@
+package org.projectfloodlight.db.data.persistmem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.projectfloodlight.db.BigDBException;
+import org.projectfloodlight.db.data.DataNode;
+import org.projectfloodlight.db.data.DataNodeSerializationException;
+import org.projectfloodlight.db.data.DataNodeTypeMismatchException;
+import org.projectfloodlight.db.data.IndexSpecifier;
+import org.projectfloodlight.db.data.IndexValue;
+import org.projectfloodlight.db.data.LeafDataNode;
+import org.projectfloodlight.db.data.memory.MemoryContainerDataNode;
+import org.projectfloodlight.db.data.memory.MemoryKeyedListDataNode;
+import org.projectfloodlight.db.data.memory.MemoryLeafDataNode;
+import org.projectfloodlight.db.data.memory.MemoryLeafListDataNode;
+import org.projectfloodlight.db.data.memory.MemoryListElementDataNode;
+import org.projectfloodlight.db.data.memory.MemoryUnkeyedListDataNode;
+import org.projectfloodlight.db.query.Step;
+import org.projectfloodlight.db.schema.ListSchemaNode;
+import org.projectfloodlight.db.schema.SchemaNode;
+
+import edu.stanford.ppl.concurrent.SnapTreeMap;
+
+/**
+ * Compact binary encoding of a data node tree, used for the snapshots of a
+ * PersistMemDataSource as an alternative to JSON.
+ *
+ * The encoding is schema-aware. Instead of names, child nodes refer to an
+ * entry in a dictionary at the start of the file. Each entry is a schema
+ * node, identified by its parent entry and its name, so the node types and
+ * list keys come from the schema and only leaf values carry a type tag.
+ * Counts, dictionary indexes and integer leaf values are varints:
+ *
+ * <pre>
+ *   file       := MAGIC version:byte dictionaryLength:int bodyLength:int
+ *                 checksum:int dictionary dictNode
+ *   dictionary := count:varint (parentIndex:varint name:string)*
+ *   dictNode   := count:varint (entryIndex:varint child)*
+ *   child      := leafValue                            (leaf)
+ *               | count:varint leafValue*              (leaf list)
+ *               | length:int dictNode                  (container)
+ *               | count:varint (length:int dictNode)*  (list)
+ * </pre>
+ *
+ * The checksum is the CRC32 of the dictionary and the body.
+ *
+ * The parent index of a dictionary entry is 0 for the children of the root
+ * and otherwise the index of the parent entry plus 1. The children of a
+ * keyed list element start with its key leafs, in key order.
+ *
+ * A snapshot is read by memory-mapping the file. The checksum is verified
+ * by one sequential pass over the mapped file, so a corrupt snapshot is
+ * rejected at startup instead of failing when one of its nodes is loaded
+ * later, or worse, being decoded into the wrong data. The dictionary is resolved
+ * against the schema up front, so a snapshot that doesn't match the schema
+ * is rejected at startup. The containers and list elements are loaded
+ * lazily though: they decode their children the first time they're
+ * accessed, skipping over the encoded subtrees of their children by their
+ * lengths. Only the key leafs of the list elements are decoded when their
+ * list is loaded, because the list needs them to index its elements.
+ * Snapshots are always replaced by renaming a new file over them, so a
+ * mapped file is never changed.
+ */
+class BinaryDataNodeFormat {
+
+    private static final byte[] MAGIC = { 'B', 'D', 'B', 'N' };
+    private static final byte VERSION = 2;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + 4 + 4;
+    /** Size of the chunks that are copied out of a mapped file to checksum it */
+    private static final int CHECKSUM_CHUNK_LENGTH = 64 * 1024;
+
+    /** Flag in the type tag of a leaf value for a leaf with a null value */
+    private static final int NULL_VALUE_FLAG = 0x80;
+    private static final LeafDataNode.LeafType[] LEAF_TYPES =
+            LeafDataNode.LeafType.values();
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * @return true if the file is a snapshot in the binary format, false if
+     *         it's in some other format, e.g. JSON
+     */
+    static boolean isBinaryFile(File file) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            int length = 0;
+            while (length < magic.length) {
+                int count = inputStream.read(magic, length,
+                        magic.length - length);
+                if (count < 0)
+                    return false;
+                length += count;
+            }
+        }
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Write a data node tree to a file in the binary format.
+     *
+     * @return the number of bytes written
+     */
+    static long write(File file, SchemaNode rootSchemaNode, DataNode root)
+            throws DataNodeSerializationException, IOException {
+        Encoder encoder = new Encoder();
+        try {
+            encoder.writeDictionaryNode(rootSchemaNode, root, 0,
+                    Collections.<String>emptyList());
+        }
+        catch (DataNodeSerializationException e) {
+            throw e;
+        }
+        catch (BigDBException e) {
+            throw new DataNodeSerializationException(e);
+        }
+        ByteBuffer body = encoder.body.getBuffer();
+        ByteBuffer dictionary = encoder.getDictionary();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC);
+        header.put(VERSION);
+        header.putInt(dictionary.remaining());
+        header.putInt(body.remaining());
+        CRC32 checksum = new CRC32();
+        updateChecksum(checksum, dictionary.duplicate());
+        updateChecksum(checksum, body.duplicate());
+        header.putInt((int) checksum.getValue());
+        header.flip();
+
+        ByteBuffer[] buffers = { header, dictionary, body };
+        long length = header.remaining() + dictionary.remaining() +
+                body.remaining();
+        try (RandomAccessFile randomAccessFile =
+                new RandomAccessFile(file, "rw")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(0);
+            long written = 0;
+            while (written < length)
+                written += channel.write(buffers);
+            channel.force(true);
+        }
+        return length;
+    }
+
+    /**
+     * Load a data node tree from a file in the binary format. The file is
+     * memory-mapped, and the nodes of the tree are loaded lazily from it.
+     */
+    static DataNode read(File file, SchemaNode rootSchemaNode)
+            throws BigDBException, IOException {
+        ByteBuffer buffer;
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            FileChannel channel = inputStream.getChannel();
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        if (buffer.remaining() < HEADER_LENGTH)
+            throw new IOException("Truncated snapshot file " + file);
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not a binary snapshot file: " + file);
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version +
+                    " in " + file);
+        }
+        int dictionaryLength = buffer.getInt();
+        int bodyLength = buffer.getInt();
+        int expectedChecksum = buffer.getInt();
+        if ((dictionaryLength < 0) || (bodyLength < 0) ||
+                ((long) HEADER_LENGTH + dictionaryLength + bodyLength !=
+                        buffer.capacity())) {
+            throw new IOException("Truncated snapshot file " + file);
+        }
+        CRC32 checksum = new CRC32();
+        updateChecksum(checksum, buffer.duplicate());
+        if ((int) checksum.getValue() != expectedChecksum)
+            throw new IOException("Corrupt snapshot file " + file);
+
+        Snapshot snapshot = new Snapshot(buffer, rootSchemaNode, file);
+        return new LazyContainerDataNode(snapshot,
+                HEADER_LENGTH + dictionaryLength);
+    }
+
+    /**
+     * Add the remaining bytes of a buffer to a checksum, consuming them.
+     * CRC32 only takes arrays before Java 8, so the bytes of a mapped buffer
+     * are copied out in chunks.
+     */
+    private static void updateChecksum(CRC32 checksum, ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            checksum.update(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(buffer.remaining(),
+                CHECKSUM_CHUNK_LENGTH)];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(buffer.remaining(), chunk.length);
+            buffer.get(chunk, 0, length);
+            checksum.update(chunk, 0, length);
+        }
+    }
+
+    /** A heap buffer that grows as it's written to */
+    private static final class OutputBuffer {
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        private void ensureCapacity(int length) {
+            if (buffer.remaining() >= length)
+                return;
+            int capacity = buffer.capacity();
+            while (capacity - buffer.position() < length)
+                capacity *= 2;
+            ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer.put((byte) value);
+        }
+
+        void writeVarint(long value) {
+            assert value >= 0;
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void writeSignedVarint(long value) {
+            // zigzag encoding, so small negative values are short too
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void writeString(String value) {
+            writeBytes(value.getBytes(UTF8));
+        }
+
+        void writeLong(long value) {
+            ensureCapacity(8);
+            buffer.putLong(value);
+        }
+
+        /**
+         * Reserve space for a length that's written later by endLength.
+         *
+         * @return the position of the length
+         */
+        int startLength() {
+            ensureCapacity(4);
+            int position = buffer.position();
+            buffer.putInt(0);
+            return position;
+        }
+
+        void endLength(int lengthPosition) {
+            buffer.putInt(lengthPosition,
+                    buffer.position() - lengthPosition - 4);
+        }
+
+        ByteBuffer getBuffer() {
+            ByteBuffer result = buffer.duplicate();
+            result.flip();
+            return result;
+        }
+    }
+
+    private static final class Encoder {
+        private final OutputBuffer body = new OutputBuffer();
+        private final OutputBuffer dictionary = new OutputBuffer();
+        /** maps parent index and name to the (1-based) entry index */
+        private final Map<String, Integer> entryIndexes =
+                new HashMap<String, Integer>();
+
+        private int getEntryIndex(int parentIndex, String name) {
+            String entryKey = parentIndex + "/" + name;
+            Integer entryIndex = entryIndexes.get(entryKey);
+            if (entryIndex == null) {
+                entryIndex = entryIndexes.size() + 1;
+                entryIndexes.put(entryKey, entryIndex);
+                dictionary.writeVarint(parentIndex);
+                dictionary.writeString(name);
+            }
+            return entryIndex;
+        }
+
+        ByteBuffer getDictionary() {
+            ByteBuffer entries = dictionary.getBuffer();
+            OutputBuffer result = new OutputBuffer();
+            result.writeVarint(entryIndexes.size());
+            result.ensureCapacity(entries.remaining());
+            result.buffer.put(entries);
+            return result.getBuffer();
+        }
+
+        void writeDictionaryNode(SchemaNode schemaNode, DataNode dataNode,
+                int entryIndex, List<String> keyNames) throws BigDBException {
+            if (!dataNode.isDictionary())
+                throw new DataNodeTypeMismatchException("Expected a dictionary node");
+
+            // The key leafs come first, so they can be read on their own
+            List<String> childNames = new ArrayList<String>(keyNames);
+            for (String childName: dataNode.getChildNames()) {
+                if (!keyNames.contains(childName) &&
+                        !dataNode.getChild(childName).isNull())
+                    childNames.add(childName);
+            }
+            body.writeVarint(childNames.size());
+            for (String childName: childNames) {
+                SchemaNode childSchemaNode =
+                        schemaNode.getChildSchemaNode(childName);
+                int childEntryIndex = getEntryIndex(entryIndex, childName);
+                body.writeVarint(childEntryIndex - 1);
+                writeChild(childSchemaNode, dataNode.getChild(childName),
+                        childEntryIndex);
+            }
+        }
+
+        private void writeChild(SchemaNode schemaNode, DataNode dataNode,
+                int entryIndex) throws BigDBException {
+            int lengthPosition;
+            switch (schemaNode.getNodeType()) {
+            case LEAF:
+                writeLeafValue(dataNode);
+                break;
+            case LEAF_LIST:
+                body.writeVarint(dataNode.childCount());
+                for (DataNode leafDataNode: dataNode)
+                    writeLeafValue(leafDataNode);
+                break;
+            case CONTAINER:
+                lengthPosition = body.startLength();
+                writeDictionaryNode(schemaNode, dataNode, entryIndex,
+                        Collections.<String>emptyList());
+                body.endLength(lengthPosition);
+                break;
+            case LIST:
+                ListSchemaNode listSchemaNode = (ListSchemaNode) schemaNode;
+                List<String> keyNames = listSchemaNode.getKeyNodeNames();
+                body.writeVarint(dataNode.childCount());
+                for (DataNode listElementDataNode: dataNode) {
+                    lengthPosition = body.startLength();
+                    writeDictionaryNode(
+                            listSchemaNode.getListElementSchemaNode(),
+                            listElementDataNode, entryIndex, keyNames);
+                    body.endLength(lengthPosition);
+                }
+                break;
+            default:
+                throw new DataNodeTypeMismatchException(
+                        "Unexpected schema node type: " +
+                                schemaNode.getNodeType());
+            }
+        }
+
+        private void writeLeafValue(DataNode dataNode) throws BigDBException {
+            if (dataNode.getNodeType() != DataNode.NodeType.LEAF)
+                throw new DataNodeTypeMismatchException("Expected a leaf node");
+            LeafDataNode.LeafType leafType =
+                    ((LeafDataNode) dataNode).getLeafType();
+            if (dataNode.isValueNull()) {
+                body.writeByte(leafType.ordinal() | NULL_VALUE_FLAG);
+                return;
+            }
+            body.writeByte(leafType.ordinal());
+            Object value = dataNode.getObject();
+            switch (leafType) {
+            case BOOLEAN:
+                body.writeByte(((Boolean) value) ? 1 : 0);
+                break;
+            case LONG:
+                body.writeSignedVarint((Long) value);
+                break;
+            case BIG_INTEGER:
+                body.writeBytes(((BigInteger) value).toByteArray());
+                break;
+            case BIG_DECIMAL:
+                body.writeString(((BigDecimal) value).toString());
+                break;
+            case DOUBLE:
+                body.writeLong(Double.doubleToRawLongBits((Double) value));
+                break;
+            case STRING:
+                body.writeString((String) value);
+                break;
+            case BINARY:
+                body.writeBytes((byte[]) value);
+                break;
+            }
+        }
+    }
+
+    /** A cursor over the mapped file. Each load uses its own. */
+    private static final class Decoder {
+        private final ByteBuffer buffer;
+
+        Decoder(ByteBuffer buffer, int position) {
+            this.buffer = buffer.duplicate();
+            this.buffer.position(position);
+        }
+
+        int position() {
+            return buffer.position();
+        }
+
+        void skip(int length) {
+            buffer.position(buffer.position() + length);
+        }
+
+        int readByte() {
+            return buffer.get() & 0xFF;
+        }
+
+        long readVarint() {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        int readCount() {
+            return (int) readVarint();
+        }
+
+        long readSignedVarint() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int readLength() {
+            return buffer.getInt();
+        }
+
+        byte[] readBytes() {
+            byte[] bytes = new byte[readCount()];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        String readString() {
+            return new String(readBytes(), UTF8);
+        }
+
+        long readLong() {
+            return buffer.getLong();
+        }
+    }
+
+    /** The mapped file of a loaded snapshot and its resolved dictionary */
+    private static final class Snapshot {
+        private final ByteBuffer buffer;
+        private final String[] names;
+        private final SchemaNode[] schemaNodes;
+
+        Snapshot(ByteBuffer buffer, SchemaNode rootSchemaNode, File file)
+                throws BigDBException, IOException {
+            this.buffer = buffer;
+            Decoder in = new Decoder(buffer, HEADER_LENGTH);
+            int count = in.readCount();
+            names = new String[count];
+            schemaNodes = new SchemaNode[count];
+            for (int i = 0; i < count; i++) {
+                int parentIndex = in.readCount();
+                names[i] = in.readString();
+                if (parentIndex > i)
+                    throw new IOException("Corrupt snapshot file " + file);
+                SchemaNode parentSchemaNode = (parentIndex == 0) ?
+                        rootSchemaNode : schemaNodes[parentIndex - 1];
+                // The schema of a list is the schema of its elements too
+                schemaNodes[i] = parentSchemaNode.getChildSchemaNode(names[i]);
+            }
+        }
+
+        SnapTreeMap<String, DataNode> readChildNodes(int position)
+                throws BigDBException {
+            Decoder in = new Decoder(buffer, position);
+            SnapTreeMap<String, DataNode> childNodes =
+                    new SnapTreeMap<String, DataNode>();
+            int count = in.readCount();
+            for (int i = 0; i < count; i++) {
+                int entryIndex = in.readCount();
+                childNodes.put(names[entryIndex], readChild(in, entryIndex));
+            }
+            return childNodes;
+        }
+
+        /** Read the leading key leafs of a list element */
+        Map<String, DataNode> readKeyNodes(int position, int keyCount)
+                throws BigDBException {
+            Decoder in = new Decoder(buffer, position);
+            Map<String, DataNode> keyNodes =
+                    new LinkedHashMap<String, DataNode>();
+            in.readCount();
+            for (int i = 0; i < keyCount; i++) {
+                int entryIndex = in.readCount();
+                keyNodes.put(names[entryIndex], readLeafValue(in));
+            }
+            return keyNodes;
+        }
+
+        private DataNode readChild(Decoder in, int entryIndex)
+                throws BigDBException {
+            SchemaNode schemaNode = schemaNodes[entryIndex];
+            int length;
+            switch (schemaNode.getNodeType()) {
+            case LEAF:
+                return readLeafValue(in);
+            case LEAF_LIST:
+                int leafCount = in.readCount();
+                List<DataNode> leafDataNodes = new ArrayList<DataNode>(leafCount);
+                for (int i = 0; i < leafCount; i++)
+                    leafDataNodes.add(readLeafValue(in));
+                return new MemoryLeafListDataNode(false, leafDataNodes);
+            case CONTAINER:
+                length = in.readLength();
+                DataNode containerDataNode =
+                        new LazyContainerDataNode(this, in.position());
+                in.skip(length);
+                return containerDataNode;
+            case LIST:
+                ListSchemaNode listSchemaNode = (ListSchemaNode) schemaNode;
+                IndexSpecifier keySpecifier = listSchemaNode.getKeySpecifier();
+                int keyCount = listSchemaNode.getKeyNodeNames().size();
+                int elementCount = in.readCount();
+                Map<IndexValue, DataNode> keyedElements =
+                        new LinkedHashMap<IndexValue, DataNode>();
+                List<DataNode> unkeyedElements = new ArrayList<DataNode>();
+                for (int i = 0; i < elementCount; i++) {
+                    length = in.readLength();
+                    LazyListElementDataNode listElementDataNode =
+                            new LazyListElementDataNode(this, in.position(),
+                                    readKeyNodes(in.position(), keyCount));
+                    in.skip(length);
+                    if (keySpecifier != null) {
+                        keyedElements.put(IndexValue.fromValues(keySpecifier,
+                                listElementDataNode.keyNodes),
+                                listElementDataNode);
+                    } else {
+                        unkeyedElements.add(listElementDataNode);
+                    }
+                }
+                return (keySpecifier != null) ?
+                        new MemoryKeyedListDataNode(keySpecifier, keyedElements) :
+                        new MemoryUnkeyedListDataNode(false,
+                                unkeyedElements.iterator());
+            default:
+                throw new DataNodeTypeMismatchException(
+                        "Unexpected schema node type: " +
+                                schemaNode.getNodeType());
+            }
+        }
+
+        private DataNode readLeafValue(Decoder in) throws BigDBException {
+            int tag = in.readByte();
+            boolean nullValue = (tag & NULL_VALUE_FLAG) != 0;
+            int leafTypeIndex = tag & ~NULL_VALUE_FLAG;
+            if (leafTypeIndex >= LEAF_TYPES.length)
+                throw new DataNodeTypeMismatchException("Invalid leaf type " + tag);
+            switch (LEAF_TYPES[leafTypeIndex]) {
+            case BOOLEAN:
+                return new MemoryLeafDataNode(nullValue ? null :
+                        Boolean.valueOf(in.readByte() != 0));
+            case LONG:
+                return new MemoryLeafDataNode(nullValue ? null :
+                        Long.valueOf(in.readSignedVarint()));
+            case BIG_INTEGER:
+                return new MemoryLeafDataNode(nullValue ? null :
+                        new BigInteger(in.readBytes()));
+            case BIG_DECIMAL:
+                return new MemoryLeafDataNode(nullValue ? null :
+                        new BigDecimal(in.readString()));
+            case DOUBLE:
+                return new MemoryLeafDataNode(nullValue ? null :
+                        Double.valueOf(Double.longBitsToDouble(in.readLong())));
+            case STRING:
+                return new MemoryLeafDataNode(nullValue ? null :
+                        in.readString());
+            case BINARY:
+            default:
+                return new MemoryLeafDataNode(nullValue ? null :
+                        in.readBytes());
+            }
+        }
+    }
+
+    /** A container whose children are decoded when they're first accessed */
+    static final class LazyContainerDataNode extends MemoryContainerDataNode {
+        private final Snapshot snapshot;
+        private final int position;
+
+        LazyContainerDataNode(Snapshot snapshot, int position)
+                throws BigDBException {
+            super();
+            this.snapshot = snapshot;
+            this.position = position;
+            freeze();
+        }
+
+        @Override
+        protected SnapTreeMap<String, DataNode> loadChildNodes()
+                throws BigDBException {
+            return snapshot.readChildNodes(position);
+        }
+    }
+
+    /**
+     * A list element whose children are decoded when they're first accessed,
+     * except for its key leafs, which are decoded up front.
+     */
+    static final class LazyListElementDataNode extends MemoryListElementDataNode {
+        private final Snapshot snapshot;
+        private final int position;
+        private final Map<String, DataNode> keyNodes;
+
+        LazyListElementDataNode(Snapshot snapshot, int position,
+                Map<String, DataNode> keyNodes) throws BigDBException {
+            super();
+            this.snapshot = snapshot;
+            this.position = position;
+            this.keyNodes = keyNodes;
+            freeze();
+        }
+
+        @Override
+        protected SnapTreeMap<String, DataNode> loadChildNodes()
+                throws BigDBException {
+            return snapshot.readChildNodes(position);
+        }
+
+        @Override
+        public DataNode getChild(Step step) throws BigDBException {
+            // Looking up the keys doesn't load the list element
+            DataNode keyNode = keyNodes.get(step.getName());
+            return (keyNode != null) ? keyNode : super.getChild(step);
+        }
+    }
+}
@@ -6,8 +6,13 @@ import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.ref.SoftReference;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.JMException;
 import javax.management.ObjectName;
@@ -18,9 +23,12 @@ import org.projectfloodlight.db.data.DataNode;
 import org.projectfloodlight.db.data.DataNodeSerializationException;
 import org.projectfloodlight.db.data.DataNodeUtilities;
 import org.projectfloodlight.db.data.DataSource;
+import org.projectfloodlight.db.data.MutationListener;
 import org.projectfloodlight.db.data.memory.MemoryDataSource;
+import org.projectfloodlight.db.expression.LocationPathExpression;
 import org.projectfloodlight.db.query.Query;
 import org.projectfloodlight.db.schema.Schema;
+import org.projectfloodlight.db.schema.SchemaNode;
 import org.projectfloodlight.db.service.BigDBOperation;
 import org.projectfloodlight.db.service.internal.DataNodeJsonHandler;
 import org.projectfloodlight.util.IOUtils;
@@ -36,6 +44,17 @@ import com.google.common.base.Strings;
  *
  *  Writes can be configured to be asynchronous (asyncWrites).
  *
+ *  With writeAheadLog, each mutation is instead appended to a write-ahead log
+ *  of the nodes it changed (see {@link WriteAheadLog}) and is durable when
+ *  mutateData returns. The file is then a snapshot that's rewritten in the
+ *  background once the log has grown to compactionLogBytes, and on startup
+ *  the log is replayed on top of it.
+ *
+ *  With snapshotFormat=binary the file is written in a compact binary format
+ *  instead of JSON (see {@link BinaryDataNodeFormat}), which is loaded by
+ *  memory-mapping it and decoding the nodes as they're accessed. Either
+ *  format is read regardless of the setting.
+ *
  * @author Andreas Wundsam <andreas.wundsam@bigswitch.com>
  */
 public class PersistMemDataSource extends MemoryDataSource implements PersistMemDataSourceMBean {
@@ -44,17 +63,35 @@ public class PersistMemDataSource extends MemoryDataSource implements PersistMem
     public static final String PROP_KEY_FILE = "file";
     public static final String PROP_KEY_ASYNC_WRITES = "asyncWrites";
     public static final String PROP_KEY_QUIESCENCE_INTERVAL_MS = "quiescenseIntervalMs";
+    public static final String PROP_KEY_WRITE_AHEAD_LOG = "writeAheadLog";
+    public static final String PROP_KEY_COMPACTION_LOG_BYTES = "compactionLogBytes";
+    public static final String PROP_KEY_COMPACTION_INTERVAL_MS = "compactionIntervalMs";
+    public static final String PROP_KEY_SNAPSHOT_FORMAT = "snapshotFormat";
+
+    public static final String SNAPSHOT_FORMAT_JSON = "json";
+    public static final String SNAPSHOT_FORMAT_BINARY = "binary";
 
     static final int DEFAULT_QUIESCENCE_MS = 250;
+    static final long DEFAULT_COMPACTION_LOG_BYTES = 4 * 1024 * 1024;
+    static final long DEFAULT_COMPACTION_INTERVAL_MS = 10000;
 
     private final File file;
     private final DataNodeJsonHandler jsonHandler;
 
     private final boolean asyncWrites;
     private final int asyncQuiescenseMs;
+    private final boolean binarySnapshots;
 
     private final WriterDelegate<DataNode> writer;
     private SoftReference<DataNode> readRoot;
+    private long nsInRead = 0;
+
+    private final WriteAheadLog writeAheadLog;
+    private final long compactionLogBytes;
+    private final long compactionIntervalMs;
+    private ScheduledExecutorService compactionExecutor;
+    /** set while mutateData replaces the root; guarded by this */
+    private boolean mutating;
 
     public PersistMemDataSource(String name, boolean config, 
                                 Schema schema, Map<String, String> properties)
@@ -78,25 +115,87 @@ public class PersistMemDataSource extends MemoryDataSource implements PersistMem
                         .parseInt(properties.get(PROP_KEY_QUIESCENCE_INTERVAL_MS))
                         : DEFAULT_QUIESCENCE_MS;
 
+        String snapshotFormat = properties.get(PROP_KEY_SNAPSHOT_FORMAT);
+        if (Strings.isNullOrEmpty(snapshotFormat) ||
+                snapshotFormat.equals(SNAPSHOT_FORMAT_JSON)) {
+            this.binarySnapshots = false;
+        } else if (snapshotFormat.equals(SNAPSHOT_FORMAT_BINARY)) {
+            this.binarySnapshots = true;
+        } else {
+            throw new IllegalArgumentException(
+                    "invalid snapshotFormat for PersistMemDataSource: " + snapshotFormat);
+        }
+
+        boolean writeAheadLogEnabled =
+                Boolean.parseBoolean(properties.get(PROP_KEY_WRITE_AHEAD_LOG));
+        this.compactionLogBytes =
+                properties.containsKey(PROP_KEY_COMPACTION_LOG_BYTES) ? Long
+                        .parseLong(properties.get(PROP_KEY_COMPACTION_LOG_BYTES))
+                        : DEFAULT_COMPACTION_LOG_BYTES;
+        this.compactionIntervalMs =
+                properties.containsKey(PROP_KEY_COMPACTION_INTERVAL_MS) ? Long
+                        .parseLong(properties.get(PROP_KEY_COMPACTION_INTERVAL_MS))
+                        : DEFAULT_COMPACTION_INTERVAL_MS;
+
+        // With the write-ahead log the snapshots are written from the
+        // compaction thread, so they don't need to be asynchronous.
         this.writer =
-                asyncWrites ? new AsyncWriterDelegate<DataNode>(new SyncDataNodeWriterDelegate(
+                (asyncWrites && !writeAheadLogEnabled) ? new AsyncWriterDelegate<DataNode>(new SyncDataNodeWriterDelegate(
                         this.file), this.asyncQuiescenseMs) : new SyncDataNodeWriterDelegate(
                         this.file);
 
         this.jsonHandler =
                 new DataNodeJsonHandler(Collections.<String, DataSource> singletonMap(name,
                         this));
+
+        if (writeAheadLogEnabled) {
+            this.writeAheadLog =
+                    new WriteAheadLog(file, jsonHandler);
+            addMutatedNodesListener(new MutatedNodesListener() {
+                @Override
+                public void nodesMutated(DataNode newRoot,
+                        Map<LocationPathExpression, MutationListener.Operation> mutatedNodes)
+                                throws BigDBException {
+                    writeAheadLog.append(getRootSchemaNode(), newRoot,
+                            mutatedNodes);
+                }
+            });
+        } else {
+            this.writeAheadLog = null;
+        }
     }
 
     public void read() throws BigDBException, IOException {
-        try (FileInputStream inputStream = new FileInputStream(file)) {
-            logger.info("PersistMemDataSource - reading persisted config from " + file);
-            root = jsonHandler.readDataNode(inputStream, getRootSchemaNode(), name);
+        long start = System.nanoTime();
+        if (file.exists()) {
+            if (BinaryDataNodeFormat.isBinaryFile(file)) {
+                logger.info("PersistMemDataSource - loading persisted binary config from " + file);
+                root = BinaryDataNodeFormat.read(file, getRootSchemaNode());
+            } else {
+                try (FileInputStream inputStream = new FileInputStream(file)) {
+                    logger.info("PersistMemDataSource - reading persisted config from " + file);
+                    root = jsonHandler.readDataNode(inputStream, getRootSchemaNode(), name);
+                }
+            }
+        }
 
-            readRoot = new SoftReference<DataNode>(root);
-            if(logger.isTraceEnabled())
-                logger.trace("PersistMemDataSource - read persisted config (digest=" + DataNodeUtilities.getDigestValueStringSafe(root) + ")");
+        // Replay the mutations logged since the snapshot was written, and
+        // fold them into a new snapshot so the log starts out empty. This
+        // also applies a log left behind by a run with writeAheadLog.
+        List<File> segmentFiles = WriteAheadLog.getSegmentFiles(file);
+        if (!segmentFiles.isEmpty()) {
+            logger.info("PersistMemDataSource - replaying " + segmentFiles.size() +
+                    " write-ahead log segment(s) for " + file);
+            root = WriteAheadLog.replay(segmentFiles, root, jsonHandler,
+                    getRootSchemaNode(), name);
+            new SyncDataNodeWriterDelegate(file).write(root);
+            WriteAheadLog.deleteSegments(file, Long.MAX_VALUE);
         }
+        nsInRead += System.nanoTime() - start;
+
+        readRoot = new SoftReference<DataNode>(root);
+        if(logger.isTraceEnabled())
+            logger.trace("PersistMemDataSource - read persisted config (digest=" + DataNodeUtilities.getDigestValueStringSafe(root) + ")");
     }
 
     @Override
@@ -107,13 +206,43 @@ public class PersistMemDataSource extends MemoryDataSource implements PersistMem
         if(getState() != State.RUNNING)
             throw new IllegalStateException("Datasource not in state RUNNING, but "+getState() + ". Make sure BigDB is listed in floodlight.properties before any modules that depend on it.");
 
-        super.mutateData(operation, query, replaceDataNode, authContext);
+        if (writeAheadLog == null) {
+            super.mutateData(operation, query, replaceDataNode, authContext);
+            writer.write(root);
+            return;
+        }
 
-        writer.write(root);
+        long seq;
+        synchronized (this) {
+            mutating = true;
+            try {
+                super.mutateData(operation, query, replaceDataNode, authContext);
+            } finally {
+                mutating = false;
+            }
+            seq = writeAheadLog.getSeq();
+        }
+        // Wait for the fsync outside of the lock, so that the mutations
+        // made in the meantime are made durable by the same fsync.
+        try {
+            writeAheadLog.sync(seq);
+        } catch (IOException e) {
+            logger.warn("PersistMemDataSource - write-ahead log failed for " + file +
+                    ", writing a snapshot instead: " + e);
+            compactLog();
+        }
+    }
+
+    private void compactLog() throws BigDBException {
+        try {
+            writeAheadLog.compact(writer);
+        } catch (IOException e) {
+            throw new DataNodeSerializationException(e);
+        }
     }
 
     @Override
-    public void setRoot(DataNode root) throws BigDBException {
+    public synchronized void setRoot(DataNode root) throws BigDBException {
         DataNode oldRoot = this.root;
         super.setRoot(root);
 
@@ -129,7 +258,14 @@ public class PersistMemDataSource extends MemoryDataSource implements PersistMem
             logger.trace("setRoot: stack trace: "+Joiner.on("\n").join(new Exception().getStackTrace()));
         }
 
-        writer.write(root);
+        if (writeAheadLog == null || getState() != State.RUNNING) {
+            writer.write(root);
+        } else if (!mutating) {
+            // A whole new root, e.g. from the master; there are no changed
+            // nodes to log, so start over with a snapshot of it.
+            writeAheadLog.setRoot(this.root);
+            compactLog();
+        }
     }
 
     @Override
@@ -145,7 +281,7 @@ public class PersistMemDataSource extends MemoryDataSource implements PersistMem
         }
         super.startup();
 
-        if (file.exists()) {
+        if (file.exists() || !WriteAheadLog.getSegmentFiles(file).isEmpty()) {
             try {
                 read();
             } catch (IOException e) {
@@ -156,16 +292,77 @@ public class PersistMemDataSource extends MemoryDataSource implements PersistMem
         }
 
         writer.start();
+
+        if (writeAheadLog != null) {
+            try {
+                writeAheadLog.open(root);
+            } catch (IOException e) {
+                throw new BigDBException("Error opening write-ahead log for "+file, e);
+            }
+            startCompaction();
+        }
+    }
+
+    private void startCompaction() {
+        compactionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PersistMemDataSource-compaction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        compactionExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (writeAheadLog.getSegmentBytes() < compactionLogBytes)
+                    return;
+                try {
+                    compactLog();
+                } catch (Exception e) {
+                    logger.warn("PersistMemDataSource - error compacting write-ahead log for " + file, e);
+                }
+            }
+        }, compactionIntervalMs, compactionIntervalMs, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public synchronized void shutdown() throws BigDBException {
         super.shutdown();
         writer.shutdown();
+        if (writeAheadLog != null) {
+            if (compactionExecutor != null)
+                compactionExecutor.shutdownNow();
+            try {
+                writeAheadLog.close();
+            } catch (IOException e) {
+                throw new BigDBException("Error closing write-ahead log for "+file, e);
+            }
+        }
+    }
+
+    /**
+     * Write a snapshot of the data node tree in the configured format and
+     * force it to disk
+     */
+    private long writeSnapshot(File snapshotFile, DataNode root)
+            throws DataNodeSerializationException, IOException {
+        if (!binarySnapshots) {
+            long length = jsonHandler.writeToFile(snapshotFile, root);
+            IOUtils.fsync(snapshotFile);
+            return length;
+        }
+        SchemaNode rootSchemaNode;
+        try {
+            rootSchemaNode = getRootSchemaNode();
+        } catch (BigDBException e) {
+            throw new DataNodeSerializationException(e);
+        }
+        return BinaryDataNodeFormat.write(snapshotFile, rootSchemaNode, root);
     }
 
     /** synchronous datanode writer. Writes the datanode out to
-     *  a flat JSON file. Relies on UNIX atomic renaming sematics
+     *  a flat JSON (or binary) file. Relies on UNIX atomic renaming sematics
      *  for atomicity.
      *
      * @author Andreas Wundsam <andreas.wundsam@bigswitch.com>
@@ -198,8 +395,11 @@ public class PersistMemDataSource extends MemoryDataSource implements PersistMem
             // several FL processes running at the same time. We do not currently lock the file.
             File newFile = new File(file + ".new." + ( random.nextLong() & Long.MAX_VALUE));
             try {
-                bytesWritten += jsonHandler.writeToFile(newFile, root);
+                bytesWritten += writeSnapshot(newFile, root);
                 IOUtils.mvAndOverride(newFile, file);
+                // make the rename durable before the caller relies on it,
+                // e.g. by deleting the write-ahead log segments
+                IOUtils.fsyncDirectory(file.getAbsoluteFile().getParentFile());
                 if(logger.isDebugEnabled())
                     logger.debug("persisted config (digest=" + DataNodeUtilities.getDigestValueStringSafe(root) + ") to " + file);
                 realWrites++;
@@ -310,6 +510,26 @@ public class PersistMemDataSource extends MemoryDataSource implements PersistMem
         return writer.getMsInWrite();
     }
 
+    @Override
+    public synchronized long getMsInRead() {
+        return nsInRead / 1000000L;
+    }
+
+    @Override
+    public long getLogRecords() {
+        return (writeAheadLog != null) ? writeAheadLog.getRecords() : 0;
+    }
+
+    @Override
+    public long getLogBytesWritten() {
+        return (writeAheadLog != null) ? writeAheadLog.getBytesWritten() : 0;
+    }
+
+    @Override
+    public long getLogSyncs() {
+        return (writeAheadLog != null) ? writeAheadLog.getSyncs() : 0;
+    }
+
     @Override
     public String getCurrentContent() {
         try {
@@ -16,6 +16,17 @@ public interface PersistMemDataSourceMBean {
 
     public abstract long getMsInWrite();
 
+    /** time spent loading the snapshot and replaying the log on startup */
+    public long getMsInRead();
+
+    /** number of mutations appended to the write-ahead log */
+    public long getLogRecords();
+
+    public long getLogBytesWritten();
+
+    /** number of fsyncs of the write-ahead log; each covers one or more records */
+    public long getLogSyncs();
+
     public String getCurrentContent();
     public String getReadContent();
     public String getWrittenContent();
@@ -0,0 +1,524 @@
+package org.projectfloodlight.db.data.persistmem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.projectfloodlight.db.BigDBException;
+import org.projectfloodlight.db.data.DataNode;
+import org.projectfloodlight.db.data.DataNodeSerializationException;
+import org.projectfloodlight.db.data.MutationListener;
+import org.projectfloodlight.db.data.syncmem.MutationLog;
+import org.projectfloodlight.db.expression.LocationPathExpression;
+import org.projectfloodlight.db.schema.SchemaNode;
+import org.projectfloodlight.db.service.internal.DataNodeJsonHandler;
+import org.projectfloodlight.util.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Charsets;
+
+/**
+ * Append-only log of the changes made by the mutations of a
+ * {@link PersistMemDataSource}, so that a mutation is persisted by writing
+ * the nodes it changed instead of the whole tree.
+ *
+ * The log is a sequence of segment files next to the snapshot file, named
+ * "&lt;snapshot file&gt;.wal.&lt;n&gt;". Each record holds the changes of one
+ * mutation in the {@link MutationLog} form - the new value of each written
+ * node, or its deletion - as JSON framed by its length and CRC32, so a
+ * record torn by a crash is detected and ignored on replay. Only the last
+ * record of the newest segment can be torn that way; a bad record anywhere
+ * else means records the log reported as persisted are lost, so replay
+ * fails and leaves the segments in place.
+ *
+ * Applying a record sets nodes to the values they had after the mutation,
+ * so replaying records whose changes are already in the snapshot doesn't
+ * change it. That's what makes it safe to write a new snapshot first and
+ * delete the segments it covers afterwards, as long as the snapshot file
+ * and its rename are forced to disk before the segments are deleted.
+ *
+ * Records are written to the segment when they're appended and made
+ * durable by {@link #sync(long)}, which forces everything appended so far
+ * with a single fsync. Writers that wait while another writer's fsync is in
+ * progress are usually all covered by the next one (group commit).
+ */
+class WriteAheadLog {
+    private final static Logger logger =
+            LoggerFactory.getLogger(WriteAheadLog.class);
+
+    static final String SEGMENT_INFIX = ".wal.";
+
+    private static final int HEADER_LENGTH = 8;
+    private static final int MAX_RECORD_LENGTH = 256 * 1024 * 1024;
+
+    private final static JsonFactory jsonFactory = new JsonFactory();
+
+    private final File file;
+    private final DataNodeJsonHandler jsonHandler;
+
+    /** serializes snapshots; taken before syncLock */
+    private final Object compactLock = new Object();
+    /** serializes fsyncs; taken before the lock on this */
+    private final Object syncLock = new Object();
+
+    // guarded by this
+    private FileChannel channel;
+    private long segment;
+    private long segmentBytes;
+    private long seq;
+    /** the root after the last appended record */
+    private DataNode root;
+    /** the segment of the first failed append, or -1 */
+    private long failedSegment = -1;
+    private long records;
+    private long bytesWritten;
+
+    // guarded by syncLock
+    private long syncedSeq;
+    private long syncs;
+
+    /**
+     * @param file the snapshot file
+     * @param jsonHandler the handler for serializing the changed nodes
+     */
+    WriteAheadLog(File file, DataNodeJsonHandler jsonHandler) {
+        this.file = file;
+        this.jsonHandler = jsonHandler;
+    }
+
+    // ***************
+    // Segment files
+    // ***************
+
+    private static long getSegmentNumber(File file, File segmentFile) {
+        String prefix = file.getName() + SEGMENT_INFIX;
+        String name = segmentFile.getName();
+        if (!name.startsWith(prefix))
+            return -1;
+        try {
+            return Long.parseLong(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static File getSegmentFile(File file, long segment) {
+        return new File(file.getPath() + SEGMENT_INFIX + segment);
+    }
+
+    /**
+     * @param file the snapshot file
+     * @return the segment files of the log, oldest first
+     */
+    static List<File> getSegmentFiles(final File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File[] files = (dir != null) ? dir.listFiles() : null;
+        List<File> segmentFiles = new ArrayList<File>();
+        if (files == null)
+            return segmentFiles;
+        for (File f : files) {
+            if (getSegmentNumber(file, f) >= 0)
+                segmentFiles.add(f);
+        }
+        Collections.sort(segmentFiles, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long n1 = getSegmentNumber(file, f1);
+                long n2 = getSegmentNumber(file, f2);
+                return (n1 < n2) ? -1 : ((n1 == n2) ? 0 : 1);
+            }
+        });
+        return segmentFiles;
+    }
+
+    /**
+     * Delete the segments before a segment number
+     */
+    static void deleteSegments(File file, long beforeSegment) {
+        for (File segmentFile : getSegmentFiles(file)) {
+            if (getSegmentNumber(file, segmentFile) >= beforeSegment)
+                break;
+            if (!segmentFile.delete())
+                logger.warn("Could not delete write-ahead log segment " +
+                        segmentFile);
+        }
+    }
+
+    // ********
+    // Replay
+    // ********
+
+    /**
+     * A record that can't be read
+     */
+    private static class BadRecordException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        /** true if the record runs up to or past the end of the segment */
+        final boolean atEnd;
+
+        BadRecordException(String message, boolean atEnd) {
+            super(message);
+            this.atEnd = atEnd;
+        }
+    }
+
+    /**
+     * Apply the records of segment files to a root
+     * @param segmentFiles the segments, oldest first
+     * @param root the root loaded from the snapshot
+     * @param name the name of the data source
+     * @return the new root
+     * @throws IOException if a record other than a torn last record of the
+     * newest segment is corrupt
+     */
+    static DataNode replay(List<File> segmentFiles, DataNode root,
+            DataNodeJsonHandler jsonHandler, SchemaNode rootSchemaNode,
+            String name) throws IOException, BigDBException {
+        for (int i = 0; i < segmentFiles.size(); i++) {
+            File segmentFile = segmentFiles.get(i);
+            boolean newest = (i == segmentFiles.size() - 1);
+            long length = segmentFile.length();
+            long offset = 0;
+            int count = 0;
+            try (DataInputStream in = new DataInputStream(
+                    new FileInputStream(segmentFile))) {
+                while (offset < length) {
+                    byte[] payload = readRecord(in, length - offset);
+                    root = applyRecord(payload, root, jsonHandler,
+                            rootSchemaNode, name);
+                    offset += HEADER_LENGTH + payload.length;
+                    count++;
+                }
+            } catch (BadRecordException e) {
+                if (!newest || !e.atEnd) {
+                    throw new IOException(e.getMessage() +
+                            " in write-ahead log segment " + segmentFile +
+                            " at offset " + offset, e);
+                }
+                // A record that was being written when the process died;
+                // it was never reported as persisted.
+                logger.warn("Ignoring torn record at the end of " + segmentFile);
+            }
+            if (logger.isDebugEnabled())
+                logger.debug("Replayed " + count + " records from " + segmentFile);
+        }
+        return root;
+    }
+
+    /**
+     * @param remaining the number of bytes left in the segment
+     * @return the payload of the next record
+     * @throws BadRecordException if the record is torn or corrupt
+     */
+    private static byte[] readRecord(DataInputStream in, long remaining)
+            throws IOException {
+        if (remaining < HEADER_LENGTH)
+            throw new BadRecordException("Truncated record header", true);
+        int length = in.readInt();
+        long checksum = in.readInt() & 0xffffffffL;
+        if (length > remaining - HEADER_LENGTH)
+            throw new BadRecordException("Truncated record", true);
+        if (length == 0) {
+            // Never written, since even an empty change list has a payload,
+            // and its zero checksum would match. A crash can leave zeros
+            // after the last record if the file length reached the disk
+            // before the data; that's a torn record like any other.
+            throw new BadRecordException("Empty record", checksum == 0 &&
+                    isZeroTail(in, remaining - HEADER_LENGTH));
+        }
+        if (length < 0 || length > MAX_RECORD_LENGTH)
+            throw new BadRecordException("Invalid record length " + length,
+                                         false);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (crc.getValue() != checksum) {
+            throw new BadRecordException("Record checksum mismatch",
+                    length == remaining - HEADER_LENGTH);
+        }
+        return payload;
+    }
+
+    /**
+     * @param remaining the number of bytes left in the segment
+     * @return true if all the bytes left in the segment are zero
+     */
+    private static boolean isZeroTail(DataInputStream in, long remaining)
+            throws IOException {
+        byte[] buffer = new byte[8192];
+        while (remaining > 0) {
+            int n = (int) Math.min(buffer.length, remaining);
+            in.readFully(buffer, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] != 0)
+                    return false;
+            }
+            remaining -= n;
+        }
+        return true;
+    }
+
+    private static DataNode applyRecord(byte[] payload, DataNode root,
+            DataNodeJsonHandler jsonHandler, SchemaNode rootSchemaNode,
+            String name) throws IOException, BigDBException {
+        JsonParser parser = jsonFactory.createParser(payload);
+        if (parser.nextToken() != JsonToken.START_ARRAY)
+            throw new BigDBException("Expected write-ahead log change list");
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            LocationPathExpression path = null;
+            DataNode newDataNode = DataNode.NULL;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                if (fieldName.equals("path")) {
+                    parser.nextToken();
+                    path = LocationPathExpression.parse(parser.getText());
+                } else if (fieldName.equals("data")) {
+                    if (path == null)
+                        throw new BigDBException("Write-ahead log change data before path");
+                    newDataNode = jsonHandler.readDataNode(parser,
+                            MutationLog.getSchemaNode(rootSchemaNode, path),
+                            name);
+                } else {
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+            }
+            if (path == null)
+                throw new BigDBException("Write-ahead log change without path");
+            root = MutationLog.setDataNode(rootSchemaNode, root, path,
+                                           newDataNode);
+        }
+        parser.close();
+        return root;
+    }
+
+    // *********
+    // Writing
+    // *********
+
+    /**
+     * Start appending to a new segment after the existing ones
+     * @param root the current root of the data source
+     */
+    synchronized void open(DataNode root) throws IOException {
+        List<File> segmentFiles = getSegmentFiles(file);
+        segment = segmentFiles.isEmpty() ? 0 : getSegmentNumber(file,
+                segmentFiles.get(segmentFiles.size() - 1)) + 1;
+        this.root = root;
+        openSegment();
+    }
+
+    /** called with the lock on this held */
+    private void openSegment() throws IOException {
+        File newSegmentFile = getSegmentFile(file, segment);
+        @SuppressWarnings("resource")
+        RandomAccessFile segmentFile =
+                new RandomAccessFile(newSegmentFile, "rw");
+        channel = segmentFile.getChannel();
+        channel.truncate(0);
+        segmentBytes = 0;
+        // Syncing the segment only makes its records durable once the
+        // directory entry is
+        IOUtils.fsyncDirectory(newSegmentFile.getAbsoluteFile().getParentFile());
+    }
+
+    synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Append the changes of a mutation. Called with the data source lock
+     * held, so the records are in mutation order.
+     * @param rootSchemaNode the root schema node of the data source
+     * @param newRoot the root after the mutation
+     * @param mutatedNodes the paths of the nodes the mutation wrote
+     * @return the sequence number of the record
+     */
+    synchronized long append(SchemaNode rootSchemaNode, DataNode newRoot,
+            Map<LocationPathExpression, MutationListener.Operation> mutatedNodes)
+                    throws BigDBException {
+        root = newRoot;
+        seq++;
+        if (channel == null) {
+            markFailed();
+            throw new BigDBException("Write-ahead log is not open");
+        }
+        try {
+            byte[] payload =
+                    encodeRecord(rootSchemaNode, newRoot, mutatedNodes);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer buffer =
+                    ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+            buffer.putInt(payload.length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(payload);
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            records++;
+            bytesWritten += HEADER_LENGTH + payload.length;
+            segmentBytes += HEADER_LENGTH + payload.length;
+        } catch (IOException e) {
+            markFailed();
+            throw new DataNodeSerializationException(e);
+        } catch (BigDBException e) {
+            markFailed();
+            throw e;
+        }
+        return seq;
+    }
+
+    private void markFailed() {
+        if (failedSegment < 0)
+            failedSegment = segment;
+    }
+
+    /**
+     * Encode the changes as a JSON array:
+     * [{"op": "MODIFY", "path": "...", "data": ...}, ...]
+     */
+    private byte[] encodeRecord(SchemaNode rootSchemaNode, DataNode newRoot,
+            Map<LocationPathExpression, MutationListener.Operation> mutatedNodes)
+                    throws IOException, BigDBException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator gen = jsonFactory.createGenerator(out);
+        gen.writeStartArray();
+        for (LocationPathExpression path :
+                MutationLog.sortPaths(mutatedNodes.keySet())) {
+            DataNode dataNode =
+                    MutationLog.getDataNode(rootSchemaNode, newRoot, path);
+            gen.writeStartObject();
+            if (dataNode.isNull()) {
+                gen.writeStringField("op",
+                        MutationListener.Operation.DELETE.name());
+                gen.writeStringField("path", path.toString());
+            } else {
+                gen.writeStringField("op",
+                        MutationListener.Operation.MODIFY.name());
+                gen.writeStringField("path", path.toString());
+                gen.writeFieldName("data");
+                gen.writeRawValue(new String(
+                        jsonHandler.writeAsByteArray(dataNode),
+                        Charsets.UTF_8));
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Make the records up to a sequence number durable
+     * @throws IOException if the records can't be made durable, including
+     * when an earlier append failed and no snapshot has covered it yet
+     */
+    void sync(long seq) throws IOException {
+        synchronized (syncLock) {
+            if (syncedSeq >= seq)
+                return;
+            FileChannel syncChannel;
+            long syncSeq;
+            synchronized (this) {
+                if (failedSegment >= 0)
+                    throw new IOException("Write-ahead log append failed");
+                if (channel == null)
+                    throw new IOException("Write-ahead log is not open");
+                syncChannel = channel;
+                syncSeq = this.seq;
+            }
+            syncChannel.force(false);
+            syncedSeq = syncSeq;
+            syncs++;
+        }
+    }
+
+    /**
+     * Write a snapshot of the current root and delete the segments it
+     * covers. Appends continue in a new segment while the snapshot is
+     * written.
+     * @param snapshotWriter writes the snapshot file atomically and durably
+     */
+    void compact(WriterDelegate<DataNode> snapshotWriter)
+            throws IOException, BigDBException {
+        synchronized (compactLock) {
+            DataNode snapshotRoot;
+            long firstSegment;
+            synchronized (syncLock) {
+                synchronized (this) {
+                    if (channel != null) {
+                        channel.force(false);
+                        channel.close();
+                        channel = null;
+                    }
+                    syncedSeq = seq;
+                    snapshotRoot = root;
+                    segment++;
+                    firstSegment = segment;
+                    openSegment();
+                }
+            }
+            snapshotWriter.write(snapshotRoot);
+            deleteSegments(file, firstSegment);
+            synchronized (this) {
+                if (failedSegment >= 0 && failedSegment < firstSegment)
+                    failedSegment = -1;
+            }
+        }
+    }
+
+    /**
+     * Replace the root without a record, e.g. when a new root is installed
+     * as a whole. The caller must compact the log afterwards.
+     */
+    synchronized void setRoot(DataNode root) {
+        this.root = root;
+    }
+
+    // Statistics
+
+    synchronized long getSeq() {
+        return seq;
+    }
+
+    synchronized long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    synchronized long getRecords() {
+        return records;
+    }
+
+    synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    long getSyncs() {
+        synchronized (syncLock) {
+            return syncs;
+        }
+    }
+}
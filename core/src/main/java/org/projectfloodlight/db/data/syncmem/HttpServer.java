@@ -62,7 +62,7 @@ interface ServerReceiveHandler {
 
     }
 
-    Response messageReceived(ChannelBuffer content, SocketAddress socketAddress) throws Exception;
+    Response messageReceived(ChannelBuffer content, String contentType, SocketAddress socketAddress) throws Exception;
 }
 
 public class HttpServer {
@@ -147,7 +147,8 @@ public class HttpServer {
                         "Chunked transfer should have been handled by the HttpChunkAggreator");
             }
 
-            Response response= receiveHandler.messageReceived(request.getContent(), e.getRemoteAddress());
+            Response response= receiveHandler.messageReceived(request.getContent(),
+                    request.getHeader(HttpHeaders.Names.CONTENT_TYPE), e.getRemoteAddress());
             sendResponse(e, response);
         }
 
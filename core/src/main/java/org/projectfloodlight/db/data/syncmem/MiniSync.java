@@ -1,11 +1,14 @@
 package org.projectfloodlight.db.data.syncmem;
 
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.ref.SoftReference;
 import java.net.SocketAddress;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -25,11 +28,17 @@ import org.projectfloodlight.db.BigDBException;
 import org.projectfloodlight.db.data.DataNode;
 import org.projectfloodlight.db.data.DataNodeSerializationException;
 import org.projectfloodlight.db.data.DataNodeUtilities;
+import org.projectfloodlight.db.data.MutationListener;
 import org.projectfloodlight.db.data.memory.DelegatableDataSource;
+import org.projectfloodlight.db.expression.LocationPathExpression;
+import org.projectfloodlight.db.schema.SchemaNode;
 import org.projectfloodlight.db.service.internal.DataNodeJsonHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
@@ -49,6 +58,11 @@ public class MiniSync implements IHAListener {
     private final HttpClientFactory clientFactory;
 
     private final AtomicInteger numRequestedUpdates = new AtomicInteger();
+    private final AtomicInteger numDeltasSent = new AtomicInteger();
+    private final AtomicInteger numSnapshotsSent = new AtomicInteger();
+
+    /** log of recent mutations; null unless delta sync is enabled */
+    private volatile MutationLog mutationLog;
 
     private final DelegatableDataSource delegatableDataSource;
 
@@ -77,9 +91,94 @@ public class MiniSync implements IHAListener {
         }
     }
 
-    public void update(DataNode root) throws DataNodeSerializationException {
+    /**
+     * Send slaves only the nodes changed since the content they last
+     * accepted instead of the whole tree. Changes are passed in with
+     * {@link #update(DataNode, Map)}; slaves that are too far behind, or
+     * that were synced by a different master, get a full snapshot.
+     * @param maxBatches the number of mutation operations to keep in the log
+     */
+    public synchronized void enableDeltaSync(int maxBatches) {
+        if (mutationLog == null)
+            mutationLog = new MutationLog(maxBatches);
+    }
+
+    public boolean isDeltaSyncEnabled() {
+        return mutationLog != null;
+    }
+
+    public synchronized void update(DataNode root) throws DataNodeSerializationException {
         numRequestedUpdates.incrementAndGet();
-        allSlavesUpdater.setContent(new DataNodeSyncContent(root));
+        MutationLog log = mutationLog;
+        if (log != null) {
+            // we don't know what changed, so all slaves need a snapshot
+            setSnapshotContent(log, root);
+        } else {
+            allSlavesUpdater.setContent(new DataNodeSyncContent(root));
+        }
+    }
+
+    private void setSnapshotContent(MutationLog log, DataNode root) {
+        log.reset();
+        allSlavesUpdater.setContent(
+                new LogSyncContent(log, root, log.getLogId(), log.getSeq()));
+    }
+
+    /**
+     * Update the slaves after a mutation
+     * @param root the root after the mutation
+     * @param mutatedNodes the paths of the nodes written by the mutation
+     * @throws BigDBException
+     */
+    public synchronized void update(DataNode root,
+            Map<LocationPathExpression, MutationListener.Operation> mutatedNodes)
+                    throws BigDBException {
+        MutationLog log = mutationLog;
+        if (log == null) {
+            update(root);
+            return;
+        }
+        numRequestedUpdates.incrementAndGet();
+
+        // The mutation is already in the root, so if it can't be logged the
+        // slaves need a snapshot or they'd never see it.
+        long seq;
+        try {
+            seq = log.append(getChanges(root, mutatedNodes));
+        } catch (Exception e) {
+            logger.warn("Error logging minisync mutation - " +
+                    "sending snapshot instead", e);
+            setSnapshotContent(log, root);
+            return;
+        }
+        allSlavesUpdater.setContent(
+                new LogSyncContent(log, root, log.getLogId(), seq));
+    }
+
+    private List<MutationLog.Change> getChanges(DataNode root,
+            Map<LocationPathExpression, MutationListener.Operation> mutatedNodes)
+                    throws BigDBException {
+        // Record the resulting value of each mutated node rather than the
+        // operation, so a replace and a delete of the same node are both
+        // applied correctly on the slave.
+        SchemaNode rootSchemaNode = delegatableDataSource.getRootSchemaNode();
+        List<MutationLog.Change> changes =
+                new ArrayList<MutationLog.Change>(mutatedNodes.size());
+        for (LocationPathExpression path :
+                MutationLog.sortPaths(mutatedNodes.keySet())) {
+            DataNode dataNode =
+                    MutationLog.getDataNode(rootSchemaNode, root, path);
+            if (dataNode.isNull()) {
+                changes.add(new MutationLog.Change(
+                        MutationListener.Operation.DELETE, path.toString(),
+                        null));
+            } else {
+                changes.add(new MutationLog.Change(
+                        MutationListener.Operation.MODIFY, path.toString(),
+                        handler.writeAsByteArray(dataNode)));
+            }
+        }
+        return changes;
     }
 
     public synchronized void start() {
@@ -159,6 +258,79 @@ public class MiniSync implements IHAListener {
         }
     }
 
+    /**
+     * Content in the log wire format. Encodes the batches between the
+     * content the slave has and this content if they are still in the log,
+     * otherwise a snapshot of the root.
+     */
+    class LogSyncContent implements SyncContent {
+        private final MutationLog log;
+        private final DataNode dataNode;
+        private final long logId;
+        private final long seq;
+        private byte[] snapshot;
+
+        public LogSyncContent(MutationLog log, DataNode root, long logId,
+                              long seq) {
+            this.log = log;
+            this.dataNode = root;
+            this.logId = logId;
+            this.seq = seq;
+        }
+
+        @Override
+        public String getContentType() {
+            return MutationLog.CONTENT_TYPE + "; charset=UTF-8";
+        }
+
+        @Override
+        public byte[] getUpdate(SyncContent currentContent) {
+            try {
+                if (currentContent instanceof LogSyncContent) {
+                    LogSyncContent current = (LogSyncContent) currentContent;
+                    List<MutationLog.Batch> batches =
+                            log.getBatches(current.logId, current.seq, seq);
+                    if (batches != null) {
+                        numDeltasSent.incrementAndGet();
+                        return MutationLog.encodeDelta(logId, current.seq,
+                                                       seq, batches);
+                    }
+                }
+                numSnapshotsSent.incrementAndGet();
+                return MutationLog.encodeSnapshot(logId, seq, getSnapshot());
+            } catch (DataNodeSerializationException e) {
+                throw new IllegalStateException(
+                        "Error serializing minisync update", e);
+            }
+        }
+
+        private synchronized byte[] getSnapshot()
+                throws DataNodeSerializationException {
+            if (snapshot == null)
+                snapshot = handler.writeAsByteArray(dataNode);
+            return snapshot;
+        }
+
+        @Override
+        public String toString() {
+            return "LogSyncContent(log=" + logId + ", seq=" + seq +
+                    ", dataNode digest=" +
+                    DataNodeUtilities.debugToString(dataNode) + ")";
+        }
+    }
+
+    int getNumDeltasSent() {
+        return numDeltasSent.get();
+    }
+
+    int getNumSnapshotsSent() {
+        return numSnapshotsSent.get();
+    }
+
+    SyncUpdateServer getSyncServer() {
+        return syncServer;
+    }
+
     public void setControllerId(String controllerId) {
         this.controllerId = controllerId;
     }
@@ -180,8 +352,16 @@ public class MiniSync implements IHAListener {
         private final AtomicLong bytesReceived;
         private final AtomicInteger updatesIgnored;
         private final AtomicInteger updatesAccepted;
+        private final AtomicInteger deltasAccepted;
+        private final AtomicInteger updateGaps;
+        private final JsonFactory jsonFactory;
         public SoftReference<DataNode> lastReceivedRoot;
 
+        // log position of the current root; logId 0 if the root didn't
+        // come from a log update
+        private long appliedLogId;
+        private long appliedSeq;
+
         SyncUpdateServer(int port, DelegatableDataSource source, DataNodeJsonHandler handler) {
             this.port = port;
             this.source = source;
@@ -190,6 +370,9 @@ public class MiniSync implements IHAListener {
             this.bytesReceived = new AtomicLong(0);
             this.updatesIgnored = new AtomicInteger(0);
             this.updatesAccepted = new AtomicInteger(0);
+            this.deltasAccepted = new AtomicInteger(0);
+            this.updateGaps = new AtomicInteger(0);
+            this.jsonFactory = new JsonFactory();
         }
 
         public void start() {
@@ -201,18 +384,141 @@ public class MiniSync implements IHAListener {
             this.server.shutdown();
         }
 
+        /**
+         * Forget the log position of the current root, e.g. because the
+         * root is about to be changed locally
+         */
+        synchronized void resetAppliedLog() {
+            appliedLogId = 0;
+            appliedSeq = 0;
+        }
+
+        synchronized Response applyUpdate(CountingInputStream inputStream,
+                                          String contentType)
+                                                  throws BigDBException {
+            DataNode newRoot;
+            if (contentType != null &&
+                    contentType.startsWith(MutationLog.CONTENT_TYPE)) {
+                newRoot = applyLogUpdate(inputStream);
+                if (newRoot == null) {
+                    bytesReceived.addAndGet(inputStream.getCount());
+                    updateGaps.incrementAndGet();
+                    return new Response(HttpResponseStatus.CONFLICT,
+                            ChannelBuffers.copiedBuffer("Update does not apply - snapshot needed", Charsets.UTF_8));
+                }
+            } else {
+                newRoot = handler.readDataNode(inputStream, source.getRootSchemaNode(), source.getName());
+                source.setRoot(newRoot);
+                resetAppliedLog();
+            }
+            bytesReceived.addAndGet(inputStream.getCount());
+            updatesAccepted.incrementAndGet();
+            lastReceivedRoot = new SoftReference<DataNode>(newRoot);
+            return new Response(HttpResponseStatus.OK, ChannelBuffers.copiedBuffer("OK", Charsets.UTF_8));
+        }
+
+        /**
+         * Apply an update in the log wire format
+         * @return the new root, or null if the update is a delta that doesn't
+         * start at the current log position
+         */
+        private DataNode applyLogUpdate(CountingInputStream inputStream)
+                throws BigDBException {
+            SchemaNode rootSchemaNode = source.getRootSchemaNode();
+            DataNode root = null;
+            long logId = 0;
+            long seq = 0;
+            boolean delta = false;
+            try {
+                JsonParser parser = jsonFactory.createParser(inputStream);
+                if (parser.nextToken() != JsonToken.START_OBJECT)
+                    throw new BigDBException("Expected minisync update object");
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String fieldName = parser.getCurrentName();
+                    if (fieldName.equals("log")) {
+                        parser.nextToken();
+                        logId = parser.getLongValue();
+                    } else if (fieldName.equals("seq")) {
+                        parser.nextToken();
+                        seq = parser.getLongValue();
+                    } else if (fieldName.equals("base")) {
+                        parser.nextToken();
+                        long base = parser.getLongValue();
+                        if (logId != appliedLogId || base != appliedSeq) {
+                            if (logger.isDebugEnabled()) {
+                                logger.debug("Minisync delta from " + logId +
+                                        ":" + base + " doesn't apply to " +
+                                        appliedLogId + ":" + appliedSeq);
+                            }
+                            return null;
+                        }
+                        root = source.getRoot();
+                        delta = true;
+                    } else if (fieldName.equals("root")) {
+                        root = handler.readDataNode(parser, rootSchemaNode,
+                                                    source.getName());
+                    } else if (fieldName.equals("changes")) {
+                        if (root == null)
+                            throw new BigDBException("Minisync changes without a base");
+                        if (parser.nextToken() != JsonToken.START_ARRAY)
+                            throw new BigDBException("Expected minisync change list");
+                        while (parser.nextToken() == JsonToken.START_OBJECT)
+                            root = applyChange(parser, rootSchemaNode, root);
+                    } else {
+                        parser.nextToken();
+                        parser.skipChildren();
+                    }
+                }
+                parser.close();
+            } catch (IOException e) {
+                throw new BigDBException("Error parsing minisync update", e);
+            }
+            if (root == null)
+                throw new BigDBException("Minisync update without data");
+
+            source.setRoot(root);
+            appliedLogId = logId;
+            appliedSeq = seq;
+            if (delta)
+                deltasAccepted.incrementAndGet();
+            return root;
+        }
+
+        private DataNode applyChange(JsonParser parser,
+                SchemaNode rootSchemaNode, DataNode root)
+                        throws IOException, BigDBException {
+            LocationPathExpression path = null;
+            DataNode newDataNode = DataNode.NULL;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                if (fieldName.equals("path")) {
+                    parser.nextToken();
+                    path = LocationPathExpression.parse(parser.getText());
+                } else if (fieldName.equals("data")) {
+                    if (path == null)
+                        throw new BigDBException("Minisync change data before path");
+                    newDataNode = handler.readDataNode(parser,
+                            MutationLog.getSchemaNode(rootSchemaNode, path),
+                            source.getName());
+                } else {
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+            }
+            if (path == null)
+                throw new BigDBException("Minisync change without path");
+            return MutationLog.setDataNode(rootSchemaNode, root, path,
+                                           newDataNode);
+        }
+
         class SyncReceiveHandler implements ServerReceiveHandler {
             @Override
-            public Response messageReceived(ChannelBuffer content, SocketAddress remoteAddress) throws BigDBException {
+            public Response messageReceived(ChannelBuffer content, String contentType,
+                    SocketAddress remoteAddress) throws BigDBException {
 
                 if(role == SyncRole.SLAVE) {
                     CountingInputStream inputStream = new CountingInputStream(new ChannelBufferInputStream(content));
-                    DataNode newRoot = handler.readDataNode(inputStream, source.getRootSchemaNode(), source.getName());
-                    source.setRoot(newRoot);
-                    bytesReceived.addAndGet(inputStream.getCount());
-                    updatesAccepted.incrementAndGet();
-                    lastReceivedRoot = new SoftReference<DataNode>(newRoot);
-                    return new Response(HttpResponseStatus.OK, ChannelBuffers.copiedBuffer("OK", Charsets.UTF_8));
+                    return applyUpdate(inputStream, contentType);
                 } else {
                     logger.warn("Ignoring update received from " + remoteAddress + " - not in slave mode");
                     updatesIgnored.incrementAndGet();
@@ -233,6 +539,14 @@ public class MiniSync implements IHAListener {
             return updatesAccepted.get();
         }
 
+        public int getNumDeltasAccepted() {
+            return deltasAccepted.get();
+        }
+
+        public int getNumUpdateGaps() {
+            return updateGaps.get();
+        }
+
         public DataNode getLastReceivedRoot() {
             return lastReceivedRoot.get();
         }
@@ -304,6 +618,26 @@ public class MiniSync implements IHAListener {
         public long getServerNumUpdatesIgnored() {
             return syncServer.getNumUpdatesIgnored();
         }
+
+        @Override
+        public long getServerNumDeltasAccepted() {
+            return syncServer.getNumDeltasAccepted();
+        }
+
+        @Override
+        public long getServerNumUpdateGaps() {
+            return syncServer.getNumUpdateGaps();
+        }
+
+        @Override
+        public long getNumDeltasSent() {
+            return numDeltasSent.get();
+        }
+
+        @Override
+        public long getNumSnapshotsSent() {
+            return numSnapshotsSent.get();
+        }
         @Override
         public int getServerPort() {
             return serverPort;
@@ -344,6 +678,10 @@ public class MiniSync implements IHAListener {
         long getServerBytesReceived();
         long getServerNumUpdatesAccepted();
         String getPendingSendContent();
+        long getServerNumDeltasAccepted();
+        long getServerNumUpdateGaps();
+        long getNumDeltasSent();
+        long getNumSnapshotsSent();
 
     }
 
@@ -372,6 +710,7 @@ public class MiniSync implements IHAListener {
     public void transitionToMaster() {
         // update minisync's view of the current root, may have changed 
         // during slave state
+        syncServer.resetAppliedLog();
         try {
             update(delegatableDataSource.getRoot());
         } catch (DataNodeSerializationException e) {
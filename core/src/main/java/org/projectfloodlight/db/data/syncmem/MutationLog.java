@@ -0,0 +1,414 @@
+package org.projectfloodlight.db.data.syncmem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.projectfloodlight.db.BigDBException;
+import org.projectfloodlight.db.data.DataNode;
+import org.projectfloodlight.db.data.DataNodeSerializationException;
+import org.projectfloodlight.db.data.DataNodeUtilities;
+import org.projectfloodlight.db.data.IndexValue;
+import org.projectfloodlight.db.data.MutationListener;
+import org.projectfloodlight.db.data.memory.MemoryContainerDataNode;
+import org.projectfloodlight.db.data.memory.MemoryDataSource;
+import org.projectfloodlight.db.data.memory.MemoryListElementDataNode;
+import org.projectfloodlight.db.expression.LocationPathExpression;
+import org.projectfloodlight.db.query.Step;
+import org.projectfloodlight.db.schema.ListSchemaNode;
+import org.projectfloodlight.db.schema.SchemaNode;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Charsets;
+
+/**
+ * Bounded, sequence-numbered log of the mutations applied to a data source,
+ * used by {@link MiniSync} to send slaves only the changes since the
+ * content they last acknowledged.
+ *
+ * Each mutation operation is appended as one batch of changes. A change is
+ * either the complete new value of the node at a location path or the
+ * deletion of that node, so changes can be applied to a slave's tree
+ * without re-evaluating the original operation.
+ *
+ * Sequence numbers are only meaningful within one log id. A new log id is
+ * chosen whenever the log is reset, e.g. when this node becomes master, so
+ * a slave never applies deltas against state from a different master.
+ */
+public class MutationLog {
+    /**
+     * Media type of updates in the log wire format
+     */
+    public static final String CONTENT_TYPE =
+            "application/vnd.bigdb.minisync+json";
+    public static final int DEFAULT_MAX_BATCHES = 1000;
+
+    private final static Random random = new Random();
+    private final static JsonFactory jsonFactory = new JsonFactory();
+
+    private final int maxBatches;
+    private final ArrayDeque<Batch> batches;
+    private long logId;
+    private long seq;
+
+    /**
+     * A single change: the new value of the node at the path, or its
+     * deletion
+     */
+    public static class Change {
+        private final MutationListener.Operation operation;
+        private final String path;
+        private final byte[] data;
+
+        public Change(MutationListener.Operation operation, String path,
+                byte[] data) {
+            this.operation = operation;
+            this.path = path;
+            this.data = data;
+        }
+
+        public MutationListener.Operation getOperation() {
+            return operation;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /** @return the serialized node, or null for a delete */
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    /**
+     * The changes made by one mutation operation
+     */
+    public static class Batch {
+        private final long seq;
+        private final List<Change> changes;
+
+        Batch(long seq, List<Change> changes) {
+            this.seq = seq;
+            this.changes = changes;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+    }
+
+    public MutationLog(int maxBatches) {
+        this.maxBatches = Math.max(1, maxBatches);
+        this.batches = new ArrayDeque<Batch>();
+        reset();
+    }
+
+    /**
+     * Drop all batches and start a new log id. Slaves synced against the
+     * old log get a full snapshot next.
+     */
+    public synchronized void reset() {
+        batches.clear();
+        long id;
+        do {
+            id = random.nextLong();
+        } while (id == 0 || id == logId);
+        logId = id;
+    }
+
+    public synchronized long getLogId() {
+        return logId;
+    }
+
+    public synchronized long getSeq() {
+        return seq;
+    }
+
+    public synchronized int getNumBatches() {
+        return batches.size();
+    }
+
+    /**
+     * Append the changes of one mutation operation
+     * @return the sequence number of the batch
+     */
+    public synchronized long append(List<Change> changes) {
+        seq++;
+        batches.addLast(new Batch(seq, changes));
+        while (batches.size() > maxBatches)
+            batches.removeFirst();
+        return seq;
+    }
+
+    /**
+     * Get the batches needed to go from one sequence number to another
+     * @param logId the log id of both sequence numbers
+     * @param fromSeq the sequence number the slave has
+     * @param toSeq the sequence number to update to
+     * @return the batches after fromSeq up to and including toSeq, or null
+     * if the log id doesn't match or some of the batches are no longer in
+     * the log
+     */
+    public synchronized List<Batch> getBatches(long logId, long fromSeq,
+                                               long toSeq) {
+        if (logId != this.logId || fromSeq > toSeq || toSeq > seq)
+            return null;
+        if (fromSeq == toSeq)
+            return Collections.emptyList();
+        if (batches.isEmpty() || batches.getFirst().getSeq() > fromSeq + 1)
+            return null;
+        List<Batch> result = new ArrayList<Batch>();
+        for (Batch b : batches) {
+            if (b.getSeq() > toSeq)
+                break;
+            if (b.getSeq() > fromSeq)
+                result.add(b);
+        }
+        return result;
+    }
+
+    // ************
+    // Wire format
+    // ************
+
+    /**
+     * Encode a delta update:
+     * {"log": id, "base": fromSeq, "seq": toSeq,
+     *  "changes": [{"op": "MODIFY", "path": "...", "data": ...}, ...]}
+     */
+    public static byte[] encodeDelta(long logId, long fromSeq, long toSeq,
+            List<Batch> batches) throws DataNodeSerializationException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonGenerator gen = jsonFactory.createGenerator(out);
+            gen.writeStartObject();
+            gen.writeNumberField("log", logId);
+            gen.writeNumberField("base", fromSeq);
+            gen.writeNumberField("seq", toSeq);
+            gen.writeArrayFieldStart("changes");
+            for (Batch b : batches) {
+                for (Change c : b.getChanges()) {
+                    gen.writeStartObject();
+                    gen.writeStringField("op", c.getOperation().name());
+                    gen.writeStringField("path", c.getPath());
+                    if (c.getData() != null) {
+                        gen.writeFieldName("data");
+                        gen.writeRawValue(new String(c.getData(),
+                                                     Charsets.UTF_8));
+                    }
+                    gen.writeEndObject();
+                }
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new DataNodeSerializationException(e);
+        }
+    }
+
+    /**
+     * Encode a full snapshot: {"log": id, "seq": seq, "root": ...}
+     */
+    public static byte[] encodeSnapshot(long logId, long seq, byte[] root)
+            throws DataNodeSerializationException {
+        try {
+            ByteArrayOutputStream out =
+                    new ByteArrayOutputStream(root.length + 64);
+            JsonGenerator gen = jsonFactory.createGenerator(out);
+            gen.writeStartObject();
+            gen.writeNumberField("log", logId);
+            gen.writeNumberField("seq", seq);
+            gen.writeFieldName("root");
+            gen.writeRawValue(new String(root, Charsets.UTF_8));
+            gen.writeEndObject();
+            gen.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new DataNodeSerializationException(e);
+        }
+    }
+
+    // ******************
+    // Data node helpers
+    // ******************
+
+    /**
+     * Sort mutated paths so that ancestors come before their descendants
+     */
+    public static List<LocationPathExpression> sortPaths(
+            Set<LocationPathExpression> paths) {
+        List<LocationPathExpression> sorted =
+                new ArrayList<LocationPathExpression>(paths);
+        Collections.sort(sorted,
+                new java.util.Comparator<LocationPathExpression>() {
+            @Override
+            public int compare(LocationPathExpression p1,
+                               LocationPathExpression p2) {
+                return p1.size() - p2.size();
+            }
+        });
+        return sorted;
+    }
+
+    private static boolean isListElementStep(SchemaNode childSchemaNode,
+                                             Step step) {
+        return (childSchemaNode.getNodeType() == SchemaNode.NodeType.LIST) &&
+                !step.getPredicates().isEmpty();
+    }
+
+    private static IndexValue getKeyValue(ListSchemaNode listSchemaNode,
+            Step step, LocationPathExpression path) throws BigDBException {
+        IndexValue keyValue = DataNodeUtilities.getKeyValue(listSchemaNode,
+                                                            step);
+        if (keyValue == null)
+            throw new BigDBException("Expected list element key in path " +
+                                     path);
+        return keyValue;
+    }
+
+    /**
+     * Get the schema node for the node at a path. A list step with key
+     * predicates selects the list element.
+     */
+    public static SchemaNode getSchemaNode(SchemaNode rootSchemaNode,
+            LocationPathExpression path) throws BigDBException {
+        SchemaNode schemaNode = rootSchemaNode;
+        for (Step step : path.getSteps()) {
+            SchemaNode childSchemaNode =
+                    schemaNode.getChildSchemaNode(step.getName());
+            if (isListElementStep(childSchemaNode, step)) {
+                schemaNode = ((ListSchemaNode) childSchemaNode).
+                        getListElementSchemaNode();
+            } else {
+                schemaNode = childSchemaNode;
+            }
+        }
+        return schemaNode;
+    }
+
+    /**
+     * Get the data node at a path
+     * @return the node, or DataNode.NULL if it doesn't exist
+     */
+    public static DataNode getDataNode(SchemaNode rootSchemaNode,
+            DataNode root, LocationPathExpression path) throws BigDBException {
+        SchemaNode schemaNode = rootSchemaNode;
+        DataNode dataNode = root;
+        for (Step step : path.getSteps()) {
+            if (dataNode.isNull())
+                return DataNode.NULL;
+            SchemaNode childSchemaNode =
+                    schemaNode.getChildSchemaNode(step.getName());
+            dataNode = dataNode.getChild(step.getName());
+            if (isListElementStep(childSchemaNode, step)) {
+                ListSchemaNode listSchemaNode =
+                        (ListSchemaNode) childSchemaNode;
+                if (!dataNode.isNull()) {
+                    dataNode = dataNode.getChild(
+                            getKeyValue(listSchemaNode, step, path));
+                }
+                schemaNode = listSchemaNode.getListElementSchemaNode();
+            } else {
+                schemaNode = childSchemaNode;
+            }
+        }
+        return dataNode;
+    }
+
+    /**
+     * Build a new tree with the node at the path replaced. Nodes that are
+     * not on the path are shared with the old tree.
+     * @param rootSchemaNode the root schema node
+     * @param root the root of the tree
+     * @param path the path of the node to replace
+     * @param newDataNode the new node, or DataNode.NULL to delete it
+     * @return the new root
+     */
+    public static DataNode setDataNode(SchemaNode rootSchemaNode,
+            DataNode root, LocationPathExpression path, DataNode newDataNode)
+                    throws BigDBException {
+        return setDataNode(rootSchemaNode, root, path, 0, newDataNode);
+    }
+
+    private static DataNode setDataNode(SchemaNode schemaNode,
+            DataNode dataNode, LocationPathExpression path, int index,
+            DataNode newDataNode) throws BigDBException {
+        if (index == path.size())
+            return newDataNode;
+
+        Step step = path.getStep(index);
+        String childName = step.getName();
+        SchemaNode childSchemaNode = schemaNode.getChildSchemaNode(childName);
+        DataNode childDataNode = dataNode.isNull() ?
+                DataNode.NULL : dataNode.getChild(childName);
+        DataNode newChildDataNode;
+        if (isListElementStep(childSchemaNode, step)) {
+            ListSchemaNode listSchemaNode = (ListSchemaNode) childSchemaNode;
+            IndexValue keyValue = getKeyValue(listSchemaNode, step, path);
+            DataNode listElementDataNode = childDataNode.isNull() ?
+                    DataNode.NULL : childDataNode.getChild(keyValue);
+            DataNode newListElementDataNode = setDataNode(
+                    listSchemaNode.getListElementSchemaNode(),
+                    listElementDataNode, path, index + 1, newDataNode);
+            List<DataNode> updates = new ArrayList<DataNode>();
+            Set<IndexValue> deletions = new HashSet<IndexValue>();
+            if (newListElementDataNode.isNull())
+                deletions.add(keyValue);
+            else
+                updates.add(newListElementDataNode);
+            if (childDataNode.isNull()) {
+                newChildDataNode = MemoryDataSource.constructListDataNode(
+                        false, listSchemaNode.getKeySpecifier(),
+                        updates.iterator());
+            } else {
+                newChildDataNode = MemoryDataSource.constructListDataNode(
+                        childDataNode, updates, deletions);
+            }
+            if (!newChildDataNode.hasChildren())
+                newChildDataNode = DataNode.NULL;
+        } else {
+            newChildDataNode = setDataNode(childSchemaNode, childDataNode,
+                    path, index + 1, newDataNode);
+        }
+
+        Map<String, DataNode> updates = new HashMap<String, DataNode>();
+        Set<String> deletions = new HashSet<String>();
+        if (newChildDataNode.isNull())
+            deletions.add(childName);
+        else
+            updates.put(childName, newChildDataNode);
+
+        boolean container =
+                (schemaNode.getNodeType() == SchemaNode.NodeType.CONTAINER);
+        if (!dataNode.isNull()) {
+            return container ?
+                    new MemoryContainerDataNode(
+                            (MemoryContainerDataNode) dataNode, false,
+                            updates, deletions) :
+                    new MemoryListElementDataNode(
+                            (MemoryListElementDataNode) dataNode, false,
+                            updates, deletions);
+        }
+        if (updates.isEmpty())
+            return DataNode.NULL;
+        return container ?
+                new MemoryContainerDataNode(false, updates) :
+                new MemoryListElementDataNode(false, updates);
+    }
+}
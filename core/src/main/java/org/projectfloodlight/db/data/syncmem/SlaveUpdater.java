@@ -37,6 +37,7 @@ public class SlaveUpdater {
     private SyncContent currentContent;
 
     private int numIgnored = 0;
+    private int numGaps = 0;
 
     private long lastUpdateStarted;
     private long lastUpdateCompleted;
@@ -70,7 +71,15 @@ public class SlaveUpdater {
                 this.state = State.UPDATING;
                 this.pendingContent = this.requestedContent;
                 this.lastUpdateStarted = ticker.read();
-                client.request(HttpMethod.PUT, this.pendingContent.getContentType(), this.pendingContent.getUpdate(this.currentContent),
+                byte[] update;
+                try {
+                    update = this.pendingContent.getUpdate(this.currentContent);
+                } catch (RuntimeException e) {
+                    logger.warn("Error creating update for slave " + id, e);
+                    updateErrorState();
+                    return;
+                }
+                client.request(HttpMethod.PUT, this.pendingContent.getContentType(), update,
                         ImmutableMap.<String, String> of());
             }
         }
@@ -137,6 +146,10 @@ public class SlaveUpdater {
                 logger.warn("Slave ignored our update - update of slave " + id);
                 updateIgnoredState();
                 return false;
+            } else if(Objects.equal(response.getStatus(), HttpResponseStatus.CONFLICT)) {
+                logger.info("Slave couldn't apply our delta - sending a snapshot to slave " + id);
+                updateGapState();
+                return false;
             } else {
                 logger.warn("Error State " + response.getStatus() + " for update of slave " + id);
                 updateErrorState();
@@ -150,6 +163,10 @@ public class SlaveUpdater {
         return numIgnored;
     }
 
+    synchronized int getNumGaps() {
+        return numGaps;
+    }
+
     public synchronized long getErrorTimeOut() {
         return errorTimeOut;
     }
@@ -180,6 +197,18 @@ public class SlaveUpdater {
         numIgnored++;
     }
 
+    /** update status in response to the client not being able to apply
+     *  a delta. Forget what we think the client has, so the next update is
+     *  a full snapshot. No error back off.
+     */
+    public synchronized void updateGapState() {
+        this.lastUpdateCompleted = ticker.read();
+        this.currentContent = null;
+        state = State.QUIESCENCE;
+        lastError = 0;
+        numGaps++;
+    }
+
     public synchronized void updateSuccessState() {
         if(logger.isDebugEnabled()) {
             logger.debug("update Success - pending="+pendingContent + " to "+client);
@@ -12,6 +12,9 @@ import org.projectfloodlight.db.data.TransactionalDataSource;
 import org.projectfloodlight.db.data.TreespaceAware;
 import org.projectfloodlight.db.data.DataNode.DataNodeWithPath;
 import org.projectfloodlight.db.data.memory.DelegatableDataSource;
+import org.projectfloodlight.db.data.memory.MemoryDataSource;
+import org.projectfloodlight.db.data.memory.MemoryDataSource.MutatedNodesListener;
+import org.projectfloodlight.db.expression.LocationPathExpression;
 import org.projectfloodlight.db.data.persistmem.PersistMemDataSource;
 import org.projectfloodlight.db.query.Query;
 import org.projectfloodlight.db.schema.Schema;
@@ -24,12 +27,16 @@ public class SyncingDataSource implements TransactionalDataSource, TreespaceAwar
 
     private static final String DEFAULT_URI_TEMPLATE = "http://%s:8098/config";
     private static final int DEFAULT_SERVER_PORT = 8098;
+    private static final int DEFAULT_DELTA_LOG_SIZE = MutationLog.DEFAULT_MAX_BATCHES;
     private final DelegatableDataSource delegate;
     private final MiniSync sync;
+    private boolean deltaListener;
 
     public SyncingDataSource(DelegatableDataSource delegate, MiniSync syncer) {
         this.delegate = delegate;
         this.sync = syncer;
+        if (syncer.isDeltaSyncEnabled())
+            addMutatedNodesListener();
     }
 
     public SyncingDataSource(String name, boolean config, Schema schema, Map<String, String> properties)
@@ -48,6 +55,11 @@ public class SyncingDataSource implements TransactionalDataSource, TreespaceAwar
             }
             sync.setControllerNodeIPs(slaveMap.entrySet());
         }
+        if(Boolean.parseBoolean(properties.get("deltaSync"))) {
+            int logSize = properties.containsKey("deltaLogSize") ? Integer.parseInt(properties.get("deltaLogSize")) : DEFAULT_DELTA_LOG_SIZE;
+            sync.enableDeltaSync(logSize);
+            addMutatedNodesListener();
+        }
 
         if(logger.isDebugEnabled())
             logger.debug("Creating syncingDataSource. serverPort"+serverPort+", uriTemplate="+uriTemplate+"");
@@ -55,6 +67,33 @@ public class SyncingDataSource implements TransactionalDataSource, TreespaceAwar
         MiniSyncModule.getDefault().addMiniSync(sync);
     }
 
+    /**
+     * In delta mode the slaves are updated from the nodes touched by each
+     * mutation, reported by the delegate while it still holds its lock so
+     * the log is in mutation order.
+     */
+    private void addMutatedNodesListener() {
+        if (!(delegate instanceof MemoryDataSource)) {
+            logger.warn("Delta sync not supported for " + delegate.getClass().getSimpleName() +
+                    " - syncing full roots");
+            return;
+        }
+        ((MemoryDataSource) delegate).addMutatedNodesListener(new MutatedNodesListener() {
+            @Override
+            public void nodesMutated(DataNode newRoot,
+                    Map<LocationPathExpression, MutationListener.Operation> mutatedNodes)
+                            throws BigDBException {
+                sync.update(newRoot, mutatedNodes);
+            }
+        });
+        deltaListener = true;
+    }
+
+    private void syncRoot() throws BigDBException {
+        if (!deltaListener)
+            sync.update(delegate.getRoot());
+    }
+
     @Override
     public String getName() {
         return delegate.getName();
@@ -93,7 +132,7 @@ public class SyncingDataSource implements TransactionalDataSource, TreespaceAwar
             AuthContext authContext) throws BigDBException {
         checkRole();
         delegate.insertData(query, data, authContext);
-        sync.update(delegate.getRoot());
+        syncRoot();
     }
 
     private void checkRole() throws MutationOnSlaveException {
@@ -108,14 +147,14 @@ public class SyncingDataSource implements TransactionalDataSource, TreespaceAwar
             AuthContext authContext) throws BigDBException {
         checkRole();
         delegate.replaceData(query, data, authContext);
-        sync.update(delegate.getRoot());
+        syncRoot();
     }
     @Override
     public void updateData(Query query, DataNode data,
             AuthContext authContext) throws BigDBException {
         checkRole();
         delegate.updateData(query, data, authContext);
-        sync.update(delegate.getRoot());
+        syncRoot();
     }
 
     @Override
@@ -124,7 +163,7 @@ public class SyncingDataSource implements TransactionalDataSource, TreespaceAwar
                     throws BigDBException {
         checkRole();
         delegate.deleteData(query, authContext);
-        sync.update(delegate.getRoot());
+        syncRoot();
     }
 
     @Override
@@ -1,6 +1,7 @@
 package org.projectfloodlight.db.query;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,6 +21,11 @@ public class QueryContext implements VariableReplacer {
             throw VariableNotFoundException.forName(name);
     }
 
+    /** the variables of the context, by name. Unmodifiable. */
+    public Map<String, QueryVariable> getVariables() {
+        return Collections.unmodifiableMap(variables);
+    }
+
     public QueryContext add(QueryVariable var) {
         variables.put(var.getName(), var);
         return this;
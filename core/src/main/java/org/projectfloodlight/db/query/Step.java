@@ -62,6 +62,13 @@ public class Step {
     private final String name;
     protected final List<Expression> predicates;
 
+    // The exact and prefix match predicates are derived from the predicate
+    // expressions the first time they're needed. Parsed query paths are
+    // cached, so for the paths clients poll this is done only once. An empty
+    // list means there are none.
+    private volatile List<ExactMatchPredicate> exactMatchPredicates;
+    private volatile List<PrefixMatchPredicate> prefixMatchPredicates;
+
     private Step(String name, Collection<Expression> expressions,
                 String axisName) {
         assert name != null;
@@ -118,6 +125,17 @@ public class Step {
     }
 
     public List<ExactMatchPredicate> getExactMatchPredicates() {
+        List<ExactMatchPredicate> result = exactMatchPredicates;
+        if (result == null) {
+            List<ExactMatchPredicate> computed = computeExactMatchPredicates();
+            result = (computed != null) ? ImmutableList.copyOf(computed) :
+                ImmutableList.<ExactMatchPredicate>of();
+            exactMatchPredicates = result;
+        }
+        return !result.isEmpty() ? result : null;
+    }
+
+    private List<ExactMatchPredicate> computeExactMatchPredicates() {
         List<ExactMatchPredicate> result = null;
         if (predicates != null) {
             for (Expression expression: predicates) {
@@ -238,6 +256,17 @@ public class Step {
     }
 
     public List<PrefixMatchPredicate> getPrefixMatchPredicates() {
+        List<PrefixMatchPredicate> result = prefixMatchPredicates;
+        if (result == null) {
+            List<PrefixMatchPredicate> computed = computePrefixMatchPredicates();
+            result = (computed != null) ? ImmutableList.copyOf(computed) :
+                ImmutableList.<PrefixMatchPredicate>of();
+            prefixMatchPredicates = result;
+        }
+        return !result.isEmpty() ? result : null;
+    }
+
+    private List<PrefixMatchPredicate> computePrefixMatchPredicates() {
         List<PrefixMatchPredicate> result = null;
         if (predicates != null) {
             for (Expression expression: predicates) {
@@ -7,6 +7,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.antlr.runtime.ANTLRInputStream;
@@ -17,10 +18,16 @@ import org.projectfloodlight.db.ParserException;
 import org.projectfloodlight.db.expression.Expression;
 import org.projectfloodlight.db.expression.LocationPathExpression;
 import org.projectfloodlight.db.expression.UnionExpression;
+import org.projectfloodlight.db.query.QueryContext;
+import org.projectfloodlight.db.query.QueryVariable;
 import org.projectfloodlight.db.query.parser.XPathLexer;
 import org.projectfloodlight.db.query.parser.XPathParser;
 import org.restlet.data.Reference;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+
 /** static utility functions for parsing xpath expressions
  *
  * @author Andreas Wundsam <andreas.wundsam@bigswitch.com>
@@ -28,8 +35,80 @@ import org.restlet.data.Reference;
 public final class XPathParserUtils {
     private XPathParserUtils() {}
 
+    /** maximum number of parsed expressions kept in the expression cache */
+    public static final int EXPRESSION_CACHE_SIZE = 1024;
+
+    /** key of a parsed expression: the expression string and the variables
+     *  that were replaced while parsing it */
+    private static final class ExpressionKey {
+        private final String expressionString;
+        private final Map<String, QueryVariable> variables;
+
+        ExpressionKey(String expressionString,
+                Map<String, QueryVariable> variables) {
+            this.expressionString = expressionString;
+            this.variables = variables;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * expressionString.hashCode() + variables.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof ExpressionKey))
+                return false;
+            ExpressionKey other = (ExpressionKey) obj;
+            return expressionString.equals(other.expressionString) &&
+                    variables.equals(other.variables);
+        }
+    }
+
+    /** Clients poll the same few paths over and over, so parsed expressions
+     *  are cached. Expressions aren't modified once they're parsed, so they
+     *  can be shared. Failures aren't cached.
+     */
+    private static final Cache<ExpressionKey, Expression> expressionCache =
+            CacheBuilder.newBuilder().maximumSize(EXPRESSION_CACHE_SIZE).build();
+
+    /** @return the cache key for parsing the expression string with the
+     *  variable replacer, or null if the result can't be cached because the
+     *  replacer may replace a variable differently the next time
+     */
+    private static ExpressionKey getExpressionKey(String pathString,
+            VariableReplacer variableReplacer) {
+        if (pathString == null)
+            return null;
+        if ((variableReplacer == null) ||
+                (variableReplacer == VariableReplacer.NONE)) {
+            return new ExpressionKey(pathString,
+                    ImmutableMap.<String, QueryVariable>of());
+        }
+        if (variableReplacer.getClass() == QueryContext.class) {
+            return new ExpressionKey(pathString, ImmutableMap.copyOf(
+                    ((QueryContext) variableReplacer).getVariables()));
+        }
+        return null;
+    }
+
     public static Expression parseExpression(String pathString, VariableReplacer variableReplacer)
             throws BigDBException {
+        ExpressionKey key = getExpressionKey(pathString, variableReplacer);
+        if (key == null)
+            return parseUncachedExpression(pathString, variableReplacer);
+        Expression expression = expressionCache.getIfPresent(key);
+        if (expression == null) {
+            expression = parseUncachedExpression(pathString, variableReplacer);
+            expressionCache.put(key, expression);
+        }
+        return expression;
+    }
+
+    private static Expression parseUncachedExpression(String pathString,
+            VariableReplacer variableReplacer) throws BigDBException {
         try {
             pathString = Reference.decode(pathString);
             InputStream is = 
@@ -0,0 +1,116 @@
+package org.projectfloodlight.db.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import org.projectfloodlight.db.BigDBInternalError;
+import org.projectfloodlight.db.auth.AuthorizationException;
+import org.projectfloodlight.db.data.DataNode;
+import org.restlet.data.MediaType;
+import org.restlet.representation.OutputRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Writes the data nodes of a query result as a JSON array while iterating
+ * over them, so that the result is never held in memory as a whole.
+ *
+ * If a limit is set only that many data nodes are written, and the array
+ * is wrapped in an object with the array as "data" and, if there are more
+ * data nodes, the cursor for getting the next page as "next-cursor". The
+ * cursor is the position in the query result of the first data node that
+ * wasn't written.
+ *
+ * The first data node is fetched before the response starts, so a query
+ * that fails on its first data node (e.g. because it isn't authorized)
+ * still gets an error status. A failure after the response has started
+ * can only abort the response.
+ */
+public class DataNodeStreamRepresentation extends OutputRepresentation {
+    protected final static Logger logger =
+            LoggerFactory.getLogger(DataNodeStreamRepresentation.class);
+
+    public static final String DATA_FIELD = "data";
+    public static final String NEXT_CURSOR_FIELD = "next-cursor";
+
+    private final ObjectMapper mapper;
+    private final ObjectWriter writer;
+    private final Iterator<DataNode> iterator;
+    private final long cursor;
+    private final long limit;
+    private DataNode next;
+
+    /**
+     * @param mapper the mapper for serializing the data nodes
+     * @param dataNodes the query result
+     * @param cursor the number of data nodes of the query result to skip
+     * @param limit the maximum number of data nodes to write, or -1 to
+     *        write all of them as a plain array
+     */
+    public DataNodeStreamRepresentation(ObjectMapper mapper,
+            Iterable<DataNode> dataNodes, long cursor, long limit) {
+        super(MediaType.APPLICATION_JSON);
+        this.mapper = mapper;
+        // The generator does the indenting; an indenting writer would
+        // replace its pretty printer for each data node. The generator
+        // writes to the stream whenever its buffer fills up.
+        this.writer = mapper.writer()
+                .without(SerializationFeature.INDENT_OUTPUT)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.iterator = dataNodes.iterator();
+        this.cursor = cursor;
+        this.limit = limit;
+        for (long i = 0; i < cursor && iterator.hasNext(); i++)
+            iterator.next();
+        if (iterator.hasNext())
+            next = iterator.next();
+    }
+
+    private boolean isPaged() {
+        return limit >= 0;
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        JsonGenerator generator =
+                mapper.getFactory().createGenerator(outputStream);
+        generator.useDefaultPrettyPrinter();
+        if (isPaged()) {
+            generator.writeStartObject();
+            generator.writeFieldName(DATA_FIELD);
+        }
+        generator.writeStartArray();
+        long count = 0;
+        try {
+            while (next != null && (!isPaged() || count < limit)) {
+                writer.writeValue(generator, next);
+                count++;
+                next = iterator.hasNext() ? iterator.next() : null;
+            }
+        } catch (BigDBInternalError e) {
+            // Too late to report an error status; abort the response
+            if (e.getCause() instanceof AuthorizationException) {
+                logger.warn("Permission denied while streaming query " +
+                        "result: {}", e.getCause().getMessage());
+            } else {
+                logger.error("Failed to stream query result", e);
+            }
+            throw new IOException("Failed to stream query result", e);
+        }
+        generator.writeEndArray();
+        if (isPaged()) {
+            if (next != null) {
+                generator.writeStringField(NEXT_CURSOR_FIELD,
+                        Long.toString(cursor + count));
+            }
+            generator.writeEndObject();
+        }
+        generator.flush();
+    }
+}
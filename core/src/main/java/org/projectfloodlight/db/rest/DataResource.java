@@ -64,6 +64,19 @@ public class DataResource extends BigDBResource {
         throw new BigDBException("Invalid boolean query parameter: " + value);
     }
 
+    private static long parseCountValue(String name, String value)
+            throws BigDBException {
+        try {
+            long count = Long.parseLong(value);
+            if (count >= 0)
+                return count;
+        } catch (NumberFormatException e) {
+            // Fall through to the exception below
+        }
+        throw new BigDBException("Invalid " + name + " query parameter: " +
+                value);
+    }
+
     @Get("json")
     public Representation queryDataJson()
             throws BigDBException, AuthenticationException {
@@ -102,7 +115,41 @@ public class DataResource extends BigDBResource {
             String singleValue = form.getFirstValue("single", true);
             boolean single = (singleValue != null) ?
                     parseBooleanValue(singleValue) : false;
+            // The stream, limit and cursor query parameters write the result
+            // while it's being iterated instead of building it up front.
+            // The cursor is the number of result data nodes to skip and
+            // a limit wraps the result in an object with the cursor of the
+            // next page.
+            String streamValue = form.getFirstValue("stream", true);
+            String limitValue = form.getFirstValue("limit", true);
+            String cursorValue = form.getFirstValue("cursor", true);
+            boolean stream = (streamValue != null) ?
+                    parseBooleanValue(streamValue) : false;
+            long limit = (limitValue != null) ?
+                    parseCountValue("limit", limitValue) : -1;
+            long cursor = (cursorValue != null) ?
+                    parseCountValue("cursor", cursorValue) : 0;
             Query query = builder.getQuery();
+            if (stream || (limitValue != null) || (cursorValue != null)) {
+                if (single) {
+                    throw new BigDBException(
+                            "The \"single\" query parameter can't be used " +
+                            "with the \"stream\", \"limit\" or \"cursor\" " +
+                            "query parameters");
+                }
+                DataNodeSet dataNodeSet =
+                        treespace.queryDataStream(query, authContext);
+                try {
+                    return new DataNodeStreamRepresentation(mapper,
+                            dataNodeSet, cursor, limit);
+                } catch (BigDBInternalError e) {
+                    // Report a query that isn't authorized with an error
+                    // status as long as the response hasn't started
+                    if (e.getCause() instanceof AuthorizationException)
+                        throw (AuthorizationException) e.getCause();
+                    throw e;
+                }
+            }
             DataNodeSet dataNodeSet = treespace.queryData(query, authContext);
             if (single) {
                 Schema schema = treespace.getSchema();
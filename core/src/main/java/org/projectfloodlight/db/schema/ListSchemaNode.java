@@ -58,6 +58,40 @@ public class ListSchemaNode extends SchemaNode {
         return builder.getIndexSpecifier();
     }
 
+    /**
+     * Get the index specifier for the secondary index on a leaf of the list
+     * elements. Only keyed lists have secondary indexes, and only on leafs
+     * that are tagged with the "indexed" attribute and aren't key leafs.
+     *
+     * @param leafName
+     *            the name of the leaf
+     * @return the index specifier, or null if the leaf isn't indexed
+     */
+    @JsonIgnore
+    public IndexSpecifier getSecondaryIndexSpecifier(String leafName) {
+        if ((listElementSchemaNode == null) || !isKeyedList() ||
+                getKeyNodeNames().contains(leafName))
+            return null;
+        SchemaNode leafSchemaNode;
+        try {
+            leafSchemaNode = getChildSchemaNode(leafName, false);
+        }
+        catch (BigDBException e) {
+            return null;
+        }
+        if ((leafSchemaNode == null) ||
+                (leafSchemaNode.getNodeType() != NodeType.LEAF) ||
+                !leafSchemaNode.getBooleanAttributeValue(
+                        SchemaNode.INDEXED_ATTRIBUTE_NAME, false))
+            return null;
+        boolean caseSensitive = leafSchemaNode.getBooleanAttributeValue(
+                SchemaNode.CASE_SENSITIVE_ATTRIBUTE_NAME, true);
+        IndexSpecifier.Builder builder = new IndexSpecifier.Builder(false);
+        builder.addField(leafName, IndexSpecifier.SortOrder.FORWARD,
+                caseSensitive);
+        return builder.getIndexSpecifier();
+    }
+
     @JsonIgnore
     public boolean isKeyedList() {
         return !getKeyNodeNames().isEmpty();
@@ -54,6 +54,7 @@ public abstract class SchemaNode implements Cloneable {
     public static final String DATA_SOURCE_ATTRIBUTE_NAME = "data-source";
     public static final String CONFIG_ATTRIBUTE_NAME = "Config";
     public static final String LOCAL_CONFIG_ATTRIBUTE_NAME = "local-config";
+    public static final String INDEXED_ATTRIBUTE_NAME = "indexed";
 
     protected static final Map<String, Boolean> attributeInheritanceMap =
             new HashMap<String, Boolean>();
@@ -65,6 +66,7 @@ public abstract class SchemaNode implements Cloneable {
         attributeInheritanceMap.put(DATA_SOURCE_ATTRIBUTE_NAME, Boolean.TRUE);
         attributeInheritanceMap.put(CONFIG_ATTRIBUTE_NAME, Boolean.TRUE);
         attributeInheritanceMap.put(LOCAL_CONFIG_ATTRIBUTE_NAME, Boolean.TRUE);
+        attributeInheritanceMap.put(INDEXED_ATTRIBUTE_NAME, Boolean.FALSE);
     }
 
     protected String name;
@@ -89,6 +89,23 @@ public interface Treespace {
     public DataNodeSet queryData(Query query, AuthContext context)
             throws BigDBException;
 
+    /**
+     * Look up the data corresponding to a path in the schema for the treespace
+     * for streaming it to a client. Unlike queryData the authorization hooks
+     * are not called for all result data nodes up front but for each data
+     * node as an iterator of the result reaches it, so the result can be
+     * written out while it's being iterated. An iterator throws a
+     * BigDBInternalError caused by an AuthorizationException when it reaches
+     * a data node that isn't authorized.
+     *
+     * @param query the query
+     * @param context the authorization context
+     * @return the result data nodes
+     * @throws BigDBException
+     */
+    public DataNodeSet queryDataStream(Query query, AuthContext context)
+            throws BigDBException;
+
     /**
      * Look up the data corresponding to a path in the schema for the treespace.
      * Return the data in the specified string format.
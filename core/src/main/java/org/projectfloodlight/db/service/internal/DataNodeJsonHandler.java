@@ -513,10 +513,25 @@ public class DataNodeJsonHandler {
 
     public Map<String, DataNode> parseData(Query query, BigDBOperation operation,
             SchemaNode schemaNode, InputStream data) throws BigDBException {
-        Map<String, DataNode> result;
         JsonFactory jsonFactory = new JsonFactory();
+        JsonParser parser;
+        try {
+            parser = jsonFactory.createParser(data);
+        } catch (Exception exc) {
+            throw new BigDBException("Error parsing input JSON data: " + exc, exc);
+        }
+        return parseData(operation, schemaNode, parser);
+    }
+
+    /**
+     * Parse the next JSON value from a parser that may be positioned inside
+     * a larger document. On return the parser is positioned at the last
+     * token of the value.
+     */
+    public Map<String, DataNode> parseData(BigDBOperation operation,
+            SchemaNode schemaNode, JsonParser parser) throws BigDBException {
+        Map<String, DataNode> result;
         try {
-            JsonParser parser = jsonFactory.createParser(data);
             Stack<SchemaNode> schemaNodeStack = new Stack<SchemaNode>();
             schemaNodeStack.add(schemaNode);
 
@@ -644,4 +659,12 @@ public class DataNodeJsonHandler {
         return root;
     }
 
+    public DataNode readDataNode(JsonParser parser, SchemaNode schemaNode, String name) throws BigDBException {
+        Map<String, DataNode> map =
+                parseData(BigDBOperation.QUERY, schemaNode, parser);
+        if (map == null || !map.containsKey(name))
+            throw new BigDBException("No data for data source " + name);
+        return map.get(name);
+    }
+
 }
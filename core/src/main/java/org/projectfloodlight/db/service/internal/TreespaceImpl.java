@@ -16,6 +16,7 @@ import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.projectfloodlight.db.BigDBException;
+import org.projectfloodlight.db.BigDBInternalError;
 import org.projectfloodlight.db.auth.AuthContext;
 import org.projectfloodlight.db.auth.AuthorizationException;
 import org.projectfloodlight.db.config.DataSourceConfig;
@@ -74,6 +75,9 @@ import org.projectfloodlight.db.util.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 @SuppressFBWarnings(value="UWF_UNWRITTEN_PUBLIC_OR_PROTECTED_FIELD")
@@ -883,6 +887,23 @@ public class TreespaceImpl implements Treespace, MutationListener,
         // This should really be private but currently it's called from
         // DynamicDataSource as a short-term workaround until the mutation
         // code can be refactored.
+        return performQuery(query, operation, dataSources, authContext,
+                expandTrailingList, false);
+    }
+
+    /**
+     * Perform a query.
+     *
+     * @param lazyAuthorization if false all result data nodes are authorized
+     *        before returning. If true each data node is authorized when an
+     *        iterator of the result reaches it, and the iterator throws a
+     *        BigDBInternalError caused by an AuthorizationException if it
+     *        isn't authorized.
+     */
+    private Iterable<DataNodeWithPath> performQuery(Query query,
+            BigDBOperation operation, Iterable<DataSource> dataSources,
+            final AuthContext authContext, boolean expandTrailingList,
+            boolean lazyAuthorization) throws BigDBException {
         SchemaNode rootSchemaNode = schema.getSchemaRoot();
         LogicalDataNodeBuilder logicalBuilder =
                 new LogicalDataNodeBuilder(schema.getSchemaRoot());
@@ -944,32 +965,62 @@ public class TreespaceImpl implements Treespace, MutationListener,
 //                    ImmutableList.<DataNodeWithPath>of(
 //                            new DataNodeWithPathImpl(query.getBasePath(),
 //                                    DataNode.DELETED));
-        logger.trace("authDataNodes: " + authDataNodes);
-        AuthorizationHook.Operation authOperation =
+        final AuthorizationHook.Operation authOperation =
                 (operation == BigDBOperation.QUERY)
                         ? AuthorizationHook.Operation.QUERY
                         : AuthorizationHook.Operation.MUTATION;
+        if (lazyAuthorization) {
+            return Iterables.transform(dataNodes,
+                    new Function<DataNodeWithPath, DataNodeWithPath>() {
+                @Override
+                public DataNodeWithPath apply(DataNodeWithPath input) {
+                    try {
+                        authorizeQueryResult(input, authOperation,
+                                authContext);
+                    } catch (BigDBException e) {
+                        throw new BigDBInternalError(
+                                "Query result not authorized", e);
+                    }
+                    return input;
+                }
+            });
+        }
+
+        logger.trace("authDataNodes: " + authDataNodes);
         for (DataNodeWithPath dataNodeWithPath: authDataNodes) {
-            DataNode rootedDataNode = DataNodeUtilities.makeRootedDataNode(
-                    rootSchemaNode, null, dataNodeWithPath.getPath(),
-                    dataNodeWithPath.getDataNode());
-            logger.trace("rootedDataNode: " + rootedDataNode);
-            // Call authorization hooks
-            AuthorizationHookContextImpl authorizationHookContext =
-                    new AuthorizationHookContextImpl(authOperation,
-                            DataNode.NULL, rootedDataNode, rootedDataNode,
-                            authContext);
-            AuthorizationHook.Result authResult =
-                    authorize(authorizationHookContext,
-                            LocationPathExpression.ROOT_PATH, rootSchemaNode,
-                            DataNode.NULL, rootedDataNode, rootedDataNode);
-            if (authResult.getDecision() != AuthorizationHook.Decision.ACCEPT)
-                throw new AuthorizationException(authResult.toString());
+            authorizeQueryResult(dataNodeWithPath, authOperation,
+                    authContext);
         }
 
         return dataNodes;
     }
 
+    /**
+     * Call the authorization hooks for one data node of a query result
+     *
+     * @throws AuthorizationException if the data node isn't authorized
+     */
+    private void authorizeQueryResult(DataNodeWithPath dataNodeWithPath,
+            AuthorizationHook.Operation authOperation,
+            AuthContext authContext) throws BigDBException {
+        SchemaNode rootSchemaNode = schema.getSchemaRoot();
+        DataNode rootedDataNode = DataNodeUtilities.makeRootedDataNode(
+                rootSchemaNode, null, dataNodeWithPath.getPath(),
+                dataNodeWithPath.getDataNode());
+        logger.trace("rootedDataNode: " + rootedDataNode);
+        // Call authorization hooks
+        AuthorizationHookContextImpl authorizationHookContext =
+                new AuthorizationHookContextImpl(authOperation,
+                        DataNode.NULL, rootedDataNode, rootedDataNode,
+                        authContext);
+        AuthorizationHook.Result authResult =
+                authorize(authorizationHookContext,
+                        LocationPathExpression.ROOT_PATH, rootSchemaNode,
+                        DataNode.NULL, rootedDataNode, rootedDataNode);
+        if (authResult.getDecision() != AuthorizationHook.Decision.ACCEPT)
+            throw new AuthorizationException(authResult.toString());
+    }
+
     @Override
     public DataNodeSet queryData(Query query, AuthContext authContext)
             throws BigDBException {
@@ -998,6 +1049,23 @@ public class TreespaceImpl implements Treespace, MutationListener,
         }
     }
 
+    @Override
+    public DataNodeSet queryDataStream(Query query, AuthContext authContext)
+            throws BigDBException {
+
+        lock.readLock().lock();
+
+        try {
+            Iterable<DataNodeWithPath> result =
+                    performQuery(query, BigDBOperation.QUERY,
+                            dataSources.values(), authContext, true, true);
+            return new DataNodeSet(
+                    new AbstractDataNode.DataNodePathStrippingIterable(result));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     @Override
     public String
             queryData(Query query, DataFormat format, AuthContext authContext)
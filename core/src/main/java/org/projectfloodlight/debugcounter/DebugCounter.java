@@ -40,6 +40,15 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
      */
     protected AtomicInteger counterIdCounter = new AtomicInteger();
 
+    /**
+     * If true, counter values are kept in {@link StripedCounter}s that
+     * every thread updates directly, and flushCounters() is a no-op.
+     * Otherwise updates are collected thread-locally until flushed.
+     * Set from the "stripedCounters" module parameter; must not change
+     * once counters are registered.
+     */
+    protected boolean stripedCounters = false;
+
     /**
      * The counter value
      */
@@ -98,16 +107,31 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
     public static class DebugCounterInfo {
         CounterInfo cinfo;
         AtomicLong cvalue;
+        // null unless the striped backend is in use
+        StripedCounter svalue;
 
         public DebugCounterInfo(CounterInfo cinfo) {
+            this(cinfo, false);
+        }
+        public DebugCounterInfo(CounterInfo cinfo, boolean striped) {
             this.cinfo = cinfo;
             this.cvalue = new AtomicLong();
+            if (striped)
+                this.svalue = new StripedCounter();
         }
         public CounterInfo getCounterInfo() {
             return cinfo;
         }
         public Long getCounterValue() {
-            return cvalue.get();
+            return get();
+        }
+        long get() {
+            return (svalue != null) ? svalue.get() : cvalue.get();
+        }
+        void reset() {
+            cvalue.set(0);
+            if (svalue != null)
+                svalue.reset();
         }
     }
 
@@ -221,7 +245,7 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
         @Override
         public long getCounterValue() {
             if (!validCounterId()) return -1;
-            return allCounters[counterId].cvalue.get();
+            return allCounters[counterId].get();
         }
 
         private boolean validCounterId() {
@@ -285,7 +309,7 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
        CounterInfo ci = new CounterInfo(counterId, enabled, moduleName,
                                         counterHierarchy, counterDescription,
                                         counterType, metaData);
-       allCounters[counterId] = new DebugCounterInfo(ci);
+       allCounters[counterId] = new DebugCounterInfo(ci, stripedCounters);
 
        // account for the new counter in the module counter hierarchy
        addToModuleCounterHierarchy(moduleName, counterId, rci);
@@ -300,6 +324,14 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
    private void updateCounter(int counterId, int incr, boolean flushNow) {
        if (counterId < 0 || counterId >= MAX_COUNTERS) return;
 
+       if (stripedCounters) {
+           // no thread-local state - flushNow makes no difference
+           DebugCounterInfo dc = allCounters[counterId];
+           if (dc != null && dc.cinfo.enabled && dc.svalue != null)
+               dc.svalue.add(incr);
+           return;
+       }
+
        LocalCounterInfo[] thiscounters =  this.threadlocalCounters.get();
        if (thiscounters[counterId] == null) {
            // seeing this counter for the first time in this thread - create local
@@ -340,6 +372,8 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
 
    @Override
    public void flushCounters() {
+       if (stripedCounters) return;
+
        LocalCounterInfo[] thiscounters =  this.threadlocalCounters.get();
        Set<Integer> thisset = this.threadlocalCurrentCounters.get();
        ArrayList<Integer> temp = new ArrayList<Integer>();
@@ -385,11 +419,11 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
            return;
        }
        // reset at this level
-       allCounters[rci.ctrIds[rci.foundUptoLevel-1]].cvalue.set(0);
+       allCounters[rci.ctrIds[rci.foundUptoLevel-1]].reset();
        // reset all levels below
        ArrayList<Integer> resetIds = getHierarchyBelow(moduleName, rci);
        for (int index : resetIds) {
-           allCounters[index].cvalue.set(0);
+           allCounters[index].reset();
        }
    }
 
@@ -400,7 +434,7 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
        for (String moduleName : moduleCounters.keySet()) {
            ArrayList<Integer> resetIds = getHierarchyBelow(moduleName, rci);
            for (int index : resetIds) {
-               allCounters[index].cvalue.set(0);
+               allCounters[index].reset();
            }
        }
    }
@@ -414,7 +448,7 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
        if (target != null) {
            ArrayList<Integer> resetIds = getHierarchyBelow(moduleName, rci);
            for (int index : resetIds) {
-               allCounters[index].cvalue.set(0);
+               allCounters[index].reset();
            }
        } else {
            if (log.isDebugEnabled())
@@ -448,7 +482,7 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
        DebugCounterInfo dc = allCounters[rci.ctrIds[rci.foundUptoLevel-1]];
        if (dc.cinfo.ctype == CounterType.COUNT_ON_DEMAND) {
            dc.cinfo.enabled = false;
-           dc.cvalue.set(0);
+           dc.reset();
            currentCounters.remove(dc.cinfo.counterId);
        }
    }
@@ -753,7 +787,13 @@ public class DebugCounter implements IFloodlightModule, IDebugCounterService {
 
    @Override
    public void init(FloodlightModuleContext context) throws FloodlightModuleException {
-
+       Map<String, String> configParams = context.getConfigParams(this);
+       String striped = configParams.get("stripedCounters");
+       if (striped != null) {
+           stripedCounters = Boolean.parseBoolean(striped);
+           log.info("Debug counters use {} storage",
+                    stripedCounters ? "striped" : "thread-local");
+       }
    }
 
    @Override
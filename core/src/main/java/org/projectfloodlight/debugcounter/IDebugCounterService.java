@@ -130,6 +130,7 @@ public interface IDebugCounterService extends IFloodlightService {
      * module. It's typical usage is from floodlight core and it is meant
      * to flush those counters that are updated in the packet-processing pipeline,
      * typically with the 'updateCounterNoFlush" methods in IDebugCounter.
+     * Does nothing when the implementation keeps no thread-local values.
      */
     public void flushCounters();
 
@@ -0,0 +1,95 @@
+package org.projectfloodlight.debugcounter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A long counter that stays cheap to update from many threads at once.
+ * Updates go to a single base value until two threads collide on it; the
+ * counter then spreads updates over an array of cells, one per cache line,
+ * picked by a hash of the updating thread. Reading the counter adds up the
+ * base and all cells, so there is no flush step and no update is lost.
+ *
+ * This is the same scheme as the JDK 8 LongAdder, cut down to what the
+ * debug counters need.
+ */
+public class StripedCounter {
+    /**
+     * Cells are this many longs apart so that no two cells share a cache
+     * line (or an adjacent-line prefetch pair)
+     */
+    static final int PAD = 16;
+
+    static final int NUM_CELLS;
+    static {
+        int ncpu = Runtime.getRuntime().availableProcessors();
+        int n = 2;
+        while (n < ncpu && n < 64)
+            n <<= 1;
+        NUM_CELLS = n;
+    }
+
+    private final AtomicLong base = new AtomicLong();
+    private volatile AtomicLongArray cells;
+
+    /**
+     * Add to the counter
+     */
+    public void add(long incr) {
+        AtomicLongArray c = cells;
+        if (c == null) {
+            long b = base.get();
+            if (base.compareAndSet(b, b + incr))
+                return;
+            c = inflate();
+        }
+        c.getAndAdd(index(), incr);
+    }
+
+    /**
+     * Get the current value of the counter. Concurrent updates may or may
+     * not be included.
+     */
+    public long get() {
+        long sum = base.get();
+        AtomicLongArray c = cells;
+        if (c != null) {
+            for (int i = 0; i < NUM_CELLS; i++)
+                sum += c.get(i * PAD);
+        }
+        return sum;
+    }
+
+    /**
+     * Reset the counter to zero. Updates concurrent with the reset may or
+     * may not be kept.
+     */
+    public void reset() {
+        base.set(0);
+        AtomicLongArray c = cells;
+        if (c != null) {
+            for (int i = 0; i < NUM_CELLS; i++)
+                c.set(i * PAD, 0);
+        }
+    }
+
+    /**
+     * @return whether updates are spread over cells, i.e. the counter has
+     * seen contention
+     */
+    boolean isStriped() {
+        return cells != null;
+    }
+
+    private synchronized AtomicLongArray inflate() {
+        if (cells == null)
+            cells = new AtomicLongArray(NUM_CELLS * PAD);
+        return cells;
+    }
+
+    private static int index() {
+        // thread ids are sequential, so mix them before masking
+        long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return ((int) (h >>> 32) & (NUM_CELLS - 1)) * PAD;
+    }
+}
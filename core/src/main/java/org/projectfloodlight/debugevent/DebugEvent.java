@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -17,8 +16,6 @@ import org.projectfloodlight.core.module.IFloodlightService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Sets;
-
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 /**
  * This class implements a central store for all events used for debugging the
@@ -39,9 +36,6 @@ public class DebugEvent implements IFloodlightModule, IDebugEventService {
     protected int eventIdCounter = 0;
     protected Object eventIdLock = new Object();
 
-    private static final int PCT_LOCAL_CAP = 10; // % of global capacity
-    private static final int MIN_LOCAL_CAPACITY = 10; //elements
-
     /**
      * Event Information
      */
@@ -89,15 +83,16 @@ public class DebugEvent implements IFloodlightModule, IDebugEventService {
     //******************
 
     /**
-     * Event history for a particular event-id is stored in a circular buffer
+     * Event history for a particular event-id is stored in a ring buffer
+     * that all threads add to directly
      */
     protected static class DebugEventHistory {
         EventInfo einfo;
-        CircularBuffer<Event> eventBuffer;
+        EventRingBuffer eventBuffer;
 
         public DebugEventHistory(EventInfo einfo, int capacity) {
             this.einfo = einfo;
-            this.eventBuffer = new CircularBuffer<Event>(capacity);
+            this.eventBuffer = new EventRingBuffer(capacity);
         }
     }
 
@@ -126,51 +121,6 @@ public class DebugEvent implements IFloodlightModule, IDebugEventService {
     protected Set<Integer> currentEvents = Collections.newSetFromMap(
                                        new ConcurrentHashMap<Integer,Boolean>());
 
-    //******************
-    // Thread local stores
-    //******************
-
-    /**
-     * Thread local storage for events
-     */
-    protected static class LocalEventHistory {
-        int nextIndex;
-        int maxCapacity;
-        boolean enabled;
-        ArrayList<Event> eventList;
-
-        public LocalEventHistory(boolean enabled, int maxCapacity) {
-            this.nextIndex = 0;
-            this.maxCapacity = maxCapacity;
-            this.enabled = enabled;
-            this.eventList = new ArrayList<Event>();
-        }
-    }
-
-    /**
-     * Thread local event buffers used for maintaining event history local to
-     * a thread. Eventually this locally maintained information is flushed
-     * into the global event buffers.
-     */
-    protected final ThreadLocal<LocalEventHistory[]> threadlocalEvents =
-            new ThreadLocal<LocalEventHistory[]>() {
-        @Override
-        protected LocalEventHistory[] initialValue() {
-            return new LocalEventHistory[MAX_EVENTS];
-        }
-    };
-
-    /**
-     * Thread local cache for event-ids that are currently active.
-     */
-    protected final ThreadLocal<Set<Integer>> threadlocalCurrentEvents =
-            new ThreadLocal<Set<Integer>>() {
-        @Override
-        protected Set<Integer> initialValue() {
-            return new HashSet<Integer>();
-        }
-    };
-
     //*******************************
     //   IEventUpdater
     //*******************************
@@ -251,100 +201,24 @@ public class DebugEvent implements IFloodlightModule, IDebugEventService {
     private void updateEvent(int eventId, boolean flushNow, Object eventData) {
         if (eventId < 0 || eventId > MAX_EVENTS-1) return;
 
-        LocalEventHistory[] thishist = this.threadlocalEvents.get();
-        if (thishist[eventId] == null) {
-            // seeing this event for the first time in this thread - create local
-            // store by consulting global store
-            DebugEventHistory de = allEvents[eventId];
-            if (de != null) {
-                boolean enabled = de.einfo.enabled;
-                int localCapacity = de.einfo.bufferCapacity * PCT_LOCAL_CAP/ 100;
-                if (localCapacity < 10)  localCapacity = MIN_LOCAL_CAPACITY;
-                thishist[eventId] = new LocalEventHistory(enabled, localCapacity);
-                if (enabled) {
-                    Set<Integer> thisset = this.threadlocalCurrentEvents.get();
-                    thisset.add(eventId);
-                }
-            } else {
-                log.error("updateEvent seen locally for event {} but no global"
-                          + "storage exists for it yet .. not updating", eventId);
-                return;
-            }
+        DebugEventHistory de = allEvents[eventId];
+        if (de == null) {
+            log.error("updateEvent seen for event {} but no global"
+                      + "storage exists for it yet .. not updating", eventId);
+            return;
         }
+        if (!de.einfo.enabled) return;
 
-        // update local store if enabled locally for updating
-        LocalEventHistory le = thishist[eventId];
-        if (le.enabled) {
-            long timestamp = System.currentTimeMillis();
-            long thisthread = Thread.currentThread().getId();
-            String thisthreadname = Thread.currentThread().getName();
-            if (le.nextIndex < le.eventList.size()) {
-                if (le.eventList.get(le.nextIndex) == null) {
-                    le.eventList.set(le.nextIndex, new Event(timestamp, thisthread,
-                                                             thisthreadname,
-                                                             eventData));
-                } else {
-                    Event e = le.eventList.get(le.nextIndex);
-                    e.timestamp = timestamp;
-                    e.threadId = thisthread;
-                    e.threadName = thisthreadname;
-                    e.eventData = eventData;
-                    e.nullifyCachedFormattedEvent();
-                }
-            } else {
-                le.eventList.add(new Event(timestamp, thisthread, thisthreadname, eventData));
-            }
-            le.nextIndex++;
-
-            if (le.nextIndex >= le.maxCapacity || flushNow) {
-                // flush this buffer now
-                DebugEventHistory de = allEvents[eventId];
-                if (de.einfo.enabled) {
-                    le.eventList = de.eventBuffer.addAll(le.eventList, le.nextIndex);
-                } else {
-                    // global buffer is disabled - don't flush, disable locally
-                    le.enabled = false;
-                    Set<Integer> thisset = this.threadlocalCurrentEvents.get();
-                    thisset.remove(eventId);
-                }
-                le.nextIndex = 0;
-            }
-        }
+        // Events go straight into the global buffer, so there is nothing
+        // to flush
+        Thread thisthread = Thread.currentThread();
+        de.eventBuffer.add(System.currentTimeMillis(), thisthread.getId(),
+                           thisthread.getName(), eventData);
     }
 
     @Override
     public void flushEvents() {
-        LocalEventHistory[] thishist = this.threadlocalEvents.get();
-        Set<Integer> thisset = this.threadlocalCurrentEvents.get();
-        ArrayList<Integer> temp = new ArrayList<Integer>();
-
-        for (int eventId : thisset) {
-            LocalEventHistory le = thishist[eventId];
-            if (le != null && le.nextIndex > 0) {
-                // flush this buffer now
-                DebugEventHistory de = allEvents[eventId];
-                if (de.einfo.enabled) {
-                    le.eventList = de.eventBuffer.addAll(le.eventList, le.nextIndex);
-                } else {
-                    // global buffer is disabled - don't flush, disable locally
-                    le.enabled = false;
-                    temp.add(eventId);
-                }
-                le.nextIndex = 0;
-            }
-        }
-        for (int eId : temp)
-            thisset.remove(eId);
-
-        // sync thread local currently enabled set of eventIds with global set.
-        Sets.SetView<Integer> sv = Sets.difference(currentEvents, thisset);
-        for (int eventId : sv) {
-            if (thishist[eventId] != null) {
-                thishist[eventId].enabled = true;
-                thisset.add(eventId);
-            }
-        }
-
+        // Events are not buffered per thread any more
     }
 
     @Override
@@ -0,0 +1,138 @@
+package org.projectfloodlight.debugevent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size ring buffer of events that many threads can add to without
+ * locking or allocating.
+ *
+ * The slots are allocated up front and reused. A producer claims the next
+ * sequence number, marks the slot of that sequence as being written, fills
+ * it in, and then marks it as holding the sequence. Readers copy the slots
+ * out, newest first, and keep a copy only if the slot held the same
+ * sequence before and after the copy, so a reader never waits for
+ * producers and never returns a half-written event.
+ *
+ * A producer only waits if it laps another producer that is still writing
+ * the same slot, which needs a whole buffer of events to be added in the
+ * meantime.
+ */
+public class EventRingBuffer implements Iterable<Event> {
+    /**
+     * A preallocated event slot. The fields are volatile so that a reader
+     * that sees the same slot state before and after reading them has read
+     * one event. The event data is stored by reference, not copied, so
+     * callers must not change an event object once it has been added.
+     */
+    protected static class Slot {
+        volatile long timestamp;
+        volatile long threadId;
+        volatile String threadName;
+        volatile Object eventData;
+    }
+
+    protected final int capacity;
+    protected final Slot[] slots;
+    /**
+     * The state of each slot: 2 * seq + 1 while the event with sequence seq
+     * is written, 2 * seq + 2 once it is written, 0 if never written
+     */
+    protected final AtomicLongArray states;
+    /** The next sequence number to claim */
+    protected final AtomicLong next = new AtomicLong();
+    /** Events with a lower sequence number have been cleared */
+    protected volatile long floor = 0;
+
+    public EventRingBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++)
+            slots[i] = new Slot();
+        this.states = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Add an event, overwriting the oldest event if the buffer is full
+     */
+    public void add(long timestamp, long threadId, String threadName,
+                    Object eventData) {
+        long seq = next.getAndIncrement();
+        int index = (int) (seq % capacity);
+        long writing = 2 * seq + 1;
+        while (true) {
+            long state = states.get(index);
+            if (state > writing) {
+                // a producer that lapped us already wrote a newer event
+                return;
+            }
+            if ((state & 1) == 0 &&
+                states.compareAndSet(index, state, writing))
+                break;
+            // an older producer is still writing the slot
+            Thread.yield();
+        }
+        Slot slot = slots[index];
+        slot.timestamp = timestamp;
+        slot.threadId = threadId;
+        slot.threadName = threadName;
+        slot.eventData = eventData;
+        states.set(index, writing + 1);
+    }
+
+    /**
+     * Copy out the events in the buffer, most recent first. Events that
+     * are being written or overwritten while they are copied are left out.
+     */
+    public List<Event> snapshot() {
+        long head = next.get();
+        long tail = Math.max(floor, head - capacity);
+        List<Event> events = new ArrayList<Event>((int) (head - tail));
+        for (long seq = head - 1; seq >= tail; seq--) {
+            int index = (int) (seq % capacity);
+            long written = 2 * seq + 2;
+            if (states.get(index) != written) continue;
+            Slot slot = slots[index];
+            Event e = new Event(slot.timestamp, slot.threadId,
+                                slot.threadName, slot.eventData);
+            if (states.get(index) != written) continue;
+            events.add(e);
+        }
+        return events;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the events, in order from
+     * most-recent to oldest
+     */
+    @Override
+    public Iterator<Event> iterator() {
+        return snapshot().iterator();
+    }
+
+    /**
+     * @return the number of events in the buffer, including events that
+     * are being written
+     */
+    public int size() {
+        long head = next.get();
+        return (int) Math.min(capacity, Math.max(0, head - floor));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Drop the events added so far. Events being added concurrently may or
+     * may not be dropped.
+     */
+    public void clear() {
+        floor = next.get();
+    }
+}
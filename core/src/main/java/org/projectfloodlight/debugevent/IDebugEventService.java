@@ -114,6 +114,7 @@ public interface IDebugEventService extends IFloodlightService {
      * method is not typically intended for use by any module. It's typical usage is from
      * floodlight core for events that happen in the packet processing pipeline.
      * For other rare events, flushEvents should be called.
+     * Implementations that do not buffer events per thread do nothing.
      */
     public void flushEvents();
 
@@ -6,20 +6,17 @@ package org.projectfloodlight.debugevent;
 public interface IEventUpdater<T> {
 
     /**
-     * Logs the instance of the event thread-locally. Flushing to the global
-     * circular buffer for this event is delayed resulting in better performance.
-     * This method should typically be used by those events that happen in the
-     * packet processing pipeline
+     * Logs the instance of the event. Events are added to the global buffer
+     * for this event without locking, so this is the same as
+     * updateEventWithFlush. It is kept for the callers in the packet
+     * processing pipeline.
      *
      * @param event    an instance of the user-defined event of type T
      */
     public void updateEventNoFlush(T event);
 
     /**
-     * Logs the instance of the event thread-locally and immediated flushes
-     * to the global circular buffer for this event.
-     * This method should typically be used by those events that happen
-     * outside the packet processing pipeline
+     * Logs the instance of the event to the global buffer for this event.
      *
      * @param event    an instance of the user-defined event of type T
      */
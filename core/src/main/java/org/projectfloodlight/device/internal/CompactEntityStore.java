@@ -0,0 +1,775 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.device.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.projectfloodlight.packet.Ethernet;
+
+/**
+ * Packed storage for the entities of all devices, held column-wise in
+ * primitive arrays. When the store is enabled a {@link Device} doesn't
+ * keep Entity objects at all: it holds a {@link Range} of slots. Lookups,
+ * hashing and comparisons work on the packed columns directly; only
+ * {@link #getEntities} and {@link #getEntity} decode Entity objects.
+ *
+ * The store is split into lock stripes selected by the device key, each
+ * with its own column arrays, so learning threads that update different
+ * devices rarely contend. Within a stripe, slots are written once when a
+ * device object is created and afterwards only their last-seen and
+ * active-since times change. A range becomes live when its device is put
+ * into the device map and garbage when the device is replaced or removed.
+ * Garbage is reclaimed by copying the live ranges of a stripe into new
+ * arrays, so a device object that was already replaced can still decode
+ * its entities from the old arrays.
+ *
+ * The device map and the store must always agree on which range is live
+ * for a device key. Use {@link #put}, {@link #replace} and {@link #remove}
+ * to update both as one step.
+ *
+ * This lets the entity cleanup find expired entities with a sequential
+ * scan of the column arrays instead of walking every Device and Entity.
+ */
+public class CompactEntityStore {
+    private static final int STRIPES = 64;
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Flags
+    private static final byte LIVE = 0x01;
+    private static final byte HAS_VLAN = 0x02;
+    private static final byte HAS_IPV4 = 0x04;
+    private static final byte HAS_SWITCH = 0x08;
+    private static final byte HAS_PORT = 0x10;
+    private static final byte HAS_ACTIVE_SINCE = 0x20;
+    // The flags that are part of an entity's identity
+    private static final byte KEY_FLAGS =
+            HAS_VLAN | HAS_IPV4 | HAS_SWITCH | HAS_PORT;
+
+    /**
+     * One generation of the column arrays of a stripe. Slots are appended
+     * and never moved; compaction copies live slots into a new instance.
+     */
+    private static final class Columns {
+        final long[] owners;
+        final long[] macs;
+        final long[] dpids;
+        final long[] lastSeen;
+        final long[] activeSince;
+        final int[] ipv4s;
+        final int[] ports;
+        final short[] vlans;
+        final byte[] flags;
+
+        Columns(int capacity) {
+            owners = new long[capacity];
+            macs = new long[capacity];
+            dpids = new long[capacity];
+            lastSeen = new long[capacity];
+            activeSince = new long[capacity];
+            ipv4s = new int[capacity];
+            ports = new int[capacity];
+            vlans = new short[capacity];
+            flags = new byte[capacity];
+        }
+
+        int capacity() {
+            return owners.length;
+        }
+
+        void copySlot(int src, Columns dst, int dstSlot) {
+            dst.owners[dstSlot] = owners[src];
+            dst.macs[dstSlot] = macs[src];
+            dst.dpids[dstSlot] = dpids[src];
+            dst.lastSeen[dstSlot] = lastSeen[src];
+            dst.activeSince[dstSlot] = activeSince[src];
+            dst.ipv4s[dstSlot] = ipv4s[src];
+            dst.ports[dstSlot] = ports[src];
+            dst.vlans[dstSlot] = vlans[src];
+            dst.flags[dstSlot] = flags[src];
+        }
+    }
+
+    /**
+     * The column arrays of the devices whose keys map to one stripe, and
+     * the lock that guards them. Slot allocation, compaction and liveness
+     * changes take the write lock. Reads and in-place time updates take
+     * the read lock since they only touch slots that are already
+     * allocated.
+     */
+    private static final class Stripe {
+        Columns columns = new Columns(INITIAL_CAPACITY);
+        // next unused slot in columns
+        int top;
+        int liveSlots;
+        // The live range of each device key
+        final Map<Long, Range> liveRanges = new HashMap<Long, Range>();
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * The packed entities of one device object, in the same order as
+     * {@link Device#getEntities()}. Its location changes when its stripe
+     * is compacted, so it's only read under the stripe's lock.
+     */
+    public static final class Range {
+        private final Stripe stripe;
+        private final int count;
+        private Columns columns;
+        private int base;
+
+        private Range(Stripe stripe, int count, Columns columns, int base) {
+            this.stripe = stripe;
+            this.count = count;
+            this.columns = columns;
+            this.base = base;
+        }
+
+        public int size() {
+            return count;
+        }
+    }
+
+    private final Stripe[] stripes;
+
+    public CompactEntityStore() {
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Stripe();
+    }
+
+    private Stripe stripe(long deviceKey) {
+        int h = (int) (deviceKey ^ (deviceKey >>> 32));
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    /**
+     * Pack the entities of a new device object. The range doesn't become
+     * live until the device is put into the device map.
+     * @param deviceKey the device key
+     * @param entities the entities, in device order
+     * @return the range holding the entities
+     */
+    public Range add(long deviceKey, Entity[] entities) {
+        Stripe s = stripe(deviceKey);
+        s.lock.writeLock().lock();
+        try {
+            if (s.top + entities.length > s.columns.capacity())
+                compact(s, entities.length);
+            Range range = new Range(s, entities.length, s.columns, s.top);
+            for (Entity e : entities) {
+                writeSlot(s.columns, s.top++, deviceKey, e);
+            }
+            return range;
+        } finally {
+            s.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add a new device to the device map and make its range live
+     * @param deviceMap the device map
+     * @param device the device. Must hold a range from this store.
+     */
+    public void put(ConcurrentMap<Long, Device> deviceMap, Device device) {
+        Long deviceKey = device.getDeviceKey();
+        Stripe s = stripe(deviceKey);
+        s.lock.writeLock().lock();
+        try {
+            deviceMap.put(deviceKey, device);
+            setLive(s, deviceKey, device.packedEntities);
+        } finally {
+            s.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace a device in the device map and make the range of the new
+     * device live, as one step
+     * @see ConcurrentMap#replace(Object, Object, Object)
+     * @return true if the device was replaced
+     */
+    public boolean replace(ConcurrentMap<Long, Device> deviceMap,
+                           Device oldDevice, Device newDevice) {
+        Long deviceKey = newDevice.getDeviceKey();
+        Stripe s = stripe(deviceKey);
+        s.lock.writeLock().lock();
+        try {
+            if (!deviceMap.replace(deviceKey, oldDevice, newDevice))
+                return false;
+            setLive(s, deviceKey, newDevice.packedEntities);
+            return true;
+        } finally {
+            s.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a device from the device map and release its range, as one
+     * step
+     * @see ConcurrentMap#remove(Object, Object)
+     * @return true if the device was removed
+     */
+    public boolean remove(ConcurrentMap<Long, Device> deviceMap,
+                          Device device) {
+        Long deviceKey = device.getDeviceKey();
+        Stripe s = stripe(deviceKey);
+        s.lock.writeLock().lock();
+        try {
+            if (!deviceMap.remove(deviceKey, device))
+                return false;
+            setLive(s, deviceKey, null);
+            return true;
+        } finally {
+            s.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Caller must hold the write lock of the stripe
+     */
+    private void setLive(Stripe s, Long deviceKey, Range range) {
+        Range old = (range == null) ? s.liveRanges.remove(deviceKey) :
+                                      s.liveRanges.put(deviceKey, range);
+        if (old != null && old.columns == s.columns) {
+            setFlag(old, false);
+            s.liveSlots -= old.count;
+        }
+        if (range == null)
+            return;
+        // The stripe may have been compacted since the range was added,
+        // which only copies live ranges
+        if (range.columns != s.columns) {
+            if (s.top + range.count > s.columns.capacity()) {
+                // copies every live range, this one included
+                compact(s, 0);
+            } else {
+                relocate(range, s.columns, s.top);
+                s.top += range.count;
+            }
+        }
+        setFlag(range, true);
+        s.liveSlots += range.count;
+    }
+
+    private void setFlag(Range range, boolean live) {
+        byte[] flags = range.columns.flags;
+        for (int i = range.base; i < range.base + range.count; i++) {
+            flags[i] = live ? (byte) (flags[i] | LIVE) :
+                              (byte) (flags[i] & ~LIVE);
+        }
+    }
+
+    private void relocate(Range range, Columns dst, int dstBase) {
+        for (int i = 0; i < range.count; i++) {
+            range.columns.copySlot(range.base + i, dst, dstBase + i);
+        }
+        range.columns = dst;
+        range.base = dstBase;
+    }
+
+    /**
+     * Decode the entities of a range. The entities are copies: changing
+     * them doesn't change the store.
+     * @param range the range
+     * @return new Entity objects
+     */
+    public Entity[] getEntities(Range range) {
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            Entity[] entities = new Entity[range.count];
+            for (int i = 0; i < range.count; i++) {
+                entities[i] = readSlot(range.columns, range.base + i);
+            }
+            return entities;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Decode one entity of a range. The entity is a copy: changing it
+     * doesn't change the store.
+     * @param range the range
+     * @param entityIndex the index of the entity in its device
+     * @return a new Entity object
+     */
+    public Entity getEntity(Range range, int entityIndex) {
+        if (entityIndex < 0 || entityIndex >= range.count)
+            throw new IndexOutOfBoundsException();
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            return readSlot(range.columns, range.base + entityIndex);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param range the range
+     * @param entityIndex the index of the entity in its device
+     * @return the MAC address of the entity
+     */
+    public long getMacAddress(Range range, int entityIndex) {
+        if (entityIndex < 0 || entityIndex >= range.count)
+            throw new IndexOutOfBoundsException();
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            return range.columns.macs[range.base + entityIndex];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param range the range
+     * @param entityIndex the index of the entity in its device
+     * @return the IPv4 address of the entity, or null if it has none
+     */
+    public Integer getIpv4Address(Range range, int entityIndex) {
+        if (entityIndex < 0 || entityIndex >= range.count)
+            throw new IndexOutOfBoundsException();
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            int slot = range.base + entityIndex;
+            if ((range.columns.flags[slot] & HAS_IPV4) == 0)
+                return null;
+            return range.columns.ipv4s[slot];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param range the range
+     * @param entityIndex the index of the entity in its device
+     * @return the last seen time of the entity in milliseconds, or 0 if it
+     *         has none
+     */
+    public long getLastSeen(Range range, int entityIndex) {
+        if (entityIndex < 0 || entityIndex >= range.count)
+            throw new IndexOutOfBoundsException();
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            return range.columns.lastSeen[range.base + entityIndex];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param range the range
+     * @return the latest last seen time of the entities in milliseconds, or
+     *         0 if none has one
+     */
+    public long getLastSeen(Range range) {
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            long latest = 0;
+            for (int i = 0; i < range.count; i++)
+                latest = Math.max(latest,
+                                  range.columns.lastSeen[range.base + i]);
+            return latest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param range the range
+     * @param ipv4Address the IPv4 address
+     * @return the latest last seen time in milliseconds of the entities with
+     *         the IPv4 address, or 0 if none has one
+     */
+    public long getLastSeenWithIpv4(Range range, int ipv4Address) {
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            Columns c = range.columns;
+            long latest = 0;
+            for (int i = 0; i < range.count; i++) {
+                int slot = range.base + i;
+                if ((c.flags[slot] & HAS_IPV4) != 0 &&
+                        c.ipv4s[slot] == ipv4Address)
+                    latest = Math.max(latest, c.lastSeen[slot]);
+            }
+            return latest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Collect the VLANs of the entities of a range that are attached to a
+     * switch port
+     * @param range the range
+     * @param switchDPID the switch
+     * @param switchPort the port
+     * @param vlans the collection to add the VLANs to, with
+     *        {@link Ethernet#VLAN_UNTAGGED} for untagged entities
+     */
+    public void getVlans(Range range, long switchDPID, int switchPort,
+                         Collection<Short> vlans) {
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            Columns c = range.columns;
+            for (int i = 0; i < range.count; i++) {
+                int slot = range.base + i;
+                byte f = c.flags[slot];
+                if ((f & HAS_SWITCH) == 0 || c.dpids[slot] != switchDPID ||
+                        (f & HAS_PORT) == 0 || c.ports[slot] != switchPort)
+                    continue;
+                vlans.add(((f & HAS_VLAN) != 0) ?
+                          c.vlans[slot] : Ethernet.VLAN_UNTAGGED);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Search a range for an entity, without decoding it
+     * @param range the range
+     * @param entity the entity
+     * @return the index of the entity, or <0 if not found
+     * @see Arrays#binarySearch(Object[], Object)
+     */
+    public int indexOf(Range range, Entity entity) {
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            Columns c = range.columns;
+            int low = 0;
+            int high = range.count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(c, range.base + mid, entity);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -(low + 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the same value as {@link Arrays#hashCode(Object[])} of the
+     *         decoded entities of the range
+     */
+    public int hashCode(Range range) {
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            int result = 1;
+            for (int i = 0; i < range.count; i++) {
+                result = 31 * result +
+                         hashSlot(range.columns, range.base + i);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the range holds entities equal to the given ones,
+     *         in the same order
+     * @see Arrays#equals(Object[], Object[])
+     */
+    public boolean equals(Range range, Entity[] entities) {
+        if (range.count != entities.length)
+            return false;
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < range.count; i++) {
+                if (compare(range.columns, range.base + i, entities[i]) != 0)
+                    return false;
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the ranges hold equal entities in the same order
+     * @see Arrays#equals(Object[], Object[])
+     */
+    public boolean equals(Range range, Range other) {
+        if (range == other)
+            return true;
+        if (range.count != other.count)
+            return false;
+        if (range.stripe != other.stripe) {
+            // Only ranges of different device keys, which Device never
+            // compares, or of different stores. Not worth ordering the
+            // stripe locks for.
+            return equals(range, getEntities(other));
+        }
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < range.count; i++) {
+                if (!slotsEqual(range.columns, range.base + i,
+                                other.columns, other.base + i))
+                    return false;
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Record that an entity was seen. Updates the active-since time the
+     * same way {@link Entity#setLastSeenTimestamp(Date)} does.
+     * @param range the range of the device
+     * @param entityIndex the index of the entity in its device
+     * @param seen the last seen time
+     */
+    public void updateLastSeen(Range range, int entityIndex, Date seen) {
+        if (entityIndex < 0 || entityIndex >= range.count)
+            return;
+        long t = seen.getTime();
+        ReentrantReadWriteLock lock = range.stripe.lock;
+        lock.readLock().lock();
+        try {
+            Columns c = range.columns;
+            int slot = range.base + entityIndex;
+            // Racing updates of the same entity may each win one of the
+            // two fields, which is no worse than with Entity objects
+            if ((c.flags[slot] & HAS_ACTIVE_SINCE) == 0 ||
+                    c.activeSince[slot] + Entity.ACTIVITY_TIMEOUT < t) {
+                c.activeSince[slot] = t;
+                c.flags[slot] |= HAS_ACTIVE_SINCE;
+            }
+            c.lastSeen[slot] = t;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the devices that have at least one entity that was last seen
+     * before the cutoff. Entities without a last seen time never expire.
+     * @param cutoff the cutoff time in milliseconds
+     * @return the device keys, each listed once
+     */
+    public long[] findDevicesSeenBefore(long cutoff) {
+        long[] result = new long[16];
+        int n = 0;
+        for (Stripe s : stripes) {
+            s.lock.readLock().lock();
+            try {
+                Columns c = s.columns;
+                long prevOwner = -1;
+                for (int i = 0; i < s.top; i++) {
+                    if ((c.flags[i] & LIVE) == 0)
+                        continue;
+                    long seen = c.lastSeen[i];
+                    // Entities of a device are contiguous, so checking the
+                    // previous owner is enough to avoid duplicates
+                    if (seen != 0 && seen < cutoff &&
+                            c.owners[i] != prevOwner) {
+                        if (n == result.length)
+                            result = Arrays.copyOf(result, n << 1);
+                        result[n++] = c.owners[i];
+                        prevOwner = c.owners[i];
+                    }
+                }
+            } finally {
+                s.lock.readLock().unlock();
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * @return the number of entities of live devices
+     */
+    public int getEntityCount() {
+        int count = 0;
+        for (Stripe s : stripes) {
+            s.lock.readLock().lock();
+            try {
+                count += s.liveSlots;
+            } finally {
+                s.lock.readLock().unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of allocated slots
+     */
+    public int getCapacity() {
+        int capacity = 0;
+        for (Stripe s : stripes) {
+            s.lock.readLock().lock();
+            try {
+                capacity += s.columns.capacity();
+            } finally {
+                s.lock.readLock().unlock();
+            }
+        }
+        return capacity;
+    }
+
+    private static void writeSlot(Columns c, int slot, long deviceKey,
+                                  Entity e) {
+        byte f = 0;
+        c.owners[slot] = deviceKey;
+        c.macs[slot] = e.macAddress;
+        if (e.vlan != null) {
+            f |= HAS_VLAN;
+            c.vlans[slot] = e.vlan;
+        }
+        if (e.ipv4Address != null) {
+            f |= HAS_IPV4;
+            c.ipv4s[slot] = e.ipv4Address;
+        }
+        if (e.switchDPID != null) {
+            f |= HAS_SWITCH;
+            c.dpids[slot] = e.switchDPID;
+        }
+        if (e.switchPort != null) {
+            f |= HAS_PORT;
+            c.ports[slot] = e.switchPort;
+        }
+        Date seen = e.lastSeenTimestamp;
+        c.lastSeen[slot] = (seen == null) ? 0 : seen.getTime();
+        if (e.activeSince != null) {
+            f |= HAS_ACTIVE_SINCE;
+            c.activeSince[slot] = e.activeSince.getTime();
+        }
+        c.flags[slot] = f;
+    }
+
+    private static Entity readSlot(Columns c, int slot) {
+        byte f = c.flags[slot];
+        Entity e = new Entity(c.macs[slot],
+                ((f & HAS_VLAN) != 0) ? Short.valueOf(c.vlans[slot]) : null,
+                ((f & HAS_IPV4) != 0) ? Integer.valueOf(c.ipv4s[slot]) : null,
+                ((f & HAS_SWITCH) != 0) ? Long.valueOf(c.dpids[slot]) : null,
+                ((f & HAS_PORT) != 0) ? Integer.valueOf(c.ports[slot]) : null,
+                (c.lastSeen[slot] != 0) ? new Date(c.lastSeen[slot]) : null);
+        e.setActiveSince(((f & HAS_ACTIVE_SINCE) != 0) ?
+                         new Date(c.activeSince[slot]) : null);
+        return e;
+    }
+
+    /**
+     * Compare a slot to an entity in {@link Entity#compareTo(Entity)}
+     * order: MAC, switch, port, IP, VLAN, with missing fields first
+     */
+    private static int compare(Columns c, int slot, Entity e) {
+        long mac = c.macs[slot];
+        if (mac != e.macAddress)
+            return (mac < e.macAddress) ? -1 : 1;
+        byte f = c.flags[slot];
+        int r = compareField((f & HAS_SWITCH) != 0, c.dpids[slot],
+                             e.switchDPID);
+        if (r != 0) return r;
+        r = compareField((f & HAS_PORT) != 0, c.ports[slot], e.switchPort);
+        if (r != 0) return r;
+        r = compareField((f & HAS_IPV4) != 0, c.ipv4s[slot], e.ipv4Address);
+        if (r != 0) return r;
+        return compareField((f & HAS_VLAN) != 0, c.vlans[slot], e.vlan);
+    }
+
+    private static int compareField(boolean has, long value, Number other) {
+        if (!has)
+            return (other == null) ? 0 : -1;
+        if (other == null)
+            return 1;
+        long o = other.longValue();
+        return (value < o) ? -1 : ((value == o) ? 0 : 1);
+    }
+
+    private static boolean slotsEqual(Columns a, int slotA,
+                                      Columns b, int slotB) {
+        byte f = (byte) (a.flags[slotA] & KEY_FLAGS);
+        return a.macs[slotA] == b.macs[slotB] &&
+               f == (b.flags[slotB] & KEY_FLAGS) &&
+               ((f & HAS_VLAN) == 0 || a.vlans[slotA] == b.vlans[slotB]) &&
+               ((f & HAS_IPV4) == 0 || a.ipv4s[slotA] == b.ipv4s[slotB]) &&
+               ((f & HAS_SWITCH) == 0 || a.dpids[slotA] == b.dpids[slotB]) &&
+               ((f & HAS_PORT) == 0 || a.ports[slotA] == b.ports[slotB]);
+    }
+
+    /**
+     * @return the same value as {@link Entity#hashCode()} of the decoded
+     *         slot
+     */
+    private static int hashSlot(Columns c, int slot) {
+        byte f = c.flags[slot];
+        long mac = c.macs[slot];
+        long dpid = c.dpids[slot];
+        int h = 1;
+        h = 31 * h + (((f & HAS_IPV4) != 0) ? c.ipv4s[slot] : 0);
+        h = 31 * h + (int) (mac ^ (mac >>> 32));
+        h = 31 * h + (((f & HAS_SWITCH) != 0) ?
+                      (int) (dpid ^ (dpid >>> 32)) : 0);
+        h = 31 * h + (((f & HAS_PORT) != 0) ? c.ports[slot] : 0);
+        h = 31 * h + (((f & HAS_VLAN) != 0) ? c.vlans[slot] : 0);
+        return h;
+    }
+
+    /**
+     * Copy the live ranges of a stripe into new column arrays with room
+     * for at least extra more slots. The old arrays are left untouched for
+     * device objects that were already replaced. Caller must hold the
+     * write lock of the stripe.
+     */
+    private void compact(Stripe s, int extra) {
+        int live = 0;
+        for (Range range : s.liveRanges.values())
+            live += range.count;
+        int capacity = s.columns.capacity();
+        // Grow once live slots fill half of the arrays
+        while (capacity < 2 * live + extra)
+            capacity <<= 1;
+        Columns dst = new Columns(capacity);
+        int slot = 0;
+        for (Range range : s.liveRanges.values()) {
+            relocate(range, dst, slot);
+            slot += range.count;
+        }
+        s.columns = dst;
+        s.top = slot;
+    }
+}
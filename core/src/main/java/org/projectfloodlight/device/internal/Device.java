@@ -60,7 +60,10 @@ public class Device implements IDevice {
     private final Long deviceKey;
     protected final DeviceManagerImpl deviceManager;
 
+    // The entities of the device, or null if they are packed in the
+    // device manager's entity store
     protected final Entity[] entities;
+    protected final CompactEntityStore.Range packedEntities;
     private final IEntityClass entityClass;
 
     protected final String macAddressString;
@@ -102,12 +105,13 @@ public class Device implements IDevice {
                   IEntityClass entityClass) {
         this.deviceManager = deviceManager;
         this.deviceKey = deviceKey;
-        this.entities = new Entity[] {entity};
+        Entity[] entities = new Entity[] {entity};
+        this.packedEntities = pack(deviceManager, deviceKey, entities);
+        this.entities = (packedEntities == null) ? entities : null;
         this.macAddressString =
                 HexString.toHexString(entity.getMacAddress(), 6);
         this.entityClass = entityClass;
         this.id = Device.getIdString(entityClass, entity);
-        Arrays.sort(this.entities);
 
         this.dhcpClientName = null;
         this.oldAPs = null;
@@ -128,7 +132,7 @@ public class Device implements IDevice {
                 this.attachmentPoints.add(ap);
             }
         }
-        vlanIds = computeVlandIds();
+        vlanIds = computeVlandIds(entities);
     }
 
     /**
@@ -148,9 +152,12 @@ public class Device implements IDevice {
         this.deviceManager = deviceManager;
         this.deviceKey = deviceKey;
         this.dhcpClientName = dhcpClientName;
-        this.entities = entities.toArray(new Entity[entities.size()]);
+        Entity[] entityArray = entities.toArray(new Entity[entities.size()]);
+        Arrays.sort(entityArray);
+        this.packedEntities = pack(deviceManager, deviceKey, entityArray);
+        this.entities = (packedEntities == null) ? entityArray : null;
         // we assume that all entities should have the same key fields.
-        this.id = Device.getIdString(entityClass, this.entities[0]);
+        this.id = Device.getIdString(entityClass, entityArray[0]);
         this.oldAPs = null;
         this.attachmentPoints = null;
         if (oldAPs != null) {
@@ -162,10 +169,9 @@ public class Device implements IDevice {
                     new ArrayList<AttachmentPoint>(attachmentPoints);
         }
         this.macAddressString =
-                HexString.toHexString(this.entities[0].getMacAddress(), 6);
+                HexString.toHexString(entityArray[0].getMacAddress(), 6);
         this.entityClass = entityClass;
-        Arrays.sort(this.entities);
-        vlanIds = computeVlandIds();
+        vlanIds = computeVlandIds(entityArray);
     }
 
     /**
@@ -188,26 +194,29 @@ public class Device implements IDevice {
         this.id = device.getId();
         this.dhcpClientName = device.dhcpClientName;
 
-        this.entities = new Entity[device.entities.length + 1];
+        Entity[] oldEntities = device.getEntities();
+        Entity[] entities = new Entity[oldEntities.length + 1];
         if (insertionpoint < 0) {
-            insertionpoint = -(Arrays.binarySearch(device.entities,
+            insertionpoint = -(Arrays.binarySearch(oldEntities,
                                                    newEntity)+1);
         }
         if (insertionpoint > 0) {
             // insertion point is not the beginning:
             // copy up to insertion point
-            System.arraycopy(device.entities, 0,
-                             this.entities, 0,
+            System.arraycopy(oldEntities, 0,
+                             entities, 0,
                              insertionpoint);
         }
-        if (insertionpoint < device.entities.length) {
+        if (insertionpoint < oldEntities.length) {
             // insertion point is not the end
             // copy from insertion point
-            System.arraycopy(device.entities, insertionpoint,
-                             this.entities, insertionpoint+1,
-                             device.entities.length-insertionpoint);
+            System.arraycopy(oldEntities, insertionpoint,
+                             entities, insertionpoint+1,
+                             oldEntities.length-insertionpoint);
         }
-        this.entities[insertionpoint] = newEntity;
+        entities[insertionpoint] = newEntity;
+        this.packedEntities = pack(deviceManager, deviceKey, entities);
+        this.entities = (packedEntities == null) ? entities : null;
         /*
         this.entities = Arrays.<Entity>copyOf(device.entities,
                                               device.entities.length + 1);
@@ -227,13 +236,26 @@ public class Device implements IDevice {
         }
 
         this.macAddressString =
-                HexString.toHexString(this.entities[0].getMacAddress(), 6);
+                HexString.toHexString(entities[0].getMacAddress(), 6);
 
         this.entityClass = device.entityClass;
-        vlanIds = computeVlandIds();
+        vlanIds = computeVlandIds(entities);
+    }
+
+    /**
+     * Pack the entities into the device manager's entity store if it has
+     * one
+     * @return the range or null if the store is disabled
+     */
+    private static CompactEntityStore.Range pack(DeviceManagerImpl deviceManager,
+                                                 Long deviceKey,
+                                                 Entity[] entities) {
+        if (deviceManager == null || deviceManager.entityStore == null)
+            return null;
+        return deviceManager.entityStore.add(deviceKey, entities);
     }
 
-    private Short[]  computeVlandIds() {
+    private static Short[] computeVlandIds(Entity[] entities) {
         if (entities.length == 1) {
             if (entities[0].getVlan() != null) {
                 return new Short[]{ entities[0].getVlan() };
@@ -726,7 +748,9 @@ public class Device implements IDevice {
     @Override
     public long getMACAddress() {
         // we assume only one MAC per device for now.
-        return entities[0].getMacAddress();
+        if (entities != null)
+            return entities[0].getMacAddress();
+        return deviceManager.entityStore.getMacAddress(packedEntities, 0);
     }
 
     @BigDBIgnore
@@ -769,34 +793,32 @@ public class Device implements IDevice {
         // is really a performance bottleneck first though.
 
         TreeSet<Integer> vals = new TreeSet<Integer>();
-        for (Entity e : entities) {
-            if (e.getIpv4Address() == null) continue;
+        int count = getEntityCount();
+        for (int i = 0; i < count; i++) {
+            Integer ip = getIpv4Address(i);
+            if (ip == null) continue;
+            long lastSeen = getLastSeen(i);
 
             // We have an IP address only if among the devices within the class
             // we have the most recent entity with that IP.
             boolean validIP = true;
+            // Only the IP is used to query the index
+            Entity probe = new Entity(0, null, ip, null, null, null);
             Iterator<Device> devices =
-                    deviceManager.queryClassByEntity(entityClass, ipv4Fields, e);
+                    deviceManager.queryClassByEntity(entityClass, ipv4Fields,
+                                                     probe);
             while (devices.hasNext()) {
                 Device d = devices.next();
                 if (deviceKey.equals(d.getDeviceKey()))
                     continue;
-                for (Entity se : d.entities) {
-                    if (se.getIpv4Address() != null &&
-                            se.getIpv4Address().equals(e.getIpv4Address()) &&
-                            se.getLastSeenTimestamp() != null &&
-                            0 < se.getLastSeenTimestamp().
-                            compareTo(e.getLastSeenTimestamp())) {
-                        validIP = false;
-                        break;
-                    }
-                }
-                if (!validIP)
+                if (d.getLastSeenWithIpv4(ip) > lastSeen) {
+                    validIP = false;
                     break;
+                }
             }
 
             if (validIP)
-                vals.add(e.getIpv4Address());
+                vals.add(ip);
         }
 
         return vals.toArray(new Integer[vals.size()]);
@@ -805,6 +827,12 @@ public class Device implements IDevice {
     @Override
     public Short[] getSwitchPortVlanIds(SwitchPort swp) {
         TreeSet<Short> vals = new TreeSet<Short>();
+        if (entities == null) {
+            deviceManager.entityStore.getVlans(packedEntities,
+                                               swp.getSwitchDPID(),
+                                               swp.getPort(), vals);
+            return vals.toArray(new Short[vals.size()]);
+        }
         for (Entity e : entities) {
             if (e.switchDPID == swp.getSwitchDPID()
                     && e.switchPort == swp.getPort()) {
@@ -821,6 +849,11 @@ public class Device implements IDevice {
     @BigDBSerialize(using=ISODateDataNodeSerializer.class)
     @Override
     public Date getLastSeen() {
+        if (entities == null) {
+            long latest =
+                    deviceManager.entityStore.getLastSeen(packedEntities);
+            return (latest == 0) ? null : new Date(latest);
+        }
         Date d = null;
         for (int i = 0; i < entities.length; i++) {
             if (d == null ||
@@ -845,11 +878,98 @@ public class Device implements IDevice {
         return entityClass;
     }
 
+    /**
+     * Get the entities of the device. The result must be treated as read
+     * only: if the entities are packed it's a newly decoded copy, so
+     * changes to it are lost.
+     * @return the entities, sorted
+     */
     //@BigDBProperty(value = "entity")
     @BigDBIgnore
     @SuppressFBWarnings("EI_EXPOSE_REP")
     public Entity[] getEntities() {
-        return entities;
+        if (entities != null)
+            return entities;
+        return deviceManager.entityStore.getEntities(packedEntities);
+    }
+
+    /**
+     * Get one entity of the device. Cheaper than {@link #getEntities()}
+     * if the entities are packed.
+     * @param entityIndex the index of the entity
+     * @return the entity
+     */
+    protected Entity getEntity(int entityIndex) {
+        if (entities != null)
+            return entities[entityIndex];
+        return deviceManager.entityStore.getEntity(packedEntities, entityIndex);
+    }
+
+    /**
+     * @return the number of entities of the device
+     */
+    protected int getEntityCount() {
+        if (entities != null)
+            return entities.length;
+        return packedEntities.size();
+    }
+
+    /**
+     * @param entityIndex the index of the entity
+     * @return the IPv4 address of the entity, or null if it has none
+     */
+    private Integer getIpv4Address(int entityIndex) {
+        if (entities != null)
+            return entities[entityIndex].getIpv4Address();
+        return deviceManager.entityStore.getIpv4Address(packedEntities,
+                                                        entityIndex);
+    }
+
+    /**
+     * @param entityIndex the index of the entity
+     * @return the last seen time of the entity in milliseconds, or 0 if it
+     *         has none
+     */
+    private long getLastSeen(int entityIndex) {
+        if (entities == null)
+            return deviceManager.entityStore.getLastSeen(packedEntities,
+                                                         entityIndex);
+        Date seen = entities[entityIndex].getLastSeenTimestamp();
+        return (seen == null) ? 0 : seen.getTime();
+    }
+
+    /**
+     * @param ipv4Address the IPv4 address
+     * @return the latest last seen time in milliseconds of the device's
+     *         entities with the IPv4 address, or 0 if none has one
+     */
+    private long getLastSeenWithIpv4(int ipv4Address) {
+        if (entities == null)
+            return deviceManager.entityStore.getLastSeenWithIpv4(packedEntities,
+                                                                 ipv4Address);
+        long latest = 0;
+        for (Entity e : entities) {
+            if (e.getIpv4Address() != null &&
+                    e.getIpv4Address().intValue() == ipv4Address &&
+                    e.getLastSeenTimestamp() != null)
+                latest = Math.max(latest,
+                                  e.getLastSeenTimestamp().getTime());
+        }
+        return latest;
+    }
+
+    /**
+     * Update the last seen time of one of the device's entities
+     * @param entityIndex the index of the entity
+     * @param lastSeen the time
+     * @see Entity#setLastSeenTimestamp(Date)
+     */
+    protected void updateLastSeen(int entityIndex, Date lastSeen) {
+        if (entities != null)
+            entities[entityIndex].setLastSeenTimestamp(lastSeen);
+        else
+            deviceManager.entityStore.updateLastSeen(packedEntities,
+                                                     entityIndex, lastSeen);
     }
 
     @BigDBIgnore
@@ -867,7 +987,9 @@ public class Device implements IDevice {
      * @return the index of the entity, or <0 if not found
      */
     protected int entityIndex(Entity entity) {
-        return Arrays.binarySearch(entities, entity);
+        if (entities != null)
+            return Arrays.binarySearch(entities, entity);
+        return deviceManager.entityStore.indexOf(packedEntities, entity);
     }
 
     // ******
@@ -878,7 +1000,9 @@ public class Device implements IDevice {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + Arrays.hashCode(entities);
+        result = prime * result + ((entities != null) ?
+                Arrays.hashCode(entities) :
+                deviceManager.entityStore.hashCode(packedEntities));
         return result;
     }
 
@@ -889,10 +1013,23 @@ public class Device implements IDevice {
         if (getClass() != obj.getClass()) return false;
         Device other = (Device) obj;
         if (!deviceKey.equals(other.deviceKey)) return false;
-        if (!Arrays.equals(entities, other.entities)) return false;
+        if (!entitiesEqual(other)) return false;
         return true;
     }
 
+    private boolean entitiesEqual(Device other) {
+        if (entities != null && other.entities != null)
+            return Arrays.equals(entities, other.entities);
+        if (entities != null)
+            return other.deviceManager.entityStore.equals(other.packedEntities,
+                                                          entities);
+        if (other.entities != null)
+            return deviceManager.entityStore.equals(packedEntities,
+                                                    other.entities);
+        return deviceManager.entityStore.equals(packedEntities,
+                                                other.packedEntities);
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
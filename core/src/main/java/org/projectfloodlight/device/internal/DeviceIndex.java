@@ -48,6 +48,19 @@ public abstract class DeviceIndex {
      * @return an iterator over device keys
      */
     public abstract Iterator<Long> queryByEntity(Entity entity);
+
+    /**
+     * Find a device key in the index that matches the given entity on all
+     * the key fields for this index
+     * @param entity the entity to search for
+     * @return a matching device key or null if there is none
+     */
+    public Long findByEntity(Entity entity) {
+        Iterator<Long> keyiter = queryByEntity(entity);
+        if (keyiter.hasNext())
+            return keyiter.next();
+        return null;
+    }
     
     /**
      * Get all device keys in the index.  If certain devices exist
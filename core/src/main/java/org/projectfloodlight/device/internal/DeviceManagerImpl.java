@@ -243,7 +243,7 @@ public class DeviceManagerImpl implements
     /**
      * This is the primary entity index that contains all entities
      */
-    protected DeviceUniqueIndex primaryIndex;
+    protected DeviceIndex primaryIndex;
 
     /**
      * This stores secondary indices over the fields in the devices
@@ -261,6 +261,20 @@ public class DeviceManagerImpl implements
      */
     protected Set<EnumSet<DeviceField>> perClassIndices;
 
+    /**
+     * Use indices keyed by packed primitive keys where the key fields
+     * allow it
+     */
+    protected boolean usePrimitiveIndex = false;
+
+    /**
+     * Packed storage for the entities of all devices, also used to find
+     * expired entities. Null unless enabled with the compactentitystore
+     * option.
+     */
+    protected CompactEntityStore entityStore;
+    protected boolean useCompactEntityStore = false;
+
     /**
      * The entity classifier currently in use
      */
@@ -274,7 +288,7 @@ public class DeviceManagerImpl implements
         /**
          * The class index
          */
-        protected DeviceUniqueIndex classIndex;
+        protected DeviceIndex classIndex;
 
         /**
          * This stores secondary indices over the fields in the device for the
@@ -294,13 +308,12 @@ public class DeviceManagerImpl implements
                     primaryKeyFields.equals(keyFields);
 
             if (!keyFieldsMatchPrimary)
-                classIndex = new DeviceUniqueIndex(keyFields);
+                classIndex = createUniqueIndex(keyFields);
 
             secondaryIndexMap =
                     new HashMap<EnumSet<DeviceField>, DeviceIndex>();
             for (EnumSet<DeviceField> fields : perClassIndices) {
-                secondaryIndexMap.put(fields,
-                                      new DeviceMultiIndex(fields));
+                secondaryIndexMap.put(fields, createMultiIndex(fields));
             }
         }
     }
@@ -555,14 +568,36 @@ public class DeviceManagerImpl implements
         return Collections.unmodifiableCollection(deviceMap.values());
     }
 
+    /**
+     * Create a unique index over the given key fields
+     * @param keyFields the key fields
+     * @return the index
+     */
+    protected DeviceIndex createUniqueIndex(EnumSet<DeviceField> keyFields) {
+        if (usePrimitiveIndex && PrimitiveDeviceIndex.isSupported(keyFields))
+            return new PrimitiveDeviceUniqueIndex(keyFields);
+        return new DeviceUniqueIndex(keyFields);
+    }
+
+    /**
+     * Create an index over the given key fields that allows multiple
+     * devices per key
+     * @param keyFields the key fields
+     * @return the index
+     */
+    protected DeviceIndex createMultiIndex(EnumSet<DeviceField> keyFields) {
+        if (usePrimitiveIndex && PrimitiveDeviceIndex.isSupported(keyFields))
+            return new PrimitiveDeviceMultiIndex(keyFields);
+        return new DeviceMultiIndex(keyFields);
+    }
+
     @Override
     public void addIndex(boolean perClass,
                          EnumSet<DeviceField> keyFields) {
         if (perClass) {
             perClassIndices.add(keyFields);
         } else {
-            secondaryIndexMap.put(keyFields,
-                                  new DeviceMultiIndex(keyFields));
+            secondaryIndexMap.put(keyFields, createMultiIndex(keyFields));
         }
     }
 
@@ -951,6 +986,18 @@ public class DeviceManagerImpl implements
                 new HashSet<EnumSet<DeviceField>>();
         addIndex(true, EnumSet.of(DeviceField.IPV4));
 
+        Map<String, String> configOptions = fmc.getConfigParams(this);
+        String option = configOptions.get("primitiveindex");
+        if (option != null)
+            usePrimitiveIndex = Boolean.parseBoolean(option);
+        logger.debug("Primitive device index {}",
+                     usePrimitiveIndex ? "enabled" : "disabled");
+        option = configOptions.get("compactentitystore");
+        if (option != null)
+            useCompactEntityStore = Boolean.parseBoolean(option);
+        logger.debug("Compact entity store {}",
+                     useCompactEntityStore ? "enabled" : "disabled");
+
         this.deviceListeners = new ListenerDispatcher<String, IDeviceListener>();
         this.suppressAPs = Collections.newSetFromMap(
                                new ConcurrentHashMap<SwitchPort, Boolean>());
@@ -994,10 +1041,12 @@ public class DeviceManagerImpl implements
     public void startUp(FloodlightModuleContext fmc)
             throws FloodlightModuleException {
         isMaster = (floodlightProvider.getRole() == Role.MASTER);
-        primaryIndex = new DeviceUniqueIndex(entityClassifier.getKeyFields());
+        primaryIndex = createUniqueIndex(entityClassifier.getKeyFields());
         secondaryIndexMap = new HashMap<EnumSet<DeviceField>, DeviceIndex>();
 
         deviceMap = new ConcurrentHashMap<Long, Device>();
+        if (useCompactEntityStore)
+            entityStore = new CompactEntityStore();
         classStateMap =
                 new ConcurrentHashMap<String, ClassState>();
         apComparator = new AttachmentPointComparator();
@@ -1718,7 +1767,7 @@ public class DeviceManagerImpl implements
                 device = allocateDevice(deviceKey, entity, entityClass);
 
                 // Add the new device to the primary map with a simple put
-                deviceMap.put(deviceKey, device);
+                putDevice(device);
 
                 // update indices
                 if (!updateIndices(device, deviceKey)) {
@@ -1772,7 +1821,7 @@ public class DeviceManagerImpl implements
                     lastSeen = new Date();
                     entity.setLastSeenTimestamp(lastSeen);
                 }
-                device.entities[entityindex].setLastSeenTimestamp(lastSeen);
+                device.updateLastSeen(entityindex, lastSeen);
                 // we break the loop after checking for changes to the AP
             } else {
                 // New entity for this device
@@ -1786,7 +1835,7 @@ public class DeviceManagerImpl implements
                         findChangedFields(device, entity);
 
                 // update the device map with a replace call
-                boolean res = deviceMap.replace(deviceKey, device, newDevice);
+                boolean res = replaceDevice(device, newDevice);
                 // If replace returns false, restart the process from the
                 // beginning (this implies another thread concurrently
                 // modified this Device).
@@ -1828,14 +1877,14 @@ public class DeviceManagerImpl implements
                     if (logger.isTraceEnabled()) {
                         logger.trace("Device moved: attachment points {}," +
                                 "entities {}", device.attachmentPoints,
-                                device.entities);
+                                device.getEntities());
                     }
                 } else {
                     if (logger.isTraceEnabled()) {
                         logger.trace("Device attachment point updated: " +
                                      "attachment points {}," +
                                      "entities {}", device.attachmentPoints,
-                                     device.entities);
+                                     device.getEntities());
                     }
                 }
             }
@@ -2075,7 +2124,20 @@ public class DeviceManagerImpl implements
         ArrayList<Entity> toRemove = new ArrayList<Entity>();
         ArrayList<Entity> toKeep = new ArrayList<Entity>();
 
-        Iterator<Device> diter = deviceMap.values().iterator();
+        Iterator<Device> diter;
+        if (entityStore != null) {
+            // Only visit the devices that have expired entities
+            long[] expired = entityStore.findDevicesSeenBefore(cutoff.getTime());
+            List<Device> candidates = new ArrayList<Device>(expired.length);
+            for (long deviceKey : expired) {
+                Device d = deviceMap.get(deviceKey);
+                if (d != null)
+                    candidates.add(d);
+            }
+            diter = candidates.iterator();
+        } else {
+            diter = deviceMap.values().iterator();
+        }
         LinkedList<DeviceUpdate> deviceUpdates =
                 new LinkedList<DeviceUpdate>();
 
@@ -2122,9 +2184,7 @@ public class DeviceManagerImpl implements
                         update = new DeviceUpdate(d, CHANGE, changedFields);
                     }
 
-                    if (!deviceMap.replace(newDevice.getDeviceKey(),
-                                           d,
-                                           newDevice)) {
+                    if (!replaceDevice(d, newDevice)) {
                         // concurrent modification; try again
                         // need to use device that is the map now for the next
                         // iteration
@@ -2140,7 +2200,7 @@ public class DeviceManagerImpl implements
                     }
                 } else {
                     DeviceUpdate update = new DeviceUpdate(d, DELETE, null);
-                    if (!deviceMap.remove(d.getDeviceKey(), d)) {
+                    if (!removeDevice(d)) {
                         // concurrent modification; try again
                         // need to use device that is the map now for the next
                         // iteration
@@ -2198,13 +2258,48 @@ public class DeviceManagerImpl implements
             this.removeEntity(entity, device.getEntityClass(),
                 device.getDeviceKey(), emptyToKeep);
         }
-        if (!deviceMap.remove(device.getDeviceKey(), device)) {
+        if (!removeDevice(device)) {
             if (logger.isDebugEnabled())
                 logger.debug("device map does not have this device -" +
                     device.toString());
         }
     }
 
+    /**
+     * Add a new device to the device map. If the entity store is enabled
+     * the store is updated in the same step.
+     * @param device the device
+     */
+    private void putDevice(Device device) {
+        if (entityStore != null)
+            entityStore.put(deviceMap, device);
+        else
+            deviceMap.put(device.getDeviceKey(), device);
+    }
+
+    /**
+     * Replace a device in the device map. If the entity store is enabled
+     * the store is updated in the same step, so concurrent updates of a
+     * device can't leave the store with an older device than the map.
+     * @return true if the device map still held the old device
+     */
+    private boolean replaceDevice(Device oldDevice, Device newDevice) {
+        if (entityStore != null)
+            return entityStore.replace(deviceMap, oldDevice, newDevice);
+        return deviceMap.replace(newDevice.getDeviceKey(), oldDevice,
+                                 newDevice);
+    }
+
+    /**
+     * Remove a device from the device map and the entity store
+     * @return true if the device map still held the device
+     */
+    private boolean removeDevice(Device device) {
+        if (entityStore != null)
+            return entityStore.remove(deviceMap, device);
+        return deviceMap.remove(device.getDeviceKey(), device);
+    }
+
     private EnumSet<DeviceField> getEntityKeys(Long macAddress,
                                                Short vlan,
                                                Integer ipv4Address,
@@ -2333,7 +2428,8 @@ public class DeviceManagerImpl implements
             return false;
         }
         boolean needToReclassify = false;
-        for (Entity entity : device.entities) {
+        Entity[] entities = device.getEntities();
+        for (Entity entity : entities) {
             IEntityClass entityClass =
                     this.entityClassifier.classifyEntity(entity);
             if (entityClass == null || device.getEntityClass() == null) {
@@ -2360,7 +2456,7 @@ public class DeviceManagerImpl implements
                 DeviceUpdate.Change.DELETE, null));
         if (!deviceUpdates.isEmpty())
             processUpdates(deviceUpdates);
-        for (Entity entity: device.entities ) {
+        for (Entity entity: entities ) {
             this.learnDeviceByEntity(entity);
         }
         // Since reclassifyDevices() is not called in the packet-in pipeline,
@@ -67,7 +67,7 @@ public class DeviceMultiIndex extends DeviceIndex {
     
     @Override
     public boolean updateIndex(Device device, Long deviceKey) {
-        for (Entity e : device.entities) {
+        for (Entity e : device.getEntities()) {
             updateIndex(e, deviceKey);
         }
         return true;
@@ -62,7 +62,7 @@ public class DeviceUniqueIndex extends DeviceIndex {
 
     @Override
     public boolean updateIndex(Device device, Long deviceKey) {
-        for (Entity e : device.entities) {
+        for (Entity e : device.getEntities()) {
             IndexedEntity ie = new IndexedEntity(keyFields, e);
             if (!ie.hasNonNullKeys()) continue;
 
@@ -105,6 +105,7 @@ public class DeviceUniqueIndex extends DeviceIndex {
      * @param entity the entity to search for
      * @return The key for the {@link Device} object if found
      */
+    @Override
     public Long findByEntity(Entity entity) {
         IndexedEntity ie = new IndexedEntity(keyFields, entity);
         Long deviceKey = index.get(ie);
@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.device.internal;
+
+import java.util.Collection;
+import java.util.EnumSet;
+
+import org.projectfloodlight.device.IDeviceService.DeviceField;
+import org.projectfloodlight.util.StripedLongIndex;
+
+/**
+ * Base class for device indices whose key fields pack into a single long.
+ * Entities are keyed by the packed long instead of an {@link IndexedEntity},
+ * so index operations don't allocate a key object. Only the key field sets
+ * accepted by {@link #isSupported(EnumSet)} can be used.
+ */
+public abstract class PrimitiveDeviceIndex extends DeviceIndex {
+    private static final EnumSet<DeviceField> MAC =
+            EnumSet.of(DeviceField.MAC);
+    private static final EnumSet<DeviceField> MAC_VLAN =
+            EnumSet.of(DeviceField.MAC, DeviceField.VLAN);
+    private static final EnumSet<DeviceField> IPV4 =
+            EnumSet.of(DeviceField.IPV4);
+
+    // VLAN value used for an untagged (null) VLAN in a packed key. VLAN ids
+    // are 12 bits, so this never clashes with a real VLAN.
+    private static final int NULL_VLAN = 0x8000;
+
+    private enum KeyType { MAC, MAC_VLAN, IPV4 }
+
+    private final KeyType keyType;
+    protected final StripedLongIndex index;
+
+    /**
+     * @param keyFields the key fields to use. Must be supported.
+     * @throws IllegalArgumentException if the key fields are not supported
+     */
+    public PrimitiveDeviceIndex(EnumSet<DeviceField> keyFields) {
+        super(keyFields);
+        if (MAC.equals(keyFields)) {
+            keyType = KeyType.MAC;
+        } else if (MAC_VLAN.equals(keyFields)) {
+            keyType = KeyType.MAC_VLAN;
+        } else if (IPV4.equals(keyFields)) {
+            keyType = KeyType.IPV4;
+        } else {
+            throw new IllegalArgumentException("Unsupported key fields " +
+                                               keyFields);
+        }
+        index = new StripedLongIndex();
+    }
+
+    /**
+     * Check whether an index on the given key fields can use packed keys
+     * @param keyFields the key fields
+     * @return true if the key fields are supported
+     */
+    public static boolean isSupported(EnumSet<DeviceField> keyFields) {
+        return MAC.equals(keyFields) || MAC_VLAN.equals(keyFields) ||
+               IPV4.equals(keyFields);
+    }
+
+    /**
+     * Equivalent of {@link IndexedEntity#hasNonNullKeys()}
+     */
+    protected boolean hasKey(Entity entity) {
+        if (keyType == KeyType.IPV4)
+            return entity.ipv4Address != null;
+        return true;
+    }
+
+    /**
+     * Pack the key fields of the entity into a long. Two entities get the
+     * same key iff their {@link IndexedEntity}s would be equal.
+     * @param entity the entity. {@link #hasKey(Entity)} must be true.
+     * @return the packed key
+     */
+    protected long getKey(Entity entity) {
+        switch (keyType) {
+            case MAC:
+                return entity.macAddress;
+            case MAC_VLAN:
+                int vlan = (entity.vlan == null) ? NULL_VLAN :
+                                                   entity.vlan & 0xffff;
+                return (entity.macAddress << 16) | vlan;
+            case IPV4:
+            default:
+                return entity.ipv4Address & 0xffffffffL;
+        }
+    }
+
+    @Override
+    public void removeEntityIfNeeded(Entity entity, Long deviceKey,
+                                     Collection<Entity> others) {
+        if (!hasKey(entity))
+            return;
+        long key = getKey(entity);
+        for (Entity o : others) {
+            if (hasKey(o) && getKey(o) == key)
+                return;
+        }
+        index.removeValue(key, deviceKey);
+    }
+
+    /**
+     * @return the number of distinct keys in the index
+     */
+    public int size() {
+        return index.size();
+    }
+}
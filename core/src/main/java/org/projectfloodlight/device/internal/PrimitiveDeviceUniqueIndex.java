@@ -0,0 +1,95 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.device.internal;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+
+import org.projectfloodlight.device.IDeviceService.DeviceField;
+import org.projectfloodlight.util.StripedLongIndex;
+
+/**
+ * A {@link DeviceUniqueIndex} equivalent keyed by packed primitive keys
+ * @see PrimitiveDeviceIndex
+ */
+public class PrimitiveDeviceUniqueIndex extends PrimitiveDeviceIndex {
+
+    public PrimitiveDeviceUniqueIndex(EnumSet<DeviceField> keyFields) {
+        super(keyFields);
+    }
+
+    // ***********
+    // DeviceIndex
+    // ***********
+
+    @Override
+    public Iterator<Long> queryByEntity(Entity entity) {
+        final Long deviceKey = findByEntity(entity);
+        if (deviceKey != null)
+            return Collections.<Long>singleton(deviceKey).iterator();
+
+        return Collections.<Long>emptySet().iterator();
+    }
+
+    @Override
+    public Iterator<Long> getAll() {
+        return index.values().iterator();
+    }
+
+    @Override
+    public boolean updateIndex(Device device, Long deviceKey) {
+        for (Entity e : device.getEntities()) {
+            if (!hasKey(e)) continue;
+
+            long ret = index.putIfAbsent(getKey(e), deviceKey);
+            if (ret != StripedLongIndex.NO_VALUE && ret != deviceKey) {
+                // A device using this entity has already been created
+                // in another thread.
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void updateIndex(Entity entity, Long deviceKey) {
+        if (!hasKey(entity)) return;
+        index.put(getKey(entity), deviceKey);
+    }
+
+    @Override
+    public void removeEntity(Entity entity) {
+        if (!hasKey(entity)) return;
+        index.remove(getKey(entity));
+    }
+
+    @Override
+    public void removeEntity(Entity entity, Long deviceKey) {
+        if (!hasKey(entity)) return;
+        index.removeValue(getKey(entity), deviceKey);
+    }
+
+    @Override
+    public Long findByEntity(Entity entity) {
+        if (!hasKey(entity)) return null;
+        long deviceKey = index.get(getKey(entity));
+        if (deviceKey == StripedLongIndex.NO_VALUE)
+            return null;
+        return deviceKey;
+    }
+}
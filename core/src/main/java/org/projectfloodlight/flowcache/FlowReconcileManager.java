@@ -16,6 +16,7 @@
 
 package org.projectfloodlight.flowcache;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -26,7 +27,14 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFType;
+import org.projectfloodlight.core.FloodlightContext;
+import org.projectfloodlight.core.IFloodlightProviderService;
+import org.projectfloodlight.core.IOFMessageListener;
+import org.projectfloodlight.core.IOFSwitch;
+import org.projectfloodlight.core.IOFSwitchListener;
+import org.projectfloodlight.core.ImmutablePort;
 import org.projectfloodlight.core.module.FloodlightModuleContext;
 import org.projectfloodlight.core.module.FloodlightModuleException;
 import org.projectfloodlight.core.module.IFloodlightModule;
@@ -61,6 +69,7 @@ public class FlowReconcileManager
     protected IThreadPoolService threadPool;
     protected ICounterStoreService counterStore;
     protected IDebugCounterService debugCounters;
+    protected IFloodlightProviderService floodlightProvider;
     /**
      * The list of flow reconcile listeners that have registered to get
      * flow reconcile callbacks. Such callbacks are invoked, for example, when
@@ -91,6 +100,23 @@ public class FlowReconcileManager
     /** Config to enable or disable flowReconcile */
     protected static final String EnableConfigKey = "enable";
 
+    /**
+     * Config to reconcile flows on a pool of workers sharded by switch
+     * instead of on the single reconcile task. Listeners must then be safe
+     * to call concurrently for different switches.
+     */
+    protected static final String ParallelConfigKey = "parallelReconcile";
+    protected static final String WorkersConfigKey = "reconcileWorkers";
+    protected static final String MaxBatchConfigKey = "reconcileMaxBatch";
+    protected static final int BARRIER_CHECK_INTERVAL_MS = 500;
+
+    protected boolean parallelReconcile;
+    protected int reconcileWorkers;
+    protected int reconcileMaxBatch;
+    /** The parallel engine, or null if flows are reconciled serially */
+    protected volatile ParallelReconcileEngine parallelEngine;
+    protected SingletonTask barrierCheckTask;
+
     /*
      * Debug Counters
      */
@@ -141,6 +167,13 @@ public class FlowReconcileManager
         // Make a copy before putting on the queue.
         OFMatchReconcile myOfmRc = new OFMatchReconcile(ofmRcIn);
 
+        ParallelReconcileEngine engine = parallelEngine;
+        if (engine != null) {
+            engine.submit(myOfmRc, priority);
+            ctrFlowReconcileRequest.updateCounterWithFlush();
+            return;
+        }
+
         flowQueue.offer(myOfmRc, priority);
         ctrFlowReconcileRequest.updateCounterWithFlush();
 
@@ -201,6 +234,8 @@ public class FlowReconcileManager
         threadPool = context.getServiceImpl(IThreadPoolService.class);
         counterStore = context.getServiceImpl(ICounterStoreService.class);
         debugCounters = context.getServiceImpl(IDebugCounterService.class);
+        floodlightProvider =
+                context.getServiceImpl(IFloodlightProviderService.class);
         flowQueue = new PriorityPendingQueue<OFMatchReconcile>();
         flowReconcileListeners =
                 new ListenerDispatcher<OFType, IFlowReconcileListener>();
@@ -217,6 +252,22 @@ public class FlowReconcileManager
         flowReconcileThreadRunCount = new AtomicInteger(0);
         lastReconcileTime = new Date(0);
         logger.debug("FlowReconcile is {}", flowReconcileEnabled);
+
+        parallelReconcile =
+                Boolean.parseBoolean(configParam.get(ParallelConfigKey));
+        reconcileWorkers = Runtime.getRuntime().availableProcessors();
+        reconcileMaxBatch = ParallelReconcileEngine.DEFAULT_MAX_BATCH;
+        try {
+            String workers = configParam.get(WorkersConfigKey);
+            if (workers != null)
+                reconcileWorkers = Integer.parseInt(workers);
+            String maxBatch = configParam.get(MaxBatchConfigKey);
+            if (maxBatch != null)
+                reconcileMaxBatch = Integer.parseInt(maxBatch);
+        } catch (NumberFormatException e) {
+            throw new FloodlightModuleException("Invalid flow reconcile " +
+                                                "parameter", e);
+        }
     }
 
     private void registerFlowReconcileManagerDebugCounters() throws FloodlightModuleException {
@@ -264,6 +315,165 @@ public class FlowReconcileManager
             CounterStore.createCounterName(ICounterStoreService.CONTROLLER_NAME,
                                            -1,
                                            packetInName);
+
+        if (parallelReconcile && parallelEngine == null) {
+            startParallelEngine(ses);
+            // Modules have no shutdown step, so stop the workers when the
+            // controller exits
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    shutdown();
+                }
+            }, "FlowReconcileShutdown"));
+        }
+    }
+
+    /**
+     * Start reconciling flows on the parallel engine, paced by barriers
+     * sent to each switch
+     */
+    protected void startParallelEngine(ScheduledExecutorService ses) {
+        parallelEngine = new ParallelReconcileEngine(reconcileWorkers,
+                new ParallelReconcileEngine.BatchHandler() {
+                    @Override
+                    public void reconcileBatch(ArrayList<OFMatchReconcile> batch) {
+                        ctrReconciledFlows.updateCounterWithFlush(batch.size());
+                        if (runReconcileListeners(batch)) {
+                            flowReconcileThreadRunCount.incrementAndGet();
+                        }
+                    }
+                },
+                new ParallelReconcileEngine.BarrierSender() {
+                    @Override
+                    public int sendBarrier(long dpid) {
+                        return sendReconcileBarrier(dpid);
+                    }
+                },
+                ParallelReconcileEngine.DEFAULT_MIN_BATCH,
+                reconcileMaxBatch,
+                ParallelReconcileEngine.DEFAULT_TARGET_ACK_MS,
+                ParallelReconcileEngine.DEFAULT_BARRIER_TIMEOUT_MS);
+
+        if (floodlightProvider != null) {
+            floodlightProvider.addOFMessageListener(OFType.BARRIER_REPLY,
+                                                    new BarrierReplyListener());
+            floodlightProvider.addOFSwitchListener(new SwitchListener());
+        }
+        barrierCheckTask = new SingletonTask(ses, new Runnable() {
+            @Override
+            public void run() {
+                ParallelReconcileEngine engine = parallelEngine;
+                if (engine == null) return;
+                try {
+                    engine.checkBarrierTimeouts();
+                } finally {
+                    barrierCheckTask.reschedule(BARRIER_CHECK_INTERVAL_MS,
+                                                TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+        barrierCheckTask.reschedule(BARRIER_CHECK_INTERVAL_MS,
+                                    TimeUnit.MILLISECONDS);
+        logger.info("Reconciling flows on {} workers", reconcileWorkers);
+    }
+
+    /**
+     * Stop the parallel engine's workers. Flows submitted after this are
+     * reconciled on the serial reconcile task. Called from a JVM shutdown
+     * hook, so it also runs when the controller terminates.
+     */
+    public void shutdown() {
+        ParallelReconcileEngine engine = parallelEngine;
+        parallelEngine = null;
+        if (engine != null) {
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * Send a barrier to a switch after a reconcile batch
+     * @return the barrier's transaction id or -1 if none was sent
+     */
+    protected int sendReconcileBarrier(long dpid) {
+        if (floodlightProvider == null) return -1;
+        IOFSwitch sw = floodlightProvider.getSwitch(dpid);
+        if (sw == null || !sw.isConnected()) return -1;
+        OFMessage barrier = floodlightProvider.getOFMessageFactory()
+                .getMessage(OFType.BARRIER_REQUEST);
+        int xid = sw.getNextTransactionId();
+        barrier.setXid(xid);
+        try {
+            sw.write(barrier, null);
+            sw.flush();
+        } catch (IOException e) {
+            logger.debug("Failed to send barrier to switch {}: {}",
+                         sw.getStringId(), e);
+            return -1;
+        }
+        return xid;
+    }
+
+    /**
+     * Passes barrier replies to the parallel engine
+     */
+    protected class BarrierReplyListener implements IOFMessageListener {
+        @Override
+        public String getName() {
+            return "flowreconcilemgr";
+        }
+
+        @Override
+        public boolean isCallbackOrderingPrereq(OFType type, String name) {
+            return false;
+        }
+
+        @Override
+        public boolean isCallbackOrderingPostreq(OFType type, String name) {
+            return false;
+        }
+
+        @Override
+        public Command receive(IOFSwitch sw, OFMessage msg,
+                               FloodlightContext cntx) {
+            ParallelReconcileEngine engine = parallelEngine;
+            if (engine != null)
+                engine.barrierReply(sw.getId(), msg.getXid());
+            return Command.CONTINUE;
+        }
+    }
+
+    /**
+     * Drops the pending flows of switches that disconnect
+     */
+    protected class SwitchListener implements IOFSwitchListener {
+        @Override
+        public void switchAdded(long switchId) {
+            // no-op
+        }
+
+        @Override
+        public void switchRemoved(long switchId) {
+            ParallelReconcileEngine engine = parallelEngine;
+            if (engine != null)
+                engine.removeSwitch(switchId);
+        }
+
+        @Override
+        public void switchActivated(long switchId) {
+            // no-op
+        }
+
+        @Override
+        public void switchPortChanged(long switchId, ImmutablePort port,
+                                      IOFSwitch.PortChangeType type) {
+            // no-op
+        }
+
+        @Override
+        public void switchChanged(long switchId) {
+            // no-op
+        }
     }
 
     protected void updateFlush() {
@@ -305,40 +515,10 @@ public class FlowReconcileManager
         }
 
         // Run the flow through all the flow reconcile listeners
-        IFlowReconcileListener.Command retCmd;
         if (ofmRcList.size() > 0) {
-            List<IFlowReconcileListener> listeners =
-                flowReconcileListeners.getOrderedListeners();
-            if (listeners == null) {
-                if (logger.isTraceEnabled()) {
-                    logger.trace("No flowReconcile listener");
-                }
+            if (!runReconcileListeners(ofmRcList)) {
                 return false;
             }
-
-            for (IFlowReconcileListener flowReconciler :
-                flowReconcileListeners.getOrderedListeners()) {
-                if (logger.isTraceEnabled())
-                {
-                    logger.trace("Reconciling flow: call listener {}",
-                            flowReconciler.getName());
-                }
-                retCmd = flowReconciler.reconcileFlows(ofmRcList);
-                if (retCmd == IFlowReconcileListener.Command.STOP) {
-                    break;
-                }
-            }
-            for (OFMatchReconcile ofmRc : ofmRcList) {
-                if (ofmRc.origReconcileQueryEvent != null) {
-                    ofmRc.origReconcileQueryEvent.getEvType().getDebugEvent()
-                        .updateEventWithFlush(new FlowReconcileQueryDebugEvent(
-                            ofmRc.origReconcileQueryEvent,
-                            "Flow Reconciliation Complete",
-                            ofmRc));
-                }
-            }
-            // Flush the flowCache counters.
-            updateFlush();
             flowReconcileThreadRunCount.incrementAndGet();
         } else {
             if (logger.isTraceEnabled()) {
@@ -358,6 +538,46 @@ public class FlowReconcileManager
         }
     }
 
+    /**
+     * Run a batch of flows through the flow reconcile listeners in order
+     * @return false if there are no listeners
+     */
+    protected boolean runReconcileListeners(ArrayList<OFMatchReconcile> ofmRcList) {
+        IFlowReconcileListener.Command retCmd;
+        List<IFlowReconcileListener> listeners =
+            flowReconcileListeners.getOrderedListeners();
+        if (listeners == null) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("No flowReconcile listener");
+            }
+            return false;
+        }
+
+        for (IFlowReconcileListener flowReconciler : listeners) {
+            if (logger.isTraceEnabled())
+            {
+                logger.trace("Reconciling flow: call listener {}",
+                        flowReconciler.getName());
+            }
+            retCmd = flowReconciler.reconcileFlows(ofmRcList);
+            if (retCmd == IFlowReconcileListener.Command.STOP) {
+                break;
+            }
+        }
+        for (OFMatchReconcile ofmRc : ofmRcList) {
+            if (ofmRc.origReconcileQueryEvent != null) {
+                ofmRc.origReconcileQueryEvent.getEvType().getDebugEvent()
+                    .updateEventWithFlush(new FlowReconcileQueryDebugEvent(
+                        ofmRc.origReconcileQueryEvent,
+                        "Flow Reconciliation Complete",
+                        ofmRc));
+            }
+        }
+        // Flush the flowCache counters.
+        updateFlush();
+        return true;
+    }
+
     /**
      * Compute the maximum number of flows to be reconciled.
      *
@@ -0,0 +1,752 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.flowcache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFError;
+import org.openflow.protocol.OFError.OFErrorType;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFlowRemoved;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFType;
+import org.projectfloodlight.core.FloodlightContext;
+import org.projectfloodlight.core.IFloodlightProviderService;
+import org.projectfloodlight.core.IOFMessageListener;
+import org.projectfloodlight.core.IOFSwitch;
+import org.projectfloodlight.core.IOFSwitchListener;
+import org.projectfloodlight.core.ImmutablePort;
+import org.projectfloodlight.core.IOFSwitch.PortChangeType;
+import org.projectfloodlight.core.module.FloodlightModuleContext;
+import org.projectfloodlight.core.module.FloodlightModuleException;
+import org.projectfloodlight.core.module.IFloodlightModule;
+import org.projectfloodlight.core.module.IFloodlightService;
+import org.projectfloodlight.core.util.AppCookie;
+import org.projectfloodlight.debugcounter.IDebugCounter;
+import org.projectfloodlight.debugcounter.IDebugCounterService;
+import org.projectfloodlight.debugcounter.NullDebugCounter;
+import org.projectfloodlight.debugcounter.IDebugCounterService.CounterException;
+import org.projectfloodlight.debugcounter.IDebugCounterService.CounterType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a shadow copy of the flow table of each switch, fed from the
+ * flow-mods the controller writes (through the outgoing message listeners
+ * of handleOutgoingMessage) and from FLOW_REMOVED messages, with secondary
+ * indexes by output port, source and destination MAC, cookie, application
+ * id and VLAN.
+ *
+ * Flows are dropped from the table when their hard timeout expires. Flows
+ * with an idle timeout are only dropped when the switch reports it,
+ * otherwise they are marked as possibly stale. A flow-mod the switch
+ * rejects with a FLOW_MOD_FAILED error is undone, found by the xid of the
+ * error and the match and priority it echoes.
+ *
+ * A switch's table becomes complete when the controller sends it a
+ * delete-all flow-mod, as it does when clearing the flows of a newly
+ * connected switch. Each switch's table is bounded by the
+ * "maxFlowsPerSwitch" parameter; a table that overflows stays incomplete
+ * until the switch's flows are cleared again.
+ */
+public class FlowShadowTable implements IFloodlightModule,
+        IFlowShadowTableService, IOFMessageListener, IOFSwitchListener {
+    protected static final Logger log =
+            LoggerFactory.getLogger(FlowShadowTable.class);
+
+    public static final String PACKAGE =
+            FlowShadowTable.class.getPackage().getName();
+    protected static final int DEFAULT_MAX_FLOWS_PER_SWITCH = 65536;
+    protected static final short OFPP_NONE = OFPort.OFPP_NONE.getValue();
+    /** Flow-mods per switch that can still be undone if they fail */
+    protected static final int MAX_PENDING_FLOW_MODS = 1024;
+    /** Offset of the match in the flow-mod echoed by an error */
+    private static final int ERROR_MATCH_OFFSET = OFMessage.MINIMUM_LENGTH;
+    /** Offset of the priority in the flow-mod echoed by an error */
+    private static final int ERROR_PRIORITY_OFFSET = 62;
+
+    private static final Comparator<ShadowFlow> DEADLINE_ORDER =
+            new Comparator<ShadowFlow>() {
+        @Override
+        public int compare(ShadowFlow a, ShadowFlow b) {
+            long d1 = a.getHardDeadline();
+            long d2 = b.getHardDeadline();
+            return (d1 < d2) ? -1 : ((d1 == d2) ? 0 : 1);
+        }
+    };
+
+    protected IFloodlightProviderService floodlightProvider;
+    protected IDebugCounterService debugCounters;
+    protected IDebugCounter ctrOverflows;
+    protected IDebugCounter ctrFailedFlowMods;
+
+    protected int maxFlowsPerSwitch = DEFAULT_MAX_FLOWS_PER_SWITCH;
+    protected final ConcurrentMap<Long, SwitchFlowTable> tables =
+            new ConcurrentHashMap<Long, SwitchFlowTable>();
+
+    /**
+     * A flow-mod that was applied to a shadow table, identified by its xid
+     * and its match and priority. Flow-mods often share an xid, e.g. 0.
+     */
+    protected static class PendingKey {
+        private final int xid;
+        private final ShadowFlow flow;
+
+        protected PendingKey(int xid, ShadowFlow flow) {
+            this.xid = xid;
+            this.flow = flow;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * flow.hashCode() + xid;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof PendingKey)) return false;
+            PendingKey other = (PendingKey) obj;
+            return xid == other.xid && flow.equals(other.flow);
+        }
+    }
+
+    /**
+     * The changes a flow-mod made to a shadow table, to undo it if the
+     * switch rejects it
+     */
+    protected static class PendingFlowMod {
+        protected final List<ShadowFlow> added = new ArrayList<ShadowFlow>(1);
+        protected final List<ShadowFlow> replaced =
+                new ArrayList<ShadowFlow>(1);
+    }
+
+    /**
+     * The shadow flow table of one switch. All access is synchronized on
+     * the table.
+     */
+    protected static class SwitchFlowTable {
+        protected final int maxFlows;
+        protected boolean complete = false;
+        protected boolean overflowed = false;
+
+        // Flows with a hard timeout by deadline. Flows that were replaced
+        // or removed are skipped when they come up.
+        protected final PriorityQueue<ShadowFlow> deadlines =
+                new PriorityQueue<ShadowFlow>(16, DEADLINE_ORDER);
+        // Recent add and modify flow-mods, oldest first
+        protected final Map<PendingKey, PendingFlowMod> pending =
+                new LinkedHashMap<PendingKey, PendingFlowMod>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<PendingKey, PendingFlowMod> eldest) {
+                return size() > MAX_PENDING_FLOW_MODS;
+            }
+        };
+
+        protected final Map<ShadowFlow, ShadowFlow> flows =
+                new HashMap<ShadowFlow, ShadowFlow>();
+        protected final Map<Short, Set<ShadowFlow>> byOutPort =
+                new HashMap<Short, Set<ShadowFlow>>();
+        protected final Map<Long, Set<ShadowFlow>> bySrcMac =
+                new HashMap<Long, Set<ShadowFlow>>();
+        protected final Map<Long, Set<ShadowFlow>> byDstMac =
+                new HashMap<Long, Set<ShadowFlow>>();
+        protected final Map<Long, Set<ShadowFlow>> byCookie =
+                new HashMap<Long, Set<ShadowFlow>>();
+        protected final Map<Integer, Set<ShadowFlow>> byAppId =
+                new HashMap<Integer, Set<ShadowFlow>>();
+        protected final Map<Short, Set<ShadowFlow>> byVlan =
+                new HashMap<Short, Set<ShadowFlow>>();
+
+        protected SwitchFlowTable(int maxFlows) {
+            this.maxFlows = maxFlows;
+        }
+
+        /**
+         * Apply a flow-mod sent to the switch now
+         * @return false if the table overflowed
+         */
+        protected boolean applyFlowMod(OFFlowMod fm) {
+            return applyFlowMod(fm, System.currentTimeMillis());
+        }
+
+        /**
+         * Apply a flow-mod sent to the switch
+         * @param now the time the flow-mod was sent, in milliseconds
+         * @return false if the table overflowed
+         */
+        protected synchronized boolean applyFlowMod(OFFlowMod fm, long now) {
+            expire(now);
+            OFMatch match = fm.getMatch();
+            short outPort = fm.getOutPort();
+            switch (fm.getCommand()) {
+                case OFFlowMod.OFPFC_ADD: {
+                    ShadowFlow flow = newFlow(fm, now);
+                    PendingFlowMod undo = new PendingFlowMod();
+                    pending.put(new PendingKey(fm.getXid(), flow), undo);
+                    return add(flow, undo);
+                }
+                case OFFlowMod.OFPFC_MODIFY_STRICT: {
+                    ShadowFlow flow = newFlow(fm, now);
+                    PendingFlowMod undo = new PendingFlowMod();
+                    pending.put(new PendingKey(fm.getXid(), flow), undo);
+                    ShadowFlow old = flows.get(flow);
+                    if (old != null) {
+                        // a modify keeps the cookie and timeouts of the flow
+                        flow = old.withActions(old.getCookie(),
+                                               fm.getActions());
+                    }
+                    return add(flow, undo);
+                }
+                case OFFlowMod.OFPFC_MODIFY: {
+                    ShadowFlow flow = newFlow(fm, now);
+                    PendingFlowMod undo = new PendingFlowMod();
+                    pending.put(new PendingKey(fm.getXid(), flow), undo);
+                    List<ShadowFlow> covered = getCovered(match, OFPP_NONE);
+                    if (covered.isEmpty()) {
+                        return add(flow, undo);
+                    }
+                    for (ShadowFlow old : covered) {
+                        add(old.withActions(old.getCookie(),
+                                            fm.getActions()), undo);
+                    }
+                    return true;
+                }
+                case OFFlowMod.OFPFC_DELETE:
+                    if ((match.getWildcards() & OFMatch.OFPFW_ALL) ==
+                            OFMatch.OFPFW_ALL &&
+                        outPort == OFPP_NONE) {
+                        // the switch's flow table is now empty, so from
+                        // here on we know all its flows
+                        clear();
+                        complete = true;
+                        overflowed = false;
+                        return true;
+                    }
+                    for (ShadowFlow old : getCovered(match, outPort)) {
+                        remove(old);
+                    }
+                    return true;
+                case OFFlowMod.OFPFC_DELETE_STRICT: {
+                    ShadowFlow old = flows.get(
+                            new ShadowFlow(match, fm.getPriority(), 0, null));
+                    if (old != null &&
+                        (outPort == OFPP_NONE || old.hasOutPort(outPort))) {
+                        remove(old);
+                    }
+                    return true;
+                }
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * Undo a flow-mod the switch rejected
+         * @param xid the xid of the flow-mod
+         * @param match the match of the flow-mod
+         * @param priority the priority of the flow-mod
+         * @return false if the flow-mod is not known
+         */
+        protected synchronized boolean flowModFailed(int xid, OFMatch match,
+                                                     short priority) {
+            PendingFlowMod undo = pending.remove(new PendingKey(xid,
+                    new ShadowFlow(match, priority, 0, null)));
+            if (undo == null)
+                return false;
+            for (ShadowFlow flow : undo.added) {
+                // unless a later flow-mod replaced it
+                if (flows.get(flow) == flow)
+                    remove(flow);
+            }
+            for (ShadowFlow flow : undo.replaced) {
+                if (!flows.containsKey(flow))
+                    add(flow, null);
+            }
+            return true;
+        }
+
+        /**
+         * Drop the flows whose hard timeout expired
+         * @param now the current time in milliseconds
+         */
+        protected synchronized void expire(long now) {
+            while (!deadlines.isEmpty() &&
+                   deadlines.peek().getHardDeadline() <= now) {
+                ShadowFlow flow = deadlines.poll();
+                if (flows.get(flow) == flow)
+                    remove(flow);
+            }
+        }
+
+        /**
+         * Remove the flow with the given match and priority, as reported
+         * in a flow-removed message
+         */
+        protected synchronized void flowRemoved(OFMatch match,
+                                                short priority) {
+            ShadowFlow old = flows.get(new ShadowFlow(match, priority,
+                                                      0, null));
+            if (old != null) {
+                remove(old);
+            }
+        }
+
+        protected synchronized boolean isComplete() {
+            return complete && !overflowed;
+        }
+
+        protected synchronized int size() {
+            expire(System.currentTimeMillis());
+            return flows.size();
+        }
+
+        protected synchronized List<ShadowFlow> getAll() {
+            if (!isComplete()) return null;
+            expire(System.currentTimeMillis());
+            return new ArrayList<ShadowFlow>(flows.keySet());
+        }
+
+        protected synchronized <K> List<ShadowFlow>
+                lookup(Map<K, Set<ShadowFlow>> index, K key) {
+            if (!isComplete()) return null;
+            expire(System.currentTimeMillis());
+            Set<ShadowFlow> s = index.get(key);
+            if (s == null) return Collections.emptyList();
+            return new ArrayList<ShadowFlow>(s);
+        }
+
+        /**
+         * @return the flows a non-strict flow-mod with the match and
+         * out port applies to. Uses the most selective index available.
+         */
+        private List<ShadowFlow> getCovered(OFMatch match, short outPort) {
+            int w = match.getWildcards();
+            Collection<ShadowFlow> candidates;
+            if (outPort != OFPP_NONE) {
+                candidates = byOutPort.get(outPort);
+            } else if ((w & OFMatch.OFPFW_DL_DST) == 0) {
+                candidates = byDstMac.get(macToLong(
+                        match.getDataLayerDestination()));
+            } else if ((w & OFMatch.OFPFW_DL_SRC) == 0) {
+                candidates = bySrcMac.get(macToLong(
+                        match.getDataLayerSource()));
+            } else if ((w & OFMatch.OFPFW_DL_VLAN) == 0) {
+                candidates = byVlan.get(match.getDataLayerVirtualLan());
+            } else {
+                candidates = flows.keySet();
+            }
+            if (candidates == null) return Collections.emptyList();
+
+            List<ShadowFlow> covered = new ArrayList<ShadowFlow>();
+            for (ShadowFlow flow : candidates) {
+                if (flow.isCoveredBy(match) &&
+                    (outPort == OFPP_NONE || flow.hasOutPort(outPort))) {
+                    covered.add(flow);
+                }
+            }
+            return covered;
+        }
+
+        private static ShadowFlow newFlow(OFFlowMod fm, long now) {
+            int hardTimeout = fm.getHardTimeout() & 0xffff;
+            long deadline = (hardTimeout == 0) ? 0 : now + hardTimeout * 1000L;
+            boolean possiblyStale = fm.getIdleTimeout() != 0 &&
+                    (fm.getFlags() & OFFlowMod.OFPFF_SEND_FLOW_REM) == 0;
+            return new ShadowFlow(fm.getMatch(), fm.getPriority(),
+                                  fm.getCookie(), fm.getActions(), deadline,
+                                  possiblyStale);
+        }
+
+        /**
+         * Add a flow, replacing the flow with the same match and priority
+         * @param undo records the change, if not null
+         * @return false if the table overflowed
+         */
+        private boolean add(ShadowFlow flow, PendingFlowMod undo) {
+            ShadowFlow old = flows.get(flow);
+            if (old != null) {
+                remove(old);
+                if (undo != null)
+                    undo.replaced.add(old);
+            } else if (flows.size() >= maxFlows) {
+                overflowed = true;
+                return false;
+            }
+            flows.put(flow, flow);
+            if (undo != null)
+                undo.added.add(flow);
+            if (flow.getHardDeadline() != 0) {
+                deadlines.add(flow);
+                // don't let replaced flows pile up in the queue
+                if (deadlines.size() > 2 * flows.size() + 16)
+                    purgeDeadlines();
+            }
+            for (short port : flow.getOutPorts())
+                addToIndex(byOutPort, port, flow);
+            int w = flow.getWildcards();
+            if ((w & OFMatch.OFPFW_DL_SRC) == 0)
+                addToIndex(bySrcMac, flow.getSrcMac(), flow);
+            if ((w & OFMatch.OFPFW_DL_DST) == 0)
+                addToIndex(byDstMac, flow.getDstMac(), flow);
+            if ((w & OFMatch.OFPFW_DL_VLAN) == 0)
+                addToIndex(byVlan, flow.getVlan(), flow);
+            addToIndex(byCookie, flow.getCookie(), flow);
+            addToIndex(byAppId, AppCookie.extractApp(flow.getCookie()), flow);
+            return true;
+        }
+
+        private void remove(ShadowFlow flow) {
+            flows.remove(flow);
+            for (short port : flow.getOutPorts())
+                removeFromIndex(byOutPort, port, flow);
+            int w = flow.getWildcards();
+            if ((w & OFMatch.OFPFW_DL_SRC) == 0)
+                removeFromIndex(bySrcMac, flow.getSrcMac(), flow);
+            if ((w & OFMatch.OFPFW_DL_DST) == 0)
+                removeFromIndex(byDstMac, flow.getDstMac(), flow);
+            if ((w & OFMatch.OFPFW_DL_VLAN) == 0)
+                removeFromIndex(byVlan, flow.getVlan(), flow);
+            removeFromIndex(byCookie, flow.getCookie(), flow);
+            removeFromIndex(byAppId, AppCookie.extractApp(flow.getCookie()),
+                            flow);
+        }
+
+        private void purgeDeadlines() {
+            Iterator<ShadowFlow> it = deadlines.iterator();
+            while (it.hasNext()) {
+                ShadowFlow flow = it.next();
+                if (flows.get(flow) != flow)
+                    it.remove();
+            }
+        }
+
+        private void clear() {
+            flows.clear();
+            deadlines.clear();
+            pending.clear();
+            byOutPort.clear();
+            bySrcMac.clear();
+            byDstMac.clear();
+            byCookie.clear();
+            byAppId.clear();
+            byVlan.clear();
+        }
+
+        private static <K> void addToIndex(Map<K, Set<ShadowFlow>> index,
+                                           K key, ShadowFlow flow) {
+            Set<ShadowFlow> s = index.get(key);
+            if (s == null) {
+                s = new HashSet<ShadowFlow>();
+                index.put(key, s);
+            }
+            s.add(flow);
+        }
+
+        private static <K> void removeFromIndex(Map<K, Set<ShadowFlow>> index,
+                                                K key, ShadowFlow flow) {
+            Set<ShadowFlow> s = index.get(key);
+            if (s == null) return;
+            s.remove(flow);
+            if (s.isEmpty()) index.remove(key);
+        }
+    }
+
+    protected static long macToLong(byte[] mac) {
+        long l = 0;
+        for (int i = 0; i < 6; i++)
+            l = (l << 8) | (mac[i] & 0xff);
+        return l;
+    }
+
+    protected SwitchFlowTable getTable(long dpid) {
+        SwitchFlowTable table = tables.get(dpid);
+        if (table == null) {
+            table = new SwitchFlowTable(maxFlowsPerSwitch);
+            SwitchFlowTable old = tables.putIfAbsent(dpid, table);
+            if (old != null) table = old;
+        }
+        return table;
+    }
+
+    // *****************
+    // IFlowShadowTableService
+    // *****************
+
+    @Override
+    public boolean isComplete(long dpid) {
+        SwitchFlowTable table = tables.get(dpid);
+        return table != null && table.isComplete();
+    }
+
+    @Override
+    public List<ShadowFlow> getFlows(long dpid) {
+        SwitchFlowTable table = tables.get(dpid);
+        return (table == null) ? null : table.getAll();
+    }
+
+    @Override
+    public List<ShadowFlow> getFlowsByOutPort(long dpid, short port) {
+        SwitchFlowTable table = tables.get(dpid);
+        return (table == null) ? null : table.lookup(table.byOutPort, port);
+    }
+
+    @Override
+    public List<ShadowFlow> getFlowsBySrcMac(long dpid, long mac) {
+        SwitchFlowTable table = tables.get(dpid);
+        return (table == null) ? null : table.lookup(table.bySrcMac, mac);
+    }
+
+    @Override
+    public List<ShadowFlow> getFlowsByDstMac(long dpid, long mac) {
+        SwitchFlowTable table = tables.get(dpid);
+        return (table == null) ? null : table.lookup(table.byDstMac, mac);
+    }
+
+    @Override
+    public List<ShadowFlow> getFlowsByCookie(long dpid, long cookie) {
+        SwitchFlowTable table = tables.get(dpid);
+        return (table == null) ? null : table.lookup(table.byCookie, cookie);
+    }
+
+    @Override
+    public List<ShadowFlow> getFlowsByAppId(long dpid, int appId) {
+        SwitchFlowTable table = tables.get(dpid);
+        return (table == null) ? null : table.lookup(table.byAppId, appId);
+    }
+
+    @Override
+    public List<ShadowFlow> getFlowsByVlan(long dpid, short vlan) {
+        SwitchFlowTable table = tables.get(dpid);
+        return (table == null) ? null : table.lookup(table.byVlan, vlan);
+    }
+
+    @Override
+    public int getFlowCount() {
+        int count = 0;
+        for (SwitchFlowTable table : tables.values())
+            count += table.size();
+        return count;
+    }
+
+    // *****************
+    // IOFMessageListener
+    // *****************
+
+    @Override
+    public String getName() {
+        return "flowshadowtable";
+    }
+
+    @Override
+    public boolean isCallbackOrderingPrereq(OFType type, String name) {
+        return false;
+    }
+
+    @Override
+    public boolean isCallbackOrderingPostreq(OFType type, String name) {
+        return false;
+    }
+
+    @Override
+    public Command receive(IOFSwitch sw, OFMessage msg,
+                           FloodlightContext cntx) {
+        switch (msg.getType()) {
+            case FLOW_MOD:
+                if (!getTable(sw.getId()).applyFlowMod((OFFlowMod)msg)) {
+                    ctrOverflows.updateCounterNoFlush();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Flow shadow table full for switch {}",
+                                  sw.getStringId());
+                    }
+                }
+                break;
+            case FLOW_REMOVED:
+                SwitchFlowTable table = tables.get(sw.getId());
+                if (table != null) {
+                    OFFlowRemoved fr = (OFFlowRemoved)msg;
+                    table.flowRemoved(fr.getMatch(), fr.getPriority());
+                }
+                break;
+            case ERROR:
+                flowModFailed(sw, (OFError)msg);
+                break;
+            default:
+                break;
+        }
+        return Command.CONTINUE;
+    }
+
+    /**
+     * Undo a flow-mod the switch rejected. The error carries the xid of
+     * the flow-mod and at least its first 64 bytes, which hold the match
+     * and priority.
+     */
+    protected void flowModFailed(IOFSwitch sw, OFError error) {
+        if (error.getErrorType() !=
+                OFErrorType.OFPET_FLOW_MOD_FAILED.getValue())
+            return;
+        SwitchFlowTable table = tables.get(sw.getId());
+        byte[] data = error.getError();
+        if (table == null || data == null ||
+                data.length < ERROR_PRIORITY_OFFSET + 2)
+            return;
+        OFMatch match = new OFMatch();
+        match.readFrom(ChannelBuffers.wrappedBuffer(data, ERROR_MATCH_OFFSET,
+                                                    OFMatch.MINIMUM_LENGTH));
+        short priority = (short)(((data[ERROR_PRIORITY_OFFSET] & 0xff) << 8) |
+                                 (data[ERROR_PRIORITY_OFFSET + 1] & 0xff));
+        if (table.flowModFailed(error.getXid(), match, priority)) {
+            ctrFailedFlowMods.updateCounterNoFlush();
+            if (log.isDebugEnabled()) {
+                log.debug("Removed failed flow-mod {} from the flow shadow " +
+                          "table of switch {}", match, sw.getStringId());
+            }
+        }
+    }
+
+    // *****************
+    // IOFSwitchListener
+    // *****************
+
+    @Override
+    public void switchAdded(long switchId) {
+        // The table becomes complete when we see the switch's flows
+        // being cleared
+    }
+
+    @Override
+    public void switchRemoved(long switchId) {
+        tables.remove(switchId);
+    }
+
+    @Override
+    public void switchActivated(long switchId) {
+        // no-op
+    }
+
+    @Override
+    public void switchPortChanged(long switchId, ImmutablePort port,
+                                  PortChangeType type) {
+        // no-op
+    }
+
+    @Override
+    public void switchChanged(long switchId) {
+        // no-op
+    }
+
+    // *****************
+    // IFloodlightModule
+    // *****************
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleServices() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IFlowShadowTableService.class);
+        return l;
+    }
+
+    @Override
+    public Map<Class<? extends IFloodlightService>, IFloodlightService>
+            getServiceImpls() {
+        Map<Class<? extends IFloodlightService>, IFloodlightService> m =
+                new HashMap<Class<? extends IFloodlightService>,
+                            IFloodlightService>();
+        m.put(IFlowShadowTableService.class, this);
+        return m;
+    }
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>>
+            getModuleDependencies() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IFloodlightProviderService.class);
+        l.add(IDebugCounterService.class);
+        return l;
+    }
+
+    @Override
+    public void init(FloodlightModuleContext context)
+            throws FloodlightModuleException {
+        floodlightProvider =
+                context.getServiceImpl(IFloodlightProviderService.class);
+        debugCounters = context.getServiceImpl(IDebugCounterService.class);
+
+        Map<String, String> configParams = context.getConfigParams(this);
+        String maxFlows = configParams.get("maxFlowsPerSwitch");
+        if (maxFlows != null) {
+            try {
+                maxFlowsPerSwitch = Integer.parseInt(maxFlows);
+            } catch (NumberFormatException e) {
+                throw new FloodlightModuleException("Invalid " +
+                        "maxFlowsPerSwitch: " + maxFlows, e);
+            }
+        }
+        registerDebugCounters();
+    }
+
+    private void registerDebugCounters() throws FloodlightModuleException {
+        if (debugCounters == null) {
+            log.error("Debug Counter Service not found.");
+            debugCounters = new NullDebugCounter();
+        }
+        try {
+            ctrOverflows = debugCounters.registerCounter(PACKAGE,
+                "flow-shadow-table-overflow",
+                "Flows not recorded in the flow shadow table because the " +
+                "switch's table was full",
+                CounterType.ALWAYS_COUNT);
+            ctrFailedFlowMods = debugCounters.registerCounter(PACKAGE,
+                "flow-shadow-table-failed-flow-mod",
+                "Flow-mods removed from the flow shadow table because the " +
+                "switch rejected them",
+                CounterType.ALWAYS_COUNT);
+        } catch (CounterException e) {
+            throw new FloodlightModuleException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void startUp(FloodlightModuleContext context) {
+        floodlightProvider.addOFMessageListener(OFType.FLOW_MOD, this);
+        floodlightProvider.addOFMessageListener(OFType.FLOW_REMOVED, this);
+        floodlightProvider.addOFMessageListener(OFType.ERROR, this);
+        floodlightProvider.addOFSwitchListener(this);
+    }
+}
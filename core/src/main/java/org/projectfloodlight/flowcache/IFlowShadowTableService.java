@@ -0,0 +1,90 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.flowcache;
+
+import java.util.List;
+
+import org.projectfloodlight.core.module.IFloodlightService;
+
+/**
+ * A controller-side copy of the flows installed on each switch, built from
+ * the flow-mods the controller sends and the flow-removed messages the
+ * switches send back. Flow reconciliation can look up affected flows here
+ * instead of querying the switches for flow statistics.
+ *
+ * The table only knows a switch's flows once it has seen the switch's flow
+ * table being cleared, and forgets them if it overflows. The lookups
+ * return null for such switches, and the caller has to query the switch.
+ * Flows leave the table when their hard timeout expires. A flow with an
+ * idle timeout that the switch won't report may already be gone; see
+ * {@link ShadowFlow#isPossiblyStale()}.
+ */
+public interface IFlowShadowTableService extends IFloodlightService {
+    /**
+     * @return true if the table knows all flows the controller has
+     * installed on the switch
+     */
+    public boolean isComplete(long dpid);
+
+    /**
+     * @return all flows on the switch, or null if the table is not complete
+     * for the switch
+     */
+    public List<ShadowFlow> getFlows(long dpid);
+
+    /**
+     * @return the flows with an output action to the port, or null if the
+     * table is not complete for the switch
+     */
+    public List<ShadowFlow> getFlowsByOutPort(long dpid, short port);
+
+    /**
+     * @return the flows matching exactly on the source MAC, or null if the
+     * table is not complete for the switch
+     */
+    public List<ShadowFlow> getFlowsBySrcMac(long dpid, long mac);
+
+    /**
+     * @return the flows matching exactly on the destination MAC, or null if
+     * the table is not complete for the switch
+     */
+    public List<ShadowFlow> getFlowsByDstMac(long dpid, long mac);
+
+    /**
+     * @return the flows with the cookie, or null if the table is not
+     * complete for the switch
+     */
+    public List<ShadowFlow> getFlowsByCookie(long dpid, long cookie);
+
+    /**
+     * @return the flows whose cookie carries the application id, or null
+     * if the table is not complete for the switch
+     * @see org.projectfloodlight.core.util.AppCookie
+     */
+    public List<ShadowFlow> getFlowsByAppId(long dpid, int appId);
+
+    /**
+     * @return the flows matching exactly on the VLAN, or null if the table
+     * is not complete for the switch
+     */
+    public List<ShadowFlow> getFlowsByVlan(long dpid, short vlan);
+
+    /**
+     * @return the number of flows in the table across all switches
+     */
+    public int getFlowCount();
+}
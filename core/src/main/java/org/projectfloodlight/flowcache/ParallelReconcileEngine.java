@@ -0,0 +1,279 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.flowcache;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.projectfloodlight.flowcache.PriorityPendingQueue.EventPriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reconciles flows on a pool of worker threads, sharded by switch.
+ *
+ * Each switch has its own priority queue of pending flows. At most one
+ * worker processes a given switch at a time, so the flows of a switch are
+ * handed to the listeners in the order they were queued, while different
+ * switches are reconciled in parallel. Workers take batches from a
+ * fork/join pool in async mode, so an idle worker steals switches queued
+ * on a busy one.
+ *
+ * After each batch the engine sends the switch a barrier and holds the
+ * switch until the barrier reply arrives, so the rate at which flows are
+ * reconciled for a switch follows the rate at which the switch
+ * acknowledges the resulting flow-mods. The batch size grows while barrier
+ * replies come back within the target time and halves when they are slow
+ * or time out.
+ */
+public class ParallelReconcileEngine {
+    protected static final Logger logger =
+            LoggerFactory.getLogger(ParallelReconcileEngine.class);
+
+    public static final int DEFAULT_MIN_BATCH = 16;
+    public static final int DEFAULT_MAX_BATCH = 1024;
+    public static final long DEFAULT_TARGET_ACK_MS = 50;
+    public static final long DEFAULT_BARRIER_TIMEOUT_MS = 2000;
+
+    /**
+     * Reconciles one batch of flows. All flows in a batch belong to the
+     * same switch. Called concurrently for different switches.
+     */
+    public interface BatchHandler {
+        public void reconcileBatch(ArrayList<OFMatchReconcile> batch);
+    }
+
+    /**
+     * Sends barrier requests to switches
+     */
+    public interface BarrierSender {
+        /**
+         * Send a barrier request to a switch
+         * @return the transaction id of the barrier, or -1 if no barrier
+         * was sent, e.g. because the switch is not connected
+         */
+        public int sendBarrier(long dpid);
+    }
+
+    /**
+     * The pending flows and pacing state of one switch
+     */
+    protected class SwitchShard implements Runnable {
+        final long dpid;
+        final PriorityPendingQueue<OFMatchReconcile> queue =
+                new PriorityPendingQueue<OFMatchReconcile>();
+        /**
+         * Set while a batch is queued on the pool, being processed or
+         * waiting for its barrier reply
+         */
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        /** The current batch size */
+        volatile int window = minBatch;
+        // The outstanding barrier. Guarded by this.
+        int barrierXid = -1;
+        long barrierSentNs;
+
+        SwitchShard(long dpid) {
+            this.dpid = dpid;
+        }
+
+        @Override
+        public void run() {
+            try {
+                processBatch(this);
+            } catch (Exception e) {
+                logger.warn("Exception reconciling flows for switch {}: {}",
+                            dpid, e);
+                release(this);
+            }
+        }
+    }
+
+    protected final ConcurrentMap<Long, SwitchShard> shards =
+            new ConcurrentHashMap<Long, SwitchShard>();
+    protected final ForkJoinPool pool;
+    protected final BatchHandler handler;
+    protected final BarrierSender barrierSender;
+    protected final int minBatch;
+    protected final int maxBatch;
+    protected final long targetAckNs;
+    protected final long barrierTimeoutNs;
+
+    protected final AtomicLong batches = new AtomicLong();
+    protected final AtomicLong flows = new AtomicLong();
+    protected final AtomicLong barrierTimeouts = new AtomicLong();
+
+    public ParallelReconcileEngine(int numWorkers,
+                                   BatchHandler handler,
+                                   BarrierSender barrierSender,
+                                   int minBatch,
+                                   int maxBatch,
+                                   long targetAckMs,
+                                   long barrierTimeoutMs) {
+        this.pool = new ForkJoinPool(numWorkers,
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null, true);
+        this.handler = handler;
+        this.barrierSender = barrierSender;
+        this.minBatch = minBatch;
+        this.maxBatch = maxBatch;
+        this.targetAckNs = TimeUnit.MILLISECONDS.toNanos(targetAckMs);
+        this.barrierTimeoutNs = TimeUnit.MILLISECONDS.toNanos(barrierTimeoutMs);
+    }
+
+    /**
+     * Queue a flow for reconciliation on its switch
+     */
+    public void submit(OFMatchReconcile ofmRc, EventPriority priority) {
+        long dpid = ofmRc.ofmWithSwDpid.getSwitchDataPathId();
+        SwitchShard shard = shards.get(dpid);
+        if (shard == null) {
+            shard = new SwitchShard(dpid);
+            SwitchShard old = shards.putIfAbsent(dpid, shard);
+            if (old != null) shard = old;
+        }
+        shard.queue.offer(ofmRc, priority);
+        schedule(shard);
+    }
+
+    /**
+     * Handle a barrier reply from a switch. Replies that do not match an
+     * outstanding reconcile barrier are ignored.
+     */
+    public void barrierReply(long dpid, int xid) {
+        SwitchShard shard = shards.get(dpid);
+        if (shard == null) return;
+        synchronized (shard) {
+            if (shard.barrierXid == -1 || shard.barrierXid != xid) return;
+            shard.barrierXid = -1;
+            long ackNs = System.nanoTime() - shard.barrierSentNs;
+            if (ackNs <= targetAckNs) {
+                shard.window = Math.min(maxBatch, shard.window + minBatch);
+            } else {
+                shard.window = Math.max(minBatch, shard.window / 2);
+            }
+        }
+        release(shard);
+    }
+
+    /**
+     * Release switches whose barrier has not been acknowledged within the
+     * barrier timeout. Called periodically.
+     */
+    public void checkBarrierTimeouts() {
+        long now = System.nanoTime();
+        for (SwitchShard shard : shards.values()) {
+            synchronized (shard) {
+                if (shard.barrierXid == -1 ||
+                    now - shard.barrierSentNs < barrierTimeoutNs)
+                    continue;
+                shard.barrierXid = -1;
+                shard.window = minBatch;
+            }
+            barrierTimeouts.incrementAndGet();
+            logger.debug("Barrier timed out for switch {}", shard.dpid);
+            release(shard);
+        }
+    }
+
+    /**
+     * Drop the pending flows of a switch, e.g. when it disconnects
+     */
+    public void removeSwitch(long dpid) {
+        SwitchShard shard = shards.remove(dpid);
+        if (shard != null) shard.queue.clear();
+    }
+
+    /**
+     * @return the number of flows waiting to be reconciled
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (SwitchShard shard : shards.values())
+            count += shard.queue.size();
+        return count;
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getFlowCount() {
+        return flows.get();
+    }
+
+    public long getBarrierTimeoutCount() {
+        return barrierTimeouts.get();
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    protected void schedule(SwitchShard shard) {
+        if (shard.scheduled.compareAndSet(false, true)) {
+            pool.execute(shard);
+        }
+    }
+
+    /**
+     * Let the switch be scheduled again, and schedule it if flows were
+     * queued while it was held
+     */
+    protected void release(SwitchShard shard) {
+        shard.scheduled.set(false);
+        if (!shard.queue.isEmpty()) {
+            schedule(shard);
+        }
+    }
+
+    protected void processBatch(SwitchShard shard) {
+        int window = shard.window;
+        ArrayList<OFMatchReconcile> batch =
+                new ArrayList<OFMatchReconcile>(Math.min(window,
+                                                         shard.queue.size()));
+        while (batch.size() < window) {
+            OFMatchReconcile ofmRc = shard.queue.poll();
+            if (ofmRc == null) break;
+            batch.add(ofmRc);
+        }
+        if (batch.isEmpty()) {
+            release(shard);
+            return;
+        }
+
+        handler.reconcileBatch(batch);
+
+        // Hold the switch until it has acknowledged the batch
+        int xid;
+        synchronized (shard) {
+            shard.barrierSentNs = System.nanoTime();
+            xid = barrierSender.sendBarrier(shard.dpid);
+            shard.barrierXid = xid;
+        }
+        batches.incrementAndGet();
+        flows.addAndGet(batch.size());
+        if (xid == -1) {
+            release(shard);
+        }
+    }
+}
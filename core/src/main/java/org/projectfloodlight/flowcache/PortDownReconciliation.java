@@ -53,6 +53,7 @@ import org.projectfloodlight.linkdiscovery.ILinkDiscoveryService;
 import org.projectfloodlight.linkdiscovery.LinkInfo;
 import org.projectfloodlight.linkdiscovery.ILinkDiscovery.LDUpdate;
 import org.projectfloodlight.routing.Link;
+import org.projectfloodlight.statistics.IStatisticsService;
 import org.projectfloodlight.topology.ITopologyListener;
 import org.projectfloodlight.topology.ITopologyService;
 import org.slf4j.Logger;
@@ -77,6 +78,9 @@ public class PortDownReconciliation implements IFloodlightModule,
     protected IFloodlightProviderService floodlightProvider;
     protected IFlowReconcileService frm;
     protected ILinkDiscoveryService lds;
+    /** Optional local copy of the switch flow tables; may be null */
+    protected IFlowShadowTableService shadowTable;
+    protected IStatisticsService statsService;
     protected Map<Link, LinkInfo> links;
     protected FloodlightContext cntx;
     protected boolean waiting = false;
@@ -154,6 +158,8 @@ public class PortDownReconciliation implements IFloodlightModule,
         topology = context.getServiceImpl(ITopologyService.class);
         frm = context.getServiceImpl(IFlowReconcileService.class);
         lds = context.getServiceImpl(ILinkDiscoveryService.class);
+        shadowTable = context.getServiceImpl(IFlowShadowTableService.class);
+        statsService = context.getServiceImpl(IStatisticsService.class);
         cntx = new FloodlightContext();
     }
 
@@ -298,6 +304,27 @@ public class PortDownReconciliation implements IFloodlightModule,
     public List<OFFlowStatisticsReply> getFlows(IOFSwitch sw, Short outPort) {
 
         statsReply = new ArrayList<OFFlowStatisticsReply>();
+
+        // Look the flows up locally if the shadow table knows the switch's
+        // flows, and only query the switch otherwise
+        if (shadowTable != null) {
+            List<ShadowFlow> flows =
+                    shadowTable.getFlowsByOutPort(sw.getId(), outPort);
+            if (flows != null) {
+                for (ShadowFlow flow : flows) {
+                    OFFlowStatisticsReply reply = new OFFlowStatisticsReply();
+                    reply.setMatch(flow.getMatch());
+                    reply.setPriority(flow.getPriority());
+                    reply.setCookie(flow.getCookie());
+                    reply.setActions(flow.getActions());
+                    reply.setLength(U16.t(OFFlowStatisticsReply.MINIMUM_LENGTH +
+                                          flow.getActionsLength()));
+                    statsReply.add(reply);
+                }
+                return statsReply;
+            }
+        }
+
         List<OFStatistics> values = null;
         Future<List<OFStatistics>> future;
 
@@ -315,7 +342,12 @@ public class PortDownReconciliation implements IFloodlightModule,
 
         try {
             // System.out.println(sw.getStatistics(req));
-            future = sw.queryStatistics(req);
+            // Share the query with identical ones in progress if the
+            // statistics service is loaded
+            if (statsService != null)
+                future = statsService.queryStatistics(sw.getId(), req);
+            else
+                future = sw.queryStatistics(req);
             values = future.get(10, TimeUnit.SECONDS);
             if (values != null) {
                 for (OFStatistics stat : values) {
@@ -0,0 +1,345 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.flowcache;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.factory.BasicFactory;
+
+/**
+ * A flow installed on a switch, as recorded by the flow shadow table.
+ *
+ * To keep the table small the match and actions are kept in their
+ * OpenFlow wire format in a single byte array and only decoded when
+ * asked for. Two shadow flows are equal if they have the same match and
+ * priority, i.e. if a switch would treat them as the same flow entry.
+ *
+ * A shadow flow also records when its hard timeout expires, and whether
+ * it has an idle timeout the switch won't report, in which case the
+ * switch may have dropped it already.
+ */
+public class ShadowFlow {
+    private static final short[] NO_PORTS = new short[0];
+
+    /** The match (OFMatch.MINIMUM_LENGTH bytes) followed by the actions */
+    private final byte[] data;
+    private final long cookie;
+    private final short priority;
+    /** Ports of the output actions, for the out-port index */
+    private final short[] outPorts;
+    private final int hash;
+    /** When the hard timeout expires, in milliseconds, or 0 if never */
+    private final long hardDeadline;
+    private final boolean possiblyStale;
+
+    public ShadowFlow(OFMatch match, short priority, long cookie,
+                      List<OFAction> actions) {
+        this(match, priority, cookie, actions, 0, false);
+    }
+
+    /**
+     * @param hardDeadline the time the flow's hard timeout expires, in
+     *        milliseconds, or 0 if it has none
+     * @param possiblyStale true if the flow has an idle timeout and the
+     *        switch won't send a flow-removed message when it expires
+     */
+    public ShadowFlow(OFMatch match, short priority, long cookie,
+                      List<OFAction> actions, long hardDeadline,
+                      boolean possiblyStale) {
+        int actionsLength = 0;
+        int numOutputs = 0;
+        if (actions != null) {
+            for (OFAction action : actions) {
+                actionsLength += action.getLengthU();
+                if (action instanceof OFActionOutput)
+                    numOutputs++;
+            }
+        }
+        ChannelBuffer buf = ChannelBuffers.buffer(OFMatch.MINIMUM_LENGTH +
+                                                  actionsLength);
+        normalize(match).writeTo(buf);
+        short[] ports = (numOutputs == 0) ? NO_PORTS : new short[numOutputs];
+        if (actions != null) {
+            int i = 0;
+            for (OFAction action : actions) {
+                action.writeTo(buf);
+                if (action instanceof OFActionOutput)
+                    ports[i++] = ((OFActionOutput)action).getPort();
+            }
+        }
+        this.data = buf.array();
+        this.cookie = cookie;
+        this.priority = priority;
+        this.outPorts = ports;
+        this.hash = 31 * hashMatch(data) + priority;
+        this.hardDeadline = hardDeadline;
+        this.possiblyStale = possiblyStale;
+    }
+
+    /**
+     * Make a copy of a flow with different cookie and actions, as done by
+     * a modify flow-mod. A modify doesn't change the flow's timeouts.
+     */
+    public ShadowFlow withActions(long cookie, List<OFAction> actions) {
+        return new ShadowFlow(getMatch(), priority, cookie, actions,
+                              hardDeadline, possiblyStale);
+    }
+
+    public OFMatch getMatch() {
+        OFMatch match = new OFMatch();
+        match.readFrom(ChannelBuffers.wrappedBuffer(data, 0,
+                                                    OFMatch.MINIMUM_LENGTH));
+        return match;
+    }
+
+    public List<OFAction> getActions() {
+        int length = data.length - OFMatch.MINIMUM_LENGTH;
+        return BasicFactory.getInstance().parseActions(
+                ChannelBuffers.wrappedBuffer(data, OFMatch.MINIMUM_LENGTH,
+                                             length),
+                length);
+    }
+
+    /**
+     * @return the length of the actions in wire format
+     */
+    public int getActionsLength() {
+        return data.length - OFMatch.MINIMUM_LENGTH;
+    }
+
+    public long getCookie() {
+        return cookie;
+    }
+
+    public short getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the time the flow's hard timeout expires, in milliseconds,
+     * or 0 if it has none. The flow table drops the flow at that time.
+     */
+    public long getHardDeadline() {
+        return hardDeadline;
+    }
+
+    /**
+     * @return true if the flow has an idle timeout and was installed
+     * without OFPFF_SEND_FLOW_REM, so the switch may have dropped it
+     * without telling us
+     */
+    public boolean isPossiblyStale() {
+        return possiblyStale;
+    }
+
+    /**
+     * @return the ports this flow outputs to. The array must not be
+     * modified.
+     */
+    short[] getOutPorts() {
+        return outPorts;
+    }
+
+    public boolean hasOutPort(short port) {
+        for (short p : outPorts) {
+            if (p == port) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the wildcards of the match, read from the encoded form
+     */
+    public int getWildcards() {
+        return ((data[0] & 0xff) << 24) | ((data[1] & 0xff) << 16) |
+               ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+    }
+
+    /**
+     * @return the match's source MAC as a long. Only meaningful if
+     * the source MAC is not wildcarded.
+     */
+    public long getSrcMac() {
+        return readMac(6);
+    }
+
+    /**
+     * @return the match's destination MAC as a long. Only meaningful if
+     * the destination MAC is not wildcarded.
+     */
+    public long getDstMac() {
+        return readMac(12);
+    }
+
+    /**
+     * @return the match's VLAN. Only meaningful if the VLAN is not
+     * wildcarded.
+     */
+    public short getVlan() {
+        return (short)(((data[18] & 0xff) << 8) | (data[19] & 0xff));
+    }
+
+    /**
+     * Check whether a non-strict flow-mod with the given match applies to
+     * this flow, i.e. whether every field the query matches on is matched
+     * on by this flow with the same value.
+     */
+    public boolean isCoveredBy(OFMatch query) {
+        OFMatch match = getMatch();
+        int qw = query.getWildcards();
+        int w = match.getWildcards();
+        if (!fieldCovered(qw, w, OFMatch.OFPFW_IN_PORT,
+                          query.getInputPort() == match.getInputPort()) ||
+            !fieldCovered(qw, w, OFMatch.OFPFW_DL_VLAN,
+                          query.getDataLayerVirtualLan() ==
+                          match.getDataLayerVirtualLan()) ||
+            !fieldCovered(qw, w, OFMatch.OFPFW_DL_SRC,
+                          Arrays.equals(query.getDataLayerSource(),
+                                        match.getDataLayerSource())) ||
+            !fieldCovered(qw, w, OFMatch.OFPFW_DL_DST,
+                          Arrays.equals(query.getDataLayerDestination(),
+                                        match.getDataLayerDestination())) ||
+            !fieldCovered(qw, w, OFMatch.OFPFW_DL_TYPE,
+                          query.getDataLayerType() ==
+                          match.getDataLayerType()) ||
+            !fieldCovered(qw, w, OFMatch.OFPFW_NW_PROTO,
+                          query.getNetworkProtocol() ==
+                          match.getNetworkProtocol()) ||
+            !fieldCovered(qw, w, OFMatch.OFPFW_TP_SRC,
+                          query.getTransportSource() ==
+                          match.getTransportSource()) ||
+            !fieldCovered(qw, w, OFMatch.OFPFW_TP_DST,
+                          query.getTransportDestination() ==
+                          match.getTransportDestination()) ||
+            !fieldCovered(qw, w, OFMatch.OFPFW_DL_VLAN_PCP,
+                          query.getDataLayerVirtualLanPriorityCodePoint() ==
+                          match.getDataLayerVirtualLanPriorityCodePoint()) ||
+            !fieldCovered(qw, w, OFMatch.OFPFW_NW_TOS,
+                          query.getNetworkTypeOfService() ==
+                          match.getNetworkTypeOfService()))
+            return false;
+        return prefixCovered(query.getNetworkSource(),
+                             query.getNetworkSourceMaskLen(),
+                             match.getNetworkSource(),
+                             match.getNetworkSourceMaskLen()) &&
+               prefixCovered(query.getNetworkDestination(),
+                             query.getNetworkDestinationMaskLen(),
+                             match.getNetworkDestination(),
+                             match.getNetworkDestinationMaskLen());
+    }
+
+    private static boolean fieldCovered(int queryWildcards, int wildcards,
+                                        int field, boolean equal) {
+        if ((queryWildcards & field) != 0) return true;
+        return (wildcards & field) == 0 && equal;
+    }
+
+    private static boolean prefixCovered(int queryAddr, int queryLen,
+                                         int addr, int len) {
+        if (queryLen == 0) return true;
+        if (len < queryLen) return false;
+        int mask = -1 << (32 - queryLen);
+        return (queryAddr & mask) == (addr & mask);
+    }
+
+    /**
+     * Clear the fields of a match that are wildcarded, so that matches the
+     * switch treats as the same have the same encoding
+     */
+    static OFMatch normalize(OFMatch match) {
+        OFMatch n = match.clone();
+        int w = match.getWildcards();
+        if ((w & OFMatch.OFPFW_IN_PORT) != 0)
+            n.setInputPort((short)0);
+        if ((w & OFMatch.OFPFW_DL_VLAN) != 0)
+            n.setDataLayerVirtualLan((short)0);
+        if ((w & OFMatch.OFPFW_DL_SRC) != 0)
+            n.setDataLayerSource(new byte[6]);
+        if ((w & OFMatch.OFPFW_DL_DST) != 0)
+            n.setDataLayerDestination(new byte[6]);
+        if ((w & OFMatch.OFPFW_DL_TYPE) != 0)
+            n.setDataLayerType((short)0);
+        if ((w & OFMatch.OFPFW_NW_PROTO) != 0)
+            n.setNetworkProtocol((byte)0);
+        if ((w & OFMatch.OFPFW_TP_SRC) != 0)
+            n.setTransportSource((short)0);
+        if ((w & OFMatch.OFPFW_TP_DST) != 0)
+            n.setTransportDestination((short)0);
+        if ((w & OFMatch.OFPFW_DL_VLAN_PCP) != 0)
+            n.setDataLayerVirtualLanPriorityCodePoint((byte)0);
+        if ((w & OFMatch.OFPFW_NW_TOS) != 0)
+            n.setNetworkTypeOfService((byte)0);
+
+        int srcLen = match.getNetworkSourceMaskLen();
+        int dstLen = match.getNetworkDestinationMaskLen();
+        n.setNetworkSource((srcLen == 0) ? 0 :
+                match.getNetworkSource() & (-1 << (32 - srcLen)));
+        n.setNetworkDestination((dstLen == 0) ? 0 :
+                match.getNetworkDestination() & (-1 << (32 - dstLen)));
+        // wildcard bit counts above 32 all mean "any address"
+        w = (w & ~OFMatch.OFPFW_NW_SRC_MASK & ~OFMatch.OFPFW_NW_DST_MASK) |
+            ((32 - srcLen) << OFMatch.OFPFW_NW_SRC_SHIFT) |
+            ((32 - dstLen) << OFMatch.OFPFW_NW_DST_SHIFT);
+        // only the defined wildcard bits
+        n.setWildcards(w & OFMatch.OFPFW_ALL);
+        return n;
+    }
+
+    private long readMac(int offset) {
+        long mac = 0;
+        for (int i = 0; i < 6; i++)
+            mac = (mac << 8) | (data[offset + i] & 0xff);
+        return mac;
+    }
+
+    private static int hashMatch(byte[] data) {
+        int result = 1;
+        for (int i = 0; i < OFMatch.MINIMUM_LENGTH; i++)
+            result = 31 * result + data[i];
+        return result;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof ShadowFlow)) return false;
+        ShadowFlow other = (ShadowFlow) obj;
+        if (priority != other.priority || hash != other.hash) return false;
+        for (int i = 0; i < OFMatch.MINIMUM_LENGTH; i++) {
+            if (data[i] != other.data[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "ShadowFlow [match=" + getMatch() + ", priority=" + priority
+               + ", cookie=" + cookie
+               + ", outPorts=" + Arrays.toString(outPorts) + "]";
+    }
+}
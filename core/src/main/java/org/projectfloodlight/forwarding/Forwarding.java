@@ -249,7 +249,8 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
                                 routingEngine.getRoute(srcDap.getSwitchDPID(),
                                                        (short)srcDap.getPort(),
                                                        dstDap.getSwitchDPID(),
-                                                       (short)dstDap.getPort(), 0); //cookie = 0, i.e., default route
+                                                       (short)dstDap.getPort(),
+                                                       getFlowHash(match));
                         if (route != null) {
                             if (log.isTraceEnabled()) {
                                 log.trace("pushRoute match={} route={} " +
@@ -36,6 +36,8 @@ public interface ILinkDiscoveryService extends IFloodlightService {
     /**
      * Retrieves a map of all known link connections between OpenFlow switches
      * and the associated info (valid time, port states) for the link.
+     * The map is an unmodifiable snapshot that does not change when links
+     * are added or removed.
      */
     public Map<Link, LinkInfo> getLinks();
 
@@ -0,0 +1,60 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.linkdiscovery;
+
+/**
+ * A serialized LLDP or BDDP frame for a switch with the per-port fields
+ * left blank. The frames a switch sends out of its different ports only
+ * differ in the source MAC address and the port id TLV, so the frame is
+ * built once per switch and each port's frame is a copy with those two
+ * fields filled in.
+ */
+public class LLDPTemplate {
+    /** Offset of the source MAC address in an untagged Ethernet frame */
+    protected static final int SRC_MAC_OFFSET = 6;
+
+    protected final byte[] frame;
+    protected final int portIdOffset;
+
+    /**
+     * @param frame the serialized frame
+     * @param portIdOffset the offset in the frame of the two byte port
+     * number in the value of the port id TLV
+     */
+    public LLDPTemplate(byte[] frame, int portIdOffset) {
+        this.frame = frame;
+        this.portIdOffset = portIdOffset;
+    }
+
+    /**
+     * Make the frame to send out of a port
+     * @param port the port number
+     * @param srcMac the hardware address of the port
+     * @return a new frame
+     */
+    public byte[] getFrame(short port, byte[] srcMac) {
+        byte[] data = frame.clone();
+        System.arraycopy(srcMac, 0, data, SRC_MAC_OFFSET, 6);
+        data[portIdOffset] = (byte) (port >>> 8);
+        data[portIdOffset + 1] = (byte) port;
+        return data;
+    }
+
+    public int getLength() {
+        return frame.length;
+    }
+}
@@ -32,13 +32,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
@@ -99,6 +101,7 @@ import org.projectfloodlight.packet.BSN;
 import org.projectfloodlight.packet.Ethernet;
 import org.projectfloodlight.packet.LLDP;
 import org.projectfloodlight.packet.LLDPTLV;
+import org.projectfloodlight.packet.PacketHeaders;
 import org.projectfloodlight.routing.Link;
 import org.projectfloodlight.sync.IStoreClient;
 import org.projectfloodlight.sync.IStoreListener;
@@ -125,13 +128,18 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  * rules listed below. This new LinkTuple is also passed to routing if it exists
  * to trigger updates. This class also handles removing links that are
  * associated to switch ports that go down, and switches that are disconnected.
- * Invariants: -portLinks and switchLinks will not contain empty Sets outside of
- * critical sections -portLinks contains LinkTuples where one of the src or dst
+ * Invariants: -portLinks and switchLinks will not contain empty Sets
+ * -portLinks contains LinkTuples where one of the src or dst
  * SwitchPortTuple matches the map key -switchLinks contains LinkTuples where
  * one of the src or dst SwitchPortTuple's id matches the switch id -Each
  * LinkTuple will be indexed into switchLinks for both src.id and dst.id, and
  * portLinks for each src and dst -The updates queue is only added to from
  * within a held write lock
+ *
+ * The links and their indexes are kept in an immutable LinkSnapshot that
+ * readers use without locking. Writers that add or remove links hold the
+ * write lock and publish a new snapshot. Refreshing the timestamps of a
+ * known link neither changes the snapshot nor takes the lock.
  */
 @LogMessageCategory("Network Topology")
 public class LinkDiscoveryManager implements IOFMessageListener,
@@ -200,7 +208,20 @@ public class LinkDiscoveryManager implements IOFMessageListener,
                                                      // links
 
     protected LLDPTLV controllerTLV;
-    protected ReentrantReadWriteLock lock;
+    /**
+     * Map from switch id to its prebuilt discovery frames, indexed by
+     * standard/BDDP and forward/reverse
+     */
+    protected ConcurrentMap<Long, LLDPTemplate[]> lldpTemplates;
+    /**
+     * Map from switch id to the tick of the LLDP clock at which LLDPs are
+     * sent out of all its ports. The ticks are picked at random so that the
+     * switches' rounds are spread over LLDP_TO_ALL_INTERVAL.
+     */
+    protected ConcurrentMap<Long, Integer> lldpPhases;
+    protected Random lldpPhaseRandom = new Random();
+    /** Serializes changes to the link snapshot */
+    protected ReentrantLock lock;
     int lldpTimeCount = 0;
 
     /**
@@ -209,19 +230,37 @@ public class LinkDiscoveryManager implements IOFMessageListener,
     protected boolean autoPortFastFeature = true;
 
     /**
-     * Map from link to the most recent time it was verified functioning
+     * An immutable view of the known links
      */
-    protected Map<Link, LinkInfo> links;
+    protected static class LinkSnapshot {
+        /**
+         * Map from link to the most recent time it was verified functioning
+         */
+        protected final Map<Link, LinkInfo> links;
 
-    /**
-     * Map from switch id to a set of all links with it as an endpoint
-     */
-    protected Map<Long, Set<Link>> switchLinks;
+        /**
+         * Map from switch id to a set of all links with it as an endpoint
+         */
+        protected final Map<Long, Set<Link>> switchLinks;
+
+        /**
+         * Map from a id:port to the set of links containing it as an endpoint
+         */
+        protected final Map<NodePortTuple, Set<Link>> portLinks;
+
+        protected LinkSnapshot(Map<Link, LinkInfo> links,
+                               Map<Long, Set<Link>> switchLinks,
+                               Map<NodePortTuple, Set<Link>> portLinks) {
+            this.links = Collections.unmodifiableMap(links);
+            this.switchLinks = Collections.unmodifiableMap(switchLinks);
+            this.portLinks = Collections.unmodifiableMap(portLinks);
+        }
+    }
 
     /**
-     * Map from a id:port to the set of links containing it as an endpoint
+     * The current links. Replaced, never modified, while holding the lock.
      */
-    protected Map<NodePortTuple, Set<Link>> portLinks;
+    protected volatile LinkSnapshot linkSnapshot;
 
     protected volatile boolean shuttingDown = false;
 
@@ -297,6 +336,70 @@ public class LinkDiscoveryManager implements IOFMessageListener,
                       HexString.toHexString(sw), port);
         }
 
+        // TODO: Consider remove this block of code.
+        // It's evil to overwrite port object. The the old code always
+        // overwrote mac address, we now only overwrite zero macs and
+        // log a warning, mostly for paranoia.
+        byte[] srcMac = ofpPort.getHardwareAddress();
+        byte[] zeroMac = { 0, 0, 0, 0, 0, 0 };
+        if (Arrays.equals(srcMac, zeroMac)) {
+            log.warn("Port {}/{} has zero hareware address"
+                             + "overwrite with lower 6 bytes of dpid",
+                     HexString.toHexString(sw), ofpPort.getPortNumber());
+            byte[] dpidArray = new byte[8];
+            ByteBuffer.wrap(dpidArray).putLong(sw);
+            System.arraycopy(dpidArray, 2, srcMac, 0, 6);
+        }
+
+        // Only the port id and the source mac differ between the ports of
+        // a switch, so fill them into the switch's prebuilt frame
+        byte[] data = getLLDPTemplate(sw, isStandard, isReverse)
+                          .getFrame(port, srcMac);
+        OFPacketOut po = (OFPacketOut) floodlightProvider.getOFMessageFactory()
+                                                         .getMessage(OFType.PACKET_OUT);
+        po.setBufferId(OFPacketOut.BUFFER_ID_NONE);
+        po.setInPort(OFPort.OFPP_NONE);
+
+        // set data and data length
+        po.setLengthU(OFPacketOut.MINIMUM_LENGTH + data.length);
+        po.setPacketData(data);
+
+        return po;
+    }
+
+    /**
+     * Get the prebuilt discovery frame of a switch, building it if needed
+     * @param sw the switch DPID
+     * @param isStandard whether to build a standard LLDP or a BDDP
+     * @param isReverse whether the LLDP is sent as a response
+     * @return the template
+     */
+    protected LLDPTemplate getLLDPTemplate(long sw, boolean isStandard,
+                                           boolean isReverse) {
+        LLDPTemplate[] templates = lldpTemplates.get(sw);
+        if (templates == null) {
+            templates = new LLDPTemplate[4];
+            LLDPTemplate[] old = lldpTemplates.putIfAbsent(sw, templates);
+            if (old != null) templates = old;
+        }
+        int index = (isStandard ? 2 : 0) + (isReverse ? 1 : 0);
+        LLDPTemplate template = templates[index];
+        if (template == null) {
+            // Racing threads build identical templates, so it does not
+            // matter whose is kept
+            template = buildLLDPTemplate(sw, isStandard, isReverse);
+            templates[index] = template;
+        }
+        return template;
+    }
+
+    /**
+     * Build the discovery frame of a switch with a zero source mac and port
+     * id. The frame carries the switch DPID and the controller id, so it
+     * has to be rebuilt if either changes.
+     */
+    protected LLDPTemplate buildLLDPTemplate(long sw, boolean isStandard,
+                                             boolean isReverse) {
         // using "nearest customer bridge" MAC address for broadest possible
         // propagation
         // through provider and TPMR bridges (see IEEE 802.1AB-2009 and
@@ -305,7 +408,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         // bridge
         byte[] chassisId = new byte[] { 4, 0, 0, 0, 0, 0, 0 }; // filled in
                                                                // later
-        byte[] portId = new byte[] { 2, 0, 0 }; // filled in later
+        byte[] portId = new byte[] { 2, 0, 0 }; // filled in per port
         byte[] ttlValue = new byte[] { 0, 0x78 };
         // OpenFlow OUI - 00-26-E1
         byte[] dpidTLVValue = new byte[] { 0x0, 0x26, (byte) 0xe1, 0, 0, 0,
@@ -316,35 +419,13 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
         byte[] dpidArray = new byte[8];
         ByteBuffer dpidBB = ByteBuffer.wrap(dpidArray);
-        ByteBuffer portBB = ByteBuffer.wrap(portId, 1, 2);
 
-        Long dpid = sw;
-        dpidBB.putLong(dpid);
+        dpidBB.putLong(sw);
         // set the chassis id's value to last 6 bytes of dpid
         System.arraycopy(dpidArray, 2, chassisId, 1, 6);
         // set the optional tlv to the full dpid
         System.arraycopy(dpidArray, 0, dpidTLVValue, 4, 8);
 
-        // TODO: Consider remove this block of code.
-        // It's evil to overwrite port object. The the old code always
-        // overwrote mac address, we now only overwrite zero macs and
-        // log a warning, mostly for paranoia.
-        byte[] srcMac = ofpPort.getHardwareAddress();
-        byte[] zeroMac = { 0, 0, 0, 0, 0, 0 };
-        if (Arrays.equals(srcMac, zeroMac)) {
-            log.warn("Port {}/{} has zero hareware address"
-                             + "overwrite with lower 6 bytes of dpid",
-                     HexString.toHexString(dpid), ofpPort.getPortNumber());
-            System.arraycopy(dpidArray, 2, srcMac, 0, 6);
-        }
-
-        // set the portId to the outgoing port
-        portBB.putShort(port);
-        if (log.isTraceEnabled()) {
-            log.trace("Sending LLDP out of interface: {}/{}",
-                      HexString.toHexString(sw), port);
-        }
-
         LLDP lldp = new LLDP();
         lldp.setChassisId(new LLDPTLV().setType((byte) 1)
                                        .setLength((short) chassisId.length)
@@ -364,10 +445,12 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         } else {
             lldp.getOptionalTLVList().add(forwardTLV);
         }
+        int lldpLength = lldp.serialize().length;
 
+        byte[] zeroMac = new byte[6];
         Ethernet ethernet;
         if (isStandard) {
-            ethernet = new Ethernet().setSourceMACAddress(ofpPort.getHardwareAddress())
+            ethernet = new Ethernet().setSourceMACAddress(zeroMac)
                                      .setDestinationMACAddress(LLDP_STANDARD_DST_MAC_STRING)
                                      .setEtherType(Ethernet.TYPE_LLDP);
             ethernet.setPayload(lldp);
@@ -375,24 +458,18 @@ public class LinkDiscoveryManager implements IOFMessageListener,
             BSN bsn = new BSN(BSN.BSN_TYPE_BDDP);
             bsn.setPayload(lldp);
 
-            ethernet = new Ethernet().setSourceMACAddress(ofpPort.getHardwareAddress())
+            ethernet = new Ethernet().setSourceMACAddress(zeroMac)
                                      .setDestinationMACAddress(LLDP_BSN_DST_MAC_STRING)
                                      .setEtherType(Ethernet.TYPE_BSN);
             ethernet.setPayload(bsn);
         }
-
-        // serialize and wrap in a packet out
         byte[] data = ethernet.serialize();
-        OFPacketOut po = (OFPacketOut) floodlightProvider.getOFMessageFactory()
-                                                         .getMessage(OFType.PACKET_OUT);
-        po.setBufferId(OFPacketOut.BUFFER_ID_NONE);
-        po.setInPort(OFPort.OFPP_NONE);
 
-        // set data and data length
-        po.setLengthU(OFPacketOut.MINIMUM_LENGTH + data.length);
-        po.setPacketData(data);
-
-        return po;
+        // The LLDP is at the end of the frame. The port number follows the
+        // chassis id TLV, the port id TLV header and the port id subtype.
+        int portIdOffset = data.length - lldpLength +
+                           2 + chassisId.length + 2 + 1;
+        return new LLDPTemplate(data, portIdOffset);
     }
 
     /**
@@ -415,7 +492,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
     @Override
     public Map<NodePortTuple, Set<Link>> getPortLinks() {
-        return portLinks;
+        return linkSnapshot.portLinks;
     }
 
     @Override
@@ -501,7 +578,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
     @Override
     public Map<Long, Set<Link>> getSwitchLinks() {
-        return this.switchLinks;
+        return linkSnapshot.switchLinks;
     }
 
     @Override
@@ -529,25 +606,16 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
     @Override
     public Map<Link, LinkInfo> getLinks() {
-        lock.readLock().lock();
-        Map<Link, LinkInfo> result;
-        try {
-            result = new HashMap<Link, LinkInfo>(links);
-        } finally {
-            lock.readLock().unlock();
-        }
-        return result;
+        return linkSnapshot.links;
     }
 
     @Override
     public LinkInfo getLinkInfo(Link link) {
-        lock.readLock().lock();
-        LinkInfo linkInfo = links.get(link);
+        LinkInfo linkInfo = linkSnapshot.links.get(link);
         LinkInfo retLinkInfo = null;
         if (linkInfo != null) {
             retLinkInfo  = new LinkInfo(linkInfo);
         }
-        lock.readLock().unlock();
         return retLinkInfo;
     }
 
@@ -591,22 +659,43 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
     protected Command handlePacketIn(long sw, OFPacketIn pi,
                                      FloodlightContext cntx) {
-        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
+        // Use the parsed headers when available so that ordinary data
+        // packets don't require the full Ethernet object to be built
+        PacketHeaders headers = cntx.getPacketHeaders();
+        Ethernet eth = null;
+        short etherType;
+        long destMac;
+        long srcMac;
+        if (headers != null && headers.isValid()) {
+            etherType = headers.getEtherType();
+            destMac = headers.getDlDst();
+            srcMac = headers.getDlSrc();
+        } else {
+            eth = IFloodlightProviderService.bcStore.get(cntx,
                            IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+            etherType = eth.getEtherType();
+            destMac = eth.getDestinationMAC().toLong();
+            srcMac = eth.getSourceMAC().toLong();
+        }
 
-        if (eth.getPayload() instanceof BSN) {
-            BSN bsn = (BSN) eth.getPayload();
-            if (bsn == null) return Command.STOP;
-            if (bsn.getPayload() == null) return Command.STOP;
-            // It could be a packet other than BSN LLDP, therefore
-            // continue with the regular processing.
-            if (bsn.getPayload() instanceof LLDP == false)
-                return Command.CONTINUE;
-            return handleLldp((LLDP) bsn.getPayload(), sw, pi.getInPort(), false, cntx);
-        } else if (eth.getPayload() instanceof LLDP) {
-            return handleLldp((LLDP) eth.getPayload(), sw, pi.getInPort(), true, cntx);
-        } else if (eth.getEtherType() < 1500) {
-            long destMac = eth.getDestinationMAC().toLong();
+        if (etherType == Ethernet.TYPE_BSN || etherType == Ethernet.TYPE_LLDP) {
+            if (eth == null) {
+                eth = IFloodlightProviderService.bcStore.get(cntx,
+                           IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+            }
+            if (eth.getPayload() instanceof BSN) {
+                BSN bsn = (BSN) eth.getPayload();
+                if (bsn == null) return Command.STOP;
+                if (bsn.getPayload() == null) return Command.STOP;
+                // It could be a packet other than BSN LLDP, therefore
+                // continue with the regular processing.
+                if (bsn.getPayload() instanceof LLDP == false)
+                    return Command.CONTINUE;
+                return handleLldp((LLDP) bsn.getPayload(), sw, pi.getInPort(), false, cntx);
+            } else if (eth.getPayload() instanceof LLDP) {
+                return handleLldp((LLDP) eth.getPayload(), sw, pi.getInPort(), true, cntx);
+            }
+        } else if (etherType < 1500) {
             if ((destMac & LINK_LOCAL_MASK) == LINK_LOCAL_VALUE) {
                 ctrLinkLocalDrops.updateCounterNoFlush();
                 if (log.isTraceEnabled()) {
@@ -617,7 +706,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
             }
         }
 
-        if (ignorePacketInFromSource(eth.getSourceMAC().toLong())) {
+        if (ignorePacketInFromSource(srcMac)) {
             ctrIgnoreSrcMacDrops.updateCounterNoFlush();
             return Command.STOP;
         }
@@ -782,11 +871,11 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         // If it doesn't exist and if the forward link was seen
         // first seen within a small interval, send probe on the
         // reverse link.
-        newLinkInfo = links.get(lt);
+        newLinkInfo = linkSnapshot.links.get(lt);
         if (newLinkInfo != null && isStandard && isReverse == false) {
             Link reverseLink = new Link(lt.getDst(), lt.getDstPort(),
                                         lt.getSrc(), lt.getSrcPort());
-            LinkInfo reverseInfo = links.get(reverseLink);
+            LinkInfo reverseInfo = linkSnapshot.links.get(reverseLink);
             if (reverseInfo == null) {
                 // the reverse link does not exist.
                 if (newLinkInfo.getFirstSeenTime() > System.currentTimeMillis()
@@ -918,11 +1007,27 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         // increment LLDP clock
         lldpClock = (lldpClock + 1) % LLDP_TO_ALL_INTERVAL;
 
-        if (lldpClock == 0) {
-            if (log.isTraceEnabled())
-                log.trace("Sending LLDP out on all ports.");
-            discoverOnAllPorts();
+        if (log.isTraceEnabled())
+            log.trace("Sending LLDP out on all ports of switches in phase {}",
+                      lldpClock);
+        for (long sw : floodlightProvider.getAllSwitchDpids()) {
+            if (getLldpPhase(sw) == lldpClock)
+                discoverOnAllPorts(sw);
+        }
+    }
+
+    /**
+     * Get the tick of the LLDP clock at which a switch is sent LLDPs out of
+     * all its ports, picking one at random if the switch has none yet
+     */
+    protected int getLldpPhase(long sw) {
+        Integer phase = lldpPhases.get(sw);
+        if (phase == null) {
+            phase = lldpPhaseRandom.nextInt(LLDP_TO_ALL_INTERVAL);
+            Integer old = lldpPhases.putIfAbsent(sw, phase);
+            if (old != null) phase = old;
         }
+        return phase;
     }
 
     /**
@@ -1182,13 +1287,35 @@ public class LinkDiscoveryManager implements IOFMessageListener,
             return;
 
         IOFSwitch iofSwitch = floodlightProvider.getSwitch(sw);
+        OFPacketOut po = buildDiscoveryPacketOut(iofSwitch, port,
+                                                 isStandard, isReverse);
+
+        // send
+        try {
+            iofSwitch.write(po, null);
+            iofSwitch.flush();
+        } catch (IOException e) {
+            log.error("Failure sending LLDP out port {} on switch {}",
+                      new Object[] { port, iofSwitch.getStringId() }, e);
+        }
+    }
+
+    /**
+     * Build the packet-out that sends a link discovery message out of a
+     * switch port
+     */
+    protected OFPacketOut buildDiscoveryPacketOut(IOFSwitch iofSwitch,
+                                                  short port,
+                                                  boolean isStandard,
+                                                  boolean isReverse) {
         OFPhysicalPort ofpPort = iofSwitch.getPort(port).toOFPhysicalPort();
 
         if (log.isTraceEnabled()) {
             log.trace("Sending LLDP packet out of swich: {}, port: {}",
-                      HexString.toHexString(sw), port);
+                      iofSwitch.getStringId(), port);
         }
-        OFPacketOut po = generateLLDPMessage(sw, port, isStandard, isReverse);
+        OFPacketOut po = generateLLDPMessage(iofSwitch.getId(), port,
+                                             isStandard, isReverse);
 
         // Add actions
         List<OFAction> actions = getDiscoveryActions(iofSwitch, ofpPort);
@@ -1203,15 +1330,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         // po already has the minimum length + data length set
         // simply add the actions length to this.
         po.setLengthU(po.getLengthU() + po.getActionsLength());
-
-        // send
-        try {
-            iofSwitch.write(po, null);
-            iofSwitch.flush();
-        } catch (IOException e) {
-            log.error("Failure sending LLDP out port {} on switch {}",
-                      new Object[] { port, iofSwitch.getStringId() }, e);
-        }
+        return po;
     }
 
     /**
@@ -1223,28 +1342,51 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         }
         // Send standard LLDPs
         for (long sw : floodlightProvider.getAllSwitchDpids()) {
-            IOFSwitch iofSwitch = floodlightProvider.getSwitch(sw);
-            if (iofSwitch == null) continue;
-            if (iofSwitch.getEnabledPorts() != null) {
-                for (ImmutablePort ofp : iofSwitch.getEnabledPorts()) {
-                    if (isLinkDiscoverySuppressed(sw, ofp.getPortNumber()))
-                                                                           continue;
-                    if (autoPortFastFeature
-                        && iofSwitch.isFastPort(ofp.getPortNumber()))
-                                                                     continue;
-
-                    // sends forward LLDP only non-fastports.
-                    sendDiscoveryMessage(sw, ofp.getPortNumber(), true,
-                                         false);
-
-                    // If the switch port is not alreayd in the maintenance
-                    // queue, add it.
-                    NodePortTuple npt = new NodePortTuple(
-                                                          sw,
-                                                          ofp.getPortNumber());
-                    addToMaintenanceQueue(npt);
-                }
+            discoverOnAllPorts(sw);
+        }
+    }
+
+    /**
+     * Send LLDPs out of all enabled ports of a switch. The packet-outs are
+     * written to the switch in a single batch.
+     */
+    @LogMessageDoc(level = "ERROR",
+                   message = "Failure sending LLDPs on switch {switch}",
+                   explanation = "An I/O error occured while sending LLDP "
+                                 + "messages to the switch.",
+                   recommendation = LogMessageDoc.CHECK_SWITCH)
+    protected void discoverOnAllPorts(long sw) {
+        IOFSwitch iofSwitch = floodlightProvider.getSwitch(sw);
+        if (iofSwitch == null) return;
+        if (iofSwitch.getEnabledPorts() == null) return;
+
+        List<OFMessage> msgList = new ArrayList<OFMessage>();
+        for (ImmutablePort ofp : iofSwitch.getEnabledPorts()) {
+            short port = ofp.getPortNumber();
+            if (isLinkDiscoverySuppressed(sw, port))
+                continue;
+            if (autoPortFastFeature && iofSwitch.isFastPort(port))
+                continue;
+
+            // sends forward LLDP only non-fastports.
+            if (isOutgoingDiscoveryAllowed(sw, port, true, false)) {
+                msgList.add(buildDiscoveryPacketOut(iofSwitch, port,
+                                                    true, false));
             }
+
+            // If the switch port is not alreayd in the maintenance
+            // queue, add it.
+            NodePortTuple npt = new NodePortTuple(sw, port);
+            addToMaintenanceQueue(npt);
+        }
+        if (msgList.isEmpty()) return;
+
+        try {
+            iofSwitch.write(msgList, null);
+            iofSwitch.flush();
+        } catch (IOException e) {
+            log.error("Failure sending LLDPs on switch {}",
+                      iofSwitch.getStringId(), e);
         }
     }
 
@@ -1312,32 +1454,55 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         srcNpt = new NodePortTuple(lt.getSrc(), lt.getSrcPort());
         dstNpt = new NodePortTuple(lt.getDst(), lt.getDstPort());
 
-        // index it by switch source
-        if (!switchLinks.containsKey(lt.getSrc()))
-            switchLinks.put(lt.getSrc(),
-                            new HashSet<Link>());
-        switchLinks.get(lt.getSrc()).add(lt);
-
-        // index it by switch dest
-        if (!switchLinks.containsKey(lt.getDst()))
-            switchLinks.put(lt.getDst(),
-                            new HashSet<Link>());
-        switchLinks.get(lt.getDst()).add(lt);
-
+        LinkSnapshot old = linkSnapshot;
+        Map<Link, LinkInfo> newLinks = new HashMap<Link, LinkInfo>(old.links);
+        Map<Long, Set<Link>> newSwitchLinks =
+                new HashMap<Long, Set<Link>>(old.switchLinks);
+        Map<NodePortTuple, Set<Link>> newPortLinks =
+                new HashMap<NodePortTuple, Set<Link>>(old.portLinks);
+
+        newLinks.put(lt, newInfo);
+        // index it by switch source and dest
+        addToIndex(newSwitchLinks, lt.getSrc(), lt);
+        addToIndex(newSwitchLinks, lt.getDst(), lt);
         // index both ends by switch:port
-        if (!portLinks.containsKey(srcNpt))
-            portLinks.put(srcNpt,
-                          new HashSet<Link>());
-        portLinks.get(srcNpt).add(lt);
-
-        if (!portLinks.containsKey(dstNpt))
-            portLinks.put(dstNpt,
-                          new HashSet<Link>());
-        portLinks.get(dstNpt).add(lt);
+        addToIndex(newPortLinks, srcNpt, lt);
+        addToIndex(newPortLinks, dstNpt, lt);
 
+        linkSnapshot = new LinkSnapshot(newLinks, newSwitchLinks,
+                                        newPortLinks);
         return true;
     }
 
+    /**
+     * Add a link to the set of an index key, copying the set
+     */
+    private static <K> void addToIndex(Map<K, Set<Link>> index, K key,
+                                       Link lt) {
+        Set<Link> old = index.get(key);
+        Set<Link> links = (old == null) ? new HashSet<Link>()
+                                        : new HashSet<Link>(old);
+        links.add(lt);
+        index.put(key, Collections.unmodifiableSet(links));
+    }
+
+    /**
+     * Remove a link from the set of an index key, copying the set and
+     * dropping the key if the set becomes empty
+     */
+    private static <K> void removeFromIndex(Map<K, Set<Link>> index, K key,
+                                            Link lt) {
+        Set<Link> old = index.get(key);
+        if (old == null || !old.contains(lt)) return;
+        if (old.size() == 1) {
+            index.remove(key);
+            return;
+        }
+        Set<Link> links = new HashSet<Link>(old);
+        links.remove(lt);
+        index.put(key, Collections.unmodifiableSet(links));
+    }
+
     protected boolean updateLink(Link lt, LinkInfo oldInfo, LinkInfo newInfo) {
         boolean linkChanged = false;
         // Since the link info is already there, we need to
@@ -1382,13 +1547,12 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
         boolean linkChanged = false;
 
-        lock.writeLock().lock();
+        // Most LLDPs only move the times of a known link forward
+        if (refreshLink(lt, newInfo)) return false;
+
+        lock.lock();
         try {
-            // put the new info. if an old info exists, it will be returned.
-            LinkInfo oldInfo = links.put(lt, newInfo);
-            if (oldInfo != null
-                    && oldInfo.getFirstSeenTime() < newInfo.getFirstSeenTime())
-                newInfo.setFirstSeenTime(oldInfo.getFirstSeenTime());
+            LinkInfo oldInfo = linkSnapshot.links.get(lt);
 
             if (log.isTraceEnabled()) {
                 log.trace("addOrUpdateLink: {} {}",
@@ -1416,6 +1580,12 @@ public class LinkDiscoveryManager implements IOFMessageListener,
                 notifier.postNotification("Link added: " + lt.toString());
             } else {
                 linkChanged = updateLink(lt, oldInfo, newInfo);
+                // Update the known info in place, readers may hold it
+                if (oldInfo.getFirstSeenTime() > newInfo.getFirstSeenTime())
+                    oldInfo.setFirstSeenTime(newInfo.getFirstSeenTime());
+                oldInfo.setUnicastValidTime(newInfo.getUnicastValidTime());
+                oldInfo.setMulticastValidTime(newInfo.getMulticastValidTime());
+                newInfo = oldInfo;
                 if (linkChanged) {
                     updateOperation = UpdateOperation.LINK_UPDATED;
                     LinkType linkType = getLinkType(lt, newInfo);
@@ -1437,12 +1607,43 @@ public class LinkDiscoveryManager implements IOFMessageListener,
                                          updateOperation));
             }
         } finally {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
 
         return linkChanged;
     }
 
+    /**
+     * Refresh the times of a known link without taking the lock. This is
+     * only possible if the update neither adds the link nor changes which
+     * of its times are set, since those changes produce link updates.
+     * @return true if the link was refreshed, false if the update has to
+     * go through addOrUpdateLink's locked path
+     */
+    protected boolean refreshLink(Link lt, LinkInfo newInfo) {
+        LinkSnapshot snapshot = linkSnapshot;
+        LinkInfo oldInfo = snapshot.links.get(lt);
+        if (oldInfo == null) return false;
+
+        Long unicastTime = newInfo.getUnicastValidTime();
+        Long multicastTime = newInfo.getMulticastValidTime();
+        if (unicastTime == null && multicastTime == null) return false;
+        if (unicastTime != null &&
+            !oldInfo.refreshUnicastValidTime(unicastTime))
+            return false;
+        if (multicastTime != null &&
+            !oldInfo.refreshMulticastValidTime(multicastTime))
+            return false;
+        Long firstSeenTime = newInfo.getFirstSeenTime();
+        Long oldFirstSeenTime = oldInfo.getFirstSeenTime();
+        if (firstSeenTime != null &&
+            (oldFirstSeenTime == null || firstSeenTime < oldFirstSeenTime))
+            oldInfo.setFirstSeenTime(firstSeenTime);
+
+        // The link may have been deleted while we refreshed it
+        return linkSnapshot.links.get(lt) == oldInfo;
+    }
+
     /**
      * Delete a link
      *
@@ -1545,35 +1746,26 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
         NodePortTuple srcNpt, dstNpt;
         List<LDUpdate> linkUpdateList = new ArrayList<LDUpdate>();
-        lock.writeLock().lock();
+        lock.lock();
         try {
+            LinkSnapshot old = linkSnapshot;
+            Map<Link, LinkInfo> newLinks =
+                    new HashMap<Link, LinkInfo>(old.links);
+            Map<Long, Set<Link>> newSwitchLinks =
+                    new HashMap<Long, Set<Link>>(old.switchLinks);
+            Map<NodePortTuple, Set<Link>> newPortLinks =
+                    new HashMap<NodePortTuple, Set<Link>>(old.portLinks);
+
             for (Link lt : links) {
                 srcNpt = new NodePortTuple(lt.getSrc(), lt.getSrcPort());
                 dstNpt = new NodePortTuple(lt.getDst(), lt.getDstPort());
 
-                if (switchLinks.containsKey(lt.getSrc())) {
-                    switchLinks.get(lt.getSrc()).remove(lt);
-                    if (switchLinks.get(lt.getSrc()).isEmpty())
-                        this.switchLinks.remove(lt.getSrc());
-                }
-                if (this.switchLinks.containsKey(lt.getDst())) {
-                    switchLinks.get(lt.getDst()).remove(lt);
-                    if (this.switchLinks.get(lt.getDst()).isEmpty())
-                        this.switchLinks.remove(lt.getDst());
-                }
-
-                if (this.portLinks.get(srcNpt) != null) {
-                    this.portLinks.get(srcNpt).remove(lt);
-                    if (this.portLinks.get(srcNpt).isEmpty())
-                                                             this.portLinks.remove(srcNpt);
-                }
-                if (this.portLinks.get(dstNpt) != null) {
-                    this.portLinks.get(dstNpt).remove(lt);
-                    if (this.portLinks.get(dstNpt).isEmpty())
-                                                             this.portLinks.remove(dstNpt);
-                }
+                removeFromIndex(newSwitchLinks, lt.getSrc(), lt);
+                removeFromIndex(newSwitchLinks, lt.getDst(), lt);
+                removeFromIndex(newPortLinks, srcNpt, lt);
+                removeFromIndex(newPortLinks, dstNpt, lt);
 
-                LinkInfo info = this.links.remove(lt);
+                LinkInfo info = newLinks.remove(lt);
                 LinkType linkType = getLinkType(lt, info);
                 linkUpdateList.add(new LDUpdate(lt.getSrc(),
                                                 lt.getSrcPort(),
@@ -1601,10 +1793,12 @@ public class LinkDiscoveryManager implements IOFMessageListener,
                     log.trace("Deleted link {}", lt);
                 }
             }
+            linkSnapshot = new LinkSnapshot(newLinks, newSwitchLinks,
+                                            newPortLinks);
         } finally {
             if (updateList != null) linkUpdateList.addAll(updateList);
             updates.addAll(linkUpdateList);
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -1616,16 +1810,17 @@ public class LinkDiscoveryManager implements IOFMessageListener,
      */
     protected void deleteLinksOnPort(NodePortTuple npt, String reason) {
         List<Link> eraseList = new ArrayList<Link>();
-        if (this.portLinks.containsKey(npt)) {
+        Set<Link> portLinks = linkSnapshot.portLinks.get(npt);
+        if (portLinks != null) {
             if (log.isTraceEnabled()) {
                 log.trace("handlePortStatus: Switch {} port #{} "
                                   + "removing links {}",
                           new Object[] {
                                         HexString.toHexString(npt.getNodeId()),
                                         npt.getPortId(),
-                                        this.portLinks.get(npt) });
+                                        portLinks });
             }
-            eraseList.addAll(this.portLinks.get(npt));
+            eraseList.addAll(portLinks);
             deleteLinks(eraseList, reason);
         }
     }
@@ -1639,36 +1834,36 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         Long curTime = System.currentTimeMillis();
         boolean linkChanged = false;
 
-        // reentrant required here because deleteLink also write locks
-        lock.writeLock().lock();
+        // reentrant required here because deleteLink also locks
+        lock.lock();
         try {
-            Iterator<Entry<Link, LinkInfo>> it = this.links.entrySet()
-                                                           .iterator();
-            while (it.hasNext()) {
-                Entry<Link, LinkInfo> entry = it.next();
+            for (Entry<Link, LinkInfo> entry : linkSnapshot.links.entrySet()) {
                 Link lt = entry.getKey();
                 LinkInfo info = entry.getValue();
+                boolean infoChanged = false;
 
                 // Timeout the unicast and multicast LLDP valid times
-                // independently.
-                if ((info.getUnicastValidTime() != null)
-                    && (info.getUnicastValidTime()
-                        + (this.LINK_TIMEOUT * 1000L) < curTime)) {
-                    info.setUnicastValidTime(null);
-                    linkChanged = true;
+                // independently. A time refreshed while we look at it is
+                // not timed out.
+                Long unicastTime = info.getUnicastValidTime();
+                if ((unicastTime != null)
+                    && (unicastTime + (this.LINK_TIMEOUT * 1000L) < curTime)
+                    && info.clearUnicastValidTime(unicastTime)) {
+                    infoChanged = true;
                 }
-                if ((info.getMulticastValidTime() != null)
-                    && (info.getMulticastValidTime()
-                        + (this.LINK_TIMEOUT * 1000L) < curTime)) {
-                    info.setMulticastValidTime(null);
-                    linkChanged = true;
+                Long multicastTime = info.getMulticastValidTime();
+                if ((multicastTime != null)
+                    && (multicastTime + (this.LINK_TIMEOUT * 1000L) < curTime)
+                    && info.clearMulticastValidTime(multicastTime)) {
+                    infoChanged = true;
                 }
+                linkChanged |= infoChanged;
                 // Add to the erase list only if the unicast
                 // time is null.
                 if (info.getUnicastValidTime() == null
                     && info.getMulticastValidTime() == null) {
                     eraseList.add(entry.getKey());
-                } else if (linkChanged) {
+                } else if (infoChanged) {
                     updates.add(new LDUpdate(lt.getSrc(), lt.getSrcPort(),
                                              lt.getDst(), lt.getDstPort(),
                                              getLinkType(lt, info),
@@ -1681,7 +1876,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
                 deleteLinks(eraseList, "LLDP timeout");
             }
         } finally {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -1732,6 +1927,8 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         this.controllerTLV = new LLDPTLV().setType((byte) 0x0c)
                                           .setLength((short) controllerTLVValue.length)
                                           .setValue(controllerTLVValue);
+        // The templates carry the old controller id
+        lldpTemplates.clear();
     }
 
     /**
@@ -1803,20 +2000,23 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
     @Override
     public void switchRemoved(long sw) {
+        lldpTemplates.remove(sw);
+        lldpPhases.remove(sw);
         List<Link> eraseList = new ArrayList<Link>();
-        lock.writeLock().lock();
+        lock.lock();
         try {
-            if (switchLinks.containsKey(sw)) {
+            Set<Link> switchLinks = linkSnapshot.switchLinks.get(sw);
+            if (switchLinks != null) {
                 if (log.isTraceEnabled()) {
                     log.trace("Handle switchRemoved. Switch {}; removing links {}",
-                              HexString.toHexString(sw), switchLinks.get(sw));
+                              HexString.toHexString(sw), switchLinks);
                 }
 
                 List<LDUpdate> updateList = new ArrayList<LDUpdate>();
                 updateList.add(new LDUpdate(sw, null,
                                             UpdateOperation.SWITCH_REMOVED));
                 // add all tuples with an endpoint on this switch to erase list
-                eraseList.addAll(switchLinks.get(sw));
+                eraseList.addAll(switchLinks);
 
                 // Sending the updateList, will ensure the updates in this
                 // list will be added at the end of all the link updates.
@@ -1829,7 +2029,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
                                          UpdateOperation.SWITCH_REMOVED));
             }
         } finally {
-            lock.writeLock().unlock();
+            lock.unlock();
         }
 
     }
@@ -1936,14 +2136,17 @@ public class LinkDiscoveryManager implements IOFMessageListener,
 
         // We create this here because there is no ordering guarantee
         this.linkDiscoveryAware = new ArrayList<ILinkDiscoveryListener>();
-        this.lock = new ReentrantReadWriteLock();
+        this.lock = new ReentrantLock();
         this.updates = new LinkedBlockingQueue<LDUpdate>();
-        this.links = new HashMap<Link, LinkInfo>();
-        this.portLinks = new HashMap<NodePortTuple, Set<Link>>();
+        this.linkSnapshot = new LinkSnapshot(
+                new HashMap<Link, LinkInfo>(),
+                new HashMap<Long, Set<Link>>(),
+                new HashMap<NodePortTuple, Set<Link>>());
         this.suppressLinkDiscovery = Collections.synchronizedSet(new HashSet<NodePortTuple>());
-        this.switchLinks = new HashMap<Long, Set<Link>>();
         this.quarantineQueue = new LinkedBlockingQueue<NodePortTuple>();
         this.maintenanceQueue = new LinkedBlockingQueue<NodePortTuple>();
+        this.lldpTemplates = new ConcurrentHashMap<Long, LLDPTemplate[]>();
+        this.lldpPhases = new ConcurrentHashMap<Long, Integer>();
 
         this.ignoreMACSet = Collections.newSetFromMap(
                                 new ConcurrentHashMap<MACRange,Boolean>());
@@ -2189,7 +2392,7 @@ public class LinkDiscoveryManager implements IOFMessageListener,
         Map<String, Object> info = new HashMap<String, Object>();
 
         int numDirectLinks = 0;
-        for (Set<Link> links : switchLinks.values()) {
+        for (Set<Link> links : linkSnapshot.switchLinks.values()) {
             for (Link link : links) {
                 LinkInfo linkInfo = this.getLinkInfo(link);
                 if (linkInfo != null &&
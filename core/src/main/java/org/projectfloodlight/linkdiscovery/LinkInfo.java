@@ -16,11 +16,19 @@
 
 package org.projectfloodlight.linkdiscovery;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 import org.projectfloodlight.linkdiscovery.ILinkDiscovery.LinkType;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 public class LinkInfo {
+    private static final AtomicReferenceFieldUpdater<LinkInfo, Long>
+            lldpTimeUpdater = AtomicReferenceFieldUpdater.newUpdater(
+                    LinkInfo.class, Long.class, "lastLldpReceivedTime");
+    private static final AtomicReferenceFieldUpdater<LinkInfo, Long>
+            bddpTimeUpdater = AtomicReferenceFieldUpdater.newUpdater(
+                    LinkInfo.class, Long.class, "lastBddpReceivedTime");
 
     public LinkInfo(Long firstSeenTime,
                     Long lastLldpReceivedTime,
@@ -47,9 +55,11 @@ public class LinkInfo {
         this.lastBddpReceivedTime = fromLinkInfo.getMulticastValidTime();
     }
 
-    protected Long firstSeenTime;
-    protected Long lastLldpReceivedTime; /* Standard LLLDP received time */
-    protected Long lastBddpReceivedTime; /* Modified LLDP received time  */
+    // The times are volatile so that link discovery can refresh them
+    // without holding its lock
+    protected volatile Long firstSeenTime;
+    protected volatile Long lastLldpReceivedTime; /* Standard LLLDP received time */
+    protected volatile Long lastBddpReceivedTime; /* Modified LLDP received time  */
 
     /** The port states stored here are topology's last knowledge of
      * the state of the port. This mostly mirrors the state
@@ -85,6 +95,52 @@ public class LinkInfo {
         this.lastBddpReceivedTime = multicastValidTime;
     }
 
+    /**
+     * Set the unicast valid time if it is currently set. A refresh never
+     * changes the link type, so it can race with other updates.
+     * @return false if the unicast valid time is not set
+     */
+    public boolean refreshUnicastValidTime(Long unicastValidTime) {
+        return refresh(lldpTimeUpdater, unicastValidTime);
+    }
+
+    /**
+     * Set the multicast valid time if it is currently set
+     * @return false if the multicast valid time is not set
+     * @see #refreshUnicastValidTime(Long)
+     */
+    public boolean refreshMulticastValidTime(Long multicastValidTime) {
+        return refresh(bddpTimeUpdater, multicastValidTime);
+    }
+
+    /**
+     * Clear the unicast valid time if it has not changed since it was read
+     * @param expected the unicast valid time that was read
+     * @return false if the time has been refreshed in the meantime
+     */
+    public boolean clearUnicastValidTime(Long expected) {
+        return lldpTimeUpdater.compareAndSet(this, expected, null);
+    }
+
+    /**
+     * Clear the multicast valid time if it has not changed since it was
+     * read
+     * @param expected the multicast valid time that was read
+     * @return false if the time has been refreshed in the meantime
+     */
+    public boolean clearMulticastValidTime(Long expected) {
+        return bddpTimeUpdater.compareAndSet(this, expected, null);
+    }
+
+    private boolean refresh(AtomicReferenceFieldUpdater<LinkInfo, Long> updater,
+                            Long time) {
+        while (true) {
+            Long current = updater.get(this);
+            if (current == null) return false;
+            if (updater.compareAndSet(this, current, time)) return true;
+        }
+    }
+
     @JsonIgnore
     public LinkType getLinkType() {
         if (lastLldpReceivedTime != null) {
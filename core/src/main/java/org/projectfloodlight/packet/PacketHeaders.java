@@ -0,0 +1,377 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.packet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * A reusable, allocation-free view of the L2-L4 headers of a raw packet.
+ *
+ * Unlike {@link Ethernet#deserialize(byte[], int, int)} this does not build
+ * an object tree: {@link #parse(ChannelBuffer, int, int)} only records
+ * header fields as primitives and the offsets of each layer. Parsing reads
+ * the buffer in place, so a packet-in's payload can be parsed without
+ * copying it out of the message it was decoded from. The same instance
+ * can be reused for any number of packets. The full {@link Ethernet}
+ * representation is built on demand by {@link #getEthernet()} and cached
+ * until the next call to parse or reset.
+ *
+ * Instances are not thread-safe.
+ */
+public class PacketHeaders {
+    public static final short VLAN_UNTAGGED = Ethernet.VLAN_UNTAGGED;
+
+    private static final short TYPE_VLAN = (short) 0x8100;
+    private static final int ETH_HEADER_LENGTH = 14;
+    private static final int VLAN_TAG_LENGTH = 4;
+    private static final int IPV4_MIN_HEADER_LENGTH = 20;
+    private static final int ARP_IPV4_LENGTH = 28;
+
+    protected ChannelBuffer data;
+    protected int offset;
+    protected int length;
+    protected boolean valid;
+
+    // L2
+    protected long dlDst;
+    protected long dlSrc;
+    protected short vlan;
+    protected byte vlanPcp;
+    protected short etherType;
+    protected int l3Offset;
+
+    // L3
+    protected boolean ipv4;
+    protected int nwSrc;
+    protected int nwDst;
+    protected byte nwProto;
+    protected byte nwTos;
+    protected boolean fragment;
+    protected int l4Offset;
+    protected short arpOpcode;
+
+    // L4
+    protected boolean transport;
+    protected short tpSrc;
+    protected short tpDst;
+
+    protected Ethernet ethernet;
+
+    public PacketHeaders() {
+        reset();
+    }
+
+    /**
+     * Forget the current packet. Drops the reference to the packet data.
+     */
+    public void reset() {
+        data = null;
+        offset = 0;
+        length = 0;
+        valid = false;
+        dlDst = 0;
+        dlSrc = 0;
+        vlan = VLAN_UNTAGGED;
+        vlanPcp = 0;
+        etherType = 0;
+        l3Offset = -1;
+        ipv4 = false;
+        nwSrc = 0;
+        nwDst = 0;
+        nwProto = 0;
+        nwTos = 0;
+        fragment = false;
+        l4Offset = -1;
+        arpOpcode = 0;
+        transport = false;
+        tpSrc = 0;
+        tpDst = 0;
+        ethernet = null;
+    }
+
+    /**
+     * Parse the headers of the packet in the given range of a buffer. The
+     * buffer is referenced, not copied, and must not be modified while
+     * this object refers to it. Its reader and writer indexes are not
+     * used or changed.
+     * @param data the buffer holding the packet
+     * @param offset absolute index of the start of the Ethernet header
+     * @param length number of bytes of the packet
+     * @return true if at least a valid Ethernet header was found
+     */
+    public boolean parse(ChannelBuffer data, int offset, int length) {
+        reset();
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        // Same minimum as Ethernet.deserialize()
+        if (data == null || length <= 16 || offset + length > data.capacity())
+            return false;
+
+        int end = offset + length;
+        int pos = offset;
+        dlDst = getMac(data, pos);
+        dlSrc = getMac(data, pos + 6);
+        pos += 12;
+        short type = getShort(data, pos);
+        pos += 2;
+        if (type == TYPE_VLAN) {
+            if (pos + VLAN_TAG_LENGTH > end)
+                return false;
+            short tci = getShort(data, pos);
+            vlanPcp = (byte) ((tci >> 13) & 0x07);
+            vlan = (short) (tci & 0x0fff);
+            type = getShort(data, pos + 2);
+            pos += VLAN_TAG_LENGTH;
+        }
+        etherType = type;
+        l3Offset = pos;
+        valid = true;
+
+        if (etherType == Ethernet.TYPE_IPv4) {
+            parseIPv4(pos, end);
+        } else if (etherType == Ethernet.TYPE_ARP ||
+                   etherType == Ethernet.TYPE_RARP) {
+            if (pos + ARP_IPV4_LENGTH <= end) {
+                arpOpcode = getShort(data, pos + 6);
+                nwSrc = getInt(data, pos + 14);
+                nwDst = getInt(data, pos + 24);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse the headers of the readable bytes of a buffer
+     * @see #parse(ChannelBuffer, int, int)
+     */
+    public boolean parse(ChannelBuffer data) {
+        if (data == null)
+            return parse(null, 0, 0);
+        return parse(data, data.readerIndex(), data.readableBytes());
+    }
+
+    /**
+     * Parse the headers of the packet in the given range of an array
+     * @see #parse(ChannelBuffer, int, int)
+     */
+    public boolean parse(byte[] data, int offset, int length) {
+        if (data == null)
+            return parse((ChannelBuffer) null, 0, 0);
+        return parse(ChannelBuffers.wrappedBuffer(data), offset, length);
+    }
+
+    /**
+     * Parse the headers of the whole array
+     * @see #parse(ChannelBuffer, int, int)
+     */
+    public boolean parse(byte[] data) {
+        return parse(data, 0, (data == null) ? 0 : data.length);
+    }
+
+    private void parseIPv4(int pos, int end) {
+        if (pos + IPV4_MIN_HEADER_LENGTH > end)
+            return;
+        int versionIhl = data.getUnsignedByte(pos);
+        if ((versionIhl >> 4) != 4)
+            return;
+        int ihl = (versionIhl & 0x0f) * 4;
+        if (ihl < IPV4_MIN_HEADER_LENGTH || pos + ihl > end)
+            return;
+        ipv4 = true;
+        nwTos = data.getByte(pos + 1);
+        short flagsOffset = getShort(data, pos + 6);
+        byte flags = (byte) ((flagsOffset >> IPv4.IPV4_FLAGS_SHIFT) &
+                             IPv4.IPV4_FLAGS_MASK);
+        short fragOffset = (short) (flagsOffset & IPv4.IPV4_OFFSET_MASK);
+        fragment = ((flags & IPv4.IPV4_FLAGS_DONTFRAG) == 0) &&
+                ((flags & IPv4.IPV4_FLAGS_MOREFRAG) != 0 || fragOffset != 0);
+        nwProto = data.getByte(pos + 9);
+        nwSrc = getInt(data, pos + 12);
+        nwDst = getInt(data, pos + 16);
+        l4Offset = pos + ihl;
+
+        // Only the first fragment carries the transport header
+        if (fragOffset == 0 &&
+                (nwProto == IPv4.PROTOCOL_TCP ||
+                 nwProto == IPv4.PROTOCOL_UDP) &&
+                l4Offset + 4 <= end) {
+            transport = true;
+            tpSrc = getShort(data, l4Offset);
+            tpDst = getShort(data, l4Offset + 2);
+        }
+    }
+
+    private static long getMac(ChannelBuffer b, int pos) {
+        return ((b.getUnsignedShort(pos) & 0xffffL) << 32) |
+               (b.getUnsignedInt(pos + 2));
+    }
+
+    private static short getShort(ChannelBuffer b, int pos) {
+        return b.getShort(pos);
+    }
+
+    private static int getInt(ChannelBuffer b, int pos) {
+        return b.getInt(pos);
+    }
+
+    /**
+     * Get the object representation of the packet. It is built the first
+     * time this is called after a parse and cached afterwards.
+     * @return the deserialized packet or null if no packet is parsed
+     */
+    public Ethernet getEthernet() {
+        if (ethernet == null && data != null) {
+            Ethernet eth = new Ethernet();
+            if (data.hasArray()) {
+                eth.deserialize(data.array(), data.arrayOffset() + offset,
+                                length);
+            } else {
+                byte[] bytes = new byte[length];
+                data.getBytes(offset, bytes);
+                eth.deserialize(bytes, 0, length);
+            }
+            ethernet = eth;
+        }
+        return ethernet;
+    }
+
+    /**
+     * @return true if the object representation has already been built
+     */
+    public boolean isEthernetBuilt() {
+        return ethernet != null;
+    }
+
+    /**
+     * @return true if the last parse found a valid Ethernet header
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return the buffer holding the current packet or null
+     */
+    public ChannelBuffer getData() {
+        return data;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getDlDst() {
+        return dlDst;
+    }
+
+    public long getDlSrc() {
+        return dlSrc;
+    }
+
+    public boolean isBroadcast() {
+        return dlDst == 0xffffffffffffL;
+    }
+
+    public boolean isMulticast() {
+        return !isBroadcast() && (dlDst & 0x010000000000L) != 0;
+    }
+
+    public short getVlan() {
+        return vlan;
+    }
+
+    public byte getVlanPcp() {
+        return vlanPcp;
+    }
+
+    public short getEtherType() {
+        return etherType;
+    }
+
+    /**
+     * @return index of the L3 header in the data buffer or -1
+     */
+    public int getL3Offset() {
+        return l3Offset;
+    }
+
+    public boolean isIPv4() {
+        return ipv4;
+    }
+
+    public boolean isFragment() {
+        return fragment;
+    }
+
+    /**
+     * @return the IPv4 source address, or the ARP sender protocol address
+     */
+    public int getNwSrc() {
+        return nwSrc;
+    }
+
+    /**
+     * @return the IPv4 destination address, or the ARP target protocol
+     * address
+     */
+    public int getNwDst() {
+        return nwDst;
+    }
+
+    /**
+     * @return the IPv4 protocol or 0 if the packet is not IPv4
+     */
+    public byte getNwProto() {
+        return nwProto;
+    }
+
+    public byte getNwTos() {
+        return nwTos;
+    }
+
+    public short getArpOpcode() {
+        return arpOpcode;
+    }
+
+    /**
+     * @return index of the L4 header in the data buffer or -1
+     */
+    public int getL4Offset() {
+        return l4Offset;
+    }
+
+    /**
+     * @return true if TCP or UDP ports were parsed
+     */
+    public boolean hasTransportPorts() {
+        return transport;
+    }
+
+    public short getTpSrc() {
+        return tpSrc;
+    }
+
+    public short getTpDst() {
+        return tpDst;
+    }
+}
@@ -49,4 +49,41 @@ public interface IPktInProcessingTimeService extends IFloodlightService {
     public void setEnabled(boolean enabled);
     
     public CumulativeTimeBucket getCtb();
+
+    /**
+     * Whether the always-on latency histograms are recording. If so the
+     * caller times each listener and packet and passes the times to
+     * {@link #recordListenerLatency} and {@link #recordSwitchLatency}.
+     */
+    public boolean isLatencyRecordingEnabled();
+
+    /**
+     * Record the time one listener took to process a message
+     * @param listener the listener
+     * @param procTimeNs the processing time in nanoseconds
+     * @param nowNs the current System.nanoTime()
+     */
+    public void recordListenerLatency(IOFMessageListener listener,
+                                      long procTimeNs, long nowNs);
+
+    /**
+     * Record the time all listeners took to process a message from a switch
+     * @param sw the switch
+     * @param procTimeNs the processing time in nanoseconds
+     * @param nowNs the current System.nanoTime()
+     */
+    public void recordSwitchLatency(IOFSwitch sw, long procTimeNs,
+                                    long nowNs);
+
+    /**
+     * @return the latency percentiles of each listener over the rolling
+     * window, named by listener
+     */
+    public List<LatencySummary> getListenerLatencies();
+
+    /**
+     * @return the latency percentiles of each switch over the rolling
+     * window, named by switch DPID
+     */
+    public List<LatencySummary> getSwitchLatencies();
 }
@@ -0,0 +1,223 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.perfmon;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram over a rolling time window, for recording from
+ * several threads on the packet processing path.
+ *
+ * Values are counted in log-linear buckets: each power of two range of
+ * values is split into 2^subBucketBits equal sub-buckets, so a percentile
+ * is reported with a relative error of at most 2^-subBucketBits, whatever
+ * its magnitude. Values below 2^subBucketBits are counted exactly and
+ * values above the maximum are counted in the last bucket.
+ *
+ * The window is a ring of numWindows slots, each counting the values
+ * recorded during one windowNs period. A slot is cleared by the first
+ * recording that lands in it after a full trip around the ring, so there
+ * is no background thread. Snapshots merge the slots of the last
+ * numWindows periods.
+ *
+ * Recording is a single atomic increment and doesn't allocate. Counts
+ * recorded while a slot is being recycled may be lost.
+ */
+public class LatencyHistogram {
+    private final int subBucketBits;
+    private final int subBucketCount;
+    private final int numBuckets;
+    private final long maxValue;
+    private final long windowNs;
+    private final long originNs;
+    private final Slot[] slots;
+
+    private static class Slot {
+        final AtomicLong period = new AtomicLong(-1);
+        final AtomicLongArray counts;
+
+        Slot(int numBuckets) {
+            counts = new AtomicLongArray(numBuckets);
+        }
+    }
+
+    /**
+     * A merged view of the histogram at a point in time
+     */
+    public static class Snapshot {
+        private final LatencyHistogram histogram;
+        private final long[] counts;
+        private final long totalCount;
+
+        Snapshot(LatencyHistogram histogram, long[] counts) {
+            this.histogram = histogram;
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts)
+                total += c;
+            this.totalCount = total;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * Get the value at a percentile
+         * @param percentile the percentile, between 0 and 100
+         * @return the highest value in the bucket holding the percentile, or
+         * 0 if nothing was recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (totalCount == 0)
+                return 0;
+            long rank = (long) Math.ceil(percentile / 100.0 * totalCount);
+            if (rank < 1)
+                rank = 1;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return histogram.getHighestValue(i);
+            }
+            return histogram.getHighestValue(counts.length - 1);
+        }
+
+        /**
+         * @return the highest value in the highest non-empty bucket, or 0
+         */
+        public long getMaxValue() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0)
+                    return histogram.getHighestValue(i);
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * @param subBucketBits log2 of the number of sub-buckets per power of two
+     * @param maxValueBits values up to 2^maxValueBits - 1 are distinguished
+     * @param numWindows the number of periods in the rolling window
+     * @param windowNs the length of one period in nanoseconds
+     * @param nowNs the current System.nanoTime()
+     */
+    public LatencyHistogram(int subBucketBits, int maxValueBits,
+                            int numWindows, long windowNs, long nowNs) {
+        if (subBucketBits < 1 || maxValueBits <= subBucketBits ||
+                maxValueBits > 62)
+            throw new IllegalArgumentException("Invalid histogram precision");
+        if (numWindows < 1 || windowNs < 1)
+            throw new IllegalArgumentException("Invalid histogram window");
+        this.subBucketBits = subBucketBits;
+        this.subBucketCount = 1 << subBucketBits;
+        this.maxValue = (1L << maxValueBits) - 1;
+        this.numBuckets = (maxValueBits - subBucketBits + 1) << subBucketBits;
+        this.windowNs = windowNs;
+        this.originNs = nowNs;
+        this.slots = new Slot[numWindows];
+        for (int i = 0; i < numWindows; i++)
+            slots[i] = new Slot(numBuckets);
+    }
+
+    /**
+     * Record a value
+     * @param value the value, e.g. a latency in nanoseconds
+     * @param nowNs the current System.nanoTime()
+     */
+    public void record(long value, long nowNs) {
+        long period = getPeriod(nowNs);
+        Slot slot = slots[(int) (period % slots.length)];
+        long slotPeriod = slot.period.get();
+        if (slotPeriod != period) {
+            if (slotPeriod > period) {
+                // a stale timestamp from a slow thread; the slot's been
+                // recycled already
+                return;
+            }
+            if (slot.period.compareAndSet(slotPeriod, period)) {
+                for (int i = 0; i < numBuckets; i++)
+                    slot.counts.set(i, 0);
+            }
+        }
+        slot.counts.incrementAndGet(getIndex(value));
+    }
+
+    /**
+     * Get the values recorded in the current rolling window
+     * @param nowNs the current System.nanoTime()
+     */
+    public Snapshot getSnapshot(long nowNs) {
+        long period = getPeriod(nowNs);
+        long[] counts = new long[numBuckets];
+        for (Slot slot : slots) {
+            long slotPeriod = slot.period.get();
+            if (slotPeriod < 0 || slotPeriod <= period - slots.length ||
+                    slotPeriod > period)
+                continue;
+            for (int i = 0; i < numBuckets; i++)
+                counts[i] += slot.counts.get(i);
+        }
+        return new Snapshot(this, counts);
+    }
+
+    /**
+     * @return whether nothing has been recorded in the current rolling
+     * window
+     */
+    public boolean isIdle(long nowNs) {
+        long period = getPeriod(nowNs);
+        for (Slot slot : slots) {
+            long slotPeriod = slot.period.get();
+            if (slotPeriod > period - slots.length)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the length of the rolling window in nanoseconds
+     */
+    public long getWindowNs() {
+        return windowNs * slots.length;
+    }
+
+    private long getPeriod(long nowNs) {
+        long elapsed = nowNs - originNs;
+        return (elapsed < 0) ? 0 : elapsed / windowNs;
+    }
+
+    int getIndex(long value) {
+        if (value < subBucketCount)
+            return (value < 0) ? 0 : (int) value;
+        if (value > maxValue)
+            value = maxValue;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketBits;
+        return ((shift + 1) << subBucketBits) +
+                (int) (value >>> shift) - subBucketCount;
+    }
+
+    long getHighestValue(int index) {
+        int bucket = index >>> subBucketBits;
+        long subBucket = index & (subBucketCount - 1);
+        if (bucket == 0)
+            return subBucket;
+        int shift = bucket - 1;
+        return ((subBucket + subBucketCount) << shift) + (1L << shift) - 1;
+    }
+}
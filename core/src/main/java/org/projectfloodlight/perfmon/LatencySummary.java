@@ -0,0 +1,86 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.perfmon;
+
+import org.projectfloodlight.db.data.annotation.BigDBProperty;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Latency percentiles of one packet-in listener or switch over the rolling
+ * window. All times in nanoseconds.
+ */
+public class LatencySummary {
+    private final String name;
+    private final long count;
+    private final long p50Ns;
+    private final long p99Ns;
+    private final long p999Ns;
+    private final long maxNs;
+
+    public LatencySummary(String name, LatencyHistogram.Snapshot snapshot) {
+        this.name = name;
+        this.count = snapshot.getTotalCount();
+        this.p50Ns = snapshot.getValueAtPercentile(50.0);
+        this.p99Ns = snapshot.getValueAtPercentile(99.0);
+        this.p999Ns = snapshot.getValueAtPercentile(99.9);
+        this.maxNs = snapshot.getMaxValue();
+    }
+
+    @JsonProperty("name")
+    @BigDBProperty("name")
+    public String getName() {
+        return name;
+    }
+
+    @JsonProperty("count")
+    @BigDBProperty("count")
+    public long getCount() {
+        return count;
+    }
+
+    @JsonProperty("p50-ns")
+    @BigDBProperty("p50-ns")
+    public long getP50Ns() {
+        return p50Ns;
+    }
+
+    @JsonProperty("p99-ns")
+    @BigDBProperty("p99-ns")
+    public long getP99Ns() {
+        return p99Ns;
+    }
+
+    @JsonProperty("p999-ns")
+    @BigDBProperty("p999-ns")
+    public long getP999Ns() {
+        return p999Ns;
+    }
+
+    @JsonProperty("max-ns")
+    @BigDBProperty("max-ns")
+    public long getMaxNs() {
+        return maxNs;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySummary [name=" + name + ", count=" + count +
+                ", p50Ns=" + p50Ns + ", p99Ns=" + p99Ns + ", p999Ns=" +
+                p999Ns + ", maxNs=" + maxNs + "]";
+    }
+}
@@ -18,6 +18,7 @@ package org.projectfloodlight.perfmon;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -121,4 +122,31 @@ public class NullPktInProcessingTime
     public CumulativeTimeBucket getCtb() {
         return ctb;
     }
+
+    @Override
+    public boolean isLatencyRecordingEnabled() {
+        return false;
+    }
+
+    @Override
+    public void recordListenerLatency(IOFMessageListener listener,
+                                      long procTimeNs, long nowNs) {
+
+    }
+
+    @Override
+    public void recordSwitchLatency(IOFSwitch sw, long procTimeNs,
+                                    long nowNs) {
+
+    }
+
+    @Override
+    public List<LatencySummary> getListenerLatencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<LatencySummary> getSwitchLatencies() {
+        return Collections.emptyList();
+    }
 }
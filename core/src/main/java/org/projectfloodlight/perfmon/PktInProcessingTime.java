@@ -22,8 +22,12 @@ package org.projectfloodlight.perfmon;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.openflow.protocol.OFMessage;
 import org.projectfloodlight.core.FloodlightContext;
@@ -35,6 +39,11 @@ import org.projectfloodlight.core.module.FloodlightModuleContext;
 import org.projectfloodlight.core.module.FloodlightModuleException;
 import org.projectfloodlight.core.module.IFloodlightModule;
 import org.projectfloodlight.core.module.IFloodlightService;
+import org.projectfloodlight.db.BigDBException;
+import org.projectfloodlight.db.IBigDBService;
+import org.projectfloodlight.db.data.ServerDataSource;
+import org.projectfloodlight.db.util.Path;
+import org.projectfloodlight.perfmon.bigdb.PacketInLatencyResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,6 +70,11 @@ import org.slf4j.LoggerFactory;
  * TOT_PROC_TIME_ALERT_THRESHOLD_US: same as above but an alert level
  *    syslog is generated instead
  * 
+ * Independently of the buckets above, which need to be enabled, latency
+ * histograms per listener and per switch are always recorded over a
+ * rolling window (see {@link LatencyHistogram}) unless the
+ * "latencyHistograms" module parameter is false. Their percentiles are
+ * available under /core/packet-in-latency in BigDB.
  */
 @LogMessageCategory("Performance Monitoring")
 public class PktInProcessingTime
@@ -93,6 +107,28 @@ public class PktInProcessingTime
     protected static final int ONE_BUCKET_DURATION_SECONDS = 10;// seconds
     protected static final long ONE_BUCKET_DURATION_NANOSECONDS  =
                                 ONE_BUCKET_DURATION_SECONDS * 1000000000;
+
+    /**
+     * Latency histograms keep LATENCY_NUM_WINDOWS periods of
+     * LATENCY_WINDOW_SECONDS each, i.e. the last minute. Listener
+     * percentiles are within 3%, switch percentiles within 12.5%, for
+     * latencies up to 2^36 ns (about a minute).
+     */
+    protected static final int LATENCY_WINDOW_SECONDS = 10;
+    protected static final int LATENCY_NUM_WINDOWS = 6;
+    protected static final int LISTENER_SUB_BUCKET_BITS = 5;
+    protected static final int SWITCH_SUB_BUCKET_BITS = 3;
+    protected static final int LATENCY_MAX_VALUE_BITS = 36;
+
+    protected IBigDBService bigDB;
+    protected boolean latencyHistograms = true;
+    // keyed by object rather than name or DPID so that recording makes
+    // no calls on the listener or switch
+    protected final ConcurrentMap<IOFMessageListener, LatencyHistogram>
+            listenerLatency =
+                new ConcurrentHashMap<IOFMessageListener, LatencyHistogram>();
+    protected final ConcurrentMap<IOFSwitch, LatencyHistogram> switchLatency =
+            new ConcurrentHashMap<IOFSwitch, LatencyHistogram>();
     
     @Override
     public void bootstrap(List<IOFMessageListener> listeners) {
@@ -161,6 +197,82 @@ public class PktInProcessingTime
         }
     }
     
+    @Override
+    public boolean isLatencyRecordingEnabled() {
+        return latencyHistograms;
+    }
+
+    @Override
+    public void recordListenerLatency(IOFMessageListener listener,
+                                      long procTimeNs, long nowNs) {
+        LatencyHistogram h = listenerLatency.get(listener);
+        if (h == null) {
+            h = newHistogram(LISTENER_SUB_BUCKET_BITS, nowNs);
+            LatencyHistogram old = listenerLatency.putIfAbsent(listener, h);
+            if (old != null)
+                h = old;
+        }
+        h.record(procTimeNs, nowNs);
+    }
+
+    @Override
+    public void recordSwitchLatency(IOFSwitch sw, long procTimeNs,
+                                    long nowNs) {
+        LatencyHistogram h = switchLatency.get(sw);
+        if (h == null) {
+            // a new switch; a good time to drop the ones that went away
+            removeIdleSwitches(nowNs);
+            h = newHistogram(SWITCH_SUB_BUCKET_BITS, nowNs);
+            LatencyHistogram old = switchLatency.putIfAbsent(sw, h);
+            if (old != null)
+                h = old;
+        }
+        h.record(procTimeNs, nowNs);
+    }
+
+    @Override
+    public List<LatencySummary> getListenerLatencies() {
+        long nowNs = System.nanoTime();
+        List<LatencySummary> result = new ArrayList<LatencySummary>();
+        for (Map.Entry<IOFMessageListener, LatencyHistogram> e :
+                listenerLatency.entrySet()) {
+            result.add(new LatencySummary(e.getKey().getName(),
+                                          e.getValue().getSnapshot(nowNs)));
+        }
+        return result;
+    }
+
+    @Override
+    public List<LatencySummary> getSwitchLatencies() {
+        long nowNs = System.nanoTime();
+        removeIdleSwitches(nowNs);
+        List<LatencySummary> result = new ArrayList<LatencySummary>();
+        for (Map.Entry<IOFSwitch, LatencyHistogram> e :
+                switchLatency.entrySet()) {
+            result.add(new LatencySummary(e.getKey().getStringId(),
+                                          e.getValue().getSnapshot(nowNs)));
+        }
+        return result;
+    }
+
+    /**
+     * Forget switches that have been quiet for the whole window, e.g.
+     * because they disconnected
+     */
+    private void removeIdleSwitches(long nowNs) {
+        Iterator<LatencyHistogram> it = switchLatency.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isIdle(nowNs))
+                it.remove();
+        }
+    }
+
+    private LatencyHistogram newHistogram(int subBucketBits, long nowNs) {
+        return new LatencyHistogram(subBucketBits, LATENCY_MAX_VALUE_BITS,
+                LATENCY_NUM_WINDOWS,
+                TimeUnit.SECONDS.toNanos(LATENCY_WINDOW_SECONDS), nowNs);
+    }
+
     // IFloodlightModule methods
     
     @Override
@@ -187,12 +299,18 @@ public class PktInProcessingTime
     public Collection<Class<? extends IFloodlightService>> getModuleDependencies() {
         Collection<Class<? extends IFloodlightService>> l = 
                 new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IBigDBService.class);
         return l;
     }
     
     @Override
     public void init(FloodlightModuleContext context)
                                              throws FloodlightModuleException {
+        bigDB = context.getServiceImpl(IBigDBService.class);
+        Map<String, String> configParams = context.getConfigParams(this);
+        String enabled = configParams.get("latencyHistograms");
+        if (enabled != null)
+            latencyHistograms = Boolean.parseBoolean(enabled);
     }
     
     @Override
@@ -210,5 +328,17 @@ public class PktInProcessingTime
             logger.info("Packet processing time threshold for warning" +
                     " set to {} ms.", ptWarningThresholdInNano/1000000);
         }
+
+        if (bigDB != null) {
+            try {
+                ServerDataSource controllerDataSource =
+                        bigDB.getControllerDataSource();
+                controllerDataSource.registerDynamicDataHooksFromObject(
+                        new Path("/core/packet-in-latency"),
+                        new PacketInLatencyResource(this));
+            } catch (BigDBException e) {
+                logger.error("Error attaching BigDB resources: ", e);
+            }
+        }
     }
 }
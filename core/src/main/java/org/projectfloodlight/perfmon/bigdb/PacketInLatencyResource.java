@@ -0,0 +1,48 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.perfmon.bigdb;
+
+import java.util.List;
+
+import org.projectfloodlight.db.data.annotation.BigDBPath;
+import org.projectfloodlight.db.data.annotation.BigDBQuery;
+import org.projectfloodlight.perfmon.IPktInProcessingTimeService;
+import org.projectfloodlight.perfmon.LatencySummary;
+
+/**
+ * BigDB resource for the packet-in latency percentiles kept by
+ * {@link IPktInProcessingTimeService}
+ */
+public class PacketInLatencyResource {
+    protected IPktInProcessingTimeService pktInProcessingTime;
+
+    public PacketInLatencyResource(IPktInProcessingTimeService pits) {
+        this.pktInProcessingTime = pits;
+    }
+
+    @BigDBQuery
+    @BigDBPath("listener")
+    public List<LatencySummary> getListenerLatencies() {
+        return pktInProcessingTime.getListenerLatencies();
+    }
+
+    @BigDBQuery
+    @BigDBPath("switch")
+    public List<LatencySummary> getSwitchLatencies() {
+        return pktInProcessingTime.getSwitchLatencies();
+    }
+}
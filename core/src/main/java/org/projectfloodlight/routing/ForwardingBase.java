@@ -20,6 +20,7 @@ package org.projectfloodlight.routing;
 import java.io.IOException;
 import java.util.EnumSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -541,6 +542,28 @@ public abstract class ForwardingBase
         return sw.updateBroadcastCache(hash, pi.getInPort());
     }
 
+    /**
+     * Hash the addresses, protocol and transport ports of a flow. Passed
+     * as the cookie of {@link IRoutingService#getRoute} so that flows
+     * between the same switches spread over the equal-cost routes, while
+     * every packet of one flow takes the same route.
+     * @param match the match loaded from a packet of the flow
+     * @return the hash
+     */
+    public static long getFlowHash(OFMatch match) {
+        long hash = 1;
+        hash = prime2 * hash + Arrays.hashCode(match.getDataLayerSource());
+        hash = prime2 * hash +
+               Arrays.hashCode(match.getDataLayerDestination());
+        hash = prime2 * hash + match.getDataLayerType();
+        hash = prime2 * hash + match.getNetworkSource();
+        hash = prime2 * hash + match.getNetworkDestination();
+        hash = prime2 * hash + match.getNetworkProtocol();
+        hash = prime2 * hash + match.getTransportSource();
+        hash = prime2 * hash + match.getTransportDestination();
+        return hash;
+    }
+
     @LogMessageDocs({
         @LogMessageDoc(level="ERROR",
             message="Failure writing deny flow mod",
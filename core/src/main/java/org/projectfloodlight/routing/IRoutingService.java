@@ -31,7 +31,9 @@ public interface IRoutingService extends IFloodlightService {
      * multiple routes.
      * @param src Source switch DPID.
      * @param dst Destination switch DPID.
-     * @param cookie cookie (usage determined by implementation; ignored by topology instance now).
+     * @param cookie cookie (usage determined by implementation; the topology
+     *        instance hashes it to pick one of the equal-cost routes, and
+     *        the route id of the result holds the index of that route).
      */
     public Route getRoute(long src, long dst, long cookie);
 
@@ -40,7 +42,9 @@ public interface IRoutingService extends IFloodlightService {
      *  not allow tunnels in the path.
      * @param src Source switch DPID.
      * @param dst Destination switch DPID.
-     * @param cookie cookie (usage determined by implementation; ignored by topology instance now).
+     * @param cookie cookie (usage determined by implementation; the topology
+     *        instance hashes it to pick one of the equal-cost routes, and
+     *        the route id of the result holds the index of that route).
      * @param tunnelEnabled boolean option.
      */
     public Route getRoute(long src, long dst, long cookie, boolean tunnelEnabled);
@@ -51,7 +55,9 @@ public interface IRoutingService extends IFloodlightService {
      * @param srcPort Source port on source switch.
      * @param dst Destination switch DPID.
      * @param dstPort dstPort on Destination switch.
-     * @param cookie cookie (usage determined by implementation; ignored by topology instance now).
+     * @param cookie cookie (usage determined by implementation; the topology
+     *        instance hashes it to pick one of the equal-cost routes, and
+     *        the route id of the result holds the index of that route).
      */
     public Route getRoute(long srcId, short srcPort,
                              long dstId, short dstPort, long cookie);
@@ -62,7 +68,9 @@ public interface IRoutingService extends IFloodlightService {
      * @param srcPort Source port on source switch.
      * @param dst Destination switch DPID.
      * @param dstPort dstPort on Destination switch.
-     * @param cookie cookie (usage determined by implementation; ignored by topology instance now).
+     * @param cookie cookie (usage determined by implementation; the topology
+     *        instance hashes it to pick one of the equal-cost routes, and
+     *        the route id of the result holds the index of that route).
      * @param tunnelEnabled boolean option.
      */
     public Route getRoute(long srcId, short srcPort,
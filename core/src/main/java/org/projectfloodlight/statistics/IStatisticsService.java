@@ -0,0 +1,70 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.statistics;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.projectfloodlight.core.module.IFloodlightService;
+import org.projectfloodlight.perfmon.LatencySummary;
+
+/**
+ * Collects statistics from the switches on behalf of all consumers. The
+ * switches are polled on a schedule, a query that is identical to one in
+ * progress shares its result instead of being sent again, and only a
+ * bounded number of switches are queried at the same time.
+ *
+ * The results of the scheduled polls and of {@link #getStatistics} are
+ * kept in a cache, so consumers that can use slightly old statistics
+ * don't need to query the switch at all.
+ */
+public interface IStatisticsService extends IFloodlightService {
+    /**
+     * Query the statistics of the given type of all flows, ports or queues
+     * of a switch. The result is also stored in the cache.
+     * @return a future for the statistics, which fails if the switch
+     * disconnects or doesn't reply in time
+     */
+    public Future<List<OFStatistics>> getStatistics(long switchId,
+                                                    OFStatisticsType type);
+
+    /**
+     * Send a statistics request to a switch. The transaction id of the
+     * request is overwritten.
+     * @return a future for the statistics, which fails if the switch
+     * disconnects or doesn't reply in time
+     */
+    public Future<List<OFStatistics>> queryStatistics(long switchId,
+                                                      OFStatisticsRequest request);
+
+    /**
+     * @return the last statistics of the given type collected from the
+     * switch, or null if there are none
+     */
+    public StatsSnapshot getCachedStatistics(long switchId,
+                                             OFStatisticsType type);
+
+    /**
+     * @return the time taken to collect statistics from the switch, from
+     * sending the request to receiving the last reply, over the recent
+     * collections, or null if the switch is unknown
+     */
+    public LatencySummary getCollectionLatency(long switchId);
+}
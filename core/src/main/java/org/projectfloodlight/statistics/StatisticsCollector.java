@@ -0,0 +1,677 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.statistics;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.openflow.util.HexString;
+import org.projectfloodlight.core.FloodlightContext;
+import org.projectfloodlight.core.IFloodlightProviderService;
+import org.projectfloodlight.core.IOFMessageListener;
+import org.projectfloodlight.core.IOFSwitch;
+import org.projectfloodlight.core.IOFSwitchListener;
+import org.projectfloodlight.core.ImmutablePort;
+import org.projectfloodlight.core.SwitchStatistics;
+import org.projectfloodlight.core.IOFSwitch.PortChangeType;
+import org.projectfloodlight.core.annotations.LogMessageDoc;
+import org.projectfloodlight.core.module.FloodlightModuleContext;
+import org.projectfloodlight.core.module.FloodlightModuleException;
+import org.projectfloodlight.core.module.IFloodlightModule;
+import org.projectfloodlight.core.module.IFloodlightService;
+import org.projectfloodlight.core.util.SingletonTask;
+import org.projectfloodlight.debugcounter.IDebugCounter;
+import org.projectfloodlight.debugcounter.IDebugCounterService;
+import org.projectfloodlight.debugcounter.NullDebugCounter;
+import org.projectfloodlight.debugcounter.IDebugCounterService.CounterException;
+import org.projectfloodlight.debugcounter.IDebugCounterService.CounterType;
+import org.projectfloodlight.perfmon.LatencyHistogram;
+import org.projectfloodlight.perfmon.LatencySummary;
+import org.projectfloodlight.threadpool.IThreadPoolService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Collects statistics from the switches for all consumers.
+ *
+ * Each distinct request (a switch and the request body) is in progress at
+ * most once, and identical requests made meanwhile get the same future.
+ * A switch has at most one request outstanding, and at most
+ * "maxConcurrentSwitches" switches are queried at the same time; other
+ * requests wait in a per-switch queue. The reply parts of a multi-part
+ * reply are appended to the collection as they arrive, and the collection
+ * is published to the cache as a new version when the last part arrives.
+ *
+ * Every "pollIntervalSeconds" the statistics of the "pollTypes" types
+ * (a comma separated list, e.g. "port,table,flow") are collected from all
+ * switches. Requests that get no complete reply within "timeoutSeconds"
+ * fail.
+ */
+public class StatisticsCollector implements IFloodlightModule,
+        IStatisticsService, IOFMessageListener, IOFSwitchListener {
+    protected static final Logger log =
+            LoggerFactory.getLogger(StatisticsCollector.class);
+
+    public static final String PACKAGE =
+            StatisticsCollector.class.getPackage().getName();
+    protected static final int DEFAULT_POLL_INTERVAL_SECONDS = 10;
+    protected static final int DEFAULT_MAX_CONCURRENT_SWITCHES = 16;
+    protected static final int DEFAULT_TIMEOUT_SECONDS = 10;
+    protected static final String DEFAULT_POLL_TYPES = "port,table,aggregate";
+    protected static final int TICK_INTERVAL_MS = 1000;
+
+    /**
+     * Latency histograms keep LATENCY_NUM_WINDOWS periods of
+     * LATENCY_WINDOW_SECONDS each, i.e. the last five minutes
+     */
+    protected static final int LATENCY_WINDOW_SECONDS = 60;
+    protected static final int LATENCY_NUM_WINDOWS = 5;
+    protected static final int LATENCY_SUB_BUCKET_BITS = 3;
+    protected static final int LATENCY_MAX_VALUE_BITS = 40;
+
+    protected IFloodlightProviderService floodlightProvider;
+    protected IThreadPoolService threadPool;
+    protected IDebugCounterService debugCounters;
+    protected IDebugCounter ctrQueries;
+    protected IDebugCounter ctrCoalesced;
+    protected IDebugCounter ctrTimeouts;
+
+    protected long pollIntervalNs =
+            TimeUnit.SECONDS.toNanos(DEFAULT_POLL_INTERVAL_SECONDS);
+    protected Set<OFStatisticsType> pollTypes =
+            parsePollTypes(DEFAULT_POLL_TYPES);
+    protected int maxConcurrentSwitches = DEFAULT_MAX_CONCURRENT_SWITCHES;
+    protected long timeoutNs =
+            TimeUnit.SECONDS.toNanos(DEFAULT_TIMEOUT_SECONDS);
+
+    protected SingletonTask tickTask;
+    protected long lastPollNs;
+
+    /** The collections in progress or waiting, by request. Guarded by this */
+    protected final Map<RequestKey, StatsCollection> collections =
+            new HashMap<RequestKey, StatsCollection>();
+    /** The queues of the switches. Guarded by this */
+    protected final Map<Long, SwitchQueue> queues =
+            new HashMap<Long, SwitchQueue>();
+    /**
+     * The switches with waiting collections and none in progress, in the
+     * order they get a slot. Guarded by this
+     */
+    protected final Queue<SwitchQueue> ready = new ArrayDeque<SwitchQueue>();
+    /** The number of collections in progress. Guarded by this */
+    protected int inProgress;
+
+    protected final ConcurrentMap<Long, ConcurrentMap<OFStatisticsType,
+                                                     StatsSnapshot>> cache =
+            new ConcurrentHashMap<Long, ConcurrentMap<OFStatisticsType,
+                                                     StatsSnapshot>>();
+    protected final ConcurrentMap<Long, LatencyHistogram> latencies =
+            new ConcurrentHashMap<Long, LatencyHistogram>();
+    protected final AtomicLong versions = new AtomicLong();
+
+    /**
+     * A switch and a request body without the transaction id
+     */
+    protected static class RequestKey {
+        protected final long switchId;
+        protected final byte[] body;
+
+        protected RequestKey(long switchId, OFStatisticsRequest request) {
+            this.switchId = switchId;
+            ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+            request.writeTo(buf);
+            body = new byte[buf.readableBytes()];
+            buf.readBytes(body);
+            // the transaction id is bytes 4 to 7 of the header
+            Arrays.fill(body, 4, Math.min(8, body.length), (byte) 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (switchId ^ (switchId >>> 32)) +
+                    Arrays.hashCode(body);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof RequestKey)) return false;
+            RequestKey other = (RequestKey) obj;
+            return switchId == other.switchId &&
+                    Arrays.equals(body, other.body);
+        }
+    }
+
+    /**
+     * One request to a switch and the statistics received so far
+     */
+    protected static class StatsCollection {
+        protected final RequestKey key;
+        protected final OFStatisticsRequest request;
+        /** The type to cache the result under, or null not to cache it */
+        protected final OFStatisticsType cacheType;
+        protected final SettableFuture<List<OFStatistics>> future =
+                SettableFuture.create();
+        protected final List<OFStatistics> statistics =
+                new ArrayList<OFStatistics>();
+        protected IOFSwitch sw;
+        protected int xid;
+        protected long startNs;
+
+        protected StatsCollection(RequestKey key,
+                                  OFStatisticsRequest request,
+                                  OFStatisticsType cacheType) {
+            this.key = key;
+            this.request = request;
+            this.cacheType = cacheType;
+        }
+    }
+
+    /**
+     * The collections of one switch
+     */
+    protected static class SwitchQueue {
+        protected final long switchId;
+        protected final Queue<StatsCollection> waiting =
+                new ArrayDeque<StatsCollection>();
+        protected StatsCollection current;
+        protected boolean isReady;
+
+        protected SwitchQueue(long switchId) {
+            this.switchId = switchId;
+        }
+    }
+
+    protected static Set<OFStatisticsType> parsePollTypes(String types) {
+        Set<OFStatisticsType> result = EnumSet.noneOf(OFStatisticsType.class);
+        for (String type : types.split(",")) {
+            type = type.trim();
+            if (type.isEmpty()) continue;
+            result.add(OFStatisticsType.valueOf(type.toUpperCase()));
+        }
+        return result;
+    }
+
+    // *****************
+    // IStatisticsService
+    // *****************
+
+    @Override
+    public Future<List<OFStatistics>> getStatistics(long switchId,
+                                                    OFStatisticsType type) {
+        return submit(switchId, SwitchStatistics.buildStatisticsRequest(type),
+                      type);
+    }
+
+    @Override
+    public Future<List<OFStatistics>> queryStatistics(long switchId,
+                                                      OFStatisticsRequest request) {
+        return submit(switchId, request, null);
+    }
+
+    @Override
+    public StatsSnapshot getCachedStatistics(long switchId,
+                                             OFStatisticsType type) {
+        Map<OFStatisticsType, StatsSnapshot> m = cache.get(switchId);
+        return (m == null) ? null : m.get(type);
+    }
+
+    @Override
+    public LatencySummary getCollectionLatency(long switchId) {
+        LatencyHistogram h = latencies.get(switchId);
+        if (h == null)
+            return null;
+        return new LatencySummary(HexString.toHexString(switchId),
+                                  h.getSnapshot(System.nanoTime()));
+    }
+
+    // *****************
+    // Collection
+    // *****************
+
+    /**
+     * Queue a request, or join the identical request already queued
+     */
+    protected Future<List<OFStatistics>> submit(long switchId,
+                                                OFStatisticsRequest request,
+                                                OFStatisticsType cacheType) {
+        RequestKey key = new RequestKey(switchId, request);
+        StatsCollection c;
+        List<StatsCollection> started;
+        synchronized (this) {
+            c = collections.get(key);
+            if (c != null) {
+                ctrCoalesced.updateCounterNoFlush();
+                return c.future;
+            }
+            c = new StatsCollection(key, request, cacheType);
+            collections.put(key, c);
+            SwitchQueue q = queues.get(switchId);
+            if (q == null) {
+                q = new SwitchQueue(switchId);
+                queues.put(switchId, q);
+            }
+            q.waiting.add(c);
+            makeReady(q);
+            started = startCollections();
+        }
+        send(started);
+        return c.future;
+    }
+
+    private void makeReady(SwitchQueue q) {
+        if (q.current == null && !q.isReady && !q.waiting.isEmpty()) {
+            q.isReady = true;
+            ready.add(q);
+        }
+    }
+
+    /**
+     * Start waiting collections while there are free slots. Called with
+     * the lock held; the requests are sent by {@link #send} without it.
+     * @return the started collections
+     */
+    private List<StatsCollection> startCollections() {
+        List<StatsCollection> started = Collections.emptyList();
+        long now = System.nanoTime();
+        while (inProgress < maxConcurrentSwitches && !ready.isEmpty()) {
+            SwitchQueue q = ready.poll();
+            q.isReady = false;
+            StatsCollection c = q.waiting.poll();
+            if (c == null)
+                continue;
+            IOFSwitch sw = floodlightProvider.getSwitch(q.switchId);
+            if (sw == null) {
+                collections.remove(c.key);
+                c.future.setException(new IOException("Switch " +
+                        HexString.toHexString(q.switchId) +
+                        " is not connected"));
+                makeReady(q);
+                continue;
+            }
+            c.sw = sw;
+            c.xid = sw.getNextTransactionId();
+            c.startNs = now;
+            q.current = c;
+            inProgress++;
+            if (started.isEmpty())
+                started = new ArrayList<StatsCollection>();
+            started.add(c);
+        }
+        return started;
+    }
+
+    @LogMessageDoc(level="ERROR",
+            message="Failure sending statistics request to switch {switch}",
+            explanation="An error occurred while sending a statistics " +
+                    "request to the switch",
+            recommendation=LogMessageDoc.CHECK_SWITCH)
+    private void send(List<StatsCollection> started) {
+        for (StatsCollection c : started) {
+            ctrQueries.updateCounterNoFlush();
+            try {
+                c.sw.sendStatsQuery(c.request, c.xid, this);
+                c.sw.flush();
+            } catch (IOException e) {
+                log.error("Failure sending statistics request to switch " +
+                          c.sw, e);
+                finish(c, e);
+            }
+        }
+    }
+
+    /**
+     * End a collection in progress and start the next ones
+     * @param error the reason the collection failed, or null if it
+     * succeeded
+     */
+    protected void finish(StatsCollection c, Throwable error) {
+        List<StatsCollection> started;
+        synchronized (this) {
+            SwitchQueue q = queues.get(c.key.switchId);
+            if (q == null || q.current != c)
+                return;
+            q.current = null;
+            inProgress--;
+            collections.remove(c.key);
+            makeReady(q);
+            started = startCollections();
+        }
+        c.sw.cancelStatisticsReply(c.xid);
+        if (error != null) {
+            c.future.setException(error);
+        } else {
+            long now = System.nanoTime();
+            getLatencyHistogram(c.key.switchId).record(now - c.startNs, now);
+            List<OFStatistics> result =
+                    Collections.unmodifiableList(c.statistics);
+            if (c.cacheType != null)
+                publish(c.key.switchId, c.cacheType, result);
+            c.future.set(result);
+        }
+        send(started);
+    }
+
+    private void publish(long switchId, OFStatisticsType type,
+                         List<OFStatistics> statistics) {
+        ConcurrentMap<OFStatisticsType, StatsSnapshot> m = cache.get(switchId);
+        if (m == null) {
+            m = new ConcurrentHashMap<OFStatisticsType, StatsSnapshot>();
+            ConcurrentMap<OFStatisticsType, StatsSnapshot> old =
+                    cache.putIfAbsent(switchId, m);
+            if (old != null)
+                m = old;
+        }
+        m.put(type, new StatsSnapshot(switchId, type,
+                                      versions.incrementAndGet(),
+                                      System.currentTimeMillis(), statistics));
+    }
+
+    private LatencyHistogram getLatencyHistogram(long switchId) {
+        LatencyHistogram h = latencies.get(switchId);
+        if (h == null) {
+            h = new LatencyHistogram(LATENCY_SUB_BUCKET_BITS,
+                    LATENCY_MAX_VALUE_BITS, LATENCY_NUM_WINDOWS,
+                    TimeUnit.SECONDS.toNanos(LATENCY_WINDOW_SECONDS),
+                    System.nanoTime());
+            LatencyHistogram old = latencies.putIfAbsent(switchId, h);
+            if (old != null)
+                h = old;
+        }
+        return h;
+    }
+
+    /**
+     * Fail the collections that took longer than the timeout
+     */
+    protected void expireCollections(long nowNs) {
+        List<StatsCollection> expired = new ArrayList<StatsCollection>();
+        synchronized (this) {
+            for (SwitchQueue q : queues.values()) {
+                StatsCollection c = q.current;
+                if (c != null && nowNs - c.startNs > timeoutNs)
+                    expired.add(c);
+            }
+        }
+        for (StatsCollection c : expired) {
+            ctrTimeouts.updateCounterNoFlush();
+            if (log.isDebugEnabled()) {
+                log.debug("Statistics request to switch {} timed out",
+                          HexString.toHexString(c.key.switchId));
+            }
+            finish(c, new TimeoutException("No statistics reply from " +
+                    "switch " + HexString.toHexString(c.key.switchId)));
+        }
+    }
+
+    /**
+     * Queue the scheduled collections of all switches
+     */
+    protected void pollSwitches() {
+        for (long switchId : floodlightProvider.getAllSwitchDpids()) {
+            for (OFStatisticsType type : pollTypes)
+                getStatistics(switchId, type);
+        }
+    }
+
+    protected void tick() {
+        long now = System.nanoTime();
+        expireCollections(now);
+        if (pollIntervalNs > 0 && now - lastPollNs >= pollIntervalNs) {
+            lastPollNs = now;
+            pollSwitches();
+        }
+    }
+
+    // *****************
+    // IOFMessageListener
+    // *****************
+
+    @Override
+    public String getName() {
+        return "statisticscollector";
+    }
+
+    @Override
+    public boolean isCallbackOrderingPrereq(OFType type, String name) {
+        return false;
+    }
+
+    @Override
+    public boolean isCallbackOrderingPostreq(OFType type, String name) {
+        return false;
+    }
+
+    /**
+     * Called with each part of the replies to our requests
+     */
+    @Override
+    public Command receive(IOFSwitch sw, OFMessage msg,
+                           FloodlightContext cntx) {
+        if (msg.getType() != OFType.STATS_REPLY)
+            return Command.CONTINUE;
+        OFStatisticsReply reply = (OFStatisticsReply) msg;
+        StatsCollection c;
+        synchronized (this) {
+            SwitchQueue q = queues.get(sw.getId());
+            c = (q == null) ? null : q.current;
+            if (c == null || c.xid != reply.getXid())
+                return Command.CONTINUE;
+            c.statistics.addAll(reply.getStatistics());
+            // more parts follow if the OFPSF_REPLY_MORE flag is set
+            if ((reply.getFlags() & 0x1) != 0)
+                return Command.CONTINUE;
+        }
+        finish(c, null);
+        return Command.CONTINUE;
+    }
+
+    // *****************
+    // IOFSwitchListener
+    // *****************
+
+    @Override
+    public void switchAdded(long switchId) {
+        // no-op
+    }
+
+    @Override
+    public void switchRemoved(long switchId) {
+        List<StatsCollection> failed = new ArrayList<StatsCollection>();
+        List<StatsCollection> started;
+        synchronized (this) {
+            SwitchQueue q = queues.remove(switchId);
+            if (q != null) {
+                if (q.current != null) {
+                    failed.add(q.current);
+                    inProgress--;
+                }
+                failed.addAll(q.waiting);
+                ready.remove(q);
+                for (StatsCollection c : failed)
+                    collections.remove(c.key);
+            }
+            started = startCollections();
+        }
+        cache.remove(switchId);
+        latencies.remove(switchId);
+        for (StatsCollection c : failed) {
+            c.future.setException(new IOException("Switch " +
+                    HexString.toHexString(switchId) + " disconnected"));
+        }
+        send(started);
+    }
+
+    @Override
+    public void switchActivated(long switchId) {
+        // no-op
+    }
+
+    @Override
+    public void switchPortChanged(long switchId, ImmutablePort port,
+                                  PortChangeType type) {
+        // no-op
+    }
+
+    @Override
+    public void switchChanged(long switchId) {
+        // no-op
+    }
+
+    // *****************
+    // IFloodlightModule
+    // *****************
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleServices() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IStatisticsService.class);
+        return l;
+    }
+
+    @Override
+    public Map<Class<? extends IFloodlightService>, IFloodlightService>
+            getServiceImpls() {
+        Map<Class<? extends IFloodlightService>, IFloodlightService> m =
+                new HashMap<Class<? extends IFloodlightService>,
+                            IFloodlightService>();
+        m.put(IStatisticsService.class, this);
+        return m;
+    }
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>>
+            getModuleDependencies() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IFloodlightProviderService.class);
+        l.add(IThreadPoolService.class);
+        l.add(IDebugCounterService.class);
+        return l;
+    }
+
+    @Override
+    public void init(FloodlightModuleContext context)
+            throws FloodlightModuleException {
+        floodlightProvider =
+                context.getServiceImpl(IFloodlightProviderService.class);
+        threadPool = context.getServiceImpl(IThreadPoolService.class);
+        debugCounters = context.getServiceImpl(IDebugCounterService.class);
+
+        Map<String, String> configParams = context.getConfigParams(this);
+        try {
+            String option = configParams.get("pollIntervalSeconds");
+            if (option != null)
+                pollIntervalNs =
+                        TimeUnit.SECONDS.toNanos(Integer.parseInt(option));
+            option = configParams.get("maxConcurrentSwitches");
+            if (option != null)
+                maxConcurrentSwitches = Integer.parseInt(option);
+            option = configParams.get("timeoutSeconds");
+            if (option != null)
+                timeoutNs = TimeUnit.SECONDS.toNanos(Integer.parseInt(option));
+            option = configParams.get("pollTypes");
+            if (option != null)
+                pollTypes = parsePollTypes(option);
+        } catch (IllegalArgumentException e) {
+            throw new FloodlightModuleException("Invalid statistics " +
+                    "collector configuration: " + e.getMessage(), e);
+        }
+        if (maxConcurrentSwitches < 1)
+            throw new FloodlightModuleException("maxConcurrentSwitches " +
+                    "must be positive");
+        registerDebugCounters();
+    }
+
+    private void registerDebugCounters() throws FloodlightModuleException {
+        if (debugCounters == null) {
+            log.error("Debug Counter Service not found.");
+            debugCounters = new NullDebugCounter();
+        }
+        try {
+            ctrQueries = debugCounters.registerCounter(PACKAGE,
+                "stats-queries",
+                "Statistics requests sent to switches",
+                CounterType.ALWAYS_COUNT);
+            ctrCoalesced = debugCounters.registerCounter(PACKAGE,
+                "stats-queries-coalesced",
+                "Statistics requests answered by an identical request " +
+                "already in progress",
+                CounterType.ALWAYS_COUNT);
+            ctrTimeouts = debugCounters.registerCounter(PACKAGE,
+                "stats-queries-timed-out",
+                "Statistics requests that got no complete reply in time",
+                CounterType.ALWAYS_COUNT, IDebugCounterService.CTR_MDATA_WARN);
+        } catch (CounterException e) {
+            throw new FloodlightModuleException(e.getMessage());
+        }
+    }
+
+    @Override
+    @LogMessageDoc(level="ERROR",
+            message="Exception in statistics collection timer",
+            explanation="An unknown error occurred while polling switches " +
+                    "for statistics or expiring unanswered requests. " +
+                    "Collection continues on the next tick.",
+            recommendation=LogMessageDoc.GENERIC_ACTION)
+    public void startUp(FloodlightModuleContext context) {
+        floodlightProvider.addOFSwitchListener(this);
+        lastPollNs = System.nanoTime();
+        tickTask = new SingletonTask(threadPool.getScheduledExecutor(),
+                                     new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (Exception e) {
+                    log.error("Exception in statistics collection timer", e);
+                } finally {
+                    tickTask.reschedule(TICK_INTERVAL_MS,
+                                        TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+        tickTask.reschedule(TICK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+}
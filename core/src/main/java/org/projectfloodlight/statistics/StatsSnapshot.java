@@ -0,0 +1,72 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.statistics;
+
+import java.util.List;
+
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+
+/**
+ * The statistics of one type collected from a switch in one query.
+ * Versions increase with each collection, so a consumer can tell whether
+ * the statistics changed since it last looked.
+ */
+public class StatsSnapshot {
+    private final long switchId;
+    private final OFStatisticsType type;
+    private final long version;
+    private final long timestamp;
+    private final List<OFStatistics> statistics;
+
+    /**
+     * @param timestamp the time the last reply was received, in
+     * milliseconds since the epoch
+     * @param statistics the statistics, which must not be modified
+     */
+    public StatsSnapshot(long switchId, OFStatisticsType type, long version,
+                         long timestamp, List<OFStatistics> statistics) {
+        this.switchId = switchId;
+        this.type = type;
+        this.version = version;
+        this.timestamp = timestamp;
+        this.statistics = statistics;
+    }
+
+    public long getSwitchId() {
+        return switchId;
+    }
+
+    public OFStatisticsType getType() {
+        return type;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return an unmodifiable list of the statistics
+     */
+    public List<OFStatistics> getStatistics() {
+        return statistics;
+    }
+}
@@ -51,6 +51,8 @@ import org.projectfloodlight.sync.thrift.PutRequestMessage;
 import org.projectfloodlight.sync.thrift.PutResponseMessage;
 import org.projectfloodlight.sync.thrift.RegisterRequestMessage;
 import org.projectfloodlight.sync.thrift.RegisterResponseMessage;
+import org.projectfloodlight.sync.thrift.SyncDigestMessage;
+import org.projectfloodlight.sync.thrift.SyncDigestResponseMessage;
 import org.projectfloodlight.sync.thrift.SyncError;
 import org.projectfloodlight.sync.thrift.SyncMessage;
 import org.projectfloodlight.sync.thrift.SyncOfferMessage;
@@ -310,6 +312,12 @@ public abstract class AbstractRPCChannelHandler
             case SYNC_REQUEST:
                 handleSyncRequest(bsm.getSyncRequest(), channel);
                 break;
+            case SYNC_DIGEST:
+                handleSyncDigest(bsm.getSyncDigest(), channel);
+                break;
+            case SYNC_DIGEST_RESPONSE:
+                handleSyncDigestResponse(bsm.getSyncDigestResponse(), channel);
+                break;
             case CURSOR_REQUEST:
                 handleCursorRequest(bsm.getCursorRequest(), channel);
                 break;
@@ -496,6 +504,18 @@ public abstract class AbstractRPCChannelHandler
                           MessageType.SYNC_REQUEST, channel);
     }
 
+    protected void handleSyncDigest(SyncDigestMessage message,
+                                    Channel channel) {
+        unexpectedMessage(message.getHeader().getTransactionId(),
+                          MessageType.SYNC_DIGEST, channel);
+    }
+
+    protected void handleSyncDigestResponse(SyncDigestResponseMessage response,
+                                            Channel channel) {
+        unexpectedMessage(response.getHeader().getTransactionId(),
+                          MessageType.SYNC_DIGEST_RESPONSE, channel);
+    }
+
     protected void handleFullSyncRequest(FullSyncRequestMessage request,
                                          Channel channel) {
         unexpectedMessage(request.getHeader().getTransactionId(),
@@ -52,6 +52,8 @@ import org.projectfloodlight.sync.thrift.PutRequestMessage;
 import org.projectfloodlight.sync.thrift.PutResponseMessage;
 import org.projectfloodlight.sync.thrift.RegisterRequestMessage;
 import org.projectfloodlight.sync.thrift.RegisterResponseMessage;
+import org.projectfloodlight.sync.thrift.SyncDigestMessage;
+import org.projectfloodlight.sync.thrift.SyncDigestResponseMessage;
 import org.projectfloodlight.sync.thrift.SyncMessage;
 import org.projectfloodlight.sync.thrift.SyncOfferMessage;
 import org.projectfloodlight.sync.thrift.SyncRequestMessage;
@@ -398,6 +400,43 @@ public class RPCChannelHandler extends AbstractRPCChannelHandler {
         }
     }
 
+    @Override
+    protected void handleSyncDigest(final SyncDigestMessage request,
+                                    final Channel channel) {
+        // Building the digest tree for a store may require a scan of the
+        // store, so keep it off the I/O thread
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SyncMessage bsm =
+                            syncManager.handleSyncDigest(request);
+                    channel.write(bsm);
+                } catch (Exception e) {
+                    channel.write(getError(request.getHeader().
+                                           getTransactionId(),
+                                           e, MessageType.SYNC_DIGEST));
+                }
+            }
+        };
+        syncManager.getThreadPool().getScheduledExecutor().execute(task);
+    }
+
+    @Override
+    protected void handleSyncDigestResponse(final SyncDigestResponseMessage response,
+                                            Channel channel) {
+        // Sending the resulting offers can block on the message window
+        final Short nodeId = getRemoteNodeId();
+        if (nodeId == null) return;
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                syncManager.handleSyncDigestResponse(nodeId, response);
+            }
+        };
+        syncManager.getThreadPool().getScheduledExecutor().execute(task);
+    }
+
     @Override
     protected void handleFullSyncRequest(FullSyncRequestMessage request,
                                          Channel channel) {
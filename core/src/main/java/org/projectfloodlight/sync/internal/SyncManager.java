@@ -51,11 +51,17 @@ import org.projectfloodlight.sync.internal.config.SyncStoreCCProvider;
 import org.projectfloodlight.sync.internal.store.IStorageEngine;
 import org.projectfloodlight.sync.internal.store.IStore;
 import org.projectfloodlight.sync.internal.store.MappingStoreListener;
+import org.projectfloodlight.sync.internal.store.MerkleTree;
 import org.projectfloodlight.sync.internal.store.SynchronizingStorageEngine;
 import org.projectfloodlight.sync.internal.util.ByteArray;
 import org.projectfloodlight.sync.internal.version.VectorClock;
+import org.projectfloodlight.sync.thrift.AsyncMessageHeader;
+import org.projectfloodlight.sync.thrift.DigestRange;
 import org.projectfloodlight.sync.thrift.KeyedValues;
 import org.projectfloodlight.sync.thrift.KeyedVersions;
+import org.projectfloodlight.sync.thrift.MessageType;
+import org.projectfloodlight.sync.thrift.SyncDigestMessage;
+import org.projectfloodlight.sync.thrift.SyncDigestResponseMessage;
 import org.projectfloodlight.sync.thrift.SyncMessage;
 import org.projectfloodlight.sync.thrift.SyncOfferMessage;
 import org.projectfloodlight.sync.thrift.SyncValueMessage;
@@ -105,6 +111,17 @@ public class SyncManager extends AbstractSyncManager {
      */
     private static final int ANTIENTROPY_INTERVAL = 5 * 60;
 
+    /**
+     * Number of child ranges a mismatching digest range is split into
+     */
+    private static final int DIGEST_FANOUT = 16;
+
+    /**
+     * Mismatching digest ranges with at most this many keys are offered
+     * directly instead of being split further
+     */
+    private static final int DIGEST_MIN_KEYS = 50;
+
     /**
      * Interval between configuration rescans
      */
@@ -153,6 +170,13 @@ public class SyncManager extends AbstractSyncManager {
      */
     private boolean persistenceEnabled = true;
 
+    /**
+     * Whether antientropy compares store digests first and only offers
+     * the keys in ranges that differ.  All nodes in the cluster must
+     * support the digest messages.
+     */
+    private boolean merkleAntientropy = false;
+
     // **************
     // Debug Counters
     // **************
@@ -165,6 +189,9 @@ public class SyncManager extends AbstractSyncManager {
     protected IDebugCounter counterIterators;
     protected IDebugCounter counterErrorRemote;
     protected IDebugCounter counterErrorProcessing;
+    protected IDebugCounter counterDigestMessages;
+    protected IDebugCounter counterDigestKeysOffered;
+    protected IDebugCounter counterDigestBytesSaved;
 
     // ************
     // ISyncService
@@ -232,7 +259,21 @@ public class SyncManager extends AbstractSyncManager {
                 continue;
             }
 
-            
+            if (merkleAntientropy) {
+                try {
+                    MerkleTree tree = store.getMerkleTree();
+                    List<DigestRange> ranges = new ArrayList<DigestRange>();
+                    splitRange(tree, 0, tree.getLeafCount(), ranges);
+                    sendSyncDigest(node.getNodeId(), store, ranges);
+                } catch (SyncException e) {
+                    throw new SyncRuntimeException(e);
+                } catch (InterruptedException e) {
+                    // This can't really happen
+                    throw new RuntimeException(e);
+                }
+                continue;
+            }
+
             try (IClosableIterator<Entry<ByteArray,
                     List<Versioned<byte[]>>>> entries = store.entries()) {
                 SyncMessage bsm =
@@ -334,6 +375,86 @@ public class SyncManager extends AbstractSyncManager {
         return false;
     }
 
+    /**
+     * Compute the local digests for the ranges in a digest message
+     * from another node
+     * @param request the digest message
+     * @return a {@link SyncMessage} containing the digest response
+     * @throws SyncException
+     */
+    public SyncMessage handleSyncDigest(SyncDigestMessage request)
+            throws SyncException {
+        SynchronizingStorageEngine store =
+                storeRegistry.get(request.getStore().getStoreName());
+        // An unknown store is empty
+        MerkleTree tree = (store == null) ? null : store.getMerkleTree();
+
+        SyncDigestResponseMessage sdrm = new SyncDigestResponseMessage();
+        AsyncMessageHeader header = new AsyncMessageHeader();
+        header.setTransactionId(request.getHeader().getTransactionId());
+        sdrm.setHeader(header);
+        sdrm.setStore(request.getStore());
+        if (request.isSetRanges()) {
+            for (DigestRange r : request.getRanges()) {
+                long digest = (tree == null) ? 0 :
+                    tree.getDigest(r.getStart(), r.getEnd());
+                sdrm.addToRanges(new DigestRange(r.getStart(), r.getEnd(),
+                                                 digest));
+            }
+        }
+
+        SyncMessage bsm = new SyncMessage(MessageType.SYNC_DIGEST_RESPONSE);
+        bsm.setSyncDigestResponse(sdrm);
+        return bsm;
+    }
+
+    /**
+     * Compare the digests reported by another node with the local
+     * digests.  Matching ranges are done; small mismatching ranges are
+     * offered to the node and larger ones are split and compared again.
+     * @param nodeId the node that sent the response
+     * @param response the digest response
+     */
+    @LogMessageDoc(level="ERROR",
+            message="[{id}->{id}] Failed to process digest for store {store}",
+            explanation="Failed to synchronize state between two nodes",
+            recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
+    public void handleSyncDigestResponse(short nodeId,
+                                         SyncDigestResponseMessage response) {
+        String storeName = response.getStore().getStoreName();
+        SynchronizingStorageEngine store = storeRegistry.get(storeName);
+        if (store == null || !response.isSetRanges()) return;
+
+        try {
+            MerkleTree tree = store.getMerkleTree();
+            List<DigestRange> next = new ArrayList<DigestRange>();
+            List<ByteArray> offer = new ArrayList<ByteArray>();
+            for (DigestRange r : response.getRanges()) {
+                int start = r.getStart();
+                int end = r.getEnd();
+                if (tree.getDigest(start, end) == r.getDigest()) {
+                    long saved = tree.getSize(start, end);
+                    if (saved > 0)
+                        counterDigestBytesSaved.
+                            updateCounterWithFlush((int)Math.min(saved,
+                                                                 Integer.MAX_VALUE));
+                } else if (end - start <= 1 ||
+                           tree.getKeyCount(start, end) <= DIGEST_MIN_KEYS) {
+                    offer.addAll(tree.getKeys(start, end));
+                } else {
+                    splitRange(tree, start, end, next);
+                }
+            }
+            if (next.size() > 0)
+                sendSyncDigest(nodeId, store, next);
+            if (offer.size() > 0)
+                sendSyncOffers(nodeId, store, offer);
+        } catch (Exception e) {
+            logger.error("[{}->{}] Failed to process digest for store {}",
+                         new Object[]{getLocalNodeId(), nodeId, storeName, e});
+        }
+    }
+
     /**
      * Get access to the raw storage engine.  This is useful for some
      * on-the-wire communication
@@ -524,6 +645,10 @@ public class SyncManager extends AbstractSyncManager {
                 registerStore(s, Scope.GLOBAL);
             }
         }
+        if (config.containsKey("merkleAntientropy")) {
+            merkleAntientropy =
+                    Boolean.parseBoolean(config.get("merkleAntientropy"));
+        }
         registerDebugCounters(context);
     }
 
@@ -579,6 +704,27 @@ public class SyncManager extends AbstractSyncManager {
                                             "messages from remote clients",
                                             CounterType.ALWAYS_COUNT,
                                             IDebugCounterService.CTR_MDATA_ERROR);
+                counterDigestMessages =
+                        debugCounter.
+                            registerCounter(PACKAGE,
+                                            "antientropy-digest-messages",
+                                            "Digest messages sent for " +
+                                            "antientropy",
+                                            CounterType.ALWAYS_COUNT);
+                counterDigestKeysOffered =
+                        debugCounter.
+                            registerCounter(PACKAGE,
+                                            "antientropy-keys-offered",
+                                            "Keys offered from mismatching " +
+                                            "digest ranges",
+                                            CounterType.ALWAYS_COUNT);
+                counterDigestBytesSaved =
+                        debugCounter.
+                            registerCounter(PACKAGE,
+                                            "antientropy-bytes-saved",
+                                            "Estimated sync offer bytes not " +
+                                            "sent because digests matched",
+                                            CounterType.ALWAYS_COUNT);
 
             } catch (CounterException e) {
                 throw new FloodlightModuleException(e.getMessage());
@@ -741,6 +887,68 @@ public class SyncManager extends AbstractSyncManager {
         rpcService.writeToNode(nodeId, bsm);
     }
 
+    /**
+     * Split a range of digest tree leaves into up to {@link #DIGEST_FANOUT}
+     * child ranges with their local digests
+     */
+    private static void splitRange(MerkleTree tree, int start, int end,
+                                   List<DigestRange> ranges) {
+        int width = Math.max(1, (end - start + DIGEST_FANOUT - 1) /
+                                DIGEST_FANOUT);
+        for (int s = start; s < end; s += width) {
+            int e = Math.min(end, s + width);
+            ranges.add(new DigestRange(s, e, tree.getDigest(s, e)));
+        }
+    }
+
+    private void sendSyncDigest(short nodeId,
+                                SynchronizingStorageEngine store,
+                                List<DigestRange> ranges)
+            throws InterruptedException {
+        SyncMessage bsm =
+                TProtocolUtil.getTSyncDigestMessage(store.getName(),
+                                                    store.getScope(),
+                                                    store.isPersistent());
+        SyncDigestMessage sdm = bsm.getSyncDigest();
+        sdm.setRanges(ranges);
+        if (logger.isTraceEnabled()) {
+            logger.trace("[{}->{}] Sending SyncDigest with {} ranges",
+                         new Object[]{getLocalNodeId(), nodeId,
+                                      sdm.getRangesSize()});
+        }
+
+        sdm.getHeader().setTransactionId(rpcService.getTransactionId());
+        counterDigestMessages.updateCounterWithFlush();
+        rpcService.writeToNode(nodeId, bsm);
+    }
+
+    private void sendSyncOffers(short nodeId,
+                                SynchronizingStorageEngine store,
+                                List<ByteArray> keys)
+            throws SyncException, InterruptedException {
+        SyncMessage bsm =
+                TProtocolUtil.getTSyncOfferMessage(store.getName(),
+                                                   store.getScope(),
+                                                   store.isPersistent());
+        int count = 0;
+        for (ByteArray key : keys) {
+            if (!rpcService.isConnected(nodeId)) return;
+
+            List<Versioned<byte[]>> values = store.get(key);
+            if (values == null || values.size() == 0) continue;
+            KeyedVersions kv = TProtocolUtil.getTKeyedVersions(key, values);
+            bsm.getSyncOffer().addToVersions(kv);
+            counterDigestKeysOffered.updateCounterWithFlush();
+            count += 1;
+            if (count >= 50) {
+                sendSyncOffer(nodeId, bsm);
+                bsm.getSyncOffer().unsetVersions();
+                count = 0;
+            }
+        }
+        sendSyncOffer(nodeId, bsm);
+    }
+
     /**
      * Periodically perform cleanup
      * @author readams
@@ -13,6 +13,7 @@ import org.projectfloodlight.sync.thrift.KeyedValues;
 import org.projectfloodlight.sync.thrift.KeyedVersions;
 import org.projectfloodlight.sync.thrift.MessageType;
 import org.projectfloodlight.sync.thrift.Store;
+import org.projectfloodlight.sync.thrift.SyncDigestMessage;
 import org.projectfloodlight.sync.thrift.SyncMessage;
 import org.projectfloodlight.sync.thrift.SyncOfferMessage;
 import org.projectfloodlight.sync.thrift.SyncValueMessage;
@@ -248,6 +249,27 @@ public class TProtocolUtil {
         return bsm;
     }
 
+    /**
+     * Allocate a thrift {@link org.projectfloodlight.sync.thrift.SyncDigestMessage}
+     * for the given store
+     * @param storeName the name of the store associated with the message
+     * @param scope the {@link Scope} for the store
+     * @param persist the scope for the store
+     * @return the {@link SyncMessage}
+     */
+    public static SyncMessage getTSyncDigestMessage(String storeName,
+                                                    Scope scope,
+                                                    boolean persist) {
+        SyncMessage bsm = new SyncMessage(MessageType.SYNC_DIGEST);
+        AsyncMessageHeader header = new AsyncMessageHeader();
+        SyncDigestMessage sdm = new SyncDigestMessage();
+        sdm.setHeader(header);
+        sdm.setStore(getTStore(storeName, scope, persist));
+
+        bsm.setSyncDigest(sdm);
+        return bsm;
+    }
+
     /**
      * Convert a thrift {@link org.projectfloodlight.sync.thrift.VectorClock} into
      * a {@link VectorClock}.
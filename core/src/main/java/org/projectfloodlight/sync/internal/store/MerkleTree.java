@@ -0,0 +1,300 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+
+package org.projectfloodlight.sync.internal.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.projectfloodlight.sync.IVersion;
+import org.projectfloodlight.sync.internal.util.ByteArray;
+import org.projectfloodlight.sync.internal.version.ClockEntry;
+import org.projectfloodlight.sync.internal.version.VectorClock;
+
+/**
+ * A hash-range tree over the keys and versions of a store, used to find
+ * the parts of the key space where two nodes disagree without exchanging
+ * every key.
+ *
+ * Keys are assigned to one of a fixed number of leaf buckets by a hash of
+ * the key. Each key contributes a 64-bit digest of the key and its vector
+ * clocks; the digest of a range of buckets is the XOR of the digests of
+ * all keys in it. Two nodes holding the same versions for the same keys in
+ * a range therefore compute the same range digest, and a key update only
+ * touches the path from its leaf to the root.
+ *
+ * The tree also tracks the number of keys in each range and an estimate of
+ * the size of the sync offer for them, which is used to account for the
+ * traffic saved by skipping ranges that match.
+ */
+public class MerkleTree {
+    /**
+     * Default depth, giving 4096 leaf buckets
+     */
+    public static final int DEFAULT_DEPTH = 12;
+
+    private final int leafCount;
+    // Implicit binary trees over the leaves: node 1 is the root and the
+    // children of node i are 2i and 2i+1. Leaf b is node leafCount + b.
+    private final long[] digests;
+    private final long[] sizes;
+    private final int[] counts;
+    // The digest and size of every key, by leaf
+    private final Map<ByteArray, KeyState>[] leaves;
+
+    private static class KeyState {
+        long digest;
+        int size;
+    }
+
+    public MerkleTree() {
+        this(DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param depth the depth of the tree. There are 2^depth leaf buckets.
+     */
+    @SuppressWarnings("unchecked")
+    public MerkleTree(int depth) {
+        if (depth < 0 || depth > 24)
+            throw new IllegalArgumentException("Invalid depth " + depth);
+        leafCount = 1 << depth;
+        digests = new long[2 * leafCount];
+        sizes = new long[2 * leafCount];
+        counts = new int[2 * leafCount];
+        leaves = new Map[leafCount];
+    }
+
+    /**
+     * @return the number of leaf buckets. Ranges are expressed in leaf
+     * buckets from 0 to this value.
+     */
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * Get the leaf bucket of a key
+     * @param key the key
+     * @return the leaf index
+     */
+    public int getLeaf(ByteArray key) {
+        return (int) (hashKey(key.get()) >>> 1) & (leafCount - 1);
+    }
+
+    /**
+     * Set the versions for a key, replacing whatever was recorded for it
+     * @param key the key
+     * @param versions the versions currently stored for the key. Null or
+     * empty if the key is not in the store.
+     */
+    public synchronized void update(ByteArray key, List<IVersion> versions) {
+        int leaf = getLeaf(key);
+        Map<ByteArray, KeyState> keys = leaves[leaf];
+        KeyState old = (keys == null) ? null : keys.get(key);
+
+        long digest = 0;
+        int size = 0;
+        int count = 0;
+        if (versions != null && !versions.isEmpty()) {
+            digest = digestEntry(key, versions);
+            size = estimateSize(key, versions);
+            count = 1;
+        }
+
+        long digestDelta = digest;
+        long sizeDelta = size;
+        int countDelta = count;
+        if (old != null) {
+            digestDelta ^= old.digest;
+            sizeDelta -= old.size;
+            countDelta -= 1;
+        }
+        if (digestDelta == 0 && sizeDelta == 0 && countDelta == 0)
+            return;
+
+        if (count == 0) {
+            keys.remove(key);
+            if (keys.isEmpty())
+                leaves[leaf] = null;
+        } else {
+            if (keys == null) {
+                keys = new HashMap<ByteArray, KeyState>();
+                leaves[leaf] = keys;
+            }
+            if (old == null) {
+                old = new KeyState();
+                keys.put(key, old);
+            }
+            old.digest = digest;
+            old.size = size;
+        }
+
+        for (int node = leafCount + leaf; node > 0; node >>>= 1) {
+            digests[node] ^= digestDelta;
+            sizes[node] += sizeDelta;
+            counts[node] += countDelta;
+        }
+    }
+
+    /**
+     * Remove all keys
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = 0;
+            sizes[i] = 0;
+            counts[i] = 0;
+        }
+        for (int i = 0; i < leafCount; i++)
+            leaves[i] = null;
+    }
+
+    /**
+     * Get the digest of a range of leaf buckets
+     * @param start the first leaf
+     * @param end one past the last leaf
+     * @return the XOR of the digests of all keys in the range
+     */
+    public synchronized long getDigest(int start, int end) {
+        checkRange(start, end);
+        long digest = 0;
+        for (int lo = start + leafCount, hi = end + leafCount;
+             lo < hi; lo >>>= 1, hi >>>= 1) {
+            if ((lo & 1) != 0) digest ^= digests[lo++];
+            if ((hi & 1) != 0) digest ^= digests[--hi];
+        }
+        return digest;
+    }
+
+    /**
+     * Get the estimated size in bytes of offering every key in a range
+     * @param start the first leaf
+     * @param end one past the last leaf
+     */
+    public synchronized long getSize(int start, int end) {
+        checkRange(start, end);
+        long size = 0;
+        for (int lo = start + leafCount, hi = end + leafCount;
+             lo < hi; lo >>>= 1, hi >>>= 1) {
+            if ((lo & 1) != 0) size += sizes[lo++];
+            if ((hi & 1) != 0) size += sizes[--hi];
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of keys in a range
+     * @param start the first leaf
+     * @param end one past the last leaf
+     */
+    public synchronized int getKeyCount(int start, int end) {
+        checkRange(start, end);
+        int count = 0;
+        for (int lo = start + leafCount, hi = end + leafCount;
+             lo < hi; lo >>>= 1, hi >>>= 1) {
+            if ((lo & 1) != 0) count += counts[lo++];
+            if ((hi & 1) != 0) count += counts[--hi];
+        }
+        return count;
+    }
+
+    /**
+     * Get the keys in a range
+     * @param start the first leaf
+     * @param end one past the last leaf
+     * @return a snapshot of the keys
+     */
+    public synchronized List<ByteArray> getKeys(int start, int end) {
+        checkRange(start, end);
+        List<ByteArray> result = new ArrayList<ByteArray>();
+        for (int leaf = start; leaf < end; leaf++) {
+            if (leaves[leaf] != null)
+                result.addAll(leaves[leaf].keySet());
+        }
+        return result;
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > leafCount || start > end)
+            throw new IllegalArgumentException("Invalid range [" + start +
+                                               ", " + end + ")");
+    }
+
+    // *****************
+    // Utility functions
+    // *****************
+
+    /**
+     * 64-bit finalizer from MurmurHash3
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the key bytes, finalized with {@link #mix(long)}
+     */
+    private static long hashKey(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long digestVersion(IVersion version) {
+        if (!(version instanceof VectorClock))
+            return mix(version.hashCode());
+        VectorClock vc = (VectorClock) version;
+        long h = mix(vc.getTimestamp());
+        for (ClockEntry ce : vc.getEntries()) {
+            h = mix(h * 31 + (((long) ce.getNodeId() << 48) ^
+                              ce.getVersion()));
+        }
+        return h;
+    }
+
+    private static long digestEntry(ByteArray key, List<IVersion> versions) {
+        // XOR makes the digest independent of the order of the versions
+        long h = 0;
+        for (IVersion v : versions)
+            h ^= digestVersion(v);
+        return mix(hashKey(key.get()) ^ mix(h + versions.size()));
+    }
+
+    /**
+     * Estimate the encoded size of a KeyedVersions entry for the key
+     */
+    private static int estimateSize(ByteArray key, List<IVersion> versions) {
+        int size = key.length() + 8;
+        for (IVersion v : versions) {
+            size += 12;
+            if (v instanceof VectorClock)
+                size += 14 * ((VectorClock) v).getEntries().size();
+        }
+        return size;
+    }
+}
@@ -1,6 +1,7 @@
 package org.projectfloodlight.sync.internal.store;
 
 import org.projectfloodlight.debugcounter.IDebugCounterService;
+import org.projectfloodlight.sync.IClosableIterator;
 import org.projectfloodlight.sync.Versioned;
 import org.projectfloodlight.sync.ISyncService.Scope;
 import org.projectfloodlight.sync.error.SyncException;
@@ -28,6 +29,12 @@ public class SynchronizingStorageEngine extends ListenerStorageEngine {
      * The synchronization manager
      */
     protected SyncManager syncManager;
+
+    /**
+     * Hash-range tree over the keys and versions in this store, used for
+     * digest-based anti-entropy. Built on first use.
+     */
+    private volatile MerkleTree merkleTree;
     
     /**
      * Allocate a synchronizing storage engine
@@ -58,6 +65,44 @@ public class SynchronizingStorageEngine extends ListenerStorageEngine {
         super.put(key, value);
         if (!Scope.UNSYNCHRONIZED.equals(scope))
             syncManager.queueSyncTask(this, key, value);
+        updateDigest(key);
+    }
+
+    @Override
+    public boolean writeSyncValue(ByteArray key,
+                                  Iterable<Versioned<byte[]>> values) {
+        boolean r = super.writeSyncValue(key, values);
+        if (r) {
+            try {
+                updateDigest(key);
+            } catch (SyncException e) {
+                // Drop the tree so that it's rebuilt on next use
+                logger.debug("Could not update digest for key", e);
+                merkleTree = null;
+            }
+        }
+        return r;
+    }
+
+    @Override
+    public void truncate() throws SyncException {
+        super.truncate();
+        MerkleTree tree = merkleTree;
+        if (tree != null) tree.clear();
+    }
+
+    @Override
+    public void cleanupTask() throws SyncException {
+        super.cleanupTask();
+        // Cleanup purges tombstones without going through put. The purged
+        // keys are no longer in the store, so re-read the keys the tree
+        // has recorded and let them drop out of it.
+        MerkleTree tree = merkleTree;
+        if (tree != null) {
+            for (ByteArray key : tree.getKeys(0, tree.getLeafCount())) {
+                refreshDigest(tree, key);
+            }
+        }
     }
     
     // **************
@@ -71,4 +116,50 @@ public class SynchronizingStorageEngine extends ListenerStorageEngine {
     public Scope getScope() {
         return scope;
     }
+
+    /**
+     * Get the hash-range tree for this store, building it from the
+     * contents of the store on first use
+     * @return the tree
+     * @throws SyncException
+     */
+    public synchronized MerkleTree getMerkleTree() throws SyncException {
+        if (merkleTree == null) {
+            MerkleTree tree = new MerkleTree();
+            // Publish the tree before scanning so that concurrent writes
+            // are recorded too
+            merkleTree = tree;
+            rebuildMerkleTree(tree);
+        }
+        return merkleTree;
+    }
+
+    // ***************
+    // Private methods
+    // ***************
+
+    private void rebuildMerkleTree(MerkleTree tree) throws SyncException {
+        IClosableIterator<ByteArray> keys = localStorage.keys();
+        try {
+            while (keys.hasNext()) {
+                refreshDigest(tree, keys.next());
+            }
+        } finally {
+            keys.close();
+        }
+    }
+
+    private void updateDigest(ByteArray key) throws SyncException {
+        MerkleTree tree = merkleTree;
+        if (tree != null) refreshDigest(tree, key);
+    }
+
+    private void refreshDigest(MerkleTree tree, ByteArray key)
+            throws SyncException {
+        // Read and record under the tree lock so that a stale read can't
+        // overwrite a newer one
+        synchronized (tree) {
+            tree.update(key, localStorage.getVersions(key));
+        }
+    }
 }
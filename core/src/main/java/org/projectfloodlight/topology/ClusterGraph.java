@@ -0,0 +1,382 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+
+package org.projectfloodlight.topology;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
+
+import org.projectfloodlight.routing.BroadcastTree;
+import org.projectfloodlight.routing.Link;
+
+/**
+ * Read-only, array based copy of the links of a cluster for computing
+ * destination-rooted shortest path trees.
+ *
+ * Switches are numbered 0..n-1 in DPID order. The links entering each
+ * switch are stored contiguously (compressed sparse rows) together with
+ * their weights, so a Dijkstra run touches only int arrays and an int
+ * heap. Instances are immutable once built and can be shared by threads
+ * computing trees for different destinations.
+ */
+public class ClusterGraph {
+    private final long[] nodes;
+    private final Map<Long, Integer> nodeIndex;
+    // Links entering node i are inLinks[inStart[i]..inStart[i+1]-1]
+    private final int[] inStart;
+    private final int[] inSrc;
+    private final int[] inWeight;
+    private final Link[] inLinks;
+
+    /**
+     * @param c the cluster
+     * @param linkCost link weights. Links not in the map have weight 1.
+     */
+    public ClusterGraph(Cluster c, Map<Link, Integer> linkCost) {
+        Set<Long> nodeSet = c.getNodes();
+        int n = nodeSet.size();
+        nodes = new long[n];
+        int i = 0;
+        for (Long node : nodeSet)
+            nodes[i++] = node;
+        Arrays.sort(nodes);
+        nodeIndex = new HashMap<Long, Integer>(n * 2);
+        for (i = 0; i < n; i++)
+            nodeIndex.put(nodes[i], i);
+
+        // Every link is in the link sets of both of its ends. Keep it only
+        // once, from the set of its destination.
+        int[] inCount = new int[n];
+        List<Link> links = new ArrayList<Link>();
+        for (i = 0; i < n; i++) {
+            for (Link l : c.getLinks().get(nodes[i])) {
+                if (l.getDst() != nodes[i] || l.getSrc() == l.getDst())
+                    continue;
+                if (!nodeIndex.containsKey(l.getSrc()))
+                    continue;
+                links.add(l);
+                inCount[i]++;
+            }
+        }
+        inStart = new int[n + 1];
+        for (i = 0; i < n; i++)
+            inStart[i + 1] = inStart[i] + inCount[i];
+        int m = links.size();
+        inSrc = new int[m];
+        inWeight = new int[m];
+        inLinks = new Link[m];
+        // links are grouped by destination in node order already
+        for (int j = 0; j < m; j++) {
+            Link l = links.get(j);
+            Integer w = (linkCost == null) ? null : linkCost.get(l);
+            inSrc[j] = nodeIndex.get(l.getSrc());
+            inWeight[j] = (w == null) ? 1 : w.intValue();
+            inLinks[j] = l;
+        }
+    }
+
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    public int getLinkCount() {
+        return inLinks.length;
+    }
+
+    /**
+     * @return the index of the switch, or -1 if it is not in the graph
+     */
+    public int indexOf(long node) {
+        Integer i = nodeIndex.get(node);
+        return (i == null) ? -1 : i.intValue();
+    }
+
+    public long getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * Compute the cost of the shortest path from every switch to the root.
+     * Unreachable switches get {@link TopologyInstance#MAX_PATH_WEIGHT}.
+     * @param root the index of the destination switch
+     * @param heap a heap of at least {@link #getNodeCount()} entries to
+     * use as scratch space
+     * @return the costs indexed by switch index
+     */
+    public int[] computeCosts(int root, IntMinHeap heap) {
+        int n = nodes.length;
+        int[] cost = new int[n];
+        Arrays.fill(cost, TopologyInstance.MAX_PATH_WEIGHT);
+        cost[root] = 0;
+        heap.clear();
+        heap.insertOrDecrease(root, 0);
+        while (!heap.isEmpty()) {
+            int v = heap.poll();
+            int dist = cost[v];
+            if (dist >= TopologyInstance.MAX_PATH_WEIGHT)
+                break;
+            for (int j = inStart[v]; j < inStart[v + 1]; j++) {
+                int u = inSrc[j];
+                int ndist = dist + inWeight[j];
+                if (ndist < cost[u]) {
+                    cost[u] = ndist;
+                    heap.insertOrDecrease(u, ndist);
+                }
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Build the single path and the multipath tree rooted at a
+     * destination. The multipath tree of a switch holds every link that
+     * starts a shortest path, sorted. The single path tree uses the first
+     * of them.
+     * @param root the index of the destination switch
+     * @param heap scratch heap, see {@link #computeCosts(int, IntMinHeap)}
+     * @param trees receives the single path tree at index 0 and the
+     * multipath tree at index 1
+     */
+    public void computeTrees(int root, IntMinHeap heap, Object[] trees) {
+        int n = nodes.length;
+        int[] cost = computeCosts(root, heap);
+        HashMap<Long, Link> nexthoplinks = new HashMap<Long, Link>(n * 2);
+        HashMap<Long, ArrayList<Link>> nexthopMultipath =
+                new HashMap<Long, ArrayList<Link>>(n * 2);
+        HashMap<Long, Integer> costs = new HashMap<Long, Integer>(n * 2);
+        ArrayList<Link>[] multipath = newLinkLists(n);
+        for (int v = 0; v < n; v++) {
+            if (cost[v] >= TopologyInstance.MAX_PATH_WEIGHT)
+                continue;
+            for (int j = inStart[v]; j < inStart[v + 1]; j++) {
+                int u = inSrc[j];
+                if (u != root && cost[v] + inWeight[j] == cost[u])
+                    multipath[u].add(inLinks[j]);
+            }
+        }
+        for (int u = 0; u < n; u++) {
+            Long node = nodes[u];
+            ArrayList<Link> hops = multipath[u];
+            Collections.sort(hops);
+            nexthopMultipath.put(node, hops);
+            nexthoplinks.put(node, hops.isEmpty() ? null : hops.get(0));
+            costs.put(node, cost[u]);
+        }
+        trees[0] = new BroadcastTree(nexthoplinks, costs);
+        trees[1] = new BroadcastTreeMultipath(nexthopMultipath,
+                new HashMap<Long, Integer>(costs));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayList<Link>[] newLinkLists(int n) {
+        ArrayList<Link>[] lists = new ArrayList[n];
+        for (int i = 0; i < n; i++)
+            lists[i] = new ArrayList<Link>();
+        return lists;
+    }
+
+    /**
+     * Fork/join task computing the trees rooted at a range of
+     * destinations. Ranges larger than the split threshold are split in
+     * half.
+     */
+    public static class TreeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int SPLIT_THRESHOLD = 8;
+
+        private final ClusterGraph graph;
+        private final int[] roots;
+        private final int lo;
+        private final int hi;
+        private final BroadcastTree[] trees;
+        private final BroadcastTreeMultipath[] treesMultipath;
+
+        /**
+         * @param graph the graph
+         * @param roots indices of the destinations
+         */
+        public TreeTask(ClusterGraph graph, int[] roots) {
+            this(graph, roots, 0, roots.length,
+                 new BroadcastTree[roots.length],
+                 new BroadcastTreeMultipath[roots.length]);
+        }
+
+        private TreeTask(ClusterGraph graph, int[] roots, int lo, int hi,
+                         BroadcastTree[] trees,
+                         BroadcastTreeMultipath[] treesMultipath) {
+            this.graph = graph;
+            this.roots = roots;
+            this.lo = lo;
+            this.hi = hi;
+            this.trees = trees;
+            this.treesMultipath = treesMultipath;
+        }
+
+        public ClusterGraph getGraph() {
+            return graph;
+        }
+
+        public int[] getRoots() {
+            return roots;
+        }
+
+        /**
+         * @return the single path tree of roots[i] at index i
+         */
+        public BroadcastTree[] getTrees() {
+            return trees;
+        }
+
+        /**
+         * @return the multipath tree of roots[i] at index i
+         */
+        public BroadcastTreeMultipath[] getTreesMultipath() {
+            return treesMultipath;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > SPLIT_THRESHOLD) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new TreeTask(graph, roots, lo, mid,
+                                       trees, treesMultipath),
+                          new TreeTask(graph, roots, mid, hi,
+                                       trees, treesMultipath));
+                return;
+            }
+            IntMinHeap heap = new IntMinHeap(graph.getNodeCount());
+            Object[] result = new Object[2];
+            for (int i = lo; i < hi; i++) {
+                graph.computeTrees(roots[i], heap, result);
+                trees[i] = (BroadcastTree) result[0];
+                treesMultipath[i] = (BroadcastTreeMultipath) result[1];
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap of the ints 0..capacity-1 keyed by an int priority,
+     * with decrease-key. Not thread safe.
+     */
+    public static class IntMinHeap {
+        private final int[] heap;
+        private final int[] keys;
+        // position of each element in the heap, -1 if not in it
+        private final int[] pos;
+        private int size;
+
+        public IntMinHeap(int capacity) {
+            heap = new int[capacity];
+            keys = new int[capacity];
+            pos = new int[capacity];
+            Arrays.fill(pos, -1);
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            for (int i = 0; i < size; i++)
+                pos[heap[i]] = -1;
+            size = 0;
+        }
+
+        /**
+         * Add the element, or lower its key if it is already in the heap
+         * with a larger key
+         */
+        public void insertOrDecrease(int element, int key) {
+            int i = pos[element];
+            if (i < 0) {
+                i = size++;
+                heap[i] = element;
+                pos[element] = i;
+            } else if (key >= keys[element]) {
+                return;
+            }
+            keys[element] = key;
+            siftUp(i);
+        }
+
+        /**
+         * Remove the element with the smallest key. Ties are broken by
+         * the smaller element.
+         */
+        public int poll() {
+            int top = heap[0];
+            pos[top] = -1;
+            int last = heap[--size];
+            if (size > 0) {
+                heap[0] = last;
+                pos[last] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        private boolean less(int a, int b) {
+            return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+        }
+
+        private void siftUp(int i) {
+            int e = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                int p = heap[parent];
+                if (!less(e, p))
+                    break;
+                heap[i] = p;
+                pos[p] = i;
+                i = parent;
+            }
+            heap[i] = e;
+            pos[e] = i;
+        }
+
+        private void siftDown(int i) {
+            int e = heap[i];
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                int c = heap[child];
+                int right = child + 1;
+                if (right < size && less(heap[right], c)) {
+                    child = right;
+                    c = heap[child];
+                }
+                if (!less(c, e))
+                    break;
+                heap[i] = c;
+                pos[c] = i;
+                i = child;
+            }
+            heap[i] = e;
+            pos[e] = i;
+        }
+    }
+}
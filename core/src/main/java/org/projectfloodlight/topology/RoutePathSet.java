@@ -0,0 +1,88 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.topology;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.projectfloodlight.routing.Route;
+
+/**
+ * The equal-cost routes from a source switch to a destination switch,
+ * computed once so that picking the route for a cookie is an index into
+ * an array.
+ *
+ * The set also records the switches whose next hops towards the
+ * destination were followed to build the routes. The routes only depend
+ * on those next hops, so the set stays valid in a new topology instance
+ * in which all of them are unchanged.
+ */
+public class RoutePathSet {
+    /** Estimated size of a route with no hops, in bytes */
+    protected static final int ROUTE_BYTES = 96;
+    /** Estimated size of each switch port in a route, in bytes */
+    protected static final int HOP_BYTES = 32;
+
+    protected static final RoutePathSet EMPTY =
+            new RoutePathSet(new Route[0], new long[0]);
+
+    protected final Route[] routes;
+    protected final long[] nodes;
+
+    /**
+     * @param routes the routes
+     * @param nodes the switches whose next hops the routes were built from
+     */
+    public RoutePathSet(Route[] routes, long[] nodes) {
+        this.routes = routes;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Get the route for a hash
+     * @param hash a non-negative hash of the flow
+     * @return the route, or null if there is no route
+     */
+    public Route getRoute(long hash) {
+        if (routes.length == 0)
+            return null;
+        return routes[(int) (hash % routes.length)];
+    }
+
+    public List<Route> getRoutes() {
+        return Collections.unmodifiableList(Arrays.asList(routes));
+    }
+
+    public int size() {
+        return routes.length;
+    }
+
+    public long[] getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return a rough estimate of the memory used by the set, in bytes
+     */
+    public int getWeight() {
+        int weight = ROUTE_BYTES + 8 * nodes.length;
+        for (Route r : routes)
+            weight += ROUTE_BYTES + HOP_BYTES * r.getPath().size();
+        return weight;
+    }
+}
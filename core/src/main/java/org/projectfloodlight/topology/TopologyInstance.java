@@ -17,15 +17,19 @@
 package org.projectfloodlight.topology;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.openflow.util.HexString;
 import org.projectfloodlight.core.IFloodlightProviderService;
@@ -44,6 +48,7 @@ import org.slf4j.LoggerFactory;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 
 /**
  * A representation of a network topology.  Used internally by
@@ -58,7 +63,10 @@ public class TopologyInstance {
 
     public static final int MAX_LINK_WEIGHT = 10000;
     public static final int MAX_PATH_WEIGHT = Integer.MAX_VALUE - MAX_LINK_WEIGHT - 1;
-    public static final int PATH_CACHE_SIZE = 1000;
+    /** Default memory budget of the route cache, in bytes */
+    public static final long DEFAULT_ROUTE_CACHE_BYTES = 32L * 1024 * 1024;
+    /** Default number of equal-cost routes kept per switch pair */
+    public static final int DEFAULT_MAX_ECMP_PATHS = 16;
 
     protected static final Logger log = 
             LoggerFactory.getLogger(TopologyInstance.class);
@@ -139,24 +147,56 @@ public class TopologyInstance {
     // NOF traffic spreading status
     protected boolean nofTrafficSpreading;
 
+    // Link costs used for the unicast and broadcast trees
+    protected Map<Link, Integer> treeLinkCost;
+
+    // Previous instance whose trees may be reused by compute().
+    // Only referenced while computing, so instances don't chain.
+    protected TopologyInstance previousInstance;
+    // Previous instance whose cached routes may be reused by compute()
+    protected TopologyInstance previousRoutes;
+    protected int carriedRouteCount;
+    // Clusters whose nodes, links and link costs are unchanged from the
+    // previous instance
+    protected Set<Long> unchangedClusters;
+    protected int reusedTreeCount;
+    protected int computedTreeCount;
+
+    // Pool for computing shortest path trees in parallel, null to compute
+    // them on the calling thread
+    protected ForkJoinPool treeComputePool;
+
     private final long LONG_PRIME = 304250263527209L;
     
-    protected static class PathCacheLoader extends CacheLoader<RouteId, Route> {
+    protected static class PathCacheLoader
+            extends CacheLoader<OrderedNodePair, RoutePathSet> {
         TopologyInstance ti;
         PathCacheLoader(TopologyInstance ti) {
             this.ti = ti;
         }
 
         @Override
-        public Route load(RouteId rid) {
-            return ti.buildroute(rid);
+        public RoutePathSet load(OrderedNodePair pair) {
+            return ti.buildPathSet(pair.getSrc(), pair.getDst());
+        }
+    }
+
+    protected static class PathSetWeigher
+            implements Weigher<OrderedNodePair, RoutePathSet> {
+        @Override
+        public int weigh(OrderedNodePair pair, RoutePathSet paths) {
+            return paths.getWeight();
         }
     }
 
     // Path cache loader is defined for loading a path when it not present
     // in the cache.
     private final PathCacheLoader pathCacheLoader = new PathCacheLoader(this);
-    protected LoadingCache<RouteId, Route> pathcache;
+    // The equal-cost routes between each pair of switches, bounded by the
+    // estimated memory they use
+    protected LoadingCache<OrderedNodePair, RoutePathSet> pathcache;
+    protected long routeCacheBytes = DEFAULT_ROUTE_CACHE_BYTES;
+    protected int maxEcmpPaths = DEFAULT_MAX_ECMP_PATHS;
 
     public TopologyInstance(Map<Long, Set<Short>> switchPorts,
                             Set<NodePortTuple> blockedPorts,
@@ -192,16 +232,9 @@ public class TopologyInstance {
         destinationRootedTrees = new HashMap<Long, BroadcastTree>();
         clusterBroadcastTrees = new HashMap<Long, BroadcastTree>();
         clusterBroadcastNodePorts = new HashMap<Long, Set<NodePortTuple>>();
+        unchangedClusters = new HashSet<Long>();
 
-        pathcache = CacheBuilder.newBuilder().concurrencyLevel(4)
-                    .maximumSize(1000L)
-                    .build(
-                            new CacheLoader<RouteId, Route>() {
-                                public Route load(RouteId rid) {
-                                    return pathCacheLoader.load(rid);
-                                }
-                            });
-        
+        pathcache = buildPathCache(routeCacheBytes);
 
         destinationRootedTreesMultipath = new HashMap<Long, BroadcastTreeMultipath>();
 
@@ -721,6 +754,87 @@ public class TopologyInstance {
         if (log.isTraceEnabled()) {
             printTopology();
         }
+
+        if (previousInstance != null) {
+            log.debug("Incremental topology computation reused {} and " +
+                      "computed {} shortest path trees",
+                      reusedTreeCount, computedTreeCount);
+            previousInstance = null;
+        }
+        if (previousRoutes != null) {
+            log.debug("Carried over {} cached route sets", carriedRouteCount);
+            previousRoutes = null;
+        }
+    }
+
+    /**
+     * Set the instance this one replaces. If set before {@link #compute()},
+     * shortest path trees and cluster broadcast trees that are not
+     * affected by the changes between the two instances are carried over
+     * instead of being recomputed. The result is the same as
+     * a full computation up to the choice among equal-cost paths.
+     * @param previous the current instance, or null to compute everything
+     */
+    public void setPreviousInstance(TopologyInstance previous) {
+        this.previousInstance = previous;
+    }
+
+    /**
+     * Compute the shortest path trees of {@link #compute()} on the given
+     * pool, one destination per task, over an array based copy of each
+     * cluster.
+     * @param pool the pool or null to compute on the calling thread
+     */
+    public void setTreeComputePool(ForkJoinPool pool) {
+        this.treeComputePool = pool;
+    }
+
+    /**
+     * Set the instance whose cached routes {@link #compute()} carries
+     * over. A set of routes between two switches is carried over if the
+     * next hops it was built from are the same in both instances, so
+     * only the routes over changed links are dropped.
+     * @param previous the current instance, or null to start with an
+     * empty route cache
+     */
+    public void setPreviousRoutes(TopologyInstance previous) {
+        this.previousRoutes = previous;
+    }
+
+    /**
+     * Configure the route cache. Must be called before {@link #compute()}.
+     * @param maxBytes the memory budget of the cache, in bytes
+     * @param maxPaths the maximum number of equal-cost routes kept per
+     * pair of switches
+     */
+    public void setRouteCacheConfig(long maxBytes, int maxPaths) {
+        this.routeCacheBytes = maxBytes;
+        this.maxEcmpPaths = maxPaths;
+        pathcache = buildPathCache(maxBytes);
+    }
+
+    /**
+     * @return the number of route sets carried over from the previous
+     * instance by the last {@link #compute()}
+     */
+    public int getCarriedRouteCount() {
+        return carriedRouteCount;
+    }
+
+    /**
+     * @return the number of shortest path trees carried over from the
+     * previous instance by the last {@link #compute()}
+     */
+    public int getReusedTreeCount() {
+        return reusedTreeCount;
+    }
+
+    /**
+     * @return the number of shortest path trees computed by the last
+     * {@link #compute()}
+     */
+    public int getComputedTreeCount() {
+        return computedTreeCount;
     }
 
     public void printTopology() {
@@ -1169,7 +1283,11 @@ public class TopologyInstance {
         }
 
         for (Cluster c : clusters) {
-            BroadcastTree tree = dijkstra(c, c.getId(), linkCost, true);
+            BroadcastTree tree = null;
+            if (unchangedClusters.contains(c.getId()))
+                tree = previousInstance.clusterBroadcastTrees.get(c.getId());
+            if (tree == null)
+                tree = dijkstra(c, c.getId(), linkCost, true);
             clusterBroadcastTrees.put(c.getId(), tree);
         }
     }
@@ -2231,21 +2349,236 @@ public class TopologyInstance {
             }
         }
 
+        treeLinkCost = linkCost;
+        unchangedClusters.clear();
+        reusedTreeCount = 0;
+        computedTreeCount = 0;
+
+        List<ClusterGraph.TreeTask> tasks =
+                new ArrayList<ClusterGraph.TreeTask>();
+
         for (Cluster c : clusters) {
+            List<Link> removed = new ArrayList<Link>();
+            List<Link> added = new ArrayList<Link>();
+            boolean reusable = getClusterChanges(c, removed, added);
+            if (reusable && removed.isEmpty() && added.isEmpty())
+                unchangedClusters.add(c.getId());
+
+            ClusterGraph graph = null;
+            int[] roots = null;
+            int nroots = 0;
+            if (treeComputePool != null && !treeComputePool.isShutdown()) {
+                graph = new ClusterGraph(c, linkCost);
+                roots = new int[graph.getNodeCount()];
+            }
+
             for (Long node : c.getLinks().keySet()) {
+                if (reusable &&
+                        !isTreeAffected(node, removed, added, linkCost)) {
+                    destinationRootedTrees.put(node,
+                            previousInstance.destinationRootedTrees.get(node));
+                    destinationRootedTreesMultipath.put(node,
+                            previousInstance.destinationRootedTreesMultipath
+                                    .get(node));
+                    reusedTreeCount++;
+                    continue;
+                }
+                if (graph != null) {
+                    roots[nroots++] = graph.indexOf(node);
+                    continue;
+                }
                 BroadcastTree tree = dijkstra(c, node, linkCost, true);
                 BroadcastTreeMultipath treeMultipath = dijkstraMultipath(c, node, linkCost,
                                                           true);
                 destinationRootedTrees.put(node, tree);
 
                 destinationRootedTreesMultipath.put(node, treeMultipath);
+                computedTreeCount++;
+            }
+
+            if (nroots > 0) {
+                tasks.add(new ClusterGraph.TreeTask(graph,
+                        Arrays.copyOf(roots, nroots)));
             }
         }
+
+        if (!tasks.isEmpty()) {
+            final List<ClusterGraph.TreeTask> allTasks = tasks;
+            treeComputePool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(allTasks);
+                }
+            });
+            for (ClusterGraph.TreeTask task : tasks) {
+                int[] roots = task.getRoots();
+                for (int j = 0; j < roots.length; j++) {
+                    Long node = task.getGraph().getNode(roots[j]);
+                    destinationRootedTrees.put(node, task.getTrees()[j]);
+                    destinationRootedTreesMultipath.put(node,
+                            task.getTreesMultipath()[j]);
+                }
+                computedTreeCount += roots.length;
+            }
+        }
+
+        carryOverRoutes();
+    }
+
+    private static int getLinkWeight(Map<Link, Integer> linkCost, Link link) {
+        Integer w = (linkCost == null) ? null : linkCost.get(link);
+        return (w == null) ? 1 : w.intValue();
+    }
+
+    private static Set<Link> getClusterLinks(Cluster c) {
+        Set<Link> links = new HashSet<Link>();
+        for (Set<Link> nodeLinks : c.getLinks().values())
+            links.addAll(nodeLinks);
+        return links;
+    }
+
+    /**
+     * Compare a cluster with the cluster with the same id in the previous
+     * instance. Links whose cost changed count as both removed and added.
+     * @param c the cluster in this instance
+     * @param removed filled with links only in the previous cluster
+     * @param added filled with links only in this cluster
+     * @return true if the previous instance has a cluster with the same
+     * nodes whose trees can be checked against the changes
+     */
+    private boolean getClusterChanges(Cluster c, List<Link> removed,
+                                      List<Link> added) {
+        if (previousInstance == null)
+            return false;
+        if (tunnelDomain == null ? previousInstance.tunnelDomain != null :
+                !tunnelDomain.equals(previousInstance.tunnelDomain))
+            return false;
+        Cluster oldc = previousInstance.switchClusterMap.get(c.getId());
+        if (oldc == null || oldc.getId() != c.getId() ||
+                !oldc.getNodes().equals(c.getNodes()))
+            return false;
+
+        Map<Link, Integer> oldCost = previousInstance.treeLinkCost;
+        Set<Link> newLinks = getClusterLinks(c);
+        Set<Link> oldLinks = getClusterLinks(oldc);
+        for (Link l : oldLinks) {
+            if (!newLinks.contains(l)) {
+                removed.add(l);
+            } else if (getLinkWeight(oldCost, l) !=
+                       getLinkWeight(treeLinkCost, l)) {
+                removed.add(l);
+                added.add(l);
+            }
+        }
+        for (Link l : newLinks) {
+            if (!oldLinks.contains(l))
+                added.add(l);
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the trees rooted at a destination in the previous
+     * instance are still valid after the link changes. A removed link
+     * matters only if it is a next hop in the multipath tree (which holds
+     * every equal-cost next hop). An added link matters only if it offers
+     * a path at least as short as the current one.
+     */
+    private boolean isTreeAffected(Long dst, List<Link> removed,
+                                   List<Link> added,
+                                   Map<Link, Integer> linkCost) {
+        BroadcastTree tree = previousInstance.destinationRootedTrees.get(dst);
+        BroadcastTreeMultipath treeMultipath =
+                previousInstance.destinationRootedTreesMultipath.get(dst);
+        if (tree == null || treeMultipath == null)
+            return true;
+        for (Link l : removed) {
+            List<Link> nextHops = treeMultipath.getLinks(l.getSrc());
+            if (nextHops != null && nextHops.contains(l))
+                return true;
+            if (l.equals(tree.getTreeLink(l.getSrc())))
+                return true;
+        }
+        for (Link l : added) {
+            int srcCost = tree.getCost(l.getSrc());
+            int dstCost = tree.getCost(l.getDst());
+            if (srcCost < 0 || dstCost < 0)
+                return true;
+            // Can't shorten any path if its head is unreachable
+            if (dstCost >= MAX_PATH_WEIGHT)
+                continue;
+            if (dstCost + getLinkWeight(linkCost, l) <= srcCost)
+                return true;
+        }
+        return false;
+    }
+
+    private LoadingCache<OrderedNodePair, RoutePathSet>
+            buildPathCache(long maxBytes) {
+        return CacheBuilder.newBuilder().concurrencyLevel(4)
+                .maximumWeight(maxBytes)
+                .weigher(new PathSetWeigher())
+                .build(pathCacheLoader);
+    }
+
+    /**
+     * Copy the cached route sets of the previous instance that were built
+     * from next hops that are unchanged in this instance.
+     */
+    private void carryOverRoutes() {
+        carriedRouteCount = 0;
+        if (previousRoutes == null)
+            return;
+        TopologyInstance prev = previousRoutes;
+        if (prev.multipathEnabled != multipathEnabled ||
+                prev.maxEcmpPaths != maxEcmpPaths)
+            return;
+        if (tunnelDomain == null ? prev.tunnelDomain != null :
+                !tunnelDomain.equals(prev.tunnelDomain))
+            return;
+        for (Map.Entry<OrderedNodePair, RoutePathSet> e :
+                prev.pathcache.asMap().entrySet()) {
+            OrderedNodePair pair = e.getKey();
+            RoutePathSet paths = e.getValue();
+            // A new link may connect switches that had no route
+            if (paths.size() == 0)
+                continue;
+            if (!switches.contains(pair.getSrc()) ||
+                    !switches.contains(pair.getDst()))
+                continue;
+            BroadcastTreeMultipath tree =
+                    destinationRootedTreesMultipath.get(pair.getDst());
+            BroadcastTreeMultipath oldTree =
+                    prev.destinationRootedTreesMultipath.get(pair.getDst());
+            if (tree == null || oldTree == null)
+                continue;
+            if (tree != oldTree && !sameNextHops(tree, oldTree,
+                                                 paths.getNodes()))
+                continue;
+            pathcache.put(pair, paths);
+            carriedRouteCount++;
+        }
+    }
+
+    private static boolean sameNextHops(BroadcastTreeMultipath tree,
+                                        BroadcastTreeMultipath oldTree,
+                                        long[] nodes) {
+        for (long node : nodes) {
+            List<Link> hops = tree.getLinks(node);
+            List<Link> oldHops = oldTree.getLinks(node);
+            if (hops == null ? oldHops != null : !hops.equals(oldHops))
+                return false;
+        }
+        return true;
     }
 
     /**
      * Compute a switch-specific cookie based on the given cookie and the
-     * switch ID.  The cookie returned will always be non-negative.
+     * switch ID.  The cookie returned will always be non-negative. The bits
+     * are mixed so that cookies that differ only a little, such as the flow
+     * hashes of nearby ports, still pick different routes.
      * @param cookie
      * @param switchId
      * @return
@@ -2254,8 +2587,11 @@ public class TopologyInstance {
         long result = 1;
         long prime = 7867L;
 
-        result = prime * result + (int) (cookie ^ (cookie >>> 32));
-        result = prime * result + (int) (switchId ^ (switchId >>> 32));
+        result = prime * result + cookie;
+        result = prime * result + switchId;
+        result ^= result >>> 33;
+        result *= 0xff51afd7ed558ccdL;
+        result ^= result >>> 33;
 
         if (result == Long.MIN_VALUE)
             return Long.MAX_VALUE;
@@ -2264,119 +2600,163 @@ public class TopologyInstance {
         else return result;
     }
 
-    protected Route buildroute(RouteId id) {
-        NodePortTuple npt;
-        int routeCount = 0;
-        long srcId = id.getSrc();
-        long dstId = id.getDst();
-        long cookie = id.getCookie();
-
-        LinkedList<NodePortTuple> switchPorts = new LinkedList<NodePortTuple>();
-
-        if (destinationRootedTreesMultipath == null) return null;
-        if (destinationRootedTreesMultipath.get(dstId) == null) return null;
-
-        HashMap<Long, ArrayList<Link>> nexthoplinks = destinationRootedTreesMultipath.get(dstId)
-              .getLinks();
+    /**
+     * Build the equal-cost routes from a switch to another, at most
+     * maxEcmpPaths of them, or one if multipath is disabled.
+     */
+    protected RoutePathSet buildPathSet(long srcId, long dstId) {
         if (log.isTraceEnabled()) {
-            log.trace("buildrouteMultipath: find multipath for srcId {} to dstId {} cookie "
-                    + cookie, HexString.toHexString(srcId), HexString.toHexString(dstId));
+            log.trace("buildPathSet: find multipath for srcId {} to dstId {}",
+                      HexString.toHexString(srcId),
+                      HexString.toHexString(dstId));
         }
         if (!switches.contains(srcId) || !switches.contains(dstId)) {
             // This is a switch that is not connected to any other switch
             // hence there was no update for links (and hence it is not
             // in the network)
             if (log.isTraceEnabled()) {
-                log.info("buildrouteMultipath: Standalone switch: {}", srcId);
+                log.trace("buildPathSet: Standalone switch: {}", srcId);
             }
-            // The only possible non-null path for this case is
-            // if srcId equals dstId --- and that too is an 'empty' path []
-
-        } else if ((nexthoplinks != null) && (nexthoplinks.get(srcId) != null)) {
-            while (srcId != dstId) {
-                int choicesThisHop = nexthoplinks.get(srcId).size();
-                // Compute the link index taking into account the given
-                // cookie and the switch on which the forwarding is performed.
-                long linkIndex = computeSwitchCookie(cookie, srcId)
-                        % choicesThisHop;
-                Link l = nexthoplinks.get(srcId).get((int) linkIndex);
-
-                routeCount = (routeCount > choicesThisHop) ? routeCount : choicesThisHop;
-
-                npt = new NodePortTuple(l.getSrc(), l.getSrcPort());
-                switchPorts.addLast(npt);
-                npt = new NodePortTuple(l.getDst(), l.getDstPort());
-                switchPorts.addLast(npt);
-
-                // proceed to next hop
-                srcId = l.getDst();
+            return RoutePathSet.EMPTY;
+        }
+        BroadcastTreeMultipath tree = destinationRootedTreesMultipath.get(dstId);
+        if (tree == null || tree.getLinks(srcId) == null)
+            return RoutePathSet.EMPTY;
+
+        int limit = multipathEnabled ? maxEcmpPaths : 1;
+        List<List<Link>> paths = new ArrayList<List<Link>>();
+        Set<Long> nodes = new LinkedHashSet<Long>();
+        addPaths(tree.getLinks(), srcId, dstId, limit,
+                 new ArrayList<Link>(), paths, nodes);
+
+        List<Route> routes = new ArrayList<Route>(paths.size());
+        Set<List<NodePortTuple>> seen = new HashSet<List<NodePortTuple>>();
+        for (List<Link> path : paths) {
+            List<NodePortTuple> switchPorts =
+                    new ArrayList<NodePortTuple>(2 * path.size());
+            for (Link l : path) {
+                // Eliminate any tunnel domain switch ports from the list.
+                if (tunnelDomain == null ||
+                        l.getSrc() != tunnelDomain.longValue())
+                    switchPorts.add(new NodePortTuple(l.getSrc(),
+                                                      l.getSrcPort()));
+                if (tunnelDomain == null ||
+                        l.getDst() != tunnelDomain.longValue())
+                    switchPorts.add(new NodePortTuple(l.getDst(),
+                                                      l.getDstPort()));
             }
-        }
-        // else, no path exists, and path equals null
-
-        // Eliminate any tunnel domain switch ports from the list.
-        LinkedList<NodePortTuple> resultPorts = new LinkedList<NodePortTuple>();
-        for(int i=0; i<switchPorts.size(); ++i) {
-            NodePortTuple sp = switchPorts.get(i);
-            if (sp.getNodeId() == tunnelDomain.longValue()) continue;
-            resultPorts.addLast(sp);
-        }
-        switchPorts = resultPorts;
-        // tunnel domain switch ports eliminated.
-
-        Route result = null;
-        if (switchPorts != null && !switchPorts.isEmpty()) {
-            result = new Route(id, switchPorts);
-            // set routeCount to record total available routes; useful for
-            // purpose like REST API retrieval
-            result.setRouteCount(routeCount);
-        }
+            if (switchPorts.isEmpty() || !seen.add(switchPorts))
+                continue;
+            routes.add(new Route(new RouteId(srcId, dstId, routes.size()),
+                                 switchPorts));
+        }
+        // record the total available routes; useful for purpose like
+        // REST API retrieval
+        for (Route r : routes)
+            r.setRouteCount(routes.size());
+
+        long[] nodeArray = new long[nodes.size()];
+        int i = 0;
+        for (Long node : nodes)
+            nodeArray[i++] = node;
+        RoutePathSet result =
+                new RoutePathSet(routes.toArray(new Route[routes.size()]),
+                                 nodeArray);
         if (log.isTraceEnabled()) {
-            log.trace("buildrouteMultipath: {}", result);
+            log.trace("buildPathSet: {}", routes);
         }
-
         return result;
     }
 
+    /**
+     * Add the paths from a node to the destination along the next hops of
+     * a multipath tree, at most limit of them. The limit is shared out
+     * evenly among the next hops of each node, so that when there are more
+     * equal-cost paths than the limit the paths kept still use every next
+     * hop they can, rather than only those of the first choices. A next
+     * hop with fewer paths than its share leaves the rest to the next
+     * hops after it.
+     * @param nexthoplinks the next hops of each node
+     * @param node the node to start from
+     * @param dstId the destination
+     * @param limit the maximum number of paths
+     * @param hops the links to node
+     * @param paths the list to add the paths to
+     * @param nodes filled with the nodes whose next hops were followed
+     * @return the number of paths added
+     */
+    private int addPaths(Map<Long, ArrayList<Link>> nexthoplinks,
+                         long node, long dstId, int limit,
+                         List<Link> hops, List<List<Link>> paths,
+                         Set<Long> nodes) {
+        if (node == dstId) {
+            paths.add(new ArrayList<Link>(hops));
+            return 1;
+        }
+        nodes.add(node);
+        List<Link> choices = nexthoplinks.get(node);
+        // A path can't be longer than the number of switches, unless the
+        // tree has a loop
+        if (choices == null || hops.size() >= switches.size())
+            return 0;
+        int added = 0;
+        int n = choices.size();
+        for (int i = 0; i < n && added < limit; i++) {
+            // this choice's share of what's left, rounded up
+            int remaining = n - i;
+            int share = (limit - added + remaining - 1) / remaining;
+            Link l = choices.get(i);
+            hops.add(l);
+            added += addPaths(nexthoplinks, l.getDst(), dstId, share, hops,
+                              paths, nodes);
+            hops.remove(hops.size() - 1);
+        }
+        return added;
+    }
+
     // cookie based getRoute, needed by multipath
-    // The only difference between this and the super method is that
-    // the route id uses cookie here, the super does not.
+    // The route is picked from the equal-cost routes between the switches
+    // by a hash of the cookie and the source switch, so callers pass a hash
+    // of the flow as the cookie to spread flows over the routes. The cookie
+    // of the returned route's id is the index of the route among them, not
+    // the cookie passed in.
     // NOTE: Return a null route if srcId equals dstId.  The null route
-    // need not be stored in the cache.  Moreover, the LoadingCache will
-    // throw an exception if null route is returned.
+    // need not be stored in the cache.
     protected Route getRoute(long srcId, long dstId, long cookie) {
         if(!multipathEnabled) cookie=0;
 
         // Return null route if srcId equals dstId
         if (srcId == dstId) return null;
 
-        RouteId id = new RouteId(srcId, dstId, cookie);
         Route result = null;
+        RoutePathSet paths = getPathSet(srcId, dstId);
+        if (paths != null)
+            result = paths.getRoute(computeSwitchCookie(cookie, srcId));
+
+        if (log.isTraceEnabled()) {
+            log.trace("getRoute: {} -> {} cookie: " + cookie,
+                      HexString.toHexString(srcId) + "-" +
+                      HexString.toHexString(dstId), result);
+        }
+        return result;
+    }
 
+    protected RoutePathSet getPathSet(long srcId, long dstId) {
         try {
-            result = pathcache.get(id);
+            return pathcache.get(new OrderedNodePair(srcId, dstId));
         } catch (Exception e) {
             log.error("{}", e);
+            return null;
         }
-
-        if (log.isTraceEnabled()) {
-            log.trace("getRoute: {} -> {} cookie: " + cookie, id, result);
-        }
-        return result;
     }
 
     public ArrayList<Route> getRoutes(long srcDpid, long dstDpid) {
         ArrayList<Route> routes = new ArrayList<Route>();
+        if (srcDpid == dstDpid) return routes;
 
-        Route firstRoute = getRoute(srcDpid, dstDpid, 0);
-
-        if(firstRoute != null) {
-            routes.add(firstRoute);
-
-            for (int i=1; i < firstRoute.getRouteCount(); i++)
-                routes.add(getRoute(srcDpid, dstDpid, i));
-        }
-
+        RoutePathSet paths = getPathSet(srcDpid, dstDpid);
+        if (paths != null)
+            routes.addAll(paths.getRoutes());
         return routes;
     }
 
@@ -2385,7 +2765,11 @@ public class TopologyInstance {
     }
 
     public void setMultipathStatus(boolean multipathEnabled) {
-        this.multipathEnabled = multipathEnabled;
+        if (this.multipathEnabled != multipathEnabled) {
+            this.multipathEnabled = multipathEnabled;
+            // the cached route sets hold one route if multipath is off
+            pathcache.invalidateAll();
+        }
     }
 
 }
@@ -31,6 +31,7 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -188,6 +189,19 @@ public class TopologyManager implements
     // Multipath
     boolean multipathEnabled;
 
+    // Reuse the unaffected trees and routes of the current instance when
+    // computing a new one
+    boolean incrementalTopology;
+
+    // Pool for computing shortest path trees in parallel. Null unless
+    // topologycomputethreads is set.
+    protected ForkJoinPool treeComputePool;
+
+    // Memory budget of the route cache of each instance, and the number
+    // of equal-cost routes kept per pair of switches
+    protected long routeCacheBytes = TopologyInstance.DEFAULT_ROUTE_CACHE_BYTES;
+    protected int maxEcmpPaths = TopologyInstance.DEFAULT_MAX_ECMP_PATHS;
+
     // NOF Traffic Spreading
     // This flag enables if the traffic is spread across the links
     // connecting to a broadcast domain or not.
@@ -1025,6 +1039,40 @@ public class TopologyManager implements
             multipathEnabled = true;
             log.debug("Multipathing within Openflow domains enabled.");
         }
+
+        option = configOptions.get("incrementaltopology");
+        if (option != null && option.equalsIgnoreCase("true")) {
+            incrementalTopology = true;
+            log.debug("Incremental topology computation enabled.");
+        } else {
+            incrementalTopology = false;
+        }
+
+        option = configOptions.get("topologycomputethreads");
+        if (option != null) {
+            int threads = Integer.parseInt(option);
+            if (threads > 0) {
+                treeComputePool = new ForkJoinPool(threads);
+                log.debug("Computing shortest path trees on {} threads",
+                          threads);
+            }
+        }
+
+        option = configOptions.get("routecachemb");
+        if (option != null) {
+            routeCacheBytes = Long.parseLong(option) * 1024 * 1024;
+            log.debug("Route cache size set to {} MB", option);
+        }
+
+        option = configOptions.get("maxecmppaths");
+        if (option != null) {
+            int paths = Integer.parseInt(option);
+            if (paths > 0) {
+                maxEcmpPaths = paths;
+                log.debug("Keeping up to {} equal-cost routes per switch " +
+                          "pair", paths);
+            }
+        }
     }
 
     protected void registerTopologyDebugEvents() throws FloodlightModuleException {
@@ -1055,6 +1103,17 @@ public class TopologyManager implements
             newInstanceTask.reschedule(TOPOLOGY_COMPUTE_INTERVAL_MS,
                                    TimeUnit.MILLISECONDS);
 
+        if (treeComputePool != null) {
+            // Modules have no shutdown step, so stop the pool when the
+            // controller exits
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    shutdown();
+                }
+            }, "TopologyComputeShutdown"));
+        }
+
         linkDiscovery.addListener(this);
         floodlightProvider.addOFMessageListener(OFType.PACKET_IN, this);
         floodlightProvider.addHAListener(this.haListener);
@@ -1084,6 +1143,20 @@ public class TopologyManager implements
         
     }
 
+    /**
+     * Stop the threads that compute shortest path trees in parallel.
+     * Topologies computed after this run on the calling thread. Called
+     * from a JVM shutdown hook, so it also runs when the controller
+     * terminates.
+     */
+    public void shutdown() {
+        ForkJoinPool pool = treeComputePool;
+        treeComputePool = null;
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
     private void registerTopologyDebugCounters() throws FloodlightModuleException {
         if (debugCounters == null) {
             log.error("Debug Counter Service not found.");
@@ -1494,6 +1567,11 @@ public class TopologyManager implements
                                      tunnelManager,
                                      multipathEnabled,
                                      getNOFTrafficSpreading());
+        if (incrementalTopology)
+            ntNoTunnels.setPreviousInstance(currentInstanceWithoutTunnels);
+        ntNoTunnels.setTreeComputePool(treeComputePool);
+        ntNoTunnels.setRouteCacheConfig(routeCacheBytes, maxEcmpPaths);
+        ntNoTunnels.setPreviousRoutes(currentInstanceWithoutTunnels);
         ntNoTunnels.compute();
 
 
@@ -1510,6 +1588,11 @@ public class TopologyManager implements
                                      tunnelManager,
                                      multipathEnabled,
                                      getNOFTrafficSpreading());
+        if (incrementalTopology)
+            nt.setPreviousInstance(currentInstance);
+        nt.setTreeComputePool(treeComputePool);
+        nt.setRouteCacheConfig(routeCacheBytes, maxEcmpPaths);
+        nt.setPreviousRoutes(currentInstance);
         nt.compute();
 
         currentInstanceWithoutTunnels = ntNoTunnels;
@@ -2,6 +2,9 @@ package org.projectfloodlight.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +52,43 @@ public final class IOUtils {
         }
     }
 
+    /**
+     * Force the contents of a file to the storage device, e.g. before it is
+     * renamed over another file with {@link #mvAndOverride(File, File)}
+     *
+     * @param file
+     * @throws IOException
+     */
+    public static void fsync(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.getChannel().force(true);
+        }
+    }
+
+    /**
+     * Force the entries of a directory to the storage device, so that a
+     * rename or a newly created file in it survives a crash. Does nothing on
+     * platforms that can't open a directory, e.g. Windows.
+     *
+     * @param dir
+     * @throws IOException
+     */
+    public static void fsyncDirectory(File dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            if (logger.isDebugEnabled())
+                logger.debug("Can't open directory " + dir + " to sync it: " + e);
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
     /**
      * ensure sessionDir exists and is a writeable directory. If sessionDir does
      * not exists, create it. Throw an exception if that fails. If sessionDir
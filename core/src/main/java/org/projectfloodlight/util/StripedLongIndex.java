@@ -0,0 +1,428 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A concurrent map from primitive long keys to non-negative long values.
+ *
+ * The map is split into lock stripes selected by the key hash. Each stripe
+ * is an open-addressing hash table with linear probing held in two
+ * parallel long arrays, so neither lookups nor updates of existing keys
+ * allocate. Operations on different stripes don't contend.
+ *
+ * A key can optionally be mapped to more than one value with
+ * {@link #addValue(long, long)}. The first value is stored inline; only
+ * keys with several values use an overflow set.
+ */
+public class StripedLongIndex {
+    /**
+     * Returned by lookups when there is no value for a key
+     */
+    public static final long NO_VALUE = -1;
+
+    // Marks a slot whose values are stored in the overflow map
+    private static final long MULTI = -2;
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    public StripedLongIndex() {
+        this(DEFAULT_STRIPES, 0);
+    }
+
+    /**
+     * @param concurrency the number of lock stripes, rounded up to a power
+     * of two
+     * @param expectedSize the expected number of keys
+     */
+    public StripedLongIndex(int concurrency, int expectedSize) {
+        int n = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        if (concurrency <= 1) n = 1;
+        stripes = new Stripe[n];
+        stripeShift = 64 - Integer.numberOfTrailingZeros(n);
+        int perStripe = expectedSize / n + 1;
+        for (int i = 0; i < n; i++)
+            stripes[i] = new Stripe(perStripe);
+    }
+
+    /**
+     * 64-bit finalizer from MurmurHash3. Spreads MAC and IP addresses
+     * which otherwise differ only in their low bits.
+     */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private Stripe stripeFor(long hash) {
+        // high bits pick the stripe, low bits the slot
+        return (stripes.length == 1) ? stripes[0] :
+                                       stripes[(int) (hash >>> stripeShift)];
+    }
+
+    /**
+     * Get the value for a key. If the key has several values, one of them
+     * is returned.
+     * @return the value or {@link #NO_VALUE}
+     */
+    public long get(long key) {
+        long hash = mix(key);
+        Stripe s = stripeFor(hash);
+        synchronized (s) {
+            long v = s.get(key, hash);
+            if (v == MULTI)
+                return s.overflow.get(key).get(0);
+            return v;
+        }
+    }
+
+    /**
+     * Get all values for a key
+     * @return a snapshot of the values, empty if there are none
+     */
+    public List<Long> getValues(long key) {
+        long hash = mix(key);
+        Stripe s = stripeFor(hash);
+        synchronized (s) {
+            long v = s.get(key, hash);
+            if (v == NO_VALUE)
+                return Collections.<Long>emptyList();
+            if (v == MULTI)
+                return new ArrayList<Long>(s.overflow.get(key));
+            return Collections.singletonList(v);
+        }
+    }
+
+    /**
+     * Map the key to the value, replacing any existing values
+     * @return the previous value or {@link #NO_VALUE}
+     */
+    public long put(long key, long value) {
+        checkValue(value);
+        long hash = mix(key);
+        Stripe s = stripeFor(hash);
+        synchronized (s) {
+            long prev = s.put(key, hash, value, false);
+            if (prev == MULTI)
+                prev = s.overflow.remove(key).get(0);
+            return prev;
+        }
+    }
+
+    /**
+     * Map the key to the value unless the key already has a value
+     * @return the existing value, or {@link #NO_VALUE} if the value was
+     * added
+     */
+    public long putIfAbsent(long key, long value) {
+        checkValue(value);
+        long hash = mix(key);
+        Stripe s = stripeFor(hash);
+        synchronized (s) {
+            long prev = s.put(key, hash, value, true);
+            if (prev == MULTI)
+                return s.overflow.get(key).get(0);
+            return prev;
+        }
+    }
+
+    /**
+     * Add a value to the set of values of the key
+     */
+    public void addValue(long key, long value) {
+        checkValue(value);
+        long hash = mix(key);
+        Stripe s = stripeFor(hash);
+        synchronized (s) {
+            long prev = s.put(key, hash, value, true);
+            if (prev == NO_VALUE || prev == value)
+                return;
+            if (prev == MULTI) {
+                List<Long> values = s.overflow.get(key);
+                if (!values.contains(value))
+                    values.add(value);
+                return;
+            }
+            List<Long> values = new ArrayList<Long>(2);
+            values.add(prev);
+            values.add(value);
+            s.overflow().put(key, values);
+            s.put(key, hash, MULTI, false);
+        }
+    }
+
+    /**
+     * Remove the key and all its values
+     * @return true if the key was present
+     */
+    public boolean remove(long key) {
+        long hash = mix(key);
+        Stripe s = stripeFor(hash);
+        synchronized (s) {
+            long prev = s.remove(key, hash);
+            if (prev == MULTI)
+                s.overflow.remove(key);
+            return prev != NO_VALUE;
+        }
+    }
+
+    /**
+     * Remove one value of the key
+     * @return true if the value was present
+     */
+    public boolean removeValue(long key, long value) {
+        long hash = mix(key);
+        Stripe s = stripeFor(hash);
+        synchronized (s) {
+            long v = s.get(key, hash);
+            if (v == NO_VALUE)
+                return false;
+            if (v != MULTI) {
+                if (v != value)
+                    return false;
+                s.remove(key, hash);
+                return true;
+            }
+            List<Long> values = s.overflow.get(key);
+            if (!values.remove(Long.valueOf(value)))
+                return false;
+            if (values.size() == 1) {
+                s.overflow.remove(key);
+                s.put(key, hash, values.get(0), false);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of keys
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                size += s.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get a snapshot of all values. Values mapped from several keys
+     * appear several times.
+     */
+    public List<Long> values() {
+        List<Long> result = new ArrayList<Long>();
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.collectValues(result);
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.clear();
+            }
+        }
+    }
+
+    private static void checkValue(long value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative value " + value);
+    }
+
+    /**
+     * One lock stripe. Key 0 marks an empty slot, so the 0 key itself is
+     * stored outside the table. All methods must be called with the
+     * stripe locked.
+     */
+    private static final class Stripe {
+        long[] keys;
+        long[] values;
+        int mask;
+        int size;
+        int resizeAt;
+        boolean hasZeroKey;
+        long zeroValue;
+        Map<Long, List<Long>> overflow;
+
+        Stripe(int expected) {
+            allocate(tableSizeFor(expected));
+        }
+
+        private static int tableSizeFor(int expected) {
+            int cap = (int) Math.ceil(expected / LOAD_FACTOR);
+            return Math.max(MIN_CAPACITY, Integer.highestOneBit(cap - 1) << 1);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+            mask = capacity - 1;
+            resizeAt = (int) (capacity * LOAD_FACTOR);
+        }
+
+        Map<Long, List<Long>> overflow() {
+            if (overflow == null)
+                overflow = new HashMap<Long, List<Long>>();
+            return overflow;
+        }
+
+        long get(long key, long hash) {
+            if (key == 0)
+                return hasZeroKey ? zeroValue : NO_VALUE;
+            int slot = (int) hash & mask;
+            long k;
+            while ((k = keys[slot]) != 0) {
+                if (k == key)
+                    return values[slot];
+                slot = (slot + 1) & mask;
+            }
+            return NO_VALUE;
+        }
+
+        long put(long key, long hash, long value, boolean onlyIfAbsent) {
+            if (key == 0) {
+                if (hasZeroKey) {
+                    long prev = zeroValue;
+                    if (!onlyIfAbsent)
+                        zeroValue = value;
+                    return prev;
+                }
+                hasZeroKey = true;
+                zeroValue = value;
+                size++;
+                return NO_VALUE;
+            }
+            int slot = (int) hash & mask;
+            long k;
+            while ((k = keys[slot]) != 0) {
+                if (k == key) {
+                    long prev = values[slot];
+                    if (!onlyIfAbsent)
+                        values[slot] = value;
+                    return prev;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size > resizeAt)
+                rehash();
+            return NO_VALUE;
+        }
+
+        long remove(long key, long hash) {
+            if (key == 0) {
+                if (!hasZeroKey)
+                    return NO_VALUE;
+                hasZeroKey = false;
+                size--;
+                return zeroValue;
+            }
+            int slot = (int) hash & mask;
+            long k;
+            while ((k = keys[slot]) != 0) {
+                if (k == key) {
+                    long prev = values[slot];
+                    shiftConflictingKeys(slot);
+                    size--;
+                    return prev;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return NO_VALUE;
+        }
+
+        /**
+         * Backward-shift deletion: move later entries of the probe
+         * sequence into the gap so lookups never need tombstones
+         */
+        private void shiftConflictingKeys(int gap) {
+            int slot = gap;
+            while (true) {
+                slot = (slot + 1) & mask;
+                long k = keys[slot];
+                if (k == 0)
+                    break;
+                int ideal = (int) mix(k) & mask;
+                if (((slot - ideal) & mask) >= ((slot - gap) & mask)) {
+                    keys[gap] = k;
+                    values[gap] = values[slot];
+                    gap = slot;
+                }
+            }
+            keys[gap] = 0;
+            values[gap] = 0;
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            allocate(keys.length << 1);
+            for (int i = 0; i < oldKeys.length; i++) {
+                long k = oldKeys[i];
+                if (k == 0)
+                    continue;
+                int slot = (int) mix(k) & mask;
+                while (keys[slot] != 0)
+                    slot = (slot + 1) & mask;
+                keys[slot] = k;
+                values[slot] = oldValues[i];
+            }
+        }
+
+        void collectValues(List<Long> result) {
+            if (hasZeroKey)
+                addValues(0, zeroValue, result);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0)
+                    addValues(keys[i], values[i], result);
+            }
+        }
+
+        private void addValues(long key, long value, List<Long> result) {
+            if (value == MULTI)
+                result.addAll(overflow.get(key));
+            else
+                result.add(value);
+        }
+
+        void clear() {
+            allocate(MIN_CAPACITY);
+            size = 0;
+            hasZeroKey = false;
+            overflow = null;
+        }
+    }
+}
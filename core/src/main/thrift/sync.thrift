@@ -44,6 +44,12 @@ struct KeyedVersions {
   2: required list<VectorClock> versions
 }
 
+struct DigestRange {
+  1: required i32 start,
+  2: required i32 end,
+  3: required i64 digest
+}
+
 struct AsyncMessageHeader {
   1: optional i32 transactionId,
 }
@@ -95,7 +101,9 @@ enum MessageType {
   CLUSTER_JOIN_RESPONSE = 21,
   LEADER = 22,
   LEADER_CAND = 23,
-  LEADER_ACK = 24 
+  LEADER_ACK = 24,
+  SYNC_DIGEST = 25,
+  SYNC_DIGEST_RESPONSE = 26
 }
 
 enum AuthScheme {
@@ -246,6 +254,18 @@ struct LeaderAckMessage {
   3: optional i16 leaderNodeId
 }
 
+struct SyncDigestMessage {
+  1: required AsyncMessageHeader header,
+  2: required Store store,
+  3: list<DigestRange> ranges
+}
+
+struct SyncDigestResponseMessage {
+  1: required AsyncMessageHeader header,
+  2: required Store store,
+  3: list<DigestRange> ranges
+}
+
 #
 # Message wrapper
 #
@@ -275,5 +295,7 @@ struct SyncMessage {
   22: optional ClusterJoinResponseMessage clusterJoinResponse,
   23: optional LeaderMessage leader,
   24: optional LeaderCandMessage leaderCand,
-  25: optional LeaderAckMessage leaderAck
+  25: optional LeaderAckMessage leaderAck,
+  26: optional SyncDigestMessage syncDigest,
+  27: optional SyncDigestResponseMessage syncDigestResponse
 }
\ No newline at end of file
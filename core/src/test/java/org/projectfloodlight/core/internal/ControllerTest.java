@@ -49,9 +49,13 @@ import java.util.Set;
 
 import org.junit.After;
 import org.junit.Before;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.junit.Test;
+import org.openflow.protocol.LazyOFPacketIn;
 import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFlowRemoved;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.OFPacketIn.OFPacketInReason;
@@ -93,6 +97,7 @@ import org.projectfloodlight.packet.ARP;
 import org.projectfloodlight.packet.Ethernet;
 import org.projectfloodlight.packet.IPacket;
 import org.projectfloodlight.packet.IPv4;
+import org.projectfloodlight.packet.PacketHeaders;
 import org.projectfloodlight.perfmon.IPktInProcessingTimeService;
 import org.projectfloodlight.perfmon.PktInProcessingTime;
 import org.projectfloodlight.sync.IStoreClient;
@@ -113,6 +118,7 @@ public class ControllerTest extends FloodlightTestCase {
     private IStoreClient<Long, SwitchSyncRepresentation> storeClient;
     private IPacket testPacket;
     private OFPacketIn pi;
+    private PktInProcessingTime ppt;
 
     @Override
     @Before
@@ -137,7 +143,7 @@ public class ControllerTest extends FloodlightTestCase {
         CounterStore cs = new CounterStore();
         fmc.addService(ICounterStoreService.class, cs);
 
-        PktInProcessingTime ppt = new PktInProcessingTime();
+        ppt = new PktInProcessingTime();
         fmc.addService(IPktInProcessingTimeService.class, ppt);
 
         // TODO: should mock IDebugCounterService and make sure
@@ -515,6 +521,83 @@ public class ControllerTest extends FloodlightTestCase {
     }
 
 
+    /**
+     * Only packet-ins are recorded in the packet-in latency histograms,
+     * even though other message types go through the same listener loop
+     */
+    @Test
+    public void testLatencyOnlyForPacketIn() throws Exception {
+        IOFSwitch sw = createMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(0L).anyTimes();
+        expect(sw.getStringId()).andReturn("00:00:00:00:00:00:00").anyTimes();
+        IOFMessageListener test1 = createMock(IOFMessageListener.class);
+        expect(test1.getName()).andReturn("test1").anyTimes();
+        setupListenerOrdering(test1);
+        OFFlowRemoved fr = (OFFlowRemoved)
+                BasicFactory.getInstance().getMessage(OFType.FLOW_REMOVED);
+        expect(test1.receive(eq(sw), eq(fr), isA(FloodlightContext.class)))
+                .andReturn(Command.CONTINUE);
+        expect(test1.receive(eq(sw), eq(pi), isA(FloodlightContext.class)))
+                .andReturn(Command.CONTINUE);
+        replay(test1, sw);
+
+        controller.removeOFMessageListeners(OFType.PACKET_IN);
+        controller.addOFMessageListener(OFType.PACKET_IN, test1);
+        controller.addOFMessageListener(OFType.FLOW_REMOVED, test1);
+        assertTrue(ppt.isLatencyRecordingEnabled());
+
+        controller.handleMessage(sw, fr, null);
+        assertTrue(ppt.getListenerLatencies().isEmpty());
+        assertTrue(ppt.getSwitchLatencies().isEmpty());
+
+        controller.handleMessage(sw, pi, null);
+        verify(test1, sw);
+        assertEquals(1, ppt.getListenerLatencies().size());
+        assertEquals(1, ppt.getListenerLatencies().get(0).getCount());
+        assertEquals(1, ppt.getSwitchLatencies().size());
+        assertEquals(1, ppt.getSwitchLatencies().get(0).getCount());
+    }
+
+    /**
+     * Dispatching a lazily decoded packet-in must parse its headers from
+     * the read buffer without copying the payload out of it
+     */
+    @Test
+    public void testHandleLazyPacketIn() throws Exception {
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        pi.writeTo(buf);
+        LazyOFPacketIn lpi = (LazyOFPacketIn)
+                new OFMessageDecoder(true).parseMessagesLazy(buf).get(0);
+        assertFalse(lpi.isMaterialized());
+
+        IOFSwitch sw = createMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(0L).anyTimes();
+        expect(sw.getStringId()).andReturn("00:00:00:00:00:00:00").anyTimes();
+        IOFMessageListener test1 = createMock(IOFMessageListener.class);
+        expect(test1.getName()).andReturn("test1").anyTimes();
+        setupListenerOrdering(test1);
+        FloodlightContext cntx = new FloodlightContext();
+        expect(test1.receive(same(sw), same((OFMessage) lpi), same(cntx)))
+                .andReturn(Command.CONTINUE);
+        replay(test1, sw);
+
+        controller.removeOFMessageListeners(OFType.PACKET_IN);
+        controller.addOFMessageListener(OFType.PACKET_IN, test1);
+        controller.handleMessage(sw, lpi, cntx);
+        verify(test1, sw);
+        assertFalse(lpi.isMaterialized());
+
+        PacketHeaders headers = cntx.getPacketHeaders();
+        assertTrue(headers.isValid());
+        assertEquals(((Ethernet) testPacket).getEtherType(),
+                     headers.getEtherType());
+        // Building the Ethernet on demand doesn't materialize it either
+        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        assertArrayEquals(testPacket.serialize(), eth.serialize());
+        assertFalse(lpi.isMaterialized());
+    }
+
     /**
      * Test injectMessage and also do some more tests for listener ordering
      * and handling of Command.STOP
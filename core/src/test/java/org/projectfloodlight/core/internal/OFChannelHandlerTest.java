@@ -36,6 +36,8 @@ import org.jboss.netty.channel.MessageEvent;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFEchoRequest;
 import org.openflow.protocol.OFError;
 import org.openflow.protocol.OFError.OFBadRequestCode;
 import org.openflow.protocol.OFError.OFErrorType;
@@ -100,6 +102,8 @@ public class OFChannelHandlerTest {
 
     private Set<Integer> seenXids = null;
     private IOFSwitch sw;
+    // output queue handed to the switch when it's instantiated
+    private OFSwitchOutputQueue outputQueue;
 
     private MockBigDBService bigDBService;
 
@@ -135,6 +139,7 @@ public class OFChannelHandlerTest {
         writeCapture = new Capture<List<OFMessage>>(CaptureType.ALL);
         sw = createMock(IOFSwitch.class);
         seenXids = null;
+        outputQueue = null;
 
         // TODO: should mock IDebugCounterService and make sure
         // the expected counters are updated.
@@ -495,6 +500,8 @@ public class OFChannelHandlerTest {
         reset(sw);
         sw.setChannel(channel);
         expectLastCall().once();
+        sw.setOutputQueue(outputQueue);
+        expectLastCall().once();
         sw.setFloodlightProvider(controller);
         expectLastCall().once();
         sw.setThreadPoolService(threadPool);
@@ -560,6 +567,8 @@ public class OFChannelHandlerTest {
         expectLastCall().once();
         expect(controller.getThreadPoolService())
                 .andReturn(threadPool).once();
+        expect(controller.createSwitchOutputQueue(channel))
+                .andReturn(outputQueue).once();
         expect(controller.getOFSwitchInstance(eq(desc)))
                 .andReturn(sw).once();
         expect(controller.getCoreFlowPriority())
@@ -627,6 +636,8 @@ public class OFChannelHandlerTest {
         expectLastCall().once();
         expect(controller.getThreadPoolService())
                 .andReturn(threadPool).once();
+        expect(controller.createSwitchOutputQueue(channel))
+                .andReturn(outputQueue).once();
         expect(controller.getOFSwitchInstance(eq(desc)))
                 .andReturn(sw).once();
         expect(controller.getCoreFlowPriority())
@@ -1332,6 +1343,59 @@ public class OFChannelHandlerTest {
         // TODO: many more to go
     }
 
+    /**
+     * Barrier replies in MASTER role must reach the controller's
+     * BARRIER_REPLY listeners, e.g. the flow reconcile manager
+     */
+    @Test
+    public void testBarrierReplyDispatchMaster() throws Exception {
+        testInitialMoveToMasterWithRole();
+
+        OFBarrierReply br = (OFBarrierReply)
+                BasicFactory.getInstance().getMessage(OFType.BARRIER_REPLY);
+        br.setXid(42);
+        reset(controller);
+        controller.handleMessage(sw, br, null);
+        expectLastCall().once();
+        sendMessageToHandlerNoControllerReset(
+               Collections.<OFMessage>singletonList(br));
+        verify(controller);
+    }
+
+    /**
+     * Echo replies sent by the handler itself must go through the switch's
+     * output queue so they're not reordered with queued messages
+     */
+    @Test
+    public void testEchoReplyThroughOutputQueue() throws Exception {
+        outputQueue = createMock(OFSwitchOutputQueue.class);
+        replay(outputQueue);
+        testInitialMoveToMasterWithRole();
+
+        OFEchoRequest echo = (OFEchoRequest)
+                BasicFactory.getInstance().getMessage(OFType.ECHO_REQUEST);
+        echo.setXid(4711);
+        Capture<List<OFMessage>> queueCapture = new Capture<List<OFMessage>>();
+        reset(outputQueue);
+        outputQueue.write(capture(queueCapture));
+        expectLastCall().once();
+        replay(outputQueue);
+        // The channel mock has no write expectations, so a direct write
+        // would fail the test
+        reset(sw);
+        expect(sw.inputThrottled(anyObject(OFMessage.class)))
+                .andReturn(false).anyTimes();
+        replay(sw);
+        sendMessageToHandlerWithControllerReset(
+                Collections.<OFMessage>singletonList(echo));
+
+        verify(outputQueue);
+        List<OFMessage> msgs = queueCapture.getValue();
+        assertEquals(1, msgs.size());
+        assertEquals(OFType.ECHO_REPLY, msgs.get(0).getType());
+        assertEquals(4711, msgs.get(0).getXid());
+    }
+
     /**
      * Test port status message handling while MASTER
      *
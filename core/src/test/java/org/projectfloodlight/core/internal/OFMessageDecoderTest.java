@@ -0,0 +1,137 @@
+package org.projectfloodlight.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import org.openflow.protocol.LazyOFPacketIn;
+import org.openflow.protocol.OFHello;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPacketIn.OFPacketInReason;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.protocol.factory.MessageParseException;
+
+public class OFMessageDecoderTest {
+
+    private OFPacketIn makePacketIn(int xid, short inPort, byte[] data) {
+        OFPacketIn pi = (OFPacketIn) BasicFactory.getInstance()
+                .getMessage(OFType.PACKET_IN);
+        pi.setXid(xid);
+        pi.setBufferId(-1);
+        pi.setInPort(inPort);
+        pi.setReason(OFPacketInReason.NO_MATCH);
+        pi.setTotalLength((short) data.length);
+        pi.setPacketData(data);
+        return pi;
+    }
+
+    @Test
+    public void testLazyDecode() throws Exception {
+        OFPacketIn pi1 = makePacketIn(1, (short) 3, new byte[] {1, 2, 3, 4});
+        OFPacketIn pi2 = makePacketIn(2, (short) 4, new byte[] {5, 6, 7});
+        OFHello hello = (OFHello) BasicFactory.getInstance()
+                .getMessage(OFType.HELLO);
+        hello.setXid(3);
+
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        pi1.writeTo(buf);
+        hello.writeTo(buf);
+        pi2.writeTo(buf);
+        // A partial message that must be left in the buffer
+        ChannelBuffer partial = ChannelBuffers.dynamicBuffer();
+        pi1.writeTo(partial);
+        buf.writeBytes(partial, 0, 10);
+
+        OFMessageDecoder decoder = new OFMessageDecoder(true);
+        List<OFMessage> msgs = decoder.parseMessagesLazy(buf);
+        assertEquals(3, msgs.size());
+        assertEquals(10, buf.readableBytes());
+        assertNull(decoder.parseMessagesLazy(buf));
+
+        LazyOFPacketIn lpi1 = (LazyOFPacketIn) msgs.get(0);
+        assertFalse(lpi1.isMaterialized());
+        assertEquals(pi1.getInPort(), lpi1.getInPort());
+        assertEquals(pi1.getXid(), lpi1.getXid());
+        assertEquals(4, lpi1.getPacketDataLength());
+        assertEquals(2, lpi1.getPacketDataBuffer().getByte(1));
+        assertFalse(lpi1.isMaterialized());
+
+        // The controller's own view exposes the read buffer's array so
+        // the packet can be deserialized in place; external callers get a
+        // read-only view
+        assertTrue(lpi1.wrapPacketData().hasArray());
+        assertSame(buf.array(), lpi1.wrapPacketData().array());
+        assertFalse(lpi1.getPacketDataBuffer().hasArray());
+        assertSame(pi1.getPacketData(), pi1.wrapPacketData().array());
+        assertFalse(lpi1.isMaterialized());
+
+        // Serializing a view must not materialize it
+        ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+        lpi1.writeTo(out);
+        assertFalse(lpi1.isMaterialized());
+        ChannelBuffer expected = ChannelBuffers.dynamicBuffer();
+        pi1.writeTo(expected);
+        assertEquals(expected, out);
+
+        assertArrayEquals(pi1.getPacketData(), lpi1.getPacketData());
+        assertTrue(lpi1.isMaterialized());
+        assertEquals(pi1, lpi1);
+
+        assertEquals(OFType.HELLO, msgs.get(1).getType());
+        // equals() compares a view without materializing it
+        assertEquals(msgs.get(2), pi2);
+        assertFalse(((LazyOFPacketIn) msgs.get(2)).isMaterialized());
+    }
+
+    @Test
+    public void testLazyEqualsSymmetric() throws Exception {
+        OFPacketIn pi = makePacketIn(1, (short) 3, new byte[] {1, 2, 3, 4});
+        OFMessageDecoder decoder = new OFMessageDecoder(true);
+
+        // eager.equals(lazy) before the view has been materialized
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        pi.writeTo(buf);
+        LazyOFPacketIn lpi = (LazyOFPacketIn) decoder.parseMessagesLazy(buf).get(0);
+        assertFalse(lpi.isMaterialized());
+        assertTrue(pi.equals(lpi));
+        assertEquals(pi.hashCode(), lpi.hashCode());
+        // comparing and hashing don't copy the payload out of the buffer
+        assertFalse(lpi.isMaterialized());
+
+        // lazy.equals(eager), hashing the view first
+        buf = ChannelBuffers.dynamicBuffer();
+        pi.writeTo(buf);
+        lpi = (LazyOFPacketIn) decoder.parseMessagesLazy(buf).get(0);
+        assertFalse(lpi.isMaterialized());
+        assertEquals(pi.hashCode(), lpi.hashCode());
+        assertTrue(lpi.equals(pi));
+        assertFalse(lpi.isMaterialized());
+
+        // and a different payload is unequal both ways
+        OFPacketIn other = makePacketIn(1, (short) 3, new byte[] {1, 2, 3, 5});
+        assertFalse(other.equals(lpi));
+        assertFalse(lpi.equals(other));
+        assertFalse(lpi.isMaterialized());
+    }
+
+    @Test
+    public void testLazyDecodeInvalidLength() throws Exception {
+        ChannelBuffer buf = ChannelBuffers.buffer(8);
+        buf.writeByte(OFMessage.OFP_VERSION);
+        buf.writeByte(OFType.HELLO.getTypeValue());
+        buf.writeShort(4);
+        buf.writeInt(0);
+        OFMessageDecoder decoder = new OFMessageDecoder(true);
+        try {
+            decoder.parseMessagesLazy(buf);
+            fail("Expected MessageParseException");
+        } catch (MessageParseException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.projectfloodlight.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+
+public class OFSwitchOutputQueueTest {
+    private ScheduledExecutorService ses;
+    private Channel channel;
+    private Capture<List<OFMessage>> writes;
+    private BasicFactory factory;
+
+    @Before
+    public void setUp() {
+        ses = Executors.newSingleThreadScheduledExecutor();
+        factory = BasicFactory.getInstance();
+        writes = new Capture<List<OFMessage>>(CaptureType.ALL);
+        channel = createMock(Channel.class);
+        expect(channel.write(capture(writes))).andReturn(null).anyTimes();
+        replay(channel);
+    }
+
+    @After
+    public void tearDown() {
+        ses.shutdownNow();
+    }
+
+    private OFMessage makeFlowMod(int xid) {
+        OFMessage fm = factory.getMessage(OFType.FLOW_MOD);
+        fm.setXid(xid);
+        return fm;
+    }
+
+    private List<Integer> writtenXids() {
+        List<Integer> xids = new ArrayList<Integer>();
+        for (List<OFMessage> l : writes.getValues())
+            for (OFMessage m : l)
+                xids.add(m.getXid());
+        return xids;
+    }
+
+    @Test
+    public void testThresholdAndBarrier() {
+        // Long delay so that only the threshold and the barrier flush
+        OFSwitchOutputQueue q = new OFSwitchOutputQueue(channel, ses, 4,
+                                                        10000000);
+        for (int i = 0; i < 3; i++)
+            q.write(makeFlowMod(i));
+        q.flush();
+        assertFalse(writes.hasCaptured());
+        assertEquals(3, q.getQueueSize());
+
+        q.write(makeFlowMod(3));
+        assertEquals(1, writes.getValues().size());
+        assertEquals(4, writes.getValue().size());
+        assertEquals(0, q.getQueueSize());
+
+        q.write(makeFlowMod(4));
+        OFMessage barrier = factory.getMessage(OFType.BARRIER_REQUEST);
+        barrier.setXid(5);
+        q.write(barrier);
+        assertEquals(2, writes.getValues().size());
+        assertEquals(2, writes.getValue().size());
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 6; i++)
+            expected.add(i);
+        assertEquals(expected, writtenXids());
+        assertEquals(6L, q.getStats().get("messages-queued"));
+        assertEquals(2L, q.getStats().get("channel-writes"));
+    }
+
+    @Test
+    public void testTimerFlush() throws Exception {
+        OFSwitchOutputQueue q = new OFSwitchOutputQueue(channel, ses, 1000,
+                                                        100);
+        for (int i = 0; i < 10; i++)
+            q.write(makeFlowMod(i));
+        for (int i = 0; i < 100 && q.getQueueSize() > 0; i++)
+            Thread.sleep(10);
+        assertEquals(0, q.getQueueSize());
+        assertEquals(10, writtenXids().size());
+        assertTrue((Long) q.getStats().get("timer-flushes") >= 1);
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final int threads = 4;
+        final int perThread = 2000;
+        final OFSwitchOutputQueue q =
+                new OFSwitchOutputQueue(channel, ses, 64, 50);
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            Thread th = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++)
+                        q.write(makeFlowMod(base + i));
+                }
+            };
+            writers.add(th);
+            th.start();
+        }
+        for (Thread th : writers)
+            th.join();
+        for (int i = 0; i < 100 && q.getQueueSize() > 0; i++)
+            Thread.sleep(10);
+        assertEquals(0, q.getQueueSize());
+
+        List<Integer> xids = writtenXids();
+        assertEquals(threads * perThread, xids.size());
+        // Messages from each writer keep their relative order
+        int[] last = new int[threads];
+        for (int t = 0; t < threads; t++)
+            last[t] = -1;
+        for (int xid : xids) {
+            int t = xid / perThread;
+            assertTrue(xid > last[t]);
+            last[t] = xid;
+        }
+        assertTrue(writes.getValues().size() < threads * perThread);
+    }
+
+    @Test
+    public void testPooledEncode() {
+        DirectBufferPool pool = new DirectBufferPool(128, 4);
+        OFMessageEncoder encoder = new OFMessageEncoder(pool);
+        List<OFMessage> msglist = new ArrayList<OFMessage>();
+        for (int i = 0; i < 3; i++)
+            msglist.add(makeFlowMod(i));
+
+        // 72 byte flow-mods: one per 128 byte chunk
+        List<ChannelBuffer> chunks = encoder.encodePooled(msglist);
+        assertEquals(3, chunks.size());
+        for (ChannelBuffer chunk : chunks) {
+            assertTrue(chunk.isDirect());
+            assertEquals(OFFlowMod.MINIMUM_LENGTH, chunk.readableBytes());
+        }
+        for (ChannelBuffer chunk : chunks)
+            pool.release(chunk);
+        assertEquals(3, pool.getPooledCount());
+
+        // Reused chunks are cleared
+        chunks = encoder.encodePooled(
+                Collections.singletonList(makeFlowMod(7)));
+        assertEquals(2, pool.getPooledCount());
+        assertEquals(OFFlowMod.MINIMUM_LENGTH, chunks.get(0).readableBytes());
+        assertEquals(7, chunks.get(0).getInt(4));
+    }
+}
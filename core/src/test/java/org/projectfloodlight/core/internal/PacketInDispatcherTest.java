@@ -0,0 +1,374 @@
+package org.projectfloodlight.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.IAnswer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.junit.Test;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+import org.projectfloodlight.core.FloodlightContext;
+import org.projectfloodlight.core.IOFSwitch;
+import org.projectfloodlight.core.internal.PacketInDispatcher.HashMode;
+import org.projectfloodlight.packet.Ethernet;
+import org.projectfloodlight.packet.IPv4;
+import org.projectfloodlight.packet.UDP;
+import org.projectfloodlight.packet.Data;
+
+public class PacketInDispatcherTest {
+
+    /**
+     * Controller that records the order in which packet-ins are handled
+     * per in-port instead of running listeners. Packet-ins on the blocked
+     * port wait for the release latch.
+     */
+    private static class RecordingController extends Controller {
+        final Map<Short, List<Integer>> seen =
+                new HashMap<Short, List<Integer>>();
+        final List<OFType> types = new ArrayList<OFType>();
+        final CountDownLatch latch;
+        short blockedPort;
+        final CountDownLatch release = new CountDownLatch(1);
+
+        RecordingController(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        protected void handleMessage(IOFSwitch sw, OFMessage m,
+                                     FloodlightContext bContext) {
+            synchronized (seen) {
+                types.add(m.getType());
+            }
+            if (m.getType() != OFType.PACKET_IN) {
+                latch.countDown();
+                return;
+            }
+            OFPacketIn pi = (OFPacketIn) m;
+            if (blockedPort != 0 && pi.getInPort() == blockedPort) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            synchronized (seen) {
+                List<Integer> l = seen.get(pi.getInPort());
+                if (l == null) {
+                    l = new ArrayList<Integer>();
+                    seen.put(pi.getInPort(), l);
+                }
+                l.add(pi.getXid());
+            }
+            latch.countDown();
+        }
+
+        @Override
+        void flushAll() {
+            // nothing to flush
+        }
+    }
+
+    private IOFSwitch makeSwitch(long dpid, boolean connected) {
+        IOFSwitch sw = createMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(dpid).anyTimes();
+        expect(sw.isConnected()).andReturn(connected).anyTimes();
+        replay(sw);
+        return sw;
+    }
+
+    private static void waitFor(AtomicInteger value, int expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (value.get() != expected) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private OFPacketIn makePacketIn(short inPort, int xid, byte[] data) {
+        OFPacketIn pi = new OFPacketIn();
+        pi.setType(OFType.PACKET_IN);
+        pi.setInPort(inPort);
+        pi.setXid(xid);
+        pi.setPacketData(data);
+        return pi;
+    }
+
+    private byte[] makeUdpPacket(int srcIp, short srcPort) {
+        Ethernet eth = (Ethernet) new Ethernet()
+            .setSourceMACAddress("00:00:00:00:00:01")
+            .setDestinationMACAddress("00:00:00:00:00:02")
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(new IPv4()
+                .setTtl((byte) 64)
+                .setSourceAddress(srcIp)
+                .setDestinationAddress("10.0.0.2")
+                .setProtocol(IPv4.PROTOCOL_UDP)
+                .setPayload(new UDP()
+                    .setSourcePort(srcPort)
+                    .setDestinationPort((short) 53)
+                    .setPayload(new Data(new byte[] {1, 2, 3}))));
+        return eth.serialize();
+    }
+
+    @Test
+    public void testPerPortOrdering() throws Exception {
+        int numPorts = 8;
+        int perPort = 500;
+        RecordingController controller =
+                new RecordingController(numPorts * perPort);
+        PacketInDispatcher dispatcher =
+                new PacketInDispatcher(controller, 4, 16, HashMode.PORT);
+        dispatcher.start();
+
+        IOFSwitch sw = makeSwitch(1L, true);
+
+        byte[] data = new byte[] {1, 2, 3, 4};
+        for (int i = 0; i < perPort; i++) {
+            for (short port = 1; port <= numPorts; port++) {
+                dispatcher.dispatch(sw, makePacketIn(port, i, data), null);
+            }
+        }
+        assertTrue(controller.latch.await(10, TimeUnit.SECONDS));
+
+        assertEquals(numPorts, controller.seen.size());
+        for (List<Integer> xids : controller.seen.values()) {
+            assertEquals(perPort, xids.size());
+            for (int i = 0; i < perPort; i++) {
+                assertEquals(i, xids.get(i).intValue());
+            }
+        }
+        assertNotNull(dispatcher.getInfo("packet-in-dispatch"));
+        assertNull(dispatcher.getInfo("summary"));
+    }
+
+    @Test
+    public void testFlowKey() throws Exception {
+        byte[] p1 = makeUdpPacket(0x0a000001, (short) 1000);
+        byte[] p2 = makeUdpPacket(0x0a000001, (short) 1000);
+        byte[] p3 = makeUdpPacket(0x0a000001, (short) 1001);
+        assertTrue(PacketInDispatcher.getFlowKey(wrappedBuffer(p1)) != 0);
+        assertEquals(PacketInDispatcher.getFlowKey(wrappedBuffer(p1)),
+                     PacketInDispatcher.getFlowKey(wrappedBuffer(p2)));
+        assertTrue(PacketInDispatcher.getFlowKey(wrappedBuffer(p1)) !=
+                   PacketInDispatcher.getFlowKey(wrappedBuffer(p3)));
+
+        // Non-IP and truncated packets fall back to the port key
+        assertEquals(0, PacketInDispatcher.getFlowKey(wrappedBuffer(new byte[10])));
+        byte[] arp = new byte[60];
+        arp[12] = 0x08;
+        arp[13] = 0x06;
+        assertEquals(0, PacketInDispatcher.getFlowKey(wrappedBuffer(arp)));
+
+        RecordingController controller = new RecordingController(0);
+        PacketInDispatcher dispatcher =
+                new PacketInDispatcher(controller, 4, 16, HashMode.FLOW);
+        // Same flow on different ports hashes the same in flow mode
+        assertEquals(dispatcher.getHashKey(1L, makePacketIn((short)1, 0, p1)),
+                     dispatcher.getHashKey(1L, makePacketIn((short)2, 0, p2)));
+        for (long key = -1000; key < 1000; key++) {
+            int idx = PacketInDispatcher.shardIndex(key, 7);
+            assertTrue(idx >= 0 && idx < 7);
+        }
+    }
+
+    @Test
+    public void testThrottleWithoutBlocking() throws Exception {
+        int numMessages = 20;
+        RecordingController controller = new RecordingController(numMessages);
+        PacketInDispatcher dispatcher =
+                new PacketInDispatcher(controller, 1, 4, HashMode.PORT);
+
+        IOFSwitch sw = makeSwitch(1L, true);
+        Channel channel = createStrictMock(Channel.class);
+        expect(channel.setReadable(false)).andReturn(null).once();
+        expect(channel.isOpen()).andReturn(true).once();
+        expect(channel.setReadable(true)).andReturn(null).once();
+        replay(channel);
+
+        // Nothing is draining the shard yet, so this must queue past the
+        // high watermark instead of blocking, and stop reading only once
+        byte[] data = new byte[] {1, 2, 3, 4};
+        for (int i = 0; i < numMessages; i++) {
+            dispatcher.dispatch(sw, makePacketIn((short) 1, i, data), channel);
+        }
+
+        dispatcher.start();
+        assertTrue(controller.latch.await(10, TimeUnit.SECONDS));
+        assertEquals(numMessages, controller.seen.get((short) 1).size());
+        // The channel is resumed after the last batch is processed
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                verify(channel);
+                break;
+            } catch (AssertionError e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * A channel throttled by two shards is only readable again once both
+     * have drained
+     */
+    @Test
+    public void testThrottleByTwoShards() throws Exception {
+        RecordingController controller = new RecordingController(8);
+        PacketInDispatcher dispatcher =
+                new PacketInDispatcher(controller, 2, 4, HashMode.PORT);
+
+        // find two ports that map to different shards
+        byte[] data = new byte[] {1, 2, 3, 4};
+        short portA = 1;
+        short portB = 2;
+        int shardA = PacketInDispatcher.shardIndex(
+                dispatcher.getHashKey(1L, makePacketIn(portA, 0, data)), 2);
+        while (PacketInDispatcher.shardIndex(
+                dispatcher.getHashKey(1L, makePacketIn(portB, 0, data)), 2) ==
+                shardA) {
+            portB++;
+        }
+        controller.blockedPort = portB;
+
+        IOFSwitch sw = makeSwitch(1L, true);
+        final AtomicInteger resumed = new AtomicInteger();
+        Channel channel = createMock(Channel.class);
+        expect(channel.setReadable(false)).andReturn(null).once();
+        expect(channel.isOpen()).andReturn(true).anyTimes();
+        expect(channel.setReadable(true)).andAnswer(new IAnswer<ChannelFuture>() {
+            @Override
+            public ChannelFuture answer() {
+                resumed.incrementAndGet();
+                return null;
+            }
+        }).anyTimes();
+        replay(channel);
+
+        // fill both shards up to their high watermark
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch(sw, makePacketIn(portA, i, data), channel);
+            dispatcher.dispatch(sw, makePacketIn(portB, i, data), channel);
+        }
+        dispatcher.start();
+
+        // shard A drains while shard B is stuck on its first packet-in
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            synchronized (controller.seen) {
+                List<Integer> l = controller.seen.get(portA);
+                if (l != null && l.size() == 4) break;
+            }
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(0, resumed.get());
+
+        controller.release.countDown();
+        assertTrue(controller.latch.await(10, TimeUnit.SECONDS));
+        waitFor(resumed, 1);
+        verify(channel);
+        dispatcher.stop();
+    }
+
+    /**
+     * Packet-ins are queued, so other messages from the same switch are
+     * handled before packet-ins the switch sent earlier
+     */
+    @Test
+    public void testOtherMessagesAreNotQueued() throws Exception {
+        RecordingController controller = new RecordingController(2);
+        PacketInDispatcher dispatcher =
+                new PacketInDispatcher(controller, 1, 16, HashMode.PORT);
+        IOFSwitch sw = makeSwitch(1L, true);
+
+        OFMessage fr = BasicFactory.getInstance().getMessage(OFType.FLOW_REMOVED);
+        dispatcher.dispatchMessage(sw, makePacketIn((short) 1, 1,
+                                                    new byte[] {1, 2, 3, 4}),
+                                   null);
+        dispatcher.dispatchMessage(sw, fr, null);
+        assertEquals(Arrays.asList(OFType.FLOW_REMOVED), controller.types);
+
+        dispatcher.start();
+        assertTrue(controller.latch.await(10, TimeUnit.SECONDS));
+        synchronized (controller.seen) {
+            assertEquals(Arrays.asList(OFType.FLOW_REMOVED, OFType.PACKET_IN),
+                         controller.types);
+        }
+        dispatcher.stop();
+    }
+
+    /**
+     * Packet-ins from a switch that has disconnected are dropped
+     */
+    @Test
+    public void testDropDisconnectedSwitch() throws Exception {
+        RecordingController controller = new RecordingController(1);
+        PacketInDispatcher dispatcher =
+                new PacketInDispatcher(controller, 1, 16, HashMode.PORT);
+        IOFSwitch gone = makeSwitch(1L, false);
+        IOFSwitch sw = makeSwitch(1L, true);
+
+        byte[] data = new byte[] {1, 2, 3, 4};
+        dispatcher.dispatch(gone, makePacketIn((short) 1, 1, data), null);
+        dispatcher.dispatch(sw, makePacketIn((short) 1, 2, data), null);
+        dispatcher.start();
+        assertTrue(controller.latch.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(2), controller.seen.get((short) 1));
+        dispatcher.stop();
+    }
+
+    /**
+     * Stopping the dispatcher discards queued packet-ins and makes
+     * throttled channels readable again
+     */
+    @Test
+    public void testStop() throws Exception {
+        RecordingController controller = new RecordingController(0);
+        PacketInDispatcher dispatcher =
+                new PacketInDispatcher(controller, 1, 4, HashMode.PORT);
+        IOFSwitch sw = makeSwitch(1L, true);
+        Channel channel = createStrictMock(Channel.class);
+        expect(channel.setReadable(false)).andReturn(null).once();
+        expect(channel.isOpen()).andReturn(true).once();
+        expect(channel.setReadable(true)).andReturn(null).once();
+        replay(channel);
+
+        byte[] data = new byte[] {1, 2, 3, 4};
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch(sw, makePacketIn((short) 1, i, data), channel);
+        }
+        dispatcher.stop();
+        verify(channel);
+        assertEquals(0, dispatcher.getQueueDepths()[0]);
+
+        // later packet-ins are dropped
+        dispatcher.dispatch(sw, makePacketIn((short) 1, 5, data), channel);
+        assertEquals(0, dispatcher.getQueueDepths()[0]);
+        assertTrue(controller.seen.isEmpty());
+        try {
+            dispatcher.start();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.projectfloodlight.counter;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.core.IOFSwitch;
+import org.projectfloodlight.core.module.FloodlightModuleContext;
+import org.projectfloodlight.core.test.MockThreadPoolService;
+import org.projectfloodlight.packet.Data;
+import org.projectfloodlight.packet.Ethernet;
+import org.projectfloodlight.packet.IPv4;
+import org.projectfloodlight.packet.UDP;
+import org.projectfloodlight.threadpool.IThreadPoolService;
+
+public class CounterStoreTest {
+    private CounterStore counterStore;
+    private MockThreadPoolService threadPool;
+    private Ethernet eth;
+    private OFPacketIn pi;
+
+    @Before
+    public void setUp() throws Exception {
+        FloodlightModuleContext fmc = new FloodlightModuleContext();
+        threadPool = new MockThreadPoolService();
+        counterStore = new CounterStore();
+        fmc.addService(IThreadPoolService.class, threadPool);
+        fmc.addService(ICounterStoreService.class, counterStore);
+        fmc.addConfigParam(counterStore, "denseCounters", "true");
+        fmc.addConfigParam(counterStore, "aggregateIntervalMs", "10");
+        threadPool.init(fmc);
+        counterStore.init(fmc);
+        threadPool.startUp(fmc);
+        counterStore.startUp(fmc);
+
+        eth = (Ethernet) new Ethernet()
+            .setDestinationMACAddress("00:11:22:33:44:55")
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(
+                new IPv4()
+                .setTtl((byte) 128)
+                .setSourceAddress("192.168.1.1")
+                .setDestinationAddress("192.168.1.2")
+                .setPayload(new UDP()
+                            .setSourcePort((short) 5000)
+                            .setDestinationPort((short) 5001)
+                            .setPayload(new Data(new byte[] {0x01}))));
+        pi = new OFPacketIn().setPacketData(eth.serialize());
+    }
+
+    @After
+    public void tearDown() {
+        threadPool.getScheduledExecutor().shutdownNow();
+    }
+
+    private IOFSwitch createMockSwitch(long dpid, String stringId) {
+        IOFSwitch sw = createNiceMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(dpid).anyTimes();
+        expect(sw.getStringId()).andReturn(stringId).anyTimes();
+        replay(sw);
+        return sw;
+    }
+
+    private long getValue(String name) {
+        ICounter counter = counterStore.getAll().get(name);
+        return (counter == null) ? -1 : counter.getCounterValue().getLong();
+    }
+
+    private void waitForValue(String name, long expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getValue(name) != expected &&
+               System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, getValue(name));
+    }
+
+    /**
+     * Dense counts reach getAll() through the periodic aggregation task
+     */
+    @Test
+    public void testDenseAggregation() throws Exception {
+        IOFSwitch sw1 = createMockSwitch(1L, "00:00:00:00:00:00:00:01");
+        IOFSwitch sw2 = createMockSwitch(2L, "00:00:00:00:00:00:00:02");
+        for (int i = 0; i < 5; i++)
+            counterStore.updatePacketInCountersLocal(sw1, pi, eth);
+        for (int i = 0; i < 3; i++)
+            counterStore.updatePacketInCountersLocal(sw2, pi, eth);
+
+        String controllerName = CounterStore.createCounterName(
+                ICounterStoreService.CONTROLLER_NAME, -1, "OFPacketIn");
+        String sw1Name = CounterStore.createCounterName(
+                "00:00:00:00:00:00:00:01", -1, "OFPacketIn");
+        String sw2Name = CounterStore.createCounterName(
+                "00:00:00:00:00:00:00:02", -1, "OFPacketIn");
+        waitForValue(controllerName, 8);
+        assertEquals(5, getValue(sw1Name));
+        assertEquals(3, getValue(sw2Name));
+
+        // The task keeps running and only adds what's new
+        for (int i = 0; i < 4; i++)
+            counterStore.updatePacketInCountersLocal(sw2, pi, eth);
+        waitForValue(controllerName, 12);
+        assertEquals(5, getValue(sw1Name));
+        assertEquals(7, getValue(sw2Name));
+
+        // getAll() is a snapshot, later aggregations don't change it
+        Map<String, ICounter> snapshot = counterStore.getAll();
+        counterStore.updatePacketInCountersLocal(sw1, pi, eth);
+        waitForValue(sw1Name, 6);
+        assertEquals(5, snapshot.get(sw1Name).getCounterValue().getLong());
+    }
+}
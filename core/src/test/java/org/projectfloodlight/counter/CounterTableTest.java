@@ -0,0 +1,92 @@
+package org.projectfloodlight.counter;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class CounterTableTest {
+
+    @Test
+    public void testKeyIndex() {
+        LongKeyIndex idx = new LongKeyIndex(100);
+        assertEquals(-1, idx.get(0L));
+        assertEquals(-1, idx.get(42L));
+
+        // slots are dense and in insertion order, including key 0
+        for (int i = 0; i < 100; i++) {
+            long key = (i == 50) ? 0L : ((long)i << 40) | (i + 1);
+            assertEquals(i, idx.add(key));
+        }
+        assertEquals(100, idx.size());
+        for (int i = 0; i < 100; i++) {
+            long key = (i == 50) ? 0L : ((long)i << 40) | (i + 1);
+            assertEquals(i, idx.get(key));
+            assertEquals(i, idx.add(key));
+        }
+        assertEquals(-1, idx.get(12345L));
+
+        // full
+        assertEquals(-1, idx.add(12345L));
+        assertEquals(100, idx.size());
+    }
+
+    @Test
+    public void testRows() {
+        CounterTable t = new CounterTable(4);
+        assertEquals(-1, t.getRow(7L));
+        int r1 = t.addRow(7L);
+        int r2 = t.addRow(-7L);
+        assertEquals(0, r1);
+        assertEquals(1, r2);
+        assertEquals(r1, t.getRow(7L));
+        assertEquals(2, t.getNumRows());
+
+        t.add(r1, 1);
+        t.add(r1, 41);
+        t.add(r2, 5);
+        assertEquals(42, t.get(r1));
+        assertEquals(5, t.get(r2));
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final CounterTable t = new CounterTable(16);
+        final int numThreads = 8;
+        final int numUpdates = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < numUpdates; j++) {
+                        long key = j % 4;
+                        int row = t.getRow(key);
+                        if (row < 0)
+                            row = t.addRow(key);
+                        t.add(row, 1);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(4, t.getNumRows());
+        long total = 0;
+        for (int row = 0; row < t.getNumRows(); row++) {
+            assertEquals((long)numThreads * numUpdates / 4, t.get(row));
+            total += t.get(row);
+        }
+        assertEquals((long)numThreads * numUpdates, total);
+    }
+}
@@ -7,9 +7,11 @@ import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 import org.projectfloodlight.db.data.DataNode;
@@ -21,6 +23,7 @@ import org.projectfloodlight.db.data.memory.MemoryLeafDataNode;
 import org.projectfloodlight.db.data.memory.MemoryLeafListDataNode;
 import org.projectfloodlight.db.data.memory.MemoryListElementDataNode;
 import org.projectfloodlight.db.data.memory.MemoryUnkeyedListDataNode;
+import org.projectfloodlight.db.data.memory.SecondaryIndexStats;
 import org.projectfloodlight.db.expression.LocationPathExpression;
 import org.projectfloodlight.db.schema.ContainerSchemaNode;
 import org.projectfloodlight.db.schema.LeafListSchemaNode;
@@ -313,6 +316,171 @@ public class DataNodeQueryTest extends MapperTest {
         assertThat(iter.hasNext(), is(false));
     }
 
+    private static DataNode makePortElement(String switchName, long port)
+            throws Exception {
+        Map<String, DataNode> initListElementNodes = new HashMap<String, DataNode>();
+        initListElementNodes.put("switch", new MemoryLeafDataNode(switchName));
+        initListElementNodes.put("port", new MemoryLeafDataNode(port));
+        return new MemoryListElementDataNode(false, initListElementNodes);
+    }
+
+    @Test
+    public void queryKeyedListByKeyPrefix() throws Exception {
+        // Set up a schema for a list with a compound key
+        ModuleIdentifier moduleId = new ModuleIdentifier("test");
+        ListElementSchemaNode listElementSchemaNode = new ListElementSchemaNode(moduleId);
+        listElementSchemaNode.addKeyNodeName("switch");
+        listElementSchemaNode.addKeyNodeName("port");
+        listElementSchemaNode.addChildNode("switch",
+                new LeafSchemaNode("switch", moduleId, SchemaNode.LeafType.STRING));
+        listElementSchemaNode.addChildNode("port",
+                new LeafSchemaNode("port", moduleId, SchemaNode.LeafType.INTEGER));
+        ListSchemaNode listSchemaNode = new ListSchemaNode("test", moduleId, listElementSchemaNode);
+
+        List<DataNode> initListNodes = new ArrayList<DataNode>();
+        DataNode s1p1 = makePortElement("s1", 1);
+        DataNode s1p2 = makePortElement("s1", 2);
+        DataNode s2p1 = makePortElement("s2", 1);
+        DataNode s2p3 = makePortElement("s2", 3);
+        DataNode s3p1 = makePortElement("s3", 1);
+        initListNodes.add(s2p3);
+        initListNodes.add(s1p2);
+        initListNodes.add(s3p1);
+        initListNodes.add(s1p1);
+        initListNodes.add(s2p1);
+        IndexSpecifier keySpecifier = IndexSpecifier.fromFieldNames("switch", "port");
+        DataNode listDataNode = new MemoryKeyedListDataNode(false, keySpecifier, initListNodes.iterator());
+
+        // Query by the leading key field
+        LocationPathExpression queryPath = LocationPathExpression.parse("test[switch=\"s2\"]");
+        Iterator<DataNodeWithPath> iter =
+                listDataNode.queryWithPath(listSchemaNode, queryPath).iterator();
+        assertThat(iter.next().getDataNode(), is(s2p1));
+        assertThat(iter.next().getDataNode(), is(s2p3));
+        assertThat(iter.hasNext(), is(false));
+
+        // The other predicates are still matched
+        queryPath = LocationPathExpression.parse("test[switch=\"s1\"][starts-with(port,\"2\")]");
+        iter = listDataNode.queryWithPath(listSchemaNode, queryPath).iterator();
+        assertThat(iter.next().getDataNode(), is(s1p2));
+        assertThat(iter.hasNext(), is(false));
+
+        // No matching key
+        queryPath = LocationPathExpression.parse("test[switch=\"s0\"]");
+        iter = listDataNode.queryWithPath(listSchemaNode, queryPath).iterator();
+        assertThat(iter.hasNext(), is(false));
+
+        // Query by a key field that isn't the leading one
+        queryPath = LocationPathExpression.parse("test[port=1]");
+        iter = listDataNode.queryWithPath(listSchemaNode, queryPath).iterator();
+        assertThat(iter.next().getDataNode(), is(s1p1));
+        assertThat(iter.next().getDataNode(), is(s2p1));
+        assertThat(iter.next().getDataNode(), is(s3p1));
+        assertThat(iter.hasNext(), is(false));
+
+        // Query by the leading key field with a value of another type
+        queryPath = LocationPathExpression.parse("test[switch=5]");
+        iter = listDataNode.queryWithPath(listSchemaNode, queryPath).iterator();
+        assertThat(iter.hasNext(), is(false));
+    }
+
+    private static DataNode makeColorElement(String name, String color)
+            throws Exception {
+        Map<String, DataNode> initListElementNodes = new HashMap<String, DataNode>();
+        initListElementNodes.put("name", new MemoryLeafDataNode(name));
+        if (color != null)
+            initListElementNodes.put("color", new MemoryLeafDataNode(color));
+        return new MemoryListElementDataNode(false, initListElementNodes);
+    }
+
+    @Test
+    public void queryKeyedListBySecondaryIndex() throws Exception {
+        // Set up a schema for a list with an indexed, case-insensitive leaf
+        ModuleIdentifier moduleId = new ModuleIdentifier("test");
+        ListElementSchemaNode listElementSchemaNode = new ListElementSchemaNode(moduleId);
+        listElementSchemaNode.addKeyNodeName("name");
+        listElementSchemaNode.addChildNode("name",
+                new LeafSchemaNode("name", moduleId, SchemaNode.LeafType.STRING));
+        LeafSchemaNode colorSchemaNode =
+                new LeafSchemaNode("color", moduleId, SchemaNode.LeafType.STRING);
+        colorSchemaNode.setAttribute(SchemaNode.INDEXED_ATTRIBUTE_NAME, "true");
+        colorSchemaNode.setAttribute(SchemaNode.CASE_SENSITIVE_ATTRIBUTE_NAME, "false");
+        listElementSchemaNode.addChildNode("color", colorSchemaNode);
+        ListSchemaNode listSchemaNode = new ListSchemaNode("test", moduleId, listElementSchemaNode);
+        assertThat(listSchemaNode.getSecondaryIndexSpecifier("name") == null, is(true));
+        assertThat(listSchemaNode.getSecondaryIndexSpecifier("color") == null, is(false));
+
+        List<DataNode> initListNodes = new ArrayList<DataNode>();
+        DataNode a = makeColorElement("a", "Red");
+        DataNode b = makeColorElement("b", "blue");
+        DataNode c = makeColorElement("c", "red");
+        DataNode d = makeColorElement("d", null);
+        DataNode e = makeColorElement("e", "green");
+        initListNodes.add(e);
+        initListNodes.add(c);
+        initListNodes.add(a);
+        initListNodes.add(d);
+        initListNodes.add(b);
+        IndexSpecifier keySpecifier = IndexSpecifier.fromFieldNames("name");
+        MemoryKeyedListDataNode listDataNode =
+                new MemoryKeyedListDataNode(false, keySpecifier, initListNodes.iterator());
+
+        SecondaryIndexStats stats = SecondaryIndexStats.getInstance();
+        long indexBuilds = stats.getIndexBuilds();
+        long indexLookups = stats.getIndexLookups();
+
+        // Exact match on the indexed leaf
+        LocationPathExpression queryPath = LocationPathExpression.parse("test[color=\"RED\"]");
+        Iterator<DataNodeWithPath> iter =
+                listDataNode.queryWithPath(listSchemaNode, queryPath).iterator();
+        assertThat(iter.next().getDataNode(), is(a));
+        assertThat(iter.next().getDataNode(), is(c));
+        assertThat(iter.hasNext(), is(false));
+
+        // Prefix match on the indexed leaf
+        queryPath = LocationPathExpression.parse("test[starts-with(color,\"GR\")]");
+        iter = listDataNode.queryWithPath(listSchemaNode, queryPath).iterator();
+        assertThat(iter.next().getDataNode(), is(e));
+        assertThat(iter.hasNext(), is(false));
+
+        // The other predicates are still matched
+        queryPath = LocationPathExpression.parse("test[color=\"red\"][starts-with(name,\"c\")]");
+        iter = listDataNode.queryWithPath(listSchemaNode, queryPath).iterator();
+        assertThat(iter.next().getDataNode(), is(c));
+        assertThat(iter.hasNext(), is(false));
+
+        assertThat(stats.getIndexBuilds(), is(indexBuilds + 1));
+        assertThat(stats.getIndexLookups(), is(indexLookups + 3));
+
+        // A list derived from the list updates its index incrementally
+        List<DataNode> updates = new ArrayList<DataNode>();
+        DataNode b2 = makeColorElement("b", "RED");
+        DataNode f = makeColorElement("f", "red");
+        updates.add(b2);
+        updates.add(f);
+        Set<IndexValue> deletions = new HashSet<IndexValue>();
+        deletions.add(IndexValue.fromListElement(keySpecifier, a));
+        MemoryKeyedListDataNode derivedListDataNode =
+                new MemoryKeyedListDataNode(listDataNode, updates, deletions);
+        queryPath = LocationPathExpression.parse("test[color=\"red\"]");
+        iter = derivedListDataNode.queryWithPath(listSchemaNode, queryPath).iterator();
+        assertThat(iter.next().getDataNode(), is(b2));
+        assertThat(iter.next().getDataNode(), is(c));
+        assertThat(iter.next().getDataNode(), is(f));
+        assertThat(iter.hasNext(), is(false));
+        queryPath = LocationPathExpression.parse("test[color=\"blue\"]");
+        iter = derivedListDataNode.queryWithPath(listSchemaNode, queryPath).iterator();
+        assertThat(iter.hasNext(), is(false));
+        assertThat(stats.getIndexBuilds(), is(indexBuilds + 1));
+
+        // The original list is unchanged
+        queryPath = LocationPathExpression.parse("test[color=\"red\"]");
+        iter = listDataNode.queryWithPath(listSchemaNode, queryPath).iterator();
+        assertThat(iter.next().getDataNode(), is(a));
+        assertThat(iter.next().getDataNode(), is(c));
+        assertThat(iter.hasNext(), is(false));
+    }
+
     @Test
     public void queryComplexData() throws Exception {
         // Set up a somewhat more complicated schema with nested nodes
@@ -5,11 +5,14 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -202,6 +205,187 @@ public class PersistMemDataSourceTest {
     }
 
 
+    @Test
+    public void writeAheadLogReplayTest() throws Exception {
+        Map<String, String> properties = ImmutableMap.of("file", configFile.getPath(),
+                PersistMemDataSource.PROP_KEY_WRITE_AHEAD_LOG, "true");
+        startDataSource(properties);
+
+        for(int i=0; i < 10; i++) {
+            Query query = Query.parse("/core/aaa/local-user[user-name='admin']/full-name");
+            persistMemDataSource.updateData(query, persistMemDataSource.getDataNodeFactory().createLeafDataNode("Hallo"+i), AuthContext.SYSTEM);
+        }
+        assertEquals(10, persistMemDataSource.getLogRecords());
+        assertTrue(persistMemDataSource.getLogSyncs() <= 10);
+        // the mutations are only in the log, the snapshot is unchanged
+        checkName("hrtlbrnft");
+        List<File> segmentFiles = WriteAheadLog.getSegmentFiles(configFile);
+        assertEquals(1, segmentFiles.size());
+        persistMemDataSource.shutdown();
+
+        // a record torn by a crash is ignored
+        try (FileOutputStream out = new FileOutputStream(segmentFiles.get(0), true)) {
+            out.write(new byte[] { 0, 0, 1 });
+        }
+
+        // startup replays the log and folds it into a new snapshot
+        startDataSource(properties);
+        assertEquals("Hallo9", persistMemDataSource.getRoot().getChild("core").getChild("aaa").getChild("local-user").iterator().next().getChild("full-name").getString());
+        checkName("Hallo9");
+        // the replayed segments are gone; the log starts with an empty one
+        segmentFiles = WriteAheadLog.getSegmentFiles(configFile);
+        assertEquals(1, segmentFiles.size());
+        assertEquals(0, segmentFiles.get(0).length());
+        persistMemDataSource.shutdown();
+    }
+
+    @Test
+    public void writeAheadLogCorruptionTest() throws Exception {
+        Map<String, String> properties = ImmutableMap.of("file", configFile.getPath(),
+                PersistMemDataSource.PROP_KEY_WRITE_AHEAD_LOG, "true");
+        startDataSource(properties);
+        for(int i=0; i < 10; i++) {
+            Query query = Query.parse("/core/aaa/local-user[user-name='admin']/full-name");
+            persistMemDataSource.updateData(query, persistMemDataSource.getDataNodeFactory().createLeafDataNode("Hallo"+i), AuthContext.SYSTEM);
+        }
+        persistMemDataSource.shutdown();
+        File segment = WriteAheadLog.getSegmentFiles(configFile).get(0);
+        byte[] good = Files.toByteArray(segment);
+
+        // a bad record in the middle of the newest segment fails the replay
+        byte[] corrupt = good.clone();
+        corrupt[12] ^= 0x01;
+        Files.write(corrupt, segment);
+        assertReplayFails(properties);
+        assertTrue(segment.exists());
+        checkName("hrtlbrnft");
+
+        // so does a torn record at the end of a segment that isn't the newest
+        Files.write(Arrays.copyOf(good, good.length - 3), segment);
+        File newer = new File(configFile.getPath() + WriteAheadLog.SEGMENT_INFIX + 1000);
+        Files.write(good, newer);
+        assertReplayFails(properties);
+        assertEquals(2, WriteAheadLog.getSegmentFiles(configFile).size());
+
+        // the same torn record at the end of the newest segment is ignored
+        assertTrue(newer.delete());
+        startDataSource(properties);
+        checkName("Hallo8");
+        persistMemDataSource.shutdown();
+    }
+
+    @Test
+    public void writeAheadLogZeroTailTest() throws Exception {
+        Map<String, String> properties = ImmutableMap.of("file", configFile.getPath(),
+                PersistMemDataSource.PROP_KEY_WRITE_AHEAD_LOG, "true");
+        startDataSource(properties);
+        for(int i=0; i < 10; i++) {
+            Query query = Query.parse("/core/aaa/local-user[user-name='admin']/full-name");
+            persistMemDataSource.updateData(query, persistMemDataSource.getDataNodeFactory().createLeafDataNode("Hallo"+i), AuthContext.SYSTEM);
+        }
+        persistMemDataSource.shutdown();
+        File segment = WriteAheadLog.getSegmentFiles(configFile).get(0);
+        byte[] good = Files.toByteArray(segment);
+        byte[] zeroTail = Arrays.copyOf(good, good.length + 4096);
+
+        // zeros between records fail the replay instead of reading as
+        // empty records with a matching checksum
+        byte[] zeroMiddle = new byte[zeroTail.length + good.length];
+        System.arraycopy(zeroTail, 0, zeroMiddle, 0, zeroTail.length);
+        System.arraycopy(good, 0, zeroMiddle, zeroTail.length, good.length);
+        Files.write(zeroMiddle, segment);
+        assertReplayFails(properties);
+        checkName("hrtlbrnft");
+
+        // so do zeros at the end of a segment that isn't the newest
+        Files.write(zeroTail, segment);
+        File newer = new File(configFile.getPath() + WriteAheadLog.SEGMENT_INFIX + 1000);
+        Files.write(good, newer);
+        assertReplayFails(properties);
+        assertTrue(newer.delete());
+
+        // zeros at the end of the newest segment are a torn record
+        startDataSource(properties);
+        checkName("Hallo9");
+        persistMemDataSource.shutdown();
+    }
+
+    private void assertReplayFails(Map<String, String> properties) throws Exception {
+        try {
+            startDataSource(properties);
+            fail("Expected the write-ahead log replay to fail");
+        } catch (BigDBException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void binarySnapshotTest() throws Exception {
+        Map<String, String> properties = ImmutableMap.of("file", configFile.getPath(),
+                PersistMemDataSource.PROP_KEY_SNAPSHOT_FORMAT, PersistMemDataSource.SNAPSHOT_FORMAT_BINARY);
+        Query query = Query.parse("/core/aaa/local-user[user-name='admin']/full-name");
+
+        // the JSON config is read, and written back in the binary format
+        startDataSource(properties);
+        persistMemDataSource.updateData(query, persistMemDataSource.getDataNodeFactory().createLeafDataNode("Hallo"), AuthContext.SYSTEM);
+        DataNode writtenRoot = persistMemDataSource.getRoot();
+        persistMemDataSource.shutdown();
+        assertTrue(BinaryDataNodeFormat.isBinaryFile(configFile));
+
+        // the binary snapshot is loaded lazily, and can be mutated
+        startDataSource(properties);
+        DataNode root = persistMemDataSource.getRoot();
+        assertTrue(root instanceof BinaryDataNodeFormat.LazyContainerDataNode);
+        assertEquals(writtenRoot, root);
+        DataNode user = root.getChild("core").getChild("aaa").getChild("local-user").iterator().next();
+        assertTrue(user instanceof BinaryDataNodeFormat.LazyListElementDataNode);
+        assertEquals("Hallo", user.getChild("full-name").getString());
+        persistMemDataSource.updateData(query, persistMemDataSource.getDataNodeFactory().createLeafDataNode("Hallo2"), AuthContext.SYSTEM);
+        persistMemDataSource.shutdown();
+
+        // switching back to JSON still reads the binary snapshot
+        Map<String, String> jsonProperties = ImmutableMap.of("file", configFile.getPath());
+        startDataSource(jsonProperties);
+        assertEquals("Hallo2", persistMemDataSource.getRoot().getChild("core").getChild("aaa").getChild("local-user").iterator().next().getChild("full-name").getString());
+        persistMemDataSource.updateData(query, persistMemDataSource.getDataNodeFactory().createLeafDataNode("Hallo3"), AuthContext.SYSTEM);
+        persistMemDataSource.shutdown();
+        checkName("Hallo3");
+    }
+
+    @Test
+    public void binarySnapshotCorruptionTest() throws Exception {
+        Map<String, String> properties = ImmutableMap.of("file", configFile.getPath(),
+                PersistMemDataSource.PROP_KEY_SNAPSHOT_FORMAT, PersistMemDataSource.SNAPSHOT_FORMAT_BINARY);
+        Query query = Query.parse("/core/aaa/local-user[user-name='admin']/full-name");
+        startDataSource(properties);
+        persistMemDataSource.updateData(query, persistMemDataSource.getDataNodeFactory().createLeafDataNode("Hallo"), AuthContext.SYSTEM);
+        persistMemDataSource.shutdown();
+        assertTrue(BinaryDataNodeFormat.isBinaryFile(configFile));
+
+        // a flipped bit in the body is caught by the checksum at startup
+        byte[] corrupt = Files.toByteArray(configFile);
+        corrupt[corrupt.length - 1] ^= 0x01;
+        Files.write(corrupt, configFile);
+        try {
+            startDataSource(properties);
+            fail("Expected the corrupt snapshot to be rejected");
+        } catch (BigDBException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private void startDataSource(Map<String, String> properties) throws BigDBException {
+        persistMemDataSource = new PersistMemDataSource("config", true, schemaImpl, properties);
+        persistMemDataSource.setMutationListener(new MutationListener() {
+            @Override
+            public void dataNodesMutated(Set<Query> mutatedNodes, Operation operation, AuthContext authContext)
+                    throws BigDBException {
+            }
+        });
+        initSchema();
+        persistMemDataSource.startup();
+    }
+
     private void checkName(String string) throws JsonParseException, JsonMappingException, IOException {
         ObjectMapper om = new ObjectMapper();
         JsonNode root = om.readValue(configFile, JsonNode.class);
@@ -49,7 +49,7 @@ public class HttpServerTest {
     public void testOneRequest() throws Exception {
         ServerReceiveHandler handler = EasyMock.createMock(ServerReceiveHandler.class);
         Capture<ChannelBuffer> bufferCapture = new Capture<ChannelBuffer>();
-        EasyMock.expect(handler.messageReceived(EasyMock.capture(bufferCapture), EasyMock.<SocketAddress>anyObject())).andReturn(new Response(HttpResponseStatus.OK, ChannelBuffers.copiedBuffer("TestResponse", Charsets.UTF_8))).once();
+        EasyMock.expect(handler.messageReceived(EasyMock.capture(bufferCapture), EasyMock.<String>anyObject(), EasyMock.<SocketAddress>anyObject())).andReturn(new Response(HttpResponseStatus.OK, ChannelBuffers.copiedBuffer("TestResponse", Charsets.UTF_8))).once();
         EasyMock.replay(handler);
         startServer(handler);
 
@@ -100,7 +100,7 @@ public class HttpServerTest {
         private int numRequests = 0;
 
         @Override
-        public Response messageReceived(ChannelBuffer content, SocketAddress address) {
+        public Response messageReceived(ChannelBuffer content, String contentType, SocketAddress address) {
             int curRequest = ++numRequests;
             assertEquals("TestRequest"+curRequest, content.toString(Charsets.UTF_8));
             return new Response(HttpResponseStatus.OK, ChannelBuffers.copiedBuffer("TestResponse"+curRequest, Charsets.UTF_8));
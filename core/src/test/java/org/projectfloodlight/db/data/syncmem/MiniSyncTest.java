@@ -23,6 +23,7 @@ import org.projectfloodlight.db.BigDBException;
 import org.projectfloodlight.db.data.ContainerDataNode;
 import org.projectfloodlight.db.data.DataNode;
 import org.projectfloodlight.db.data.DataNodeSerializationException;
+import org.projectfloodlight.db.data.MutationListener;
 import org.projectfloodlight.db.data.memory.MemoryDataSource;
 import org.projectfloodlight.db.data.syncmem.HttpClient;
 import org.projectfloodlight.db.data.syncmem.HttpClientFactory;
@@ -33,6 +34,7 @@ import org.projectfloodlight.db.data.syncmem.SlaveId;
 import org.projectfloodlight.db.data.syncmem.SlaveUpdater;
 import org.projectfloodlight.db.data.syncmem.SyncContent;
 import org.projectfloodlight.db.data.syncmem.SyncRole;
+import org.projectfloodlight.db.expression.LocationPathExpression;
 import org.projectfloodlight.db.schema.ContainerSchemaNode;
 import org.projectfloodlight.db.schema.LeafSchemaNode;
 import org.projectfloodlight.db.schema.ModuleIdentifier;
@@ -61,7 +63,7 @@ public class MiniSyncTest {
         private DataNode readDataNode;
 
         @Override
-        public synchronized Response messageReceived(ChannelBuffer content, SocketAddress socketAddress)
+        public synchronized Response messageReceived(ChannelBuffer content, String contentType, SocketAddress socketAddress)
                 throws Exception {
             readDataNode = jsonHandler.readDataNode(new ChannelBufferInputStream(content), dataSource.getRootSchemaNode(), dataSource.getName());
             logger.info("Received update: "+readDataNode);
@@ -94,6 +96,7 @@ public class MiniSyncTest {
     private TestServerReceiveHandler receiveHandler;
     private HttpClientFactory factory;
     private ContainerDataNode nodeToSync;
+    private SchemaImpl schema;
 
     public int findPort() {
         Random r = new Random();
@@ -130,7 +133,7 @@ public class MiniSyncTest {
         leafSchemaNode.addDataSource("name");
         leafSchemaNode.setLeafType(SchemaNode.LeafType.STRING);
         schemaNode.addChildNode("child", leafSchemaNode);
-        SchemaImpl schema = new SchemaImpl(schemaNode);
+        schema = new SchemaImpl(schemaNode);
         dataSource = new MemoryDataSource("name", true, schema);
         jsonHandler = new DataNodeJsonHandler(dataSource);
 
@@ -240,4 +243,101 @@ public class MiniSyncTest {
         receiveHandler.waitForUpdates(1);
         assertThat(receiveHandler.readDataNode.getDigestValue(), is(nodeToSync.getDigestValue()));
     }
+
+    /*** verify that a slave follows a delta-syncing master through snapshots, deltas and deletes */
+    @Test(timeout=2000)
+    public void testDeltaSyncToSlave() throws BigDBException, InterruptedException {
+        miniSync.setRole(SyncRole.SLAVE);
+
+        MemoryDataSource masterSource = new MemoryDataSource("name", true, schema);
+        MiniSync masterSync = new MiniSync(masterSource, "http://localhost:"+miniSyncPort+"/config", findPort());
+        masterSync.enableDeltaSync(10);
+        try {
+            masterSync.start();
+            masterSync.controllerNodeIPsChanged(ImmutableMap.of("1", "127.0.0.1"), ImmutableMap.of("1", "127.0.0.1"), ImmutableMap.<String,String>of());
+
+            // initial snapshot
+            masterSync.update(nodeToSync);
+            waitForSlaveRoot(nodeToSync);
+            waitForSlaveUpdates(1);
+            int snapshotsSent = masterSync.getNumSnapshotsSent();
+            assertThat(snapshotsSent, is(1));
+            assertThat(masterSync.getNumDeltasSent(), is(0));
+            assertThat(miniSync.getSyncServer().getNumDeltasAccepted(), is(0));
+
+            // modify the leaf
+            DataNode modified = dataSource.getDataNodeFactory().createContainerDataNode(false, ImmutableMap.<String, DataNode>of("child", dataSource.getDataNodeFactory().createLeafDataNode("state2")));
+            masterSync.update(modified, ImmutableMap.of(LocationPathExpression.parse("/child"), MutationListener.Operation.MODIFY));
+            waitForSlaveRoot(modified);
+            waitForSlaveUpdates(2);
+            assertThat(masterSync.getNumDeltasSent(), is(1));
+            assertThat(miniSync.getSyncServer().getNumDeltasAccepted(), is(1));
+
+            // delete the leaf
+            DataNode deleted = dataSource.getDataNodeFactory().createContainerDataNode(false, ImmutableMap.<String, DataNode>of());
+            masterSync.update(deleted, ImmutableMap.of(LocationPathExpression.parse("/child"), MutationListener.Operation.DELETE));
+            waitForSlaveRoot(deleted);
+            waitForSlaveUpdates(3);
+            assertThat(masterSync.getNumDeltasSent(), is(2));
+            assertThat(miniSync.getSyncServer().getNumDeltasAccepted(), is(2));
+
+            // the changes were sent as deltas, not as full snapshots
+            assertThat(masterSync.getNumSnapshotsSent(), is(snapshotsSent));
+            assertThat(miniSync.getSyncServer().getNumUpdateGaps(), is(0));
+        } finally {
+            masterSync.shutdown();
+        }
+    }
+
+    /*** verify that a mutation that can't be logged reaches the slave through a snapshot */
+    @Test(timeout=2000)
+    public void testDeltaSyncFallsBackToSnapshot() throws BigDBException, InterruptedException {
+        miniSync.setRole(SyncRole.SLAVE);
+
+        MemoryDataSource masterSource = new MemoryDataSource("name", true, schema);
+        MiniSync masterSync = new MiniSync(masterSource, "http://localhost:"+miniSyncPort+"/config", findPort());
+        masterSync.enableDeltaSync(10);
+        try {
+            masterSync.start();
+            masterSync.controllerNodeIPsChanged(ImmutableMap.of("1", "127.0.0.1"), ImmutableMap.of("1", "127.0.0.1"), ImmutableMap.<String,String>of());
+
+            masterSync.update(nodeToSync);
+            waitForSlaveRoot(nodeToSync);
+            waitForSlaveUpdates(1);
+            assertThat(masterSync.getNumSnapshotsSent(), is(1));
+
+            // the path isn't in the schema, so the change can't be encoded
+            DataNode modified = dataSource.getDataNodeFactory().createContainerDataNode(false, ImmutableMap.<String, DataNode>of("child", dataSource.getDataNodeFactory().createLeafDataNode("state2")));
+            masterSync.update(modified, ImmutableMap.of(LocationPathExpression.parse("/nosuchnode"), MutationListener.Operation.MODIFY));
+            waitForSlaveRoot(modified);
+            waitForSlaveUpdates(2);
+            assertThat(masterSync.getNumSnapshotsSent(), is(2));
+            assertThat(masterSync.getNumDeltasSent(), is(0));
+
+            // later changes are deltas against the snapshot
+            DataNode deleted = dataSource.getDataNodeFactory().createContainerDataNode(false, ImmutableMap.<String, DataNode>of());
+            masterSync.update(deleted, ImmutableMap.of(LocationPathExpression.parse("/child"), MutationListener.Operation.DELETE));
+            waitForSlaveRoot(deleted);
+            waitForSlaveUpdates(3);
+            assertThat(masterSync.getNumSnapshotsSent(), is(2));
+            assertThat(masterSync.getNumDeltasSent(), is(1));
+            assertThat(miniSync.getSyncServer().getNumDeltasAccepted(), is(1));
+            assertThat(miniSync.getSyncServer().getNumUpdateGaps(), is(0));
+        } finally {
+            masterSync.shutdown();
+        }
+    }
+
+    /** the counters are updated after the new root is set */
+    private void waitForSlaveUpdates(int updates) throws InterruptedException {
+        while(miniSync.getSyncServer().getNumUpdatesAccepted() < updates) {
+            Thread.sleep(20);
+        }
+    }
+
+    private void waitForSlaveRoot(DataNode expected) throws BigDBException, InterruptedException {
+        while(!dataSource.getRoot().getDigestValue().equals(expected.getDigestValue())) {
+            Thread.sleep(20);
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package org.projectfloodlight.db.data.syncmem;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.db.BigDBException;
+import org.projectfloodlight.db.auth.AuthContext;
+import org.projectfloodlight.db.data.DataNode;
+import org.projectfloodlight.db.data.MutationListener;
+import org.projectfloodlight.db.data.memory.MemoryDataSource;
+import org.projectfloodlight.db.expression.LocationPathExpression;
+import org.projectfloodlight.db.query.Query;
+import org.projectfloodlight.db.schema.ContainerSchemaNode;
+import org.projectfloodlight.db.schema.LeafSchemaNode;
+import org.projectfloodlight.db.schema.ModuleIdentifier;
+import org.projectfloodlight.db.schema.ScalarSchemaNode;
+import org.projectfloodlight.db.schema.SchemaNode;
+import org.projectfloodlight.db.schema.internal.SchemaImpl;
+import org.projectfloodlight.db.service.internal.TreespaceImpl;
+
+public class SyncingDataSourceTest {
+
+    private MemoryDataSource dataSource;
+    private MiniSync miniSync;
+
+    @Before
+    public void setup() throws BigDBException {
+        // simple schema {child : 'string' }
+        ContainerSchemaNode schemaNode = new ContainerSchemaNode();
+        ModuleIdentifier moduleId = new ModuleIdentifier("test");
+        ScalarSchemaNode leafSchemaNode = new LeafSchemaNode("child", moduleId, SchemaNode.LeafType.STRING);
+        leafSchemaNode.addDataSource("name");
+        leafSchemaNode.setLeafType(SchemaNode.LeafType.STRING);
+        schemaNode.addChildNode("child", leafSchemaNode);
+        SchemaImpl schema = new SchemaImpl(schemaNode);
+
+        dataSource = new MemoryDataSource("name", true, schema);
+        TreespaceImpl mockTreespace = createNiceMock(TreespaceImpl.class);
+        expect(mockTreespace.getSchema()).andReturn(schema).anyTimes();
+        replay(mockTreespace);
+        dataSource.setTreespace(mockTreespace);
+        dataSource.setMutationListener(new MutationListener() {
+            @Override
+            public void dataNodesMutated(Set<Query> mutatedNodes, Operation operation, AuthContext authContext)
+                    throws BigDBException {
+            }
+        });
+
+        miniSync = createMock(MiniSync.class);
+        expect(miniSync.getRole()).andReturn(SyncRole.MASTER).anyTimes();
+    }
+
+    private void updateChild(SyncingDataSource syncingDataSource, String value)
+            throws BigDBException {
+        syncingDataSource.updateData(Query.parse("/child"),
+                dataSource.getDataNodeFactory().createLeafDataNode(value),
+                AuthContext.SYSTEM);
+    }
+
+    /** without delta sync, each mutation syncs the full root exactly once */
+    @Test
+    public void testFullSync() throws Exception {
+        expect(miniSync.isDeltaSyncEnabled()).andReturn(false).anyTimes();
+        miniSync.update(anyObject(DataNode.class));
+        expectLastCall().times(2);
+        replay(miniSync);
+
+        SyncingDataSource syncingDataSource = new SyncingDataSource(dataSource, miniSync);
+        updateChild(syncingDataSource, "state");
+        syncingDataSource.deleteData(Query.parse("/child"), AuthContext.SYSTEM);
+
+        verify(miniSync);
+    }
+
+    /** with delta sync, each mutation is passed on as its mutated nodes only */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDeltaSync() throws Exception {
+        expect(miniSync.isDeltaSyncEnabled()).andReturn(true).anyTimes();
+        miniSync.update(anyObject(DataNode.class),
+                (Map<LocationPathExpression, MutationListener.Operation>) anyObject(Map.class));
+        expectLastCall().times(2);
+        replay(miniSync);
+
+        SyncingDataSource syncingDataSource = new SyncingDataSource(dataSource, miniSync);
+        updateChild(syncingDataSource, "state");
+        syncingDataSource.deleteData(Query.parse("/child"), AuthContext.SYSTEM);
+
+        // no full-root update(DataNode) call is expected by the strict mock
+        verify(miniSync);
+    }
+}
@@ -199,4 +199,37 @@ public class XPathParserTest {
         assertEquals(prefixMatchPredicates.get(0).getPrefix(), "Hello");
         assertEquals(prefixMatchPredicates.get(1).getPrefix(), "Test");
     }
+
+    @Test
+    public void testCachedQueryPaths() throws Exception {
+        // The same path with the same variables is only parsed once
+        Query query1 = Query.builder().setBasePath("foo[name=$name]/bar")
+                .setVariable("name", "Hello").getQuery();
+        Query query2 = Query.builder().setBasePath("foo[name=$name]/bar")
+                .setVariable("name", "Hello").getQuery();
+        assertSame(query1.getBasePath(), query2.getBasePath());
+
+        // Different variables give a different path
+        Query query3 = Query.builder().setBasePath("foo[name=$name]/bar")
+                .setVariable("name", "World").getQuery();
+        assertNotSame(query1.getBasePath(), query3.getBasePath());
+        assertEquals("World",
+                query3.getSteps().get(0).getExactMatchPredicateValue("name"));
+
+        // A variable of a different type gives a different path too
+        Query query4 = Query.builder().setBasePath("foo[name=$name]/bar")
+                .setVariable("name", 5L).getQuery();
+        assertEquals(5L,
+                query4.getSteps().get(0).getExactMatchPredicateValue("name"));
+
+        // Failures aren't cached
+        for (int i = 0; i < 2; i++) {
+            try {
+                Query.builder().setBasePath("foo[name=$name]").getQuery();
+                fail("Expected a missing variable failure");
+            } catch (Exception e) {
+                // expected
+            }
+        }
+    }
 }
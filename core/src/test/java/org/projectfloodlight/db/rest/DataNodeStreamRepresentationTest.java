@@ -0,0 +1,147 @@
+package org.projectfloodlight.db.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.projectfloodlight.db.BigDBInternalError;
+import org.projectfloodlight.db.auth.AuthorizationException;
+import org.projectfloodlight.db.data.DataNode;
+import org.projectfloodlight.db.data.memory.MemoryLeafDataNode;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+public class DataNodeStreamRepresentationTest {
+
+    private static final ObjectMapper mapper;
+
+    static {
+        JsonFactory jsonFactory = new JsonFactory();
+        jsonFactory.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        mapper = new ObjectMapper(jsonFactory);
+        mapper.configure(SerializationFeature.INDENT_OUTPUT, true);
+    }
+
+    private static List<DataNode> getDataNodes(int count) {
+        List<DataNode> dataNodes = new ArrayList<DataNode>();
+        for (long i = 1; i <= count; i++)
+            dataNodes.add(new MemoryLeafDataNode(i));
+        return dataNodes;
+    }
+
+    private static JsonNode write(Iterable<DataNode> dataNodes, long cursor,
+            long limit) throws IOException {
+        DataNodeStreamRepresentation representation =
+                new DataNodeStreamRepresentation(mapper, dataNodes, cursor,
+                        limit);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        representation.write(outputStream);
+        return mapper.readTree(outputStream.toByteArray());
+    }
+
+    private static void checkValues(JsonNode array, long first, long count) {
+        assertTrue(array.isArray());
+        assertEquals(count, array.size());
+        for (int i = 0; i < count; i++)
+            assertEquals(first + i, array.get(i).asLong());
+    }
+
+    @Test
+    public void testUnpaged() throws Exception {
+        checkValues(write(getDataNodes(5), 0, -1), 1, 5);
+        checkValues(write(getDataNodes(5), 2, -1), 3, 3);
+        checkValues(write(getDataNodes(0), 0, -1), 1, 0);
+    }
+
+    @Test
+    public void testPaged() throws Exception {
+        JsonNode page = write(getDataNodes(5), 0, 2);
+        checkValues(page.get(DataNodeStreamRepresentation.DATA_FIELD), 1, 2);
+        assertEquals("2", page.get(
+                DataNodeStreamRepresentation.NEXT_CURSOR_FIELD).asText());
+
+        page = write(getDataNodes(5), 2, 2);
+        checkValues(page.get(DataNodeStreamRepresentation.DATA_FIELD), 3, 2);
+        assertEquals("4", page.get(
+                DataNodeStreamRepresentation.NEXT_CURSOR_FIELD).asText());
+
+        // The last page has no next cursor
+        page = write(getDataNodes(5), 4, 2);
+        checkValues(page.get(DataNodeStreamRepresentation.DATA_FIELD), 5, 1);
+        assertFalse(page.has(DataNodeStreamRepresentation.NEXT_CURSOR_FIELD));
+
+        page = write(getDataNodes(4), 2, 2);
+        checkValues(page.get(DataNodeStreamRepresentation.DATA_FIELD), 3, 2);
+        assertFalse(page.has(DataNodeStreamRepresentation.NEXT_CURSOR_FIELD));
+
+        page = write(getDataNodes(5), 10, 2);
+        checkValues(page.get(DataNodeStreamRepresentation.DATA_FIELD), 1, 0);
+        assertFalse(page.has(DataNodeStreamRepresentation.NEXT_CURSOR_FIELD));
+    }
+
+    @Test
+    public void testUnauthorizedDataNode() throws Exception {
+        final List<DataNode> dataNodes = getDataNodes(3);
+        // Fails when it reaches the third data node
+        Iterable<DataNode> failingDataNodes = new Iterable<DataNode>() {
+            @Override
+            public Iterator<DataNode> iterator() {
+                final Iterator<DataNode> iterator = dataNodes.iterator();
+                return new Iterator<DataNode>() {
+                    private int count;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public DataNode next() {
+                        if (++count == 3) {
+                            throw new BigDBInternalError(
+                                    "Query result not authorized",
+                                    new AuthorizationException());
+                        }
+                        return iterator.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+
+        // Fails before the response starts
+        try {
+            new DataNodeStreamRepresentation(mapper, failingDataNodes, 2, -1);
+            fail("Expected an authorization failure");
+        } catch (BigDBInternalError e) {
+            assertTrue(e.getCause() instanceof AuthorizationException);
+        }
+
+        // Fails while writing the response
+        DataNodeStreamRepresentation representation =
+                new DataNodeStreamRepresentation(mapper, failingDataNodes, 0,
+                        -1);
+        try {
+            representation.write(new ByteArrayOutputStream());
+            fail("Expected the response to be aborted");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof BigDBInternalError);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.projectfloodlight.debugcounter;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.projectfloodlight.debugcounter.IDebugCounterService.CounterType;
+
+/**
+ * Micro-benchmark comparing the thread-local and striped debug counter
+ * storage under contention: a number of threads standing in for the Netty
+ * I/O workers bump a few shared counters with updateCounterNoFlush(), the
+ * way the packet-in path does, and flush every FLUSH_INTERVAL updates.
+ * Reports the update rate and how many updates are visible afterwards
+ * without a final flush.
+ *
+ * Not run as part of the unit tests. Run it with
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;deps&gt; \
+ *     org.projectfloodlight.debugcounter.DebugCounterBenchmark [threads]
+ * </pre>
+ */
+public class DebugCounterBenchmark {
+    private static final int DEFAULT_THREADS = 32;
+    private static final int NUM_COUNTERS = 4;
+    private static final int UPDATES_PER_THREAD = 5000000;
+    private static final int FLUSH_INTERVAL = 64;
+
+    static void run(String name, boolean striped, int numThreads)
+            throws Exception {
+        final DebugCounter dc = new DebugCounter();
+        dc.stripedCounters = striped;
+        final IDebugCounter[] counters = new IDebugCounter[NUM_COUNTERS];
+        for (int i = 0; i < NUM_COUNTERS; i++) {
+            counters[i] = dc.registerCounter("bench", "ctr" + i, "counter " + i,
+                                             CounterType.ALWAYS_COUNT);
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+            Thread thread = new Thread("bench-worker-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                        counters[i % NUM_COUNTERS].updateCounterNoFlush();
+                        if (i % FLUSH_INTERVAL == FLUSH_INTERVAL - 1)
+                            dc.flushCounters();
+                    }
+                    done.countDown();
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long startNs = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsedNs = System.nanoTime() - startNs;
+
+        long total = 0;
+        for (IDebugCounter c : counters)
+            total += c.getCounterValue();
+        long expected = (long) numThreads * UPDATES_PER_THREAD;
+        System.out.printf("%-24s %3d threads  %8.1f Mupdates/s  visible %d/%d%n",
+                          name, numThreads,
+                          expected * 1000.0 / elapsedNs, total, expected);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numThreads = (args.length > 0) ? Integer.parseInt(args[0])
+                                           : DEFAULT_THREADS;
+        // warm up both implementations before measuring
+        run("warmup thread-local", false, numThreads);
+        run("warmup striped", true, numThreads);
+
+        run("thread-local", false, numThreads);
+        run("striped", true, numThreads);
+    }
+}
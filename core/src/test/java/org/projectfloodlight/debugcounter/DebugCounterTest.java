@@ -64,6 +64,51 @@ public class DebugCounterTest extends FloodlightTestCase {
         assertEquals(S1.getCounterValue(), 43);
     }
 
+    @Test
+    public void testStripedCounterWorking() throws Exception {
+        dc = new DebugCounter();
+        dc.stripedCounters = true;
+        S1 = dc.registerCounter("switch", "01", "switch01",
+                                CounterType.ALWAYS_COUNT);
+        IDebugCounter onDemand = dc.registerCounter("switch", "02", "switch02",
+                                CounterType.COUNT_ON_DEMAND);
+
+        // no flush needed to see updates
+        S1.updateCounterNoFlush();
+        assertEquals(1, S1.getCounterValue());
+        S1.updateCounterNoFlush(30);
+        S1.updateCounterWithFlush(10);
+        assertEquals(41, S1.getCounterValue());
+
+        // updates from other threads are visible without them flushing
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++)
+                        S1.updateCounterNoFlush();
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(4041, S1.getCounterValue());
+
+        dc.resetCounterHierarchy("switch", "01");
+        assertEquals(0, S1.getCounterValue());
+
+        // on demand counters only count while enabled
+        onDemand.updateCounterNoFlush();
+        assertEquals(0, onDemand.getCounterValue());
+        dc.enableCtrOnDemand("switch", "02");
+        onDemand.updateCounterNoFlush(5);
+        assertEquals(5, onDemand.getCounterValue());
+        dc.disableCtrOnDemand("switch", "02");
+        assertEquals(0, onDemand.getCounterValue());
+    }
+
     @Test
     public void testCounterHierarchy() {
         S1.updateCounterNoFlush();
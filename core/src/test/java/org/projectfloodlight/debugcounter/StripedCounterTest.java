@@ -0,0 +1,56 @@
+package org.projectfloodlight.debugcounter;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class StripedCounterTest {
+
+    @Test
+    public void testSingleThread() {
+        StripedCounter c = new StripedCounter();
+        assertEquals(0, c.get());
+        c.add(1);
+        c.add(41);
+        assertEquals(42, c.get());
+        assertFalse(c.isStriped());
+        c.reset();
+        assertEquals(0, c.get());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final StripedCounter c = new StripedCounter();
+        final int numThreads = 8;
+        final int numUpdates = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < numUpdates; j++)
+                        c.add(1);
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        // nothing is lost, whether or not the counter inflated
+        assertEquals((long) numThreads * numUpdates, c.get());
+        c.reset();
+        assertEquals(0, c.get());
+        c.add(7);
+        assertEquals(7, c.get());
+    }
+}
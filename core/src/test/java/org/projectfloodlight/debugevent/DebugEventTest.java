@@ -61,9 +61,9 @@ public class DebugEventTest extends FloodlightTestCase {
         event1.updateEventWithFlush(new SwitchyEvent(1L, "connected"));
         assertEquals(1, debugEvent.allEvents[eventId1].eventBuffer.size());
 
-        // update is flushed only when flush is explicitly called
+        // updates are not buffered per thread, so no flush is needed
         event2.updateEventNoFlush(new PacketyEvent(1L, 24L));
-        assertEquals(0, debugEvent.allEvents[eventId2].eventBuffer.size());
+        assertEquals(1, debugEvent.allEvents[eventId2].eventBuffer.size());
 
         debugEvent.flushEvents();
         assertEquals(1, debugEvent.allEvents[eventId1].eventBuffer.size());
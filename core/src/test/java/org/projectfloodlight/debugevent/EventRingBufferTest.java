@@ -0,0 +1,99 @@
+package org.projectfloodlight.debugevent;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.projectfloodlight.test.FloodlightTestCase;
+
+public class EventRingBufferTest extends FloodlightTestCase {
+
+    @Test
+    public void testCircularNature() {
+        EventRingBuffer rb = new EventRingBuffer(3);
+        assertEquals(0, rb.size());
+        assertTrue(rb.snapshot().isEmpty());
+
+        for (int i = 0; i < 5; i++)
+            rb.add(i, 1, "t", Integer.valueOf(i));
+        assertEquals(3, rb.size());
+        List<Event> events = rb.snapshot();
+        assertEquals(3, events.size());
+        // most recent first
+        assertEquals(4, events.get(0).geteventData());
+        assertEquals(3, events.get(1).geteventData());
+        assertEquals(2, events.get(2).geteventData());
+        assertEquals(2, events.get(2).getTimestamp());
+
+        rb.clear();
+        assertEquals(0, rb.size());
+        assertTrue(rb.snapshot().isEmpty());
+        rb.add(5, 1, "t", Integer.valueOf(5));
+        events = rb.snapshot();
+        assertEquals(1, events.size());
+        assertEquals(5, events.get(0).geteventData());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final int numThreads = 4;
+        final int perThread = 20000;
+        final EventRingBuffer rb = new EventRingBuffer(64);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final List<String> errors = new ArrayList<String>();
+
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    for (Event e : rb) {
+                        // each event must be one producer's, in one piece
+                        long[] data = (long[]) e.geteventData();
+                        if (data[0] != e.getThreadId() ||
+                            data[1] != e.getTimestamp()) {
+                            synchronized (errors) {
+                                errors.add("torn event " + e);
+                            }
+                        }
+                    }
+                }
+            }
+        };
+        reader.start();
+
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int t = 0; t < numThreads; t++) {
+            Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    long id = getId();
+                    for (long i = 0; i < perThread; i++)
+                        rb.add(i, id, getName(), new long[] { id, i });
+                }
+            };
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers)
+            producer.join();
+        done.set(true);
+        reader.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        // after the producers are done every slot holds an event, and the
+        // events of each producer are newest first
+        List<Event> events = rb.snapshot();
+        assertEquals(64, events.size());
+        Map<Long, Long> last = new HashMap<Long, Long>();
+        for (Event e : events) {
+            Long prev = last.put(e.getThreadId(), e.getTimestamp());
+            if (prev != null)
+                assertTrue(e.getTimestamp() < prev);
+        }
+    }
+}
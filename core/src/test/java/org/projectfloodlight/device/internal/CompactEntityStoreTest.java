@@ -0,0 +1,259 @@
+package org.projectfloodlight.device.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.device.SwitchPort;
+import org.projectfloodlight.packet.Ethernet;
+
+public class CompactEntityStoreTest {
+
+    private CompactEntityStore store;
+    private DeviceManagerImpl deviceManager;
+    private ConcurrentMap<Long, Device> deviceMap;
+
+    @Before
+    public void setUp() {
+        store = new CompactEntityStore();
+        deviceManager = new DeviceManagerImpl();
+        deviceManager.entityStore = store;
+        deviceMap = new ConcurrentHashMap<Long, Device>();
+    }
+
+    private Device makeDevice(long deviceKey, Entity... entities) {
+        return new Device(deviceManager, deviceKey, null, null, null,
+                          Arrays.asList(entities),
+                          DefaultEntityClassifier.entityClass);
+    }
+
+    @Test
+    public void testPackAndDecode() {
+        Entity e1 = new Entity(1L, (short)10, 0x0a000001, 5L, 2,
+                               new Date(1000));
+        e1.setActiveSince(new Date(500));
+        Entity e2 = new Entity(1L, null, null, null, null, null);
+        Device d = makeDevice(7L, e1, e2);
+        // The device doesn't keep its own copy
+        assertNull(d.entities);
+        assertNotNull(d.packedEntities);
+        // Not live until it's in the device map
+        assertEquals(0, store.getEntityCount());
+        store.put(deviceMap, d);
+        assertEquals(2, store.getEntityCount());
+        assertSame(d, deviceMap.get(7L));
+
+        Entity[] entities = d.getEntities();
+        assertEquals(2, entities.length);
+        assertEquals(e2, entities[0]);
+        assertEquals(e1, entities[1]);
+        assertNull(entities[0].getLastSeenTimestamp());
+        assertNull(entities[0].getActiveSince());
+        assertEquals(new Date(1000), entities[1].getLastSeenTimestamp());
+        assertEquals(new Date(500), entities[1].getActiveSince());
+        assertEquals(e1, d.getEntity(1));
+        assertEquals(1L, d.getMACAddress());
+        assertEquals(1, d.entityIndex(e1));
+
+        // Last seen updates are written to the store
+        d.updateLastSeen(1, new Date(2000));
+        assertEquals(new Date(2000), d.getEntity(1).getLastSeenTimestamp());
+        assertEquals(new Date(500), d.getEntity(1).getActiveSince());
+        d.updateLastSeen(1, new Date(2000 + Entity.ACTIVITY_TIMEOUT + 1));
+        assertEquals(new Date(2000 + Entity.ACTIVITY_TIMEOUT + 1),
+                     d.getEntity(1).getActiveSince());
+
+        // Lookups, hashing and equality work on the packed columns and
+        // agree with a device that keeps Entity objects
+        Device plain = new Device(new DeviceManagerImpl(), 7L, null, null,
+                                  null, Arrays.asList(e1, e2),
+                                  DefaultEntityClassifier.entityClass);
+        assertNotNull(plain.entities);
+        assertEquals(plain.hashCode(), d.hashCode());
+        assertEquals(plain, d);
+        assertEquals(d, plain);
+        assertEquals(d, makeDevice(7L, e2, e1));
+        assertFalse(d.equals(makeDevice(7L, e1)));
+        Entity[] probes = {
+            new Entity(0L, null, null, null, null, null),
+            new Entity(1L, (short)10, 0x0a000001, 5L, 3, null),
+            new Entity(1L, (short)11, 0x0a000001, 5L, 2, null),
+            new Entity(1L, null, 0x0a000001, 5L, 2, null),
+            new Entity(2L, null, null, null, null, null),
+        };
+        for (Entity probe : probes) {
+            assertEquals(plain.entityIndex(probe), d.entityIndex(probe));
+        }
+
+        assertFalse(store.remove(deviceMap, makeDevice(7L, e1)));
+        assertTrue(store.remove(deviceMap, d));
+        assertEquals(0, store.getEntityCount());
+        assertTrue(deviceMap.isEmpty());
+    }
+
+    @Test
+    public void testFieldAccessors() {
+        Entity e1 = new Entity(1L, (short)10, 0x0a000001, 5L, 2,
+                               new Date(1000));
+        Entity e2 = new Entity(1L, null, 0x0a000001, 5L, 2, new Date(3000));
+        Entity e3 = new Entity(1L, (short)11, 0x0a000002, 5L, 3,
+                               new Date(2000));
+        Entity e4 = new Entity(1L, null, null, null, null, null);
+        Device d = makeDevice(7L, e1, e2, e3, e4);
+        Device plain = new Device(new DeviceManagerImpl(), 7L, null, null,
+                                  null, Arrays.asList(e1, e2, e3, e4),
+                                  DefaultEntityClassifier.entityClass);
+        CompactEntityStore.Range range = d.packedEntities;
+
+        Entity[] entities = d.getEntities();
+        assertEquals(entities.length, d.getEntityCount());
+        for (int i = 0; i < entities.length; i++) {
+            assertEquals(entities[i].getIpv4Address(),
+                         store.getIpv4Address(range, i));
+            Date seen = entities[i].getLastSeenTimestamp();
+            assertEquals((seen == null) ? 0 : seen.getTime(),
+                         store.getLastSeen(range, i));
+        }
+
+        assertEquals(3000, store.getLastSeen(range));
+        assertEquals(3000, store.getLastSeenWithIpv4(range, 0x0a000001));
+        assertEquals(2000, store.getLastSeenWithIpv4(range, 0x0a000002));
+        assertEquals(0, store.getLastSeenWithIpv4(range, 0x0a000003));
+
+        for (SwitchPort swp : new SwitchPort[] {
+                new SwitchPort(5L, 2), new SwitchPort(5L, 3),
+                new SwitchPort(6L, 2) }) {
+            assertArrayEquals(plain.getSwitchPortVlanIds(swp),
+                              d.getSwitchPortVlanIds(swp));
+        }
+        assertArrayEquals(new Short[] { Ethernet.VLAN_UNTAGGED, 10 },
+                          d.getSwitchPortVlanIds(new SwitchPort(5L, 2)));
+        assertEquals(new Date(3000), d.getLastSeen());
+        assertNull(makeDevice(8L, e4).getLastSeen());
+    }
+
+    @Test
+    public void testFindExpired() {
+        Device d1 = makeDevice(1L,
+                new Entity(1L, null, 1, 1L, 1, new Date(100)),
+                new Entity(1L, null, 2, 1L, 1, new Date(200)));
+        store.put(deviceMap, d1);
+        store.put(deviceMap, makeDevice(2L,
+                new Entity(2L, null, 3, 1L, 2, new Date(5000))));
+        // no last seen time: never expires
+        store.put(deviceMap, makeDevice(3L,
+                new Entity(3L, null, null, null, null, null)));
+        // never put into the map: not live
+        makeDevice(4L, new Entity(4L, null, 4, 1L, 4, new Date(10)));
+
+        assertArrayEquals(new long[] {1L}, store.findDevicesSeenBefore(1000));
+        assertArrayEquals(new long[0], store.findDevicesSeenBefore(50));
+
+        d1.updateLastSeen(0, new Date(6000));
+        d1.updateLastSeen(1, new Date(6000));
+        assertArrayEquals(new long[] {2L}, store.findDevicesSeenBefore(5500));
+        // out of range updates are ignored
+        store.updateLastSeen(d1.packedEntities, 5, new Date(0));
+        assertArrayEquals(new long[0], store.findDevicesSeenBefore(4000));
+    }
+
+    @Test
+    public void testReplaceAndCompact() {
+        int numDevices = 500;
+        List<Device> replaced = new ArrayList<Device>();
+        // Replace each device with a growing entity list many times so
+        // the store has to reclaim old ranges
+        for (int round = 1; round <= 6; round++) {
+            for (long key = 0; key < numDevices; key++) {
+                List<Entity> entities = new ArrayList<Entity>();
+                for (int i = 0; i < round; i++) {
+                    entities.add(new Entity(key, null, i, key, i,
+                                            new Date(round * 1000 + key)));
+                }
+                Device d = makeDevice(key,
+                        entities.toArray(new Entity[entities.size()]));
+                Device old = deviceMap.get(key);
+                if (old == null) {
+                    store.put(deviceMap, d);
+                } else {
+                    assertTrue(store.replace(deviceMap, old, d));
+                    if (key == 0)
+                        replaced.add(old);
+                }
+            }
+        }
+        assertEquals(numDevices * 6, store.getEntityCount());
+        assertTrue(store.getCapacity() < 4 * numDevices * 6);
+        for (long key = 0; key < numDevices; key++) {
+            Entity[] entities = deviceMap.get(key).getEntities();
+            assertEquals(6, entities.length);
+            for (int i = 0; i < 6; i++) {
+                Entity e = entities[i];
+                assertEquals(key, e.getMacAddress());
+                assertEquals(Integer.valueOf(i), e.getIpv4Address());
+                assertEquals(6000 + key, e.getLastSeenTimestamp().getTime());
+            }
+        }
+        // Devices that were replaced before a compaction still decode
+        for (int round = 1; round <= replaced.size(); round++) {
+            Entity[] entities = replaced.get(round - 1).getEntities();
+            assertEquals(round, entities.length);
+            assertEquals(round * 1000,
+                         entities[0].getLastSeenTimestamp().getTime());
+        }
+        assertEquals(100, store.findDevicesSeenBefore(6100).length);
+
+        // A stale replace fails and doesn't change the store
+        Device stale = replaced.get(0);
+        assertFalse(store.replace(deviceMap, stale,
+                makeDevice(0L, new Entity(0L, null, 0, 0L, 0, new Date(1)))));
+        assertEquals(0, store.findDevicesSeenBefore(6000).length);
+    }
+
+    /**
+     * Concurrent replaces of the same device must leave the store with
+     * the device that's in the map
+     */
+    @Test
+    public void testConcurrentReplace() throws Exception {
+        final long key = 1L;
+        final AtomicLong clock = new AtomicLong(1000);
+        store.put(deviceMap, makeDevice(key,
+                new Entity(key, null, 1, 1L, 1, new Date(clock.get()))));
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        while (true) {
+                            Device d = deviceMap.get(key);
+                            Device nd = makeDevice(key,
+                                    new Entity(key, null, 1, 1L, 1,
+                                            new Date(clock.incrementAndGet())));
+                            if (store.replace(deviceMap, d, nd))
+                                break;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        long lastSeen = deviceMap.get(key).getLastSeen().getTime();
+        assertEquals(1, store.getEntityCount());
+        assertArrayEquals(new long[0], store.findDevicesSeenBefore(lastSeen));
+        assertArrayEquals(new long[] {key},
+                          store.findDevicesSeenBefore(lastSeen + 1));
+    }
+}
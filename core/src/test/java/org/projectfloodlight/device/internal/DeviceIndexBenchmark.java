@@ -0,0 +1,82 @@
+package org.projectfloodlight.device.internal;
+
+import java.util.EnumSet;
+
+import org.projectfloodlight.device.IDeviceService.DeviceField;
+
+/**
+ * Micro-benchmark comparing {@link DeviceUniqueIndex} with
+ * {@link PrimitiveDeviceUniqueIndex}: learns a million (MAC, VLAN)
+ * entities, then looks each of them up. Reports throughput and the heap
+ * retained by the populated index.
+ *
+ * Not run as part of the unit tests. Run it with
+ * <pre>
+ * java -Xmx2g -cp target/classes:target/test-classes:&lt;deps&gt; \
+ *     org.projectfloodlight.device.internal.DeviceIndexBenchmark
+ * </pre>
+ */
+public class DeviceIndexBenchmark {
+    private static final int NUM_ENTITIES = 1000000;
+    private static final int LOOKUP_ROUNDS = 5;
+    private static final EnumSet<DeviceField> KEY_FIELDS =
+            EnumSet.of(DeviceField.MAC, DeviceField.VLAN);
+
+    static Entity[] makeEntities() {
+        Entity[] entities = new Entity[NUM_ENTITIES];
+        for (int i = 0; i < NUM_ENTITIES; i++) {
+            long mac = 0x000c29000000L + i;
+            Short vlan = (i % 4 == 0) ? null : Short.valueOf((short) (i % 4000));
+            entities[i] = new Entity(mac, vlan, null, null, null, null);
+        }
+        return entities;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static void run(String name, DeviceIndex idx, Entity[] entities) {
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < entities.length; i++)
+            idx.updateIndex(entities[i], Long.valueOf(i));
+        long learnNs = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+
+        long sink = 0;
+        start = System.nanoTime();
+        for (int r = 0; r < LOOKUP_ROUNDS; r++) {
+            for (Entity e : entities) {
+                Long key = idx.findByEntity(e);
+                if (key != null)
+                    sink += key;
+            }
+        }
+        long lookupNs = System.nanoTime() - start;
+
+        System.out.printf("%-28s learn %6.1f ns/entity  lookup %6.1f ns/entity" +
+                          "  retained %6.1f MB  (%d)%n",
+                          name,
+                          (double) learnNs / entities.length,
+                          (double) lookupNs / ((long) LOOKUP_ROUNDS * entities.length),
+                          (heapAfter - heapBefore) / (1024.0 * 1024.0),
+                          sink);
+    }
+
+    public static void main(String[] args) {
+        Entity[] entities = makeEntities();
+        // warm up both implementations before measuring
+        run("warmup DeviceUniqueIndex", new DeviceUniqueIndex(KEY_FIELDS),
+            entities);
+        run("warmup Primitive", new PrimitiveDeviceUniqueIndex(KEY_FIELDS),
+            entities);
+
+        run("DeviceUniqueIndex", new DeviceUniqueIndex(KEY_FIELDS), entities);
+        run("PrimitiveDeviceUniqueIndex",
+            new PrimitiveDeviceUniqueIndex(KEY_FIELDS), entities);
+    }
+}
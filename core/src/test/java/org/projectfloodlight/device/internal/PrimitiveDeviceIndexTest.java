@@ -0,0 +1,152 @@
+package org.projectfloodlight.device.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.device.IDeviceService.DeviceField;
+
+public class PrimitiveDeviceIndexTest {
+    protected Entity e1a;
+    protected Entity e1b;
+    protected Device d1;
+    protected Entity e2;
+    protected Entity e2alt;
+    protected Entity e3;
+    protected Entity e4;
+
+    @Before
+    public void setUp() throws Exception {
+        e1a = new Entity(1L, (short)1, 1, 1L, 1, new Date());
+        e1b = new Entity(1L, (short)2, 1, 1L, 1, new Date());
+        List<Entity> d1Entities = new ArrayList<Entity>(2);
+        d1Entities.add(e1a);
+        d1Entities.add(e1b);
+        d1 = new Device(null, Long.valueOf(1), null, null, null,
+                        d1Entities, DefaultEntityClassifier.entityClass);
+
+        // e2 and e2alt match in MAC and VLAN
+        e2 = new Entity(2L, (short)2, 2, 2L, 2, new Date());
+        e2alt = new Entity(2, (short)2, null, null, null, null);
+        // IP is null
+        e3 = new Entity(3L, (short)3, null, 3L, 3, new Date());
+        // untagged
+        e4 = new Entity(4L, null, null, null, null, new Date());
+    }
+
+    private Set<Long> toSet(Iterator<Long> it) {
+        Set<Long> actual = new HashSet<Long>();
+        while (it.hasNext())
+            actual.add(it.next());
+        return actual;
+    }
+
+    @Test
+    public void testSupported() {
+        assertTrue(PrimitiveDeviceIndex.isSupported(
+                EnumSet.of(DeviceField.MAC, DeviceField.VLAN)));
+        assertTrue(PrimitiveDeviceIndex.isSupported(
+                EnumSet.of(DeviceField.IPV4)));
+        assertFalse(PrimitiveDeviceIndex.isSupported(
+                EnumSet.of(DeviceField.SWITCH, DeviceField.PORT)));
+        try {
+            new PrimitiveDeviceUniqueIndex(EnumSet.of(DeviceField.SWITCH));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Same operations as DeviceUniqueIndexTest, checked against a
+     * DeviceUniqueIndex
+     */
+    @Test
+    public void testUniqueIndex() {
+        EnumSet<DeviceField> fields =
+                EnumSet.of(DeviceField.MAC, DeviceField.VLAN);
+        DeviceIndex ref = new DeviceUniqueIndex(fields);
+        DeviceIndex idx = new PrimitiveDeviceUniqueIndex(fields);
+        for (DeviceIndex i : Arrays.asList(ref, idx)) {
+            assertTrue(i.updateIndex(d1, d1.getDeviceKey()));
+            i.updateIndex(e2, 2L);
+            i.updateIndex(e4, 4L);
+        }
+        for (Entity e : Arrays.asList(e1a, e1b, e2, e2alt, e3, e4)) {
+            assertEquals(ref.findByEntity(e), idx.findByEntity(e));
+            assertEquals(toSet(ref.queryByEntity(e)),
+                         toSet(idx.queryByEntity(e)));
+        }
+        assertEquals(Long.valueOf(2L), idx.findByEntity(e2alt));
+        assertNull(idx.findByEntity(e3));
+        assertEquals(Long.valueOf(4L), idx.findByEntity(e4));
+        // untagged and VLAN 0 are different keys
+        assertNull(idx.findByEntity(
+                new Entity(4L, (short)0, null, null, null, null)));
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 4L)),
+                     toSet(idx.getAll()));
+
+        idx.removeEntity(e1a, 42L); // e1a isn't mapped to this key
+        assertEquals(Long.valueOf(1L), idx.findByEntity(e1a));
+        idx.removeEntity(e1a, 1L);
+        assertNull(idx.findByEntity(e1a));
+        assertEquals(Long.valueOf(1L), idx.findByEntity(e1b));
+        idx.removeEntity(e2);
+        assertNull(idx.findByEntity(e2));
+
+        // entity already exists with different deviceKey
+        DeviceIndex idx3 = new PrimitiveDeviceUniqueIndex(fields);
+        idx3.updateIndex(e1a, 42L);
+        assertFalse(idx3.updateIndex(d1, 1L));
+        idx3.updateIndex(e1a, 1L);
+        assertTrue(idx3.updateIndex(d1, 1L));
+
+        // null IP is not indexed
+        DeviceIndex ipIdx =
+                new PrimitiveDeviceUniqueIndex(EnumSet.of(DeviceField.IPV4));
+        ipIdx.updateIndex(e3, 3L);
+        assertNull(ipIdx.findByEntity(e3));
+        assertFalse(ipIdx.getAll().hasNext());
+    }
+
+    @Test
+    public void testMultiIndex() {
+        EnumSet<DeviceField> fields = EnumSet.of(DeviceField.IPV4);
+        DeviceIndex idx = new PrimitiveDeviceMultiIndex(fields);
+        idx.updateIndex(d1, 1L);
+        idx.updateIndex(e2, 2L);
+        // same IP as e2
+        Entity e5 = new Entity(5L, null, 2, null, null, null);
+        idx.updateIndex(e5, 5L);
+        idx.updateIndex(e3, 3L);
+
+        assertEquals(Collections.singleton(1L), toSet(idx.queryByEntity(e1a)));
+        assertEquals(new HashSet<Long>(Arrays.asList(2L, 5L)),
+                     toSet(idx.queryByEntity(e2)));
+        assertFalse(idx.queryByEntity(e3).hasNext());
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 5L)),
+                     toSet(idx.getAll()));
+
+        idx.removeEntity(e2, 2L);
+        assertEquals(Collections.singleton(5L), toSet(idx.queryByEntity(e2)));
+
+        // e1b has the same IP, so removing e1a must keep the mapping
+        idx.removeEntityIfNeeded(e1a, 1L, Collections.singletonList(e1b));
+        assertEquals(Collections.singleton(1L), toSet(idx.queryByEntity(e1a)));
+        idx.removeEntityIfNeeded(e1a, 1L, Collections.<Entity>emptyList());
+        assertFalse(idx.queryByEntity(e1a).hasNext());
+
+        idx.removeEntity(e5);
+        assertFalse(idx.getAll().hasNext());
+    }
+}
@@ -61,7 +61,7 @@ public class MockDevice extends Device {
     @Override
     public Integer[] getIPv4Addresses() {
         TreeSet<Integer> vals = new TreeSet<Integer>();
-        for (Entity e : entities) {
+        for (Entity e : getEntities()) {
             if (e.getIpv4Address() == null) continue;
             vals.add(e.getIpv4Address());
         }
@@ -72,6 +72,7 @@ public class MockDevice extends Device {
     @BigDBIgnore
     @Override
     public SwitchPort[] getAttachmentPoints() {
+        Entity[] entities = getEntities();
         ArrayList<SwitchPort> vals = 
                 new ArrayList<SwitchPort>(entities.length);
         for (Entity e : entities) {
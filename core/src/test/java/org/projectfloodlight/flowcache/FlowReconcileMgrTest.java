@@ -27,8 +27,11 @@ import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.Test;
+import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFStatisticsRequest;
 import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+import org.projectfloodlight.core.IOFSwitch;
 import org.projectfloodlight.core.IListener.Command;
 import org.projectfloodlight.core.module.FloodlightModuleContext;
 import org.projectfloodlight.core.test.MockThreadPoolService;
@@ -381,6 +384,41 @@ public class FlowReconcileMgrTest extends FloodlightTestCase {
         assertEquals(expectedCap, capacity);
     }
     
+    /**
+     * Verify barrier replies and switch removals reach the parallel engine
+     * and that the engine is stopped on shutdown
+     */
+    @Test
+    public void testParallelEngineEvents() throws Exception {
+        ParallelReconcileEngine engine =
+                createMock(ParallelReconcileEngine.class);
+        IOFSwitch sw = createNiceMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(1L).anyTimes();
+        OFMessage barrier = BasicFactory.getInstance()
+                .getMessage(OFType.BARRIER_REPLY);
+        barrier.setXid(42);
+        engine.barrierReply(1L, 42);
+        expectLastCall().once();
+        engine.removeSwitch(1L);
+        expectLastCall().once();
+        engine.shutdown();
+        expectLastCall().once();
+        replay(engine, sw);
+
+        flowReconcileMgr.parallelEngine = engine;
+        assertEquals(Command.CONTINUE,
+                     flowReconcileMgr.new BarrierReplyListener()
+                             .receive(sw, barrier, null));
+        flowReconcileMgr.new SwitchListener().switchRemoved(1L);
+        flowReconcileMgr.shutdown();
+        assertNull(flowReconcileMgr.parallelEngine);
+        verify(engine);
+
+        // Events after shutdown are ignored
+        flowReconcileMgr.new BarrierReplyListener().receive(sw, barrier, null);
+        flowReconcileMgr.new SwitchListener().switchRemoved(1L);
+    }
+
     /** Verify the flows are sent to the reconcile pipeline in order.
      */
     @SuppressWarnings("unchecked")
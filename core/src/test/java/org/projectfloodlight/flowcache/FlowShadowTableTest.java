@@ -0,0 +1,416 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.flowcache;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFError;
+import org.openflow.protocol.OFError.OFErrorType;
+import org.openflow.protocol.OFError.OFFlowModFailedCode;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFlowRemoved;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.util.HexString;
+import org.projectfloodlight.core.IOFSwitch;
+import org.projectfloodlight.core.util.AppCookie;
+import org.projectfloodlight.flowcache.FlowShadowTable.SwitchFlowTable;
+
+public class FlowShadowTableTest {
+    protected static final long DPID = 1L;
+    protected FlowShadowTable shadowTable;
+    protected SwitchFlowTable table;
+
+    @Before
+    public void setUp() {
+        shadowTable = new FlowShadowTable();
+        shadowTable.maxFlowsPerSwitch = 4;
+        table = shadowTable.getTable(DPID);
+    }
+
+    protected static OFFlowMod flowMod(short command, OFMatch match,
+                                       short priority, long cookie,
+                                       short outPort) {
+        OFFlowMod fm = new OFFlowMod();
+        fm.setCommand(command);
+        fm.setMatch(match);
+        fm.setPriority(priority);
+        fm.setCookie(cookie);
+        fm.setOutPort(OFPort.OFPP_NONE);
+        List<OFAction> actions = Collections.singletonList(
+                (OFAction)new OFActionOutput(outPort, (short)0xffff));
+        fm.setActions(actions);
+        return fm;
+    }
+
+    protected static OFMatch macMatch(String src, String dst) {
+        return new OFMatch()
+                .setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_SRC
+                              & ~OFMatch.OFPFW_DL_DST)
+                .setDataLayerSource(src)
+                .setDataLayerDestination(dst);
+    }
+
+    protected void clearAll() {
+        OFFlowMod fm = new OFFlowMod();
+        fm.setCommand(OFFlowMod.OFPFC_DELETE);
+        fm.setMatch(new OFMatch().setWildcards(OFMatch.OFPFW_ALL));
+        fm.setOutPort(OFPort.OFPP_NONE);
+        assertTrue(table.applyFlowMod(fm));
+    }
+
+    protected static long mac(String s) {
+        return HexString.toLong(s);
+    }
+
+    @Test
+    public void testIncompleteUntilCleared() {
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD,
+                                   macMatch("00:00:00:00:00:01",
+                                            "00:00:00:00:00:02"),
+                                   (short)100, 1L, (short)1));
+        assertFalse(shadowTable.isComplete(DPID));
+        assertNull(shadowTable.getFlows(DPID));
+        assertNull(shadowTable.getFlowsByOutPort(DPID, (short)1));
+        assertNull(shadowTable.getFlows(2L));
+
+        clearAll();
+        assertTrue(shadowTable.isComplete(DPID));
+        assertEquals(0, shadowTable.getFlows(DPID).size());
+        assertEquals(0, shadowTable.getFlowCount());
+    }
+
+    @Test
+    public void testIndexes() {
+        clearAll();
+        long cookie = AppCookie.makeCookie(10, 7);
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD,
+                                   macMatch("00:00:00:00:00:01",
+                                            "00:00:00:00:00:02"),
+                                   (short)100, cookie, (short)1));
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD,
+                                   macMatch("00:00:00:00:00:03",
+                                            "00:00:00:00:00:02"),
+                                   (short)100, 2L, (short)2));
+        OFMatch vlanMatch = new OFMatch()
+                .setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_VLAN)
+                .setDataLayerVirtualLan((short)42);
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD, vlanMatch,
+                                   (short)200, 2L, (short)1));
+        assertEquals(3, shadowTable.getFlowCount());
+
+        assertEquals(2, shadowTable.getFlowsByOutPort(DPID, (short)1).size());
+        assertEquals(1, shadowTable.getFlowsByOutPort(DPID, (short)2).size());
+        assertEquals(0, shadowTable.getFlowsByOutPort(DPID, (short)3).size());
+        assertEquals(2, shadowTable.getFlowsByDstMac(DPID,
+                mac("00:00:00:00:00:02")).size());
+        List<ShadowFlow> flows = shadowTable.getFlowsBySrcMac(DPID,
+                mac("00:00:00:00:00:01"));
+        assertEquals(1, flows.size());
+        assertEquals(cookie, flows.get(0).getCookie());
+        assertEquals(1, shadowTable.getFlowsByAppId(DPID, 10).size());
+        assertEquals(2, shadowTable.getFlowsByCookie(DPID, 2L).size());
+        flows = shadowTable.getFlowsByVlan(DPID, (short)42);
+        assertEquals(1, flows.size());
+        assertEquals(200, flows.get(0).getPriority());
+        assertEquals(ShadowFlow.normalize(vlanMatch), flows.get(0).getMatch());
+        assertEquals(1, flows.get(0).getActions().size());
+
+        // re-adding the same match and priority replaces the flow
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD, vlanMatch,
+                                   (short)200, 3L, (short)3));
+        assertEquals(3, shadowTable.getFlowCount());
+        assertEquals(1, shadowTable.getFlowsByOutPort(DPID, (short)1).size());
+        assertEquals(1, shadowTable.getFlowsByOutPort(DPID, (short)3).size());
+        assertEquals(1, shadowTable.getFlowsByCookie(DPID, 2L).size());
+    }
+
+    /**
+     * Flows with a hard timeout leave the table when it expires. The
+     * flow-mods are not changed.
+     */
+    @Test
+    public void testTimeouts() {
+        clearAll();
+        IOFSwitch sw = createNiceMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(DPID).anyTimes();
+        replay(sw);
+        long now = System.currentTimeMillis();
+
+        // hard timeout: expired by the time the table is read
+        OFMatch m1 = macMatch("00:00:00:00:00:01", "00:00:00:00:00:02");
+        OFFlowMod hard = flowMod(OFFlowMod.OFPFC_ADD, m1,
+                                 (short)100, 1L, (short)1);
+        hard.setHardTimeout((short)5);
+        assertTrue(table.applyFlowMod(hard, now - 10000));
+        assertEquals(0, hard.getFlags());
+
+        // idle timeout without SEND_FLOW_REM: kept, but possibly stale
+        OFMatch m2 = macMatch("00:00:00:00:00:03", "00:00:00:00:00:02");
+        OFFlowMod idle = flowMod(OFFlowMod.OFPFC_ADD, m2,
+                                 (short)100, 2L, (short)1);
+        idle.setIdleTimeout((short)5);
+        assertTrue(table.applyFlowMod(idle, now - 10000));
+        assertEquals(0, idle.getFlags());
+
+        // idle timeout with SEND_FLOW_REM: removed when the switch says so
+        OFMatch m3 = macMatch("00:00:00:00:00:04", "00:00:00:00:00:02");
+        OFFlowMod reported = flowMod(OFFlowMod.OFPFC_ADD, m3,
+                                     (short)100, 3L, (short)1);
+        reported.setIdleTimeout((short)5);
+        reported.setFlags(OFFlowMod.OFPFF_SEND_FLOW_REM);
+        shadowTable.receive(sw, reported, null);
+
+        assertEquals(2, shadowTable.getFlowCount());
+        assertTrue(shadowTable.getFlowsBySrcMac(DPID,
+                mac("00:00:00:00:00:01")).isEmpty());
+        List<ShadowFlow> flows = shadowTable.getFlowsBySrcMac(DPID,
+                mac("00:00:00:00:00:03"));
+        assertEquals(1, flows.size());
+        assertTrue(flows.get(0).isPossiblyStale());
+        flows = shadowTable.getFlowsBySrcMac(DPID, mac("00:00:00:00:00:04"));
+        assertEquals(1, flows.size());
+        assertFalse(flows.get(0).isPossiblyStale());
+
+        OFFlowRemoved fr = new OFFlowRemoved();
+        fr.setMatch(m3.clone());
+        fr.setPriority((short)100);
+        fr.setReason(OFFlowRemoved.OFFlowRemovedReason.OFPRR_IDLE_TIMEOUT);
+        shadowTable.receive(sw, fr, null);
+        assertEquals(1, shadowTable.getFlowCount());
+
+        // a modify keeps the hard timeout of the flow it changes
+        OFFlowMod add = flowMod(OFFlowMod.OFPFC_ADD, m1,
+                                (short)100, 1L, (short)1);
+        add.setHardTimeout((short)60);
+        assertTrue(table.applyFlowMod(add, now));
+        OFFlowMod modify = flowMod(OFFlowMod.OFPFC_MODIFY_STRICT, m1,
+                                   (short)100, 1L, (short)2);
+        assertTrue(table.applyFlowMod(modify, now + 1000));
+        flows = shadowTable.getFlowsBySrcMac(DPID, mac("00:00:00:00:00:01"));
+        assertEquals(1, flows.size());
+        assertEquals(now + 60000, flows.get(0).getHardDeadline());
+        assertTrue(flows.get(0).hasOutPort((short)2));
+        table.expire(now + 60000);
+        assertTrue(shadowTable.getFlowsBySrcMac(DPID,
+                mac("00:00:00:00:00:01")).isEmpty());
+    }
+
+    /**
+     * A flow-mod the switch rejects is undone
+     */
+    @Test
+    public void testFlowModFailed() {
+        clearAll();
+        IOFSwitch sw = createNiceMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(DPID).anyTimes();
+        replay(sw);
+
+        OFMatch m1 = macMatch("00:00:00:00:00:01", "00:00:00:00:00:02");
+        OFFlowMod fm = flowMod(OFFlowMod.OFPFC_ADD, m1,
+                               (short)100, 1L, (short)1);
+        fm.setXid(7);
+        shadowTable.receive(sw, fm, null);
+        OFFlowMod modify = flowMod(OFFlowMod.OFPFC_MODIFY_STRICT, m1,
+                                   (short)100, 1L, (short)2);
+        modify.setXid(8);
+        shadowTable.receive(sw, modify, null);
+        OFMatch m2 = macMatch("00:00:00:00:00:03", "00:00:00:00:00:02");
+        OFFlowMod other = flowMod(OFFlowMod.OFPFC_ADD, m2,
+                                  (short)100, 2L, (short)1);
+        other.setXid(8);
+        shadowTable.receive(sw, other, null);
+        assertEquals(2, shadowTable.getFlowCount());
+
+        // errors for other xids or other flow-mods are ignored
+        shadowTable.receive(sw, flowModFailed(modify, 9), null);
+        OFError badRequest = flowModFailed(modify, 8);
+        badRequest.setErrorType(OFErrorType.OFPET_BAD_REQUEST);
+        shadowTable.receive(sw, badRequest, null);
+        List<ShadowFlow> flows = shadowTable.getFlowsByOutPort(DPID, (short)2);
+        assertEquals(1, flows.size());
+
+        // the failed modify is undone, the flow it shares an xid with isn't
+        shadowTable.receive(sw, flowModFailed(modify, 8), null);
+        assertTrue(shadowTable.getFlowsByOutPort(DPID, (short)2).isEmpty());
+        assertEquals(2, shadowTable.getFlowsByOutPort(DPID, (short)1).size());
+
+        // the failed add leaves no phantom flow
+        shadowTable.receive(sw, flowModFailed(fm, 7), null);
+        flows = shadowTable.getFlowsByOutPort(DPID, (short)1);
+        assertEquals(1, flows.size());
+        assertEquals(2L, flows.get(0).getCookie());
+    }
+
+    /**
+     * @return a FLOW_MOD_FAILED error for the flow-mod, carrying its first
+     * 64 bytes like a switch would
+     */
+    private static OFError flowModFailed(OFFlowMod fm, int xid) {
+        fm.setLengthU(OFFlowMod.MINIMUM_LENGTH +
+                      OFActionOutput.MINIMUM_LENGTH);
+        OFError error = new OFError(OFErrorType.OFPET_FLOW_MOD_FAILED);
+        error.setErrorCode(OFFlowModFailedCode.OFPFMFC_ALL_TABLES_FULL);
+        error.setOffendingMsg(fm);
+        error.setError(Arrays.copyOf(error.getError(), 64));
+        error.setXid(xid);
+        return error;
+    }
+
+    @Test
+    public void testModify() {
+        clearAll();
+        OFMatch m1 = macMatch("00:00:00:00:00:01", "00:00:00:00:00:02");
+        OFMatch m2 = macMatch("00:00:00:00:00:03", "00:00:00:00:00:02");
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD, m1,
+                                   (short)100, 1L, (short)1));
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD, m2,
+                                   (short)100, 2L, (short)1));
+
+        // strict modify keeps the cookie
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_MODIFY_STRICT, m1,
+                                   (short)100, 5L, (short)2));
+        List<ShadowFlow> flows = shadowTable.getFlowsByOutPort(DPID, (short)2);
+        assertEquals(1, flows.size());
+        assertEquals(1L, flows.get(0).getCookie());
+
+        // non-strict modify on the destination MAC changes both flows
+        OFMatch dst = new OFMatch()
+                .setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_DST)
+                .setDataLayerDestination("00:00:00:00:00:02");
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_MODIFY, dst,
+                                   (short)0, 0L, (short)3));
+        assertEquals(2, shadowTable.getFlowsByOutPort(DPID, (short)3).size());
+        assertEquals(0, shadowTable.getFlowsByOutPort(DPID, (short)1).size());
+        assertEquals(2, shadowTable.getFlowCount());
+
+        // a modify that matches nothing adds a flow
+        OFMatch other = macMatch("00:00:00:00:00:05", "00:00:00:00:00:06");
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_MODIFY, other,
+                                   (short)100, 9L, (short)4));
+        assertEquals(1, shadowTable.getFlowsByCookie(DPID, 9L).size());
+        assertEquals(3, shadowTable.getFlowCount());
+    }
+
+    @Test
+    public void testDelete() {
+        clearAll();
+        OFMatch m1 = macMatch("00:00:00:00:00:01", "00:00:00:00:00:02");
+        OFMatch m2 = macMatch("00:00:00:00:00:03", "00:00:00:00:00:02");
+        OFMatch m3 = macMatch("00:00:00:00:00:03", "00:00:00:00:00:04");
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD, m1,
+                                   (short)100, 1L, (short)1));
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD, m2,
+                                   (short)100, 1L, (short)2));
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD, m3,
+                                   (short)100, 1L, (short)2));
+
+        // delete everything going out port 2 toward MAC 02
+        OFFlowMod fm = new OFFlowMod();
+        fm.setCommand(OFFlowMod.OFPFC_DELETE);
+        fm.setMatch(new OFMatch()
+                .setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_DST)
+                .setDataLayerDestination("00:00:00:00:00:02"));
+        fm.setOutPort((short)2);
+        table.applyFlowMod(fm);
+        assertEquals(2, shadowTable.getFlowCount());
+        assertEquals(1, shadowTable.getFlowsByOutPort(DPID, (short)2).size());
+        assertEquals(1, shadowTable.getFlowsBySrcMac(DPID,
+                mac("00:00:00:00:00:03")).size());
+
+        // strict delete needs the priority to match
+        fm = flowMod(OFFlowMod.OFPFC_DELETE_STRICT, m1,
+                     (short)99, 0L, (short)0);
+        table.applyFlowMod(fm);
+        assertEquals(2, shadowTable.getFlowCount());
+        fm.setPriority((short)100);
+        table.applyFlowMod(fm);
+        assertEquals(1, shadowTable.getFlowCount());
+
+        // flow removed
+        table.flowRemoved(m3, (short)100);
+        assertEquals(0, shadowTable.getFlowCount());
+        assertEquals(0, shadowTable.getFlowsByCookie(DPID, 1L).size());
+        assertTrue(table.byDstMac.isEmpty());
+    }
+
+    @Test
+    public void testOverflow() {
+        clearAll();
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD,
+                    macMatch("00:00:00:00:00:0" + i, "00:00:00:00:00:02"),
+                    (short)100, 1L, (short)1)));
+        }
+        assertTrue(shadowTable.isComplete(DPID));
+        assertFalse(table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD,
+                macMatch("00:00:00:00:00:05", "00:00:00:00:00:02"),
+                (short)100, 1L, (short)1)));
+        assertFalse(shadowTable.isComplete(DPID));
+        assertNull(shadowTable.getFlowsByOutPort(DPID, (short)1));
+
+        // clearing the switch's flows makes the table usable again
+        clearAll();
+        assertTrue(shadowTable.isComplete(DPID));
+
+        shadowTable.switchRemoved(DPID);
+        assertFalse(shadowTable.isComplete(DPID));
+    }
+
+    @Test
+    public void testNormalizedMatch() {
+        clearAll();
+        // wildcarded fields and host bits of a prefix are ignored
+        OFMatch m1 = new OFMatch()
+                .setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_NW_DST_MASK
+                              | (8 << OFMatch.OFPFW_NW_DST_SHIFT))
+                .setNetworkDestination(0x0a000001)
+                .setInputPort((short)5);
+        OFMatch m2 = new OFMatch()
+                .setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_NW_DST_MASK
+                              | (8 << OFMatch.OFPFW_NW_DST_SHIFT))
+                .setNetworkDestination(0x0a000002);
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD, m1,
+                                   (short)100, 1L, (short)1));
+        table.applyFlowMod(flowMod(OFFlowMod.OFPFC_ADD, m2,
+                                   (short)100, 2L, (short)1));
+        assertEquals(1, shadowTable.getFlowCount());
+        assertEquals(2L, shadowTable.getFlows(DPID).get(0).getCookie());
+
+        // a /16 delete covers the /24 flow
+        OFFlowMod fm = new OFFlowMod();
+        fm.setCommand(OFFlowMod.OFPFC_DELETE);
+        fm.setMatch(new OFMatch()
+                .setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_NW_DST_MASK
+                              | (16 << OFMatch.OFPFW_NW_DST_SHIFT))
+                .setNetworkDestination(0x0a000000));
+        fm.setOutPort(OFPort.OFPP_NONE);
+        table.applyFlowMod(fm);
+        assertEquals(0, shadowTable.getFlowCount());
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.flowcache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.projectfloodlight.flowcache.PriorityPendingQueue.EventPriority;
+
+public class ParallelReconcileEngineTest {
+    protected ParallelReconcileEngine engine;
+
+    /** Records the flows of each batch and checks per-switch exclusion */
+    protected static class RecordingHandler
+            implements ParallelReconcileEngine.BatchHandler {
+        final Map<Long, List<Long>> cookies = new HashMap<Long, List<Long>>();
+        final List<Integer> batchSizes =
+                Collections.synchronizedList(new ArrayList<Integer>());
+        final Set<Long> active = Collections.synchronizedSet(new HashSet<Long>());
+        volatile boolean overlap = false;
+
+        @Override
+        public void reconcileBatch(ArrayList<OFMatchReconcile> batch) {
+            long dpid = batch.get(0).ofmWithSwDpid.getSwitchDataPathId();
+            if (!active.add(dpid))
+                overlap = true;
+            synchronized (cookies) {
+                List<Long> l = cookies.get(dpid);
+                if (l == null) {
+                    l = new ArrayList<Long>();
+                    cookies.put(dpid, l);
+                }
+                for (OFMatchReconcile ofmRc : batch) {
+                    assertEquals(dpid,
+                                 ofmRc.ofmWithSwDpid.getSwitchDataPathId());
+                    l.add(ofmRc.cookie);
+                }
+            }
+            batchSizes.add(batch.size());
+            active.remove(dpid);
+        }
+    }
+
+    protected static OFMatchReconcile flow(long dpid, long cookie) {
+        OFMatchReconcile ofmRc = new OFMatchReconcile();
+        ofmRc.ofmWithSwDpid.setSwitchDataPathId(dpid);
+        ofmRc.cookie = cookie;
+        return ofmRc;
+    }
+
+    protected void waitForFlows(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (engine.getFlowCount() < count) {
+            assertTrue("Timed out waiting for " + count + " flows",
+                       System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (engine != null)
+            engine.shutdown();
+    }
+
+    @Test
+    public void testPerSwitchOrdering() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        engine = new ParallelReconcileEngine(4, handler,
+                new ParallelReconcileEngine.BarrierSender() {
+                    @Override
+                    public int sendBarrier(long dpid) {
+                        return -1;
+                    }
+                }, 4, 16, 50, 2000);
+
+        int numSwitches = 8;
+        int flowsPerSwitch = 1000;
+        for (int i = 0; i < flowsPerSwitch; i++) {
+            for (long dpid = 1; dpid <= numSwitches; dpid++)
+                engine.submit(flow(dpid, i), EventPriority.LOW);
+        }
+        waitForFlows(numSwitches * flowsPerSwitch);
+
+        assertFalse(handler.overlap);
+        assertEquals(0, engine.getPendingCount());
+        for (long dpid = 1; dpid <= numSwitches; dpid++) {
+            List<Long> l = handler.cookies.get(dpid);
+            assertEquals(flowsPerSwitch, l.size());
+            for (int i = 0; i < flowsPerSwitch; i++)
+                assertEquals(i, l.get(i).longValue());
+        }
+        for (int size : handler.batchSizes)
+            assertTrue(size <= 4);
+    }
+
+    @Test
+    public void testBarrierPacing() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        final AtomicInteger xid = new AtomicInteger();
+        engine = new ParallelReconcileEngine(2, handler,
+                new ParallelReconcileEngine.BarrierSender() {
+                    @Override
+                    public int sendBarrier(long dpid) {
+                        return xid.incrementAndGet();
+                    }
+                }, 4, 8, 60000, 60000);
+
+        for (int i = 0; i < 100; i++)
+            engine.submit(flow(1L, i), EventPriority.LOW);
+
+        // the switch is held after the first batch, which may have been
+        // taken before all flows were queued
+        waitForFlows(1);
+        long first = engine.getFlowCount();
+        assertTrue(first <= 4);
+        Thread.sleep(20);
+        assertEquals(first, engine.getFlowCount());
+
+        // a reply to some other barrier is ignored
+        engine.barrierReply(1L, xid.get() + 100);
+        engine.barrierReply(2L, xid.get());
+        Thread.sleep(20);
+        assertEquals(first, engine.getFlowCount());
+
+        // a fast reply grows the batch
+        engine.barrierReply(1L, xid.get());
+        waitForFlows(first + 8);
+        Thread.sleep(20);
+        assertEquals(first + 8, engine.getFlowCount());
+        assertEquals(8, handler.batchSizes.get(1).intValue());
+
+        // no timeout yet
+        engine.checkBarrierTimeouts();
+        assertEquals(0, engine.getBarrierTimeoutCount());
+    }
+
+    @Test
+    public void testBarrierTimeout() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        final AtomicInteger xid = new AtomicInteger();
+        engine = new ParallelReconcileEngine(2, handler,
+                new ParallelReconcileEngine.BarrierSender() {
+                    @Override
+                    public int sendBarrier(long dpid) {
+                        return xid.incrementAndGet();
+                    }
+                }, 4, 8, 60000, 0);
+
+        for (int i = 0; i < 8; i++)
+            engine.submit(flow(1L, i), EventPriority.LOW);
+        waitForFlows(1);
+        long first = engine.getFlowCount();
+
+        engine.checkBarrierTimeouts();
+        assertEquals(1, engine.getBarrierTimeoutCount());
+        waitForFlows(first + 4);
+
+        // the late reply to the first barrier is ignored
+        engine.barrierReply(1L, 1);
+        engine.checkBarrierTimeouts();
+        waitForFlows(8);
+        assertEquals(2, engine.getBarrierTimeoutCount());
+        assertEquals(8, handler.cookies.get(1L).size());
+    }
+}
@@ -29,6 +29,7 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -101,6 +102,7 @@ public class ForwardingTest extends FloodlightTestCase {
     protected OFPacketOut packetOutFlooded;
     protected IPacket testPacket;
     protected byte[] testPacketSerialized;
+    protected long testPacketFlowHash;
     protected int expected_wildcards;
     int fastWildcards;
     protected Date currentDate;
@@ -223,6 +225,9 @@ public class ForwardingTest extends FloodlightTestCase {
 
         // Mock Packet-in
         testPacketSerialized = testPacket.serialize();
+        OFMatch testPacketMatch = new OFMatch();
+        testPacketMatch.loadFromPacket(testPacketSerialized, (short) 1);
+        testPacketFlowHash = Forwarding.getFlowHash(testPacketMatch);
         packetIn =
                 ((OFPacketIn) mockFloodlightProvider.getOFMessageFactory().
                         getMessage(OFType.PACKET_IN))
@@ -349,7 +354,7 @@ public class ForwardingTest extends FloodlightTestCase {
         nptList.add(new NodePortTuple(2L, (short)1));
         nptList.add(new NodePortTuple(2L, (short)3));
         route.setPath(nptList);
-        expect(routingEngine.getRoute(1L, (short)1, 2L, (short)3, 0)).andReturn(route).atLeastOnce();
+        expect(routingEngine.getRoute(1L, (short)1, 2L, (short)3, testPacketFlowHash)).andReturn(route).atLeastOnce();
 
         // Expected Flow-mods
         OFMatch match = new OFMatch();
@@ -413,7 +418,7 @@ public class ForwardingTest extends FloodlightTestCase {
         Route route = new  Route(1L, 1L);
         route.getPath().add(new NodePortTuple(1L, (short)1));
         route.getPath().add(new NodePortTuple(1L, (short)3));
-        expect(routingEngine.getRoute(1L, (short)1, 1L, (short)3, 0)).andReturn(route).atLeastOnce();
+        expect(routingEngine.getRoute(1L, (short)1, 1L, (short)3, testPacketFlowHash)).andReturn(route).atLeastOnce();
 
         // Expected Flow-mods
         OFMatch match = new OFMatch();
@@ -492,7 +497,7 @@ public class ForwardingTest extends FloodlightTestCase {
         Route route = new  Route(1L, 1L);
         route.getPath().add(new NodePortTuple(1L, (short)1));
         route.getPath().add(new NodePortTuple(1L, (short)3));
-        expect(routingEngine.getRoute(1L, (short)1, 1L, (short)3, 0)).andReturn(route).atLeastOnce();
+        expect(routingEngine.getRoute(1L, (short)1, 1L, (short)3, testPacketFlowHash)).andReturn(route).atLeastOnce();
 
         // Expected Flow-mods
         OFMatch match = new OFMatch();
@@ -560,4 +565,17 @@ public class ForwardingTest extends FloodlightTestCase {
         verify(sw1, sw2, routingEngine);
     }
 
+    @Test
+    public void testFlowHash() {
+        OFMatch match = new OFMatch();
+        match.loadFromPacket(testPacketSerialized, (short) 1);
+        OFMatch other = match.clone();
+        assertEquals(testPacketFlowHash, Forwarding.getFlowHash(other));
+        // The input port isn't part of the flow
+        other.setInputPort((short) 2);
+        assertEquals(testPacketFlowHash, Forwarding.getFlowHash(other));
+        other.setTransportSource((short) (match.getTransportSource() + 1));
+        assertFalse(testPacketFlowHash == Forwarding.getFlowHash(other));
+    }
+
 }
@@ -27,10 +27,13 @@ import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -49,6 +52,7 @@ import org.junit.Test;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.OFPacketIn.OFPacketInReason;
+import org.openflow.protocol.OFPacketOut;
 import org.openflow.protocol.OFPhysicalPort;
 import org.openflow.protocol.OFPhysicalPort.OFPortFeatures;
 import org.openflow.protocol.OFType;
@@ -67,10 +71,12 @@ import org.projectfloodlight.linkdiscovery.ILinkDiscoveryListener;
 import org.projectfloodlight.linkdiscovery.ILinkDiscoveryService;
 import org.projectfloodlight.linkdiscovery.LinkDiscoveryManager;
 import org.projectfloodlight.linkdiscovery.LinkInfo;
+import org.projectfloodlight.packet.BSN;
 import org.projectfloodlight.packet.Data;
 import org.projectfloodlight.packet.Ethernet;
 import org.projectfloodlight.packet.IPacket;
 import org.projectfloodlight.packet.IPv4;
+import org.projectfloodlight.packet.LLDP;
 import org.projectfloodlight.packet.UDP;
 import org.projectfloodlight.routing.IRoutingService;
 import org.projectfloodlight.routing.Link;
@@ -194,13 +200,13 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         NodePortTuple dstNpt = new NodePortTuple(2L, 1);
 
         // check invariants hold
-        assertNotNull(linkDiscovery.switchLinks.get(lt.getSrc()));
-        assertTrue(linkDiscovery.switchLinks.get(lt.getSrc()).contains(lt));
-        assertNotNull(linkDiscovery.portLinks.get(srcNpt));
-        assertTrue(linkDiscovery.portLinks.get(srcNpt).contains(lt));
-        assertNotNull(linkDiscovery.portLinks.get(dstNpt));
-        assertTrue(linkDiscovery.portLinks.get(dstNpt).contains(lt));
-        assertTrue(linkDiscovery.links.containsKey(lt));
+        assertNotNull(linkDiscovery.getSwitchLinks().get(lt.getSrc()));
+        assertTrue(linkDiscovery.getSwitchLinks().get(lt.getSrc()).contains(lt));
+        assertNotNull(linkDiscovery.getPortLinks().get(srcNpt));
+        assertTrue(linkDiscovery.getPortLinks().get(srcNpt).contains(lt));
+        assertNotNull(linkDiscovery.getPortLinks().get(dstNpt));
+        assertTrue(linkDiscovery.getPortLinks().get(dstNpt).contains(lt));
+        assertTrue(linkDiscovery.getLinks().containsKey(lt));
     }
 
     @Test
@@ -214,11 +220,11 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         linkDiscovery.deleteLinks(Collections.singletonList(lt), "Test");
 
         // check invariants hold
-        assertNull(linkDiscovery.switchLinks.get(lt.getSrc()));
-        assertNull(linkDiscovery.switchLinks.get(lt.getDst()));
-        assertNull(linkDiscovery.portLinks.get(lt.getSrc()));
-        assertNull(linkDiscovery.portLinks.get(lt.getDst()));
-        assertTrue(linkDiscovery.links.isEmpty());
+        assertNull(linkDiscovery.getSwitchLinks().get(lt.getSrc()));
+        assertNull(linkDiscovery.getSwitchLinks().get(lt.getDst()));
+        assertNull(linkDiscovery.getPortLinks().get(lt.getSrc()));
+        assertNull(linkDiscovery.getPortLinks().get(lt.getDst()));
+        assertTrue(linkDiscovery.getLinks().isEmpty());
     }
 
     @Test
@@ -234,13 +240,13 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         linkDiscovery.addOrUpdateLink(lt, info);
 
         // check invariants hold
-        assertNotNull(linkDiscovery.switchLinks.get(lt.getSrc()));
-        assertTrue(linkDiscovery.switchLinks.get(lt.getSrc()).contains(lt));
-        assertNotNull(linkDiscovery.portLinks.get(srcNpt));
-        assertTrue(linkDiscovery.portLinks.get(srcNpt).contains(lt));
-        assertNotNull(linkDiscovery.portLinks.get(dstNpt));
-        assertTrue(linkDiscovery.portLinks.get(dstNpt).contains(lt));
-        assertTrue(linkDiscovery.links.containsKey(lt));
+        assertNotNull(linkDiscovery.getSwitchLinks().get(lt.getSrc()));
+        assertTrue(linkDiscovery.getSwitchLinks().get(lt.getSrc()).contains(lt));
+        assertNotNull(linkDiscovery.getPortLinks().get(srcNpt));
+        assertTrue(linkDiscovery.getPortLinks().get(srcNpt).contains(lt));
+        assertNotNull(linkDiscovery.getPortLinks().get(dstNpt));
+        assertTrue(linkDiscovery.getPortLinks().get(dstNpt).contains(lt));
+        assertTrue(linkDiscovery.getLinks().containsKey(lt));
     }
 
     @Test
@@ -257,11 +263,11 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         linkDiscovery.deleteLinks(Collections.singletonList(lt), "Test to self");
 
         // check invariants hold
-        assertNull(linkDiscovery.switchLinks.get(lt.getSrc()));
-        assertNull(linkDiscovery.switchLinks.get(lt.getDst()));
-        assertNull(linkDiscovery.portLinks.get(srcNpt));
-        assertNull(linkDiscovery.portLinks.get(dstNpt));
-        assertTrue(linkDiscovery.links.isEmpty());
+        assertNull(linkDiscovery.getSwitchLinks().get(lt.getSrc()));
+        assertNull(linkDiscovery.getSwitchLinks().get(lt.getDst()));
+        assertNull(linkDiscovery.getPortLinks().get(srcNpt));
+        assertNull(linkDiscovery.getPortLinks().get(dstNpt));
+        assertTrue(linkDiscovery.getLinks().isEmpty());
     }
 
     @Test
@@ -282,11 +288,11 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         verify(sw1, sw2);
 
         // check invariants hold
-        assertNull(linkDiscovery.switchLinks.get(lt.getSrc()));
-        assertNull(linkDiscovery.switchLinks.get(lt.getDst()));
-        assertNull(linkDiscovery.portLinks.get(srcNpt));
-        assertNull(linkDiscovery.portLinks.get(dstNpt));
-        assertTrue(linkDiscovery.links.isEmpty());
+        assertNull(linkDiscovery.getSwitchLinks().get(lt.getSrc()));
+        assertNull(linkDiscovery.getSwitchLinks().get(lt.getDst()));
+        assertNull(linkDiscovery.getPortLinks().get(srcNpt));
+        assertNull(linkDiscovery.getPortLinks().get(dstNpt));
+        assertTrue(linkDiscovery.getLinks().isEmpty());
     }
 
     @Test
@@ -304,10 +310,10 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
 
         verify(sw1);
         // check invariants hold
-        assertNull(linkDiscovery.switchLinks.get(lt.getSrc()));
-        assertNull(linkDiscovery.portLinks.get(lt.getSrc()));
-        assertNull(linkDiscovery.portLinks.get(lt.getDst()));
-        assertTrue(linkDiscovery.links.isEmpty());
+        assertNull(linkDiscovery.getSwitchLinks().get(lt.getSrc()));
+        assertNull(linkDiscovery.getPortLinks().get(lt.getSrc()));
+        assertNull(linkDiscovery.getPortLinks().get(lt.getDst()));
+        assertTrue(linkDiscovery.getLinks().isEmpty());
     }
 
     @Test
@@ -325,13 +331,13 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         linkDiscovery.addOrUpdateLink(lt, info);
 
         // check invariants hold
-        assertNotNull(linkDiscovery.switchLinks.get(lt.getSrc()));
-        assertTrue(linkDiscovery.switchLinks.get(lt.getSrc()).contains(lt));
-        assertNotNull(linkDiscovery.portLinks.get(srcNpt));
-        assertTrue(linkDiscovery.portLinks.get(srcNpt).contains(lt));
-        assertNotNull(linkDiscovery.portLinks.get(dstNpt));
-        assertTrue(linkDiscovery.portLinks.get(dstNpt).contains(lt));
-        assertTrue(linkDiscovery.links.containsKey(lt));
+        assertNotNull(linkDiscovery.getSwitchLinks().get(lt.getSrc()));
+        assertTrue(linkDiscovery.getSwitchLinks().get(lt.getSrc()).contains(lt));
+        assertNotNull(linkDiscovery.getPortLinks().get(srcNpt));
+        assertTrue(linkDiscovery.getPortLinks().get(srcNpt).contains(lt));
+        assertNotNull(linkDiscovery.getPortLinks().get(dstNpt));
+        assertTrue(linkDiscovery.getPortLinks().get(dstNpt).contains(lt));
+        assertTrue(linkDiscovery.getLinks().containsKey(lt));
 
         linkDiscovery.timeoutLinks();
 
@@ -340,8 +346,8 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
                             null,/* unicast */
                             System.currentTimeMillis());
         linkDiscovery.addOrUpdateLink(lt, info);
-        assertTrue(linkDiscovery.links.get(lt).getUnicastValidTime() == null);
-        assertTrue(linkDiscovery.links.get(lt).getMulticastValidTime() != null);
+        assertTrue(linkDiscovery.getLinks().get(lt).getUnicastValidTime() == null);
+        assertTrue(linkDiscovery.getLinks().get(lt).getMulticastValidTime() != null);
 
 
         // Add a link info based on info that woudld be obtained from unicast LLDP
@@ -356,26 +362,26 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         // Expect to timeout the unicast Valid Time, but not the multicast Valid time
         // So the link type should go back to non-openflow link.
         linkDiscovery.timeoutLinks();
-        assertTrue(linkDiscovery.links.get(lt).getUnicastValidTime() == null);
-        assertTrue(linkDiscovery.links.get(lt).getMulticastValidTime() != null);
+        assertTrue(linkDiscovery.getLinks().get(lt).getUnicastValidTime() == null);
+        assertTrue(linkDiscovery.getLinks().get(lt).getMulticastValidTime() != null);
 
         // Set the multicastValidTime to be old and see if that also times out.
         info = new LinkInfo(System.currentTimeMillis() - 40000,
                             null, System.currentTimeMillis() - 40000);
         linkDiscovery.addOrUpdateLink(lt, info);
         linkDiscovery.timeoutLinks();
-        assertTrue(linkDiscovery.links.get(lt) == null);
+        assertTrue(linkDiscovery.getLinks().get(lt) == null);
 
         // Test again only with multicast LLDP
         info = new LinkInfo(System.currentTimeMillis() - 40000,
                             null, System.currentTimeMillis() - 40000);
         linkDiscovery.addOrUpdateLink(lt, info);
-        assertTrue(linkDiscovery.links.get(lt).getUnicastValidTime() == null);
-        assertTrue(linkDiscovery.links.get(lt).getMulticastValidTime() != null);
+        assertTrue(linkDiscovery.getLinks().get(lt).getUnicastValidTime() == null);
+        assertTrue(linkDiscovery.getLinks().get(lt).getMulticastValidTime() != null);
 
         // Call timeout and check if link is no longer present.
         linkDiscovery.timeoutLinks();
-        assertTrue(linkDiscovery.links.get(lt) == null);
+        assertTrue(linkDiscovery.getLinks().get(lt) == null);
 
         // Start clean and see if loops are also added.
         lt = new Link(1L, 1, 1L, 2);
@@ -425,13 +431,13 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         linkDiscovery.addOrUpdateLink(lt, info);
 
         // check invariants hold
-        assertNotNull(linkDiscovery.switchLinks.get(lt.getSrc()));
-        assertTrue(linkDiscovery.switchLinks.get(lt.getSrc()).contains(lt));
-        assertNotNull(linkDiscovery.portLinks.get(srcNpt));
-        assertTrue(linkDiscovery.portLinks.get(srcNpt).contains(lt));
-        assertNotNull(linkDiscovery.portLinks.get(dstNpt));
-        assertTrue(linkDiscovery.portLinks.get(dstNpt).contains(lt));
-        assertTrue(linkDiscovery.links.containsKey(lt));
+        assertNotNull(linkDiscovery.getSwitchLinks().get(lt.getSrc()));
+        assertTrue(linkDiscovery.getSwitchLinks().get(lt.getSrc()).contains(lt));
+        assertNotNull(linkDiscovery.getPortLinks().get(srcNpt));
+        assertTrue(linkDiscovery.getPortLinks().get(srcNpt).contains(lt));
+        assertNotNull(linkDiscovery.getPortLinks().get(dstNpt));
+        assertTrue(linkDiscovery.getPortLinks().get(dstNpt).contains(lt));
+        assertTrue(linkDiscovery.getLinks().containsKey(lt));
 
     }
 
@@ -996,4 +1002,95 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         assertNull(ld.getPortLinks().get(lt.getDst()));
         assertTrue(ld.getLinks().isEmpty());
     }
+
+    @Test
+    public void testLLDPTemplate() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+        OFPacketOut po = linkDiscovery.generateLLDPMessage(1L, (short)1,
+                                                           true, false);
+        Ethernet eth = new Ethernet();
+        eth.deserialize(po.getPacketData(), 0, po.getPacketData().length);
+        assertEquals(Ethernet.TYPE_LLDP, eth.getEtherType());
+        assertArrayEquals(p1.getHardwareAddress(), eth.getSourceMACAddress());
+        LLDP lldp = (LLDP) eth.getPayload();
+        assertArrayEquals(new byte[] { 2, 0, 1 },
+                          lldp.getPortId().getValue());
+
+        // BDDPs carry the LLDP after the BSN header
+        po = linkDiscovery.generateLLDPMessage(1L, (short)1, false, true);
+        eth = new Ethernet();
+        eth.deserialize(po.getPacketData(), 0, po.getPacketData().length);
+        assertEquals(Ethernet.TYPE_BSN, eth.getEtherType());
+        lldp = (LLDP) ((BSN) eth.getPayload()).getPayload();
+        assertArrayEquals(new byte[] { 2, 0, 1 },
+                          lldp.getPortId().getValue());
+
+        // frames of different ports only differ in the port id
+        LLDPTemplate template = linkDiscovery.getLLDPTemplate(1L, true, false);
+        assertSame(template, linkDiscovery.getLLDPTemplate(1L, true, false));
+        byte[] mac = p1.getHardwareAddress();
+        byte[] frame1 = template.getFrame((short)1, mac);
+        byte[] frame2 = template.getFrame((short)0x1234, mac);
+        eth = new Ethernet();
+        eth.deserialize(frame2, 0, frame2.length);
+        lldp = (LLDP) eth.getPayload();
+        assertArrayEquals(new byte[] { 2, 0x12, 0x34 },
+                          lldp.getPortId().getValue());
+        int diffs = 0;
+        for (int i = 0; i < frame1.length; i++) {
+            if (frame1[i] != frame2[i]) diffs++;
+        }
+        assertEquals(2, diffs);
+
+        // templates are dropped with the switch
+        linkDiscovery.switchRemoved(1L);
+        assertNotSame(template,
+                      linkDiscovery.getLLDPTemplate(1L, true, false));
+    }
+
+    @Test
+    public void testLinkRefreshKeepsSnapshot() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+
+        Link lt = new Link(1L, 2, 2L, 1);
+        long now = System.currentTimeMillis();
+        linkDiscovery.addOrUpdateLink(lt, new LinkInfo(now - 1000,
+                                                       now - 1000, null));
+        Map<Link, LinkInfo> links = linkDiscovery.getLinks();
+        LinkInfo info = links.get(lt);
+        assertNotNull(info);
+
+        // a newer unicast LLDP only refreshes the time of the link
+        assertFalse(linkDiscovery.addOrUpdateLink(lt,
+                new LinkInfo(now, now, null)));
+        assertSame(links, linkDiscovery.getLinks());
+        assertSame(info, linkDiscovery.getLinks().get(lt));
+        assertEquals(now, info.getUnicastValidTime().longValue());
+        assertEquals(now - 1000, info.getFirstSeenTime().longValue());
+
+        // the first multicast LLDP is an update, but does not add a link
+        linkDiscovery.addOrUpdateLink(lt, new LinkInfo(now, null, now));
+        assertSame(info, linkDiscovery.getLinks().get(lt));
+        assertEquals(now, info.getMulticastValidTime().longValue());
+        assertEquals(now, info.getUnicastValidTime().longValue());
+
+        // a timed out time is not brought back by a refresh
+        assertTrue(info.clearUnicastValidTime(info.getUnicastValidTime()));
+        assertFalse(info.refreshUnicastValidTime(now));
+        assertNull(info.getUnicastValidTime());
+
+        // adding and removing links publishes new snapshots
+        Link lt2 = new Link(2L, 1, 1L, 2);
+        linkDiscovery.addOrUpdateLink(lt2, new LinkInfo(now, now, null));
+        assertNotSame(links, linkDiscovery.getLinks());
+        assertFalse(links.containsKey(lt2));
+        assertTrue(linkDiscovery.getLinks().containsKey(lt2));
+        assertEquals(2, linkDiscovery.getSwitchLinks().get(1L).size());
+
+        linkDiscovery.deleteLink(lt, "test");
+        assertFalse(linkDiscovery.getLinks().containsKey(lt));
+        assertEquals(1, linkDiscovery.getSwitchLinks().get(1L).size());
+        assertEquals(1, linkDiscovery.getPortLinks()
+                             .get(new NodePortTuple(1L, 2)).size());
+    }
 }
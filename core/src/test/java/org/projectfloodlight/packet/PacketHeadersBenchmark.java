@@ -0,0 +1,94 @@
+package org.projectfloodlight.packet;
+
+import java.util.Random;
+
+/**
+ * Micro-benchmark comparing {@link Ethernet#deserialize(byte[], int, int)}
+ * with {@link PacketHeaders#parse(byte[], int, int)} on a mix of packets
+ * resembling packet-in traffic (mostly TCP/UDP, some ARP and LLDP).
+ *
+ * Not run as part of the unit tests. Run it with
+ * <pre>
+ * java -cp target/classes:target/test-classes \
+ *     org.projectfloodlight.packet.PacketHeadersBenchmark
+ * </pre>
+ */
+public class PacketHeadersBenchmark {
+    private static final int NUM_PACKETS = 1024;
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int ROUNDS = 5000;
+
+    static byte[][] makePacketMix(long seed) {
+        Random rand = new Random(seed);
+        byte[][] packets = new byte[NUM_PACKETS][];
+        byte[] lldp = new LLDPTest().pkt;
+        for (int i = 0; i < NUM_PACKETS; i++) {
+            int r = rand.nextInt(100);
+            if (r < 55) {
+                packets[i] = PacketHeadersTest.makeTcpPacket(
+                        rand.nextBoolean() ? Ethernet.VLAN_UNTAGGED :
+                                             (short) rand.nextInt(4095));
+            } else if (r < 85) {
+                packets[i] = PacketHeadersTest.makeUdpPacket();
+            } else if (r < 95) {
+                packets[i] = PacketHeadersTest.makeArpPacket();
+            } else {
+                packets[i] = lldp;
+            }
+        }
+        return packets;
+    }
+
+    static long runEthernet(byte[][] packets, int rounds) {
+        long sink = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (byte[] p : packets) {
+                Ethernet eth = new Ethernet();
+                eth.deserialize(p, 0, p.length);
+                sink += eth.getEtherType();
+                if (eth.getPayload() instanceof IPv4)
+                    sink += ((IPv4) eth.getPayload()).getProtocol();
+            }
+        }
+        return sink;
+    }
+
+    static long runHeaders(byte[][] packets, int rounds) {
+        long sink = 0;
+        PacketHeaders h = new PacketHeaders();
+        for (int r = 0; r < rounds; r++) {
+            for (byte[] p : packets) {
+                h.parse(p, 0, p.length);
+                sink += h.getEtherType();
+                if (h.isIPv4())
+                    sink += h.getNwProto();
+            }
+        }
+        return sink;
+    }
+
+    private static void report(String name, long nanos, int rounds) {
+        double perPacket = (double) nanos / ((long) rounds * NUM_PACKETS);
+        System.out.printf("%-20s %8.1f ns/packet %10.0f packets/s%n",
+                          name, perPacket, 1e9 / perPacket);
+    }
+
+    public static void main(String[] args) {
+        byte[][] packets = makePacketMix(42);
+        long sink = 0;
+
+        sink += runEthernet(packets, WARMUP_ROUNDS);
+        sink += runHeaders(packets, WARMUP_ROUNDS);
+
+        long start = System.nanoTime();
+        sink += runEthernet(packets, ROUNDS);
+        report("Ethernet.deserialize", System.nanoTime() - start, ROUNDS);
+
+        start = System.nanoTime();
+        sink += runHeaders(packets, ROUNDS);
+        report("PacketHeaders.parse", System.nanoTime() - start, ROUNDS);
+
+        // Print the sink so the JIT can't eliminate the loops
+        System.out.println("(" + sink + ")");
+    }
+}
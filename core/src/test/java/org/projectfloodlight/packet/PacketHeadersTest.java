@@ -0,0 +1,175 @@
+package org.projectfloodlight.packet;
+
+import static org.junit.Assert.*;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class PacketHeadersTest {
+
+    static byte[] makeTcpPacket(short vlan) {
+        Ethernet eth = (Ethernet) new Ethernet()
+            .setSourceMACAddress("00:11:22:33:44:55")
+            .setDestinationMACAddress("00:44:33:22:11:00")
+            .setVlanID(vlan)
+            .setPriorityCode((byte) 3)
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(new IPv4()
+                .setTtl((byte) 64)
+                .setDiffServ((byte) 0x20)
+                .setSourceAddress("192.168.1.1")
+                .setDestinationAddress("192.168.1.2")
+                .setProtocol(IPv4.PROTOCOL_TCP)
+                .setPayload(new TCP()
+                    .setSourcePort((short) 5000)
+                    .setDestinationPort((short) 80)
+                    .setPayload(new Data(new byte[] {1, 2, 3, 4}))));
+        return eth.serialize();
+    }
+
+    static byte[] makeUdpPacket() {
+        Ethernet eth = (Ethernet) new Ethernet()
+            .setSourceMACAddress("00:11:22:33:44:55")
+            .setDestinationMACAddress("01:00:5e:00:00:01")
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(new IPv4()
+                .setTtl((byte) 64)
+                .setSourceAddress("10.0.0.1")
+                .setDestinationAddress("224.0.0.1")
+                .setProtocol(IPv4.PROTOCOL_UDP)
+                .setPayload(new UDP()
+                    .setSourcePort((short) 67)
+                    .setDestinationPort((short) 68)
+                    .setPayload(new Data(new byte[] {1, 2, 3, 4}))));
+        return eth.serialize();
+    }
+
+    static byte[] makeArpPacket() {
+        Ethernet eth = (Ethernet) new Ethernet()
+            .setSourceMACAddress("00:11:22:33:44:55")
+            .setDestinationMACAddress("ff:ff:ff:ff:ff:ff")
+            .setEtherType(Ethernet.TYPE_ARP)
+            .setPayload(new ARP()
+                .setHardwareType(ARP.HW_TYPE_ETHERNET)
+                .setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) 6)
+                .setProtocolAddressLength((byte) 4)
+                .setOpCode(ARP.OP_REQUEST)
+                .setSenderHardwareAddress(Ethernet.toMACAddress("00:11:22:33:44:55"))
+                .setSenderProtocolAddress(IPv4.toIPv4Address("10.0.0.1"))
+                .setTargetHardwareAddress(new byte[6])
+                .setTargetProtocolAddress(IPv4.toIPv4Address("10.0.0.2")));
+        return eth.serialize();
+    }
+
+    @Test
+    public void testTcp() {
+        byte[] pkt = makeTcpPacket((short) 100);
+        PacketHeaders h = new PacketHeaders();
+        assertTrue(h.parse(pkt));
+        Ethernet eth = new Ethernet();
+        eth.deserialize(pkt, 0, pkt.length);
+        IPv4 ip = (IPv4) eth.getPayload();
+        TCP tcp = (TCP) ip.getPayload();
+
+        assertEquals(eth.getDestinationMAC().toLong(), h.getDlDst());
+        assertEquals(eth.getSourceMAC().toLong(), h.getDlSrc());
+        assertEquals(eth.getVlanID(), h.getVlan());
+        assertEquals(eth.getPriorityCode(), h.getVlanPcp());
+        assertEquals(eth.getEtherType(), h.getEtherType());
+        assertFalse(h.isBroadcast());
+        assertFalse(h.isMulticast());
+        assertTrue(h.isIPv4());
+        assertFalse(h.isFragment());
+        assertEquals(ip.getSourceAddress(), h.getNwSrc());
+        assertEquals(ip.getDestinationAddress(), h.getNwDst());
+        assertEquals(ip.getProtocol(), h.getNwProto());
+        assertEquals(ip.getDiffServ(), h.getNwTos());
+        assertTrue(h.hasTransportPorts());
+        assertEquals(tcp.getSourcePort(), h.getTpSrc());
+        assertEquals(tcp.getDestinationPort(), h.getTpDst());
+
+        assertFalse(h.isEthernetBuilt());
+        assertEquals(eth, h.getEthernet());
+        assertTrue(h.isEthernetBuilt());
+        assertSame(h.getEthernet(), h.getEthernet());
+    }
+
+    @Test
+    public void testBuffer() {
+        byte[] pkt = makeTcpPacket((short) 100);
+        PacketHeaders expected = new PacketHeaders();
+        assertTrue(expected.parse(pkt));
+
+        // A read-only slice in the middle of a larger buffer, as handed
+        // out by a lazily decoded packet-in
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        buf.writeZero(7);
+        buf.writeBytes(pkt);
+        buf.writeZero(5);
+        ChannelBuffer slice = ChannelBuffers.unmodifiableBuffer(
+                buf.slice(7, pkt.length));
+        PacketHeaders h = new PacketHeaders();
+        assertTrue(h.parse(slice));
+        assertEquals(0, slice.readerIndex());
+        assertEquals(expected.getDlDst(), h.getDlDst());
+        assertEquals(expected.getDlSrc(), h.getDlSrc());
+        assertEquals(expected.getVlan(), h.getVlan());
+        assertEquals(expected.getNwSrc(), h.getNwSrc());
+        assertEquals(expected.getNwDst(), h.getNwDst());
+        assertEquals(expected.getTpSrc(), h.getTpSrc());
+        assertEquals(expected.getTpDst(), h.getTpDst());
+        assertEquals(expected.getEthernet(), h.getEthernet());
+
+        // An explicit range must stay within the buffer
+        assertFalse(h.parse(buf, 7, buf.capacity()));
+    }
+
+    @Test
+    public void testReuse() {
+        PacketHeaders h = new PacketHeaders();
+        assertTrue(h.parse(makeTcpPacket(Ethernet.VLAN_UNTAGGED)));
+        Ethernet tcpEth = h.getEthernet();
+        assertEquals(PacketHeaders.VLAN_UNTAGGED, h.getVlan());
+
+        assertTrue(h.parse(makeUdpPacket()));
+        assertNotSame(tcpEth, h.getEthernet());
+        assertTrue(h.isMulticast());
+        assertEquals(IPv4.PROTOCOL_UDP, h.getNwProto());
+        assertEquals((short) 67, h.getTpSrc());
+        assertEquals((short) 68, h.getTpDst());
+
+        assertTrue(h.parse(makeArpPacket()));
+        assertTrue(h.isBroadcast());
+        assertFalse(h.isMulticast());
+        assertFalse(h.isIPv4());
+        assertFalse(h.hasTransportPorts());
+        assertEquals(Ethernet.TYPE_ARP, h.getEtherType());
+        assertEquals(ARP.OP_REQUEST, h.getArpOpcode());
+        assertEquals(IPv4.toIPv4Address("10.0.0.1"), h.getNwSrc());
+        assertEquals(IPv4.toIPv4Address("10.0.0.2"), h.getNwDst());
+        assertEquals(0, h.getNwProto());
+
+        h.reset();
+        assertFalse(h.isValid());
+        assertNull(h.getData());
+        assertNull(h.getEthernet());
+    }
+
+    @Test
+    public void testTruncated() {
+        PacketHeaders h = new PacketHeaders();
+        assertFalse(h.parse(new byte[10]));
+        assertFalse(h.isValid());
+
+        // Ethernet header only, IPv4 header truncated
+        byte[] pkt = makeTcpPacket(Ethernet.VLAN_UNTAGGED);
+        byte[] truncated = new byte[24];
+        System.arraycopy(pkt, 0, truncated, 0, truncated.length);
+        assertTrue(h.parse(truncated));
+        assertEquals(Ethernet.TYPE_IPv4, h.getEtherType());
+        assertFalse(h.isIPv4());
+        assertFalse(h.hasTransportPorts());
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.perfmon;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    private static final long WINDOW_NS = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    public void testBucketBounds() {
+        LatencyHistogram h = new LatencyHistogram(5, 36, 6, WINDOW_NS, 0);
+        // each value lies within its bucket, and buckets are contiguous
+        long prevHighest = -1;
+        for (int i = 0; i < 2000; i++) {
+            long highest = h.getHighestValue(i);
+            assertTrue(highest > prevHighest);
+            assertEquals(i, h.getIndex(prevHighest + 1));
+            assertEquals(i, h.getIndex(highest));
+            prevHighest = highest;
+            if (highest >= (1L << 36) - 1)
+                break;
+        }
+        // relative bucket width is bounded by the sub-bucket precision
+        for (long v = 32; v < (1L << 36); v = v * 3 / 2) {
+            int i = h.getIndex(v);
+            long width = h.getHighestValue(i) - h.getHighestValue(i - 1);
+            assertTrue(width <= v / 32 + 1);
+        }
+        // values out of range are clamped
+        assertEquals(0, h.getIndex(-5));
+        assertEquals(h.getIndex((1L << 36) - 1), h.getIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram(5, 36, 6, WINDOW_NS, 0);
+        LatencyHistogram.Snapshot s = h.getSnapshot(0);
+        assertEquals(0, s.getTotalCount());
+        assertEquals(0, s.getValueAtPercentile(99.0));
+
+        // 1us .. 100ms
+        for (int i = 1; i <= 100000; i++)
+            h.record(i * 1000L, 1);
+        s = h.getSnapshot(1);
+        assertEquals(100000, s.getTotalCount());
+        assertWithin(50000000L, s.getValueAtPercentile(50.0));
+        assertWithin(99000000L, s.getValueAtPercentile(99.0));
+        assertWithin(99900000L, s.getValueAtPercentile(99.9));
+        assertWithin(100000000L, s.getMaxValue());
+    }
+
+    @Test
+    public void testRollingWindow() {
+        LatencyHistogram h = new LatencyHistogram(5, 36, 6, WINDOW_NS, 0);
+        h.record(10, 0);
+        h.record(20, WINDOW_NS * 3);
+        assertEquals(2, h.getSnapshot(WINDOW_NS * 5).getTotalCount());
+        // the first period falls out of the window
+        assertEquals(1, h.getSnapshot(WINDOW_NS * 6).getTotalCount());
+        assertFalse(h.isIdle(WINDOW_NS * 6));
+        assertTrue(h.isIdle(WINDOW_NS * 9));
+
+        // recording wraps around onto the first slot and clears it
+        h.record(30, WINDOW_NS * 12);
+        LatencyHistogram.Snapshot s = h.getSnapshot(WINDOW_NS * 12);
+        assertEquals(1, s.getTotalCount());
+        assertEquals(30, s.getMaxValue());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        // 2^-5 relative precision
+        assertTrue("expected ~" + expected + " but got " + actual,
+                   Math.abs(actual - expected) <= expected / 32 + 1);
+    }
+}
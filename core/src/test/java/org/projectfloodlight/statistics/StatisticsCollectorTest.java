@@ -0,0 +1,191 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.statistics;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.projectfloodlight.core.IFloodlightProviderService;
+import org.projectfloodlight.core.IOFSwitch;
+import org.projectfloodlight.core.module.FloodlightModuleContext;
+import org.projectfloodlight.core.test.MockThreadPoolService;
+import org.projectfloodlight.threadpool.IThreadPoolService;
+
+public class StatisticsCollectorTest {
+    protected static final long DPID1 = 1L;
+    protected static final long DPID2 = 2L;
+    protected StatisticsCollector collector;
+    protected IFloodlightProviderService floodlightProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        FloodlightModuleContext fmc = new FloodlightModuleContext();
+        floodlightProvider = createMock(IFloodlightProviderService.class);
+        fmc.addService(IFloodlightProviderService.class, floodlightProvider);
+        fmc.addService(IThreadPoolService.class, new MockThreadPoolService());
+        collector = new StatisticsCollector();
+        collector.init(fmc);
+    }
+
+    protected IOFSwitch mockSwitch(long dpid, int xid) throws IOException {
+        IOFSwitch sw = createMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(dpid).anyTimes();
+        expect(sw.getNextTransactionId()).andReturn(xid).once();
+        sw.sendStatsQuery(anyObject(OFStatisticsRequest.class), eq(xid),
+                          same(collector));
+        expectLastCall().once();
+        sw.flush();
+        expectLastCall().once();
+        expect(floodlightProvider.getSwitch(dpid)).andReturn(sw).once();
+        return sw;
+    }
+
+    protected static OFStatisticsReply reply(int xid, boolean more,
+                                             short port) {
+        OFStatisticsReply reply = new OFStatisticsReply();
+        reply.setXid(xid);
+        reply.setStatisticType(OFStatisticsType.PORT);
+        reply.setFlags((short) (more ? 1 : 0));
+        OFPortStatisticsReply stat = new OFPortStatisticsReply();
+        stat.setPortNumber(port);
+        reply.setStatistics(Collections.singletonList(stat));
+        return reply;
+    }
+
+    @Test
+    public void testCoalescedMultipartCollection() throws Exception {
+        IOFSwitch sw = mockSwitch(DPID1, 7);
+        sw.cancelStatisticsReply(7);
+        expectLastCall().once();
+        replay(floodlightProvider, sw);
+
+        Future<List<OFStatistics>> f1 =
+                collector.getStatistics(DPID1, OFStatisticsType.PORT);
+        Future<List<OFStatistics>> f2 =
+                collector.getStatistics(DPID1, OFStatisticsType.PORT);
+        assertSame(f1, f2);
+        assertNull(collector.getCachedStatistics(DPID1,
+                                                 OFStatisticsType.PORT));
+
+        // a reply with another transaction id is not ours
+        collector.receive(sw, reply(8, false, (short) 9), null);
+        collector.receive(sw, reply(7, true, (short) 1), null);
+        assertFalse(f1.isDone());
+        collector.receive(sw, reply(7, false, (short) 2), null);
+        assertTrue(f1.isDone());
+        List<OFStatistics> stats = f1.get();
+        assertEquals(2, stats.size());
+        assertEquals(1, ((OFPortStatisticsReply) stats.get(0)).getPortNumber());
+        assertEquals(2, ((OFPortStatisticsReply) stats.get(1)).getPortNumber());
+
+        StatsSnapshot snapshot =
+                collector.getCachedStatistics(DPID1, OFStatisticsType.PORT);
+        assertNotNull(snapshot);
+        assertEquals(stats, snapshot.getStatistics());
+        assertTrue(snapshot.getVersion() > 0);
+        assertEquals(1, collector.getCollectionLatency(DPID1).getCount());
+        verify(floodlightProvider, sw);
+
+        // a new request once the first is done goes to the switch again
+        reset(floodlightProvider);
+        IOFSwitch sw2 = mockSwitch(DPID1, 10);
+        replay(floodlightProvider, sw2);
+        Future<List<OFStatistics>> f3 =
+                collector.getStatistics(DPID1, OFStatisticsType.PORT);
+        assertNotSame(f1, f3);
+        verify(floodlightProvider, sw2);
+    }
+
+    @Test
+    public void testBoundedConcurrency() throws Exception {
+        collector.maxConcurrentSwitches = 1;
+        IOFSwitch sw1 = mockSwitch(DPID1, 1);
+        sw1.cancelStatisticsReply(1);
+        expectLastCall().once();
+        replay(floodlightProvider, sw1);
+
+        Future<List<OFStatistics>> f1 =
+                collector.getStatistics(DPID1, OFStatisticsType.PORT);
+        Future<List<OFStatistics>> f2 =
+                collector.getStatistics(DPID2, OFStatisticsType.PORT);
+        verify(floodlightProvider, sw1);
+
+        // the second switch is queried when the first one is done
+        reset(floodlightProvider);
+        IOFSwitch sw2 = mockSwitch(DPID2, 2);
+        replay(floodlightProvider, sw2);
+        collector.receive(sw1, reply(1, false, (short) 1), null);
+        assertTrue(f1.isDone());
+        assertFalse(f2.isDone());
+        verify(floodlightProvider, sw2);
+    }
+
+    @Test
+    public void testTimeoutAndDisconnect() throws Exception {
+        collector.maxConcurrentSwitches = 1;
+        IOFSwitch sw1 = mockSwitch(DPID1, 1);
+        sw1.cancelStatisticsReply(1);
+        expectLastCall().once();
+        replay(floodlightProvider, sw1);
+
+        Future<List<OFStatistics>> f1 =
+                collector.getStatistics(DPID1, OFStatisticsType.PORT);
+        Future<List<OFStatistics>> f2 =
+                collector.getStatistics(DPID1, OFStatisticsType.TABLE);
+        verify(floodlightProvider, sw1);
+
+        // the timeout fails the first request and starts the second
+        reset(floodlightProvider);
+        IOFSwitch sw2 = mockSwitch(DPID1, 2);
+        replay(floodlightProvider, sw2);
+        collector.expireCollections(System.nanoTime() +
+                                    collector.timeoutNs + 1);
+        try {
+            f1.get();
+            fail("Expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        verify(floodlightProvider, sw2);
+
+        // the switch disconnecting fails the second
+        collector.switchRemoved(DPID1);
+        try {
+            f2.get();
+            fail("Expected a failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertNull(collector.getCachedStatistics(DPID1,
+                                                 OFStatisticsType.PORT));
+        assertNull(collector.getCollectionLatency(DPID1));
+    }
+}
@@ -0,0 +1,293 @@
+package org.projectfloodlight.sync.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.projectfloodlight.core.module.FloodlightModuleContext;
+import org.projectfloodlight.debugcounter.IDebugCounterService;
+import org.projectfloodlight.debugcounter.NullDebugCounter;
+import org.projectfloodlight.sync.ClusterNode;
+import org.projectfloodlight.sync.Versioned;
+import org.projectfloodlight.sync.ISyncService.Scope;
+import org.projectfloodlight.sync.internal.config.PropertyCCProvider;
+import org.projectfloodlight.sync.internal.store.MerkleTree;
+import org.projectfloodlight.sync.internal.store.SynchronizingStorageEngine;
+import org.projectfloodlight.sync.internal.util.ByteArray;
+import org.projectfloodlight.sync.internal.util.CryptoUtil;
+import org.projectfloodlight.sync.internal.version.VectorClock;
+import org.projectfloodlight.sync.thrift.DigestRange;
+import org.projectfloodlight.sync.thrift.KeyedVersions;
+import org.projectfloodlight.sync.thrift.MessageType;
+import org.projectfloodlight.sync.thrift.SyncDigestResponseMessage;
+import org.projectfloodlight.sync.thrift.SyncMessage;
+import org.projectfloodlight.threadpool.IThreadPoolService;
+import org.projectfloodlight.threadpool.ThreadPool;
+
+/**
+ * Run the digest-based antientropy exchange between two sync managers,
+ * passing the messages between them directly instead of over RPC
+ */
+public class SyncManagerDigestTest {
+    protected final static ObjectMapper mapper = new ObjectMapper();
+    private static final String STORE = "global";
+    private static final int NUM_KEYS = 2000;
+
+    @Rule
+    public TemporaryFolder keyStoreFolder = new TemporaryFolder();
+
+    protected File keyStoreFile;
+    protected String keyStorePassword = "verysecurepassword";
+
+    ArrayList<ClusterNode> nodes;
+    SyncManager[] syncManagers;
+    CapturingRPCService[] rpcServices;
+
+    /**
+     * Records the messages written instead of sending them.  Messages are
+     * copied since the sender may reuse the message object.
+     */
+    protected static class CapturingRPCService extends RPCService {
+        List<SyncMessage> messages = new ArrayList<SyncMessage>();
+
+        public CapturingRPCService(SyncManager syncManager) {
+            super(syncManager, null, null, null);
+        }
+
+        @Override
+        public boolean writeToNode(Short nodeId, SyncMessage bsm) {
+            messages.add(bsm.deepCopy());
+            return true;
+        }
+
+        @Override
+        public boolean isConnected(short nodeId) {
+            return true;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        List<SyncMessage> take(MessageType type) {
+            List<SyncMessage> result = new ArrayList<SyncMessage>();
+            for (SyncMessage m : messages) {
+                if (type.equals(m.getType()))
+                    result.add(m);
+            }
+            messages.removeAll(result);
+            return result;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        keyStoreFile = new File(keyStoreFolder.getRoot(),
+                                "keystore.jceks");
+        CryptoUtil.writeSharedSecret(keyStoreFile.getAbsolutePath(),
+                                     keyStorePassword,
+                                     CryptoUtil.secureRandom(16));
+
+        nodes = new ArrayList<ClusterNode>();
+        nodes.add(new ClusterNode("localhost", 40101, (short)1, (short)1));
+        nodes.add(new ClusterNode("localhost", 40102, (short)2, (short)2));
+        String nodeString = mapper.writeValueAsString(nodes);
+
+        syncManagers = new SyncManager[2];
+        rpcServices = new CapturingRPCService[2];
+        for (int i = 0; i < 2; i++) {
+            FloodlightModuleContext fmc = new FloodlightModuleContext();
+            syncManagers[i] = new SyncManager();
+            fmc.addService(IThreadPoolService.class, new ThreadPool());
+            fmc.addService(IDebugCounterService.class, new NullDebugCounter());
+            fmc.addConfigParam(syncManagers[i], "configProviders",
+                               PropertyCCProvider.class.getName());
+            fmc.addConfigParam(syncManagers[i], "nodes", nodeString);
+            fmc.addConfigParam(syncManagers[i], "thisNode",
+                               "" + nodes.get(i).getNodeId());
+            fmc.addConfigParam(syncManagers[i], "persistenceEnabled", "false");
+            fmc.addConfigParam(syncManagers[i], "authScheme",
+                               "CHALLENGE_RESPONSE");
+            fmc.addConfigParam(syncManagers[i], "keyStorePath",
+                               keyStoreFile.getAbsolutePath());
+            fmc.addConfigParam(syncManagers[i], "keyStorePassword",
+                               keyStorePassword);
+            fmc.addConfigParam(syncManagers[i], "merkleAntientropy", "true");
+            syncManagers[i].init(fmc);
+            syncManagers[i].registerStore(STORE, Scope.GLOBAL);
+
+            rpcServices[i] = new CapturingRPCService(syncManagers[i]);
+            syncManagers[i].rpcService = rpcServices[i];
+        }
+    }
+
+    private SynchronizingStorageEngine getStore(int i) throws Exception {
+        return syncManagers[i].getStoreInternal(STORE);
+    }
+
+    private static ByteArray key(int i) {
+        return new ByteArray(("key" + i).getBytes());
+    }
+
+    private static void write(SynchronizingStorageEngine store,
+                              ByteArray key, String value,
+                              VectorClock clock) {
+        Versioned<byte[]> v = new Versioned<byte[]>(value.getBytes(), clock);
+        store.writeSyncValue(key, Collections.singletonList(v));
+    }
+
+    /**
+     * Run the digest exchange from node 0 to node 1
+     * @param rounds the ranges of each digest message sent by node 0
+     * @return the keys offered by node 0
+     */
+    private List<ByteArray> runDigestExchange(List<List<DigestRange>> rounds)
+            throws Exception {
+        syncManagers[0].antientropy(nodes.get(1));
+
+        List<SyncMessage> digests = rpcServices[0].take(MessageType.SYNC_DIGEST);
+        while (digests.size() > 0) {
+            for (SyncMessage m : digests) {
+                rounds.add(m.getSyncDigest().getRanges());
+                SyncMessage response =
+                        syncManagers[1].handleSyncDigest(m.getSyncDigest());
+                SyncDigestResponseMessage sdrm =
+                        response.getSyncDigestResponse();
+                assertEquals(m.getSyncDigest().getRangesSize(),
+                             sdrm.getRangesSize());
+                syncManagers[0].handleSyncDigestResponse(nodes.get(1).getNodeId(),
+                                                         sdrm);
+            }
+            digests = rpcServices[0].take(MessageType.SYNC_DIGEST);
+        }
+
+        List<ByteArray> offered = new ArrayList<ByteArray>();
+        for (SyncMessage m : rpcServices[0].take(MessageType.SYNC_OFFER)) {
+            if (!m.getSyncOffer().isSetVersions()) continue;
+            for (KeyedVersions kv : m.getSyncOffer().getVersions())
+                offered.add(new ByteArray(kv.getKey()));
+        }
+        return offered;
+    }
+
+    private static boolean inRanges(List<DigestRange> ranges, int leaf) {
+        for (DigestRange r : ranges) {
+            if (leaf >= r.getStart() && leaf < r.getEnd())
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testDigestNarrowsToDifferingKeys() throws Exception {
+        SynchronizingStorageEngine store0 = getStore(0);
+        SynchronizingStorageEngine store1 = getStore(1);
+        for (int i = 0; i < NUM_KEYS; i++) {
+            VectorClock clock = TUtils.getClockT(1000, 1);
+            write(store0, key(i), "value" + i, clock);
+            write(store1, key(i), "value" + i, clock);
+        }
+
+        // node 1 is missing one key and has an older version of two others
+        Set<ByteArray> differing = new HashSet<ByteArray>();
+        write(store0, key(NUM_KEYS), "new", TUtils.getClockT(1000, 1));
+        differing.add(key(NUM_KEYS));
+        for (int i : new int[] {500, 1500}) {
+            write(store0, key(i), "newer", TUtils.getClockT(2000, 1, 1));
+            differing.add(key(i));
+        }
+
+        MerkleTree tree0 = store0.getMerkleTree();
+        MerkleTree tree1 = store1.getMerkleTree();
+        int leafCount = tree0.getLeafCount();
+        assertTrue(tree0.getDigest(0, leafCount) !=
+                   tree1.getDigest(0, leafCount));
+
+        List<List<DigestRange>> rounds = new ArrayList<List<DigestRange>>();
+        List<ByteArray> offered = runDigestExchange(rounds);
+
+        // the first round covers the whole tree in 16 ranges
+        List<DigestRange> first = rounds.get(0);
+        assertEquals(16, first.size());
+        assertEquals(0, first.get(0).getStart());
+        assertEquals(leafCount, first.get(first.size() - 1).getEnd());
+
+        // only mismatching ranges with too many keys to offer are split,
+        // each into 16 narrower ranges
+        assertTrue(rounds.size() > 1);
+        List<DigestRange> sent = new ArrayList<DigestRange>(first);
+        for (int i = 1; i < rounds.size(); i++) {
+            for (DigestRange r : rounds.get(i)) {
+                boolean found = false;
+                for (DigestRange parent : sent) {
+                    if (parent.getStart() <= r.getStart() &&
+                        parent.getEnd() >= r.getEnd() &&
+                        parent.getEnd() - parent.getStart() >=
+                            16 * (r.getEnd() - r.getStart())) {
+                        assertTrue(tree0.getDigest(parent.getStart(),
+                                                   parent.getEnd()) !=
+                                   tree1.getDigest(parent.getStart(),
+                                                   parent.getEnd()));
+                        found = true;
+                    }
+                }
+                assertTrue(found);
+            }
+            sent.addAll(rounds.get(i));
+        }
+        int split = 0;
+        List<DigestRange> mismatched = new ArrayList<DigestRange>();
+        for (DigestRange r : sent) {
+            if (tree0.getDigest(r.getStart(), r.getEnd()) ==
+                    tree1.getDigest(r.getStart(), r.getEnd()))
+                continue;
+            if (tree0.getKeyCount(r.getStart(), r.getEnd()) > 50)
+                split += 1;
+            else
+                mismatched.add(r);
+        }
+        assertEquals(16 * split + 16, sent.size());
+
+        // only the keys in small mismatching ranges are offered
+        Set<ByteArray> offeredSet = new HashSet<ByteArray>(offered);
+        assertEquals(offered.size(), offeredSet.size());
+        assertTrue(offeredSet.containsAll(differing));
+        assertTrue(offered.size() < NUM_KEYS / 10);
+        for (ByteArray k : offered)
+            assertTrue(inRanges(mismatched, tree0.getLeaf(k)));
+
+        // node 1 only wants the keys that differ
+        Set<ByteArray> wanted = new HashSet<ByteArray>();
+        for (ByteArray k : offered) {
+            List<Versioned<byte[]>> values = store0.get(k);
+            List<VectorClock> clocks = new ArrayList<VectorClock>();
+            for (Versioned<byte[]> v : values)
+                clocks.add((VectorClock)v.getVersion());
+            if (syncManagers[1].handleSyncOffer(STORE, k.get(), clocks)) {
+                wanted.add(k);
+                syncManagers[1].writeSyncValue(STORE, Scope.GLOBAL, false,
+                                               k.get(), values);
+            }
+        }
+        assertEquals(differing, wanted);
+        assertEquals(tree0.getDigest(0, leafCount),
+                     tree1.getDigest(0, leafCount));
+
+        // with equal digests the exchange ends after the first round
+        rounds.clear();
+        offered = runDigestExchange(rounds);
+        assertEquals(1, rounds.size());
+        assertEquals(0, offered.size());
+    }
+}
@@ -0,0 +1,125 @@
+package org.projectfloodlight.sync.internal.store;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.projectfloodlight.sync.IVersion;
+import org.projectfloodlight.sync.internal.TUtils;
+import org.projectfloodlight.sync.internal.util.ByteArray;
+
+public class MerkleTreeTest {
+    private static ByteArray key(int i) {
+        return new ByteArray(("key" + i).getBytes());
+    }
+
+    private static List<IVersion> versions(IVersion... v) {
+        List<IVersion> l = new ArrayList<IVersion>();
+        Collections.addAll(l, v);
+        return l;
+    }
+
+    @Test
+    public void testOrderIndependence() {
+        MerkleTree t1 = new MerkleTree(4);
+        MerkleTree t2 = new MerkleTree(4);
+        for (int i = 0; i < 100; i++)
+            t1.update(key(i), versions(TUtils.getClockT(1000, 1, i % 3)));
+        for (int i = 99; i >= 0; i--)
+            t2.update(key(i), versions(TUtils.getClockT(1000, 1, i % 3)));
+
+        assertEquals(t1.getDigest(0, 16), t2.getDigest(0, 16));
+        for (int i = 0; i < 16; i++)
+            assertEquals(t1.getDigest(i, i + 1), t2.getDigest(i, i + 1));
+        assertEquals(100, t1.getKeyCount(0, 16));
+        assertEquals(t1.getSize(0, 16), t2.getSize(0, 16));
+        assertTrue(t1.getSize(0, 16) > 0);
+
+        // Order of the versions of a key doesn't matter either
+        t1.update(key(0), versions(TUtils.getClockT(1000, 1),
+                                   TUtils.getClockT(1000, 2)));
+        t2.update(key(0), versions(TUtils.getClockT(1000, 2),
+                                   TUtils.getClockT(1000, 1)));
+        assertEquals(t1.getDigest(0, 16), t2.getDigest(0, 16));
+    }
+
+    @Test
+    public void testUpdateAndRemove() {
+        MerkleTree t = new MerkleTree(6);
+        for (int i = 0; i < 200; i++)
+            t.update(key(i), versions(TUtils.getClockT(1000, 1)));
+        long root = t.getDigest(0, 64);
+
+        ByteArray k = key(7);
+        int leaf = t.getLeaf(k);
+        long leafDigest = t.getDigest(leaf, leaf + 1);
+        long restDigest = t.getDigest(0, leaf) ^ t.getDigest(leaf + 1, 64);
+
+        // A newer version only changes the ranges containing the key
+        t.update(k, versions(TUtils.getClockT(1000, 1, 1)));
+        assertFalse(root == t.getDigest(0, 64));
+        assertFalse(leafDigest == t.getDigest(leaf, leaf + 1));
+        assertEquals(restDigest,
+                     t.getDigest(0, leaf) ^ t.getDigest(leaf + 1, 64));
+        assertEquals(200, t.getKeyCount(0, 64));
+
+        // Restoring the old version restores the digest
+        t.update(k, versions(TUtils.getClockT(1000, 1)));
+        assertEquals(root, t.getDigest(0, 64));
+
+        // Removing and re-adding the key too
+        int leafKeys = t.getKeyCount(leaf, leaf + 1);
+        t.update(k, null);
+        assertEquals(199, t.getKeyCount(0, 64));
+        assertEquals(leafKeys - 1, t.getKeyCount(leaf, leaf + 1));
+        assertFalse(t.getKeys(leaf, leaf + 1).contains(k));
+        t.update(k, versions(TUtils.getClockT(1000, 1)));
+        assertEquals(root, t.getDigest(0, 64));
+        assertTrue(t.getKeys(leaf, leaf + 1).contains(k));
+
+        t.clear();
+        assertEquals(0, t.getDigest(0, 64));
+        assertEquals(0, t.getKeyCount(0, 64));
+        assertEquals(0, t.getSize(0, 64));
+    }
+
+    @Test
+    public void testRanges() {
+        MerkleTree t = new MerkleTree(5);
+        HashSet<ByteArray> all = new HashSet<ByteArray>();
+        for (int i = 0; i < 300; i++) {
+            t.update(key(i), versions(TUtils.getClockT(1000, 2)));
+            all.add(key(i));
+        }
+
+        // Arbitrary ranges compose from their parts
+        for (int start = 0; start < 32; start += 3) {
+            for (int end = start; end <= 32; end += 5) {
+                long digest = 0;
+                int count = 0;
+                long size = 0;
+                for (int i = start; i < end; i++) {
+                    digest ^= t.getDigest(i, i + 1);
+                    count += t.getKeyCount(i, i + 1);
+                    size += t.getSize(i, i + 1);
+                }
+                assertEquals(digest, t.getDigest(start, end));
+                assertEquals(count, t.getKeyCount(start, end));
+                assertEquals(size, t.getSize(start, end));
+                assertEquals(count, t.getKeys(start, end).size());
+            }
+        }
+        assertEquals(all, new HashSet<ByteArray>(t.getKeys(0, 32)));
+
+        try {
+            t.getDigest(0, 33);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.projectfloodlight.sync.internal.store;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.sync.ISyncService.Scope;
+import org.projectfloodlight.sync.Versioned;
+import org.projectfloodlight.sync.internal.SyncManager;
+import org.projectfloodlight.sync.internal.TUtils;
+import org.projectfloodlight.sync.internal.util.ByteArray;
+
+public class SynchronizingStorageEngineTest {
+    private SyncManager syncManager;
+
+    @Before
+    public void setUp() {
+        syncManager = createNiceMock(SyncManager.class);
+        replay(syncManager);
+    }
+
+    private SynchronizingStorageEngine getEngine(String name) {
+        return new SynchronizingStorageEngine(
+                new InMemoryStorageEngine<ByteArray, byte[]>(name),
+                syncManager, null, Scope.UNSYNCHRONIZED);
+    }
+
+    private static ByteArray key(int i) {
+        return new ByteArray(("key" + i).getBytes());
+    }
+
+    /**
+     * A node that purged a tombstone must have the same digest as a node
+     * that never had the key
+     */
+    @Test
+    public void testPurgedTombstoneDigest() throws Exception {
+        SynchronizingStorageEngine purged = getEngine("purged");
+        SynchronizingStorageEngine other = getEngine("other");
+        MerkleTree purgedTree = purged.getMerkleTree();
+        MerkleTree otherTree = other.getMerkleTree();
+        int leaves = purgedTree.getLeafCount();
+
+        for (int i = 0; i < 10; i++) {
+            Versioned<byte[]> v =
+                    new Versioned<byte[]>(new byte[] { (byte) i },
+                                          TUtils.getClockT(1000, 1));
+            purged.put(key(i), v);
+            other.writeSyncValue(key(i), Collections.singletonList(v));
+        }
+        // An old tombstone that's later than every value of the key
+        ByteArray deleted = key(100);
+        purged.put(deleted, new Versioned<byte[]>(new byte[] { 1 },
+                TUtils.getClockT(1000, 1)));
+        purged.put(deleted, new Versioned<byte[]>(null,
+                TUtils.getClockT(1000, 1, 1)));
+        assertEquals(11, purgedTree.getKeyCount(0, leaves));
+        assertFalse(purgedTree.getDigest(0, leaves) ==
+                    otherTree.getDigest(0, leaves));
+
+        purged.cleanupTask();
+        assertTrue(purged.get(deleted).isEmpty());
+        assertEquals(10, purgedTree.getKeyCount(0, leaves));
+        assertEquals(otherTree.getDigest(0, leaves),
+                     purgedTree.getDigest(0, leaves));
+        int leaf = purgedTree.getLeaf(deleted);
+        assertEquals(otherTree.getDigest(leaf, leaf + 1),
+                     purgedTree.getDigest(leaf, leaf + 1));
+    }
+}
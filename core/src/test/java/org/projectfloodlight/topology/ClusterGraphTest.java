@@ -0,0 +1,124 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+
+package org.projectfloodlight.topology;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.projectfloodlight.routing.BroadcastTree;
+import org.projectfloodlight.routing.Link;
+
+public class ClusterGraphTest {
+
+    @Test
+    public void testIntMinHeap() {
+        ClusterGraph.IntMinHeap heap = new ClusterGraph.IntMinHeap(8);
+        heap.insertOrDecrease(3, 30);
+        heap.insertOrDecrease(5, 10);
+        heap.insertOrDecrease(1, 20);
+        heap.insertOrDecrease(7, 10);
+        // decrease
+        heap.insertOrDecrease(3, 5);
+        // not an increase
+        heap.insertOrDecrease(1, 50);
+        assertEquals(4, heap.size());
+        assertEquals(3, heap.poll());
+        // ties go to the smaller element
+        assertEquals(5, heap.poll());
+        assertEquals(7, heap.poll());
+        assertEquals(1, heap.poll());
+        assertTrue(heap.isEmpty());
+
+        heap.insertOrDecrease(2, 1);
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        heap.insertOrDecrease(2, 4);
+        assertEquals(2, heap.poll());
+    }
+
+    @Test
+    public void testWeightedCosts() {
+        Cluster c = new Cluster();
+        Link l12 = new Link(1, (short)1, 2, (short)1);
+        Link l21 = new Link(2, (short)1, 1, (short)1);
+        Link l23 = new Link(2, (short)2, 3, (short)1);
+        Link l32 = new Link(3, (short)1, 2, (short)2);
+        Link l13 = new Link(1, (short)2, 3, (short)2);
+        Link l31 = new Link(3, (short)2, 1, (short)2);
+        for (Link l : new Link[] { l12, l21, l23, l32, l13, l31 })
+            c.addLink(l);
+        Map<Link, Integer> linkCost = new HashMap<Link, Integer>();
+        linkCost.put(l13, 5);
+        linkCost.put(l31, 2);
+
+        ClusterGraph g = new ClusterGraph(c, linkCost);
+        assertEquals(3, g.getNodeCount());
+        assertEquals(6, g.getLinkCount());
+        assertEquals(-1, g.indexOf(4));
+
+        Object[] trees = new Object[2];
+        g.computeTrees(g.indexOf(3), new ClusterGraph.IntMinHeap(3), trees);
+        BroadcastTree tree = (BroadcastTree) trees[0];
+        BroadcastTreeMultipath treeMultipath =
+                (BroadcastTreeMultipath) trees[1];
+        assertEquals(0, tree.getCost(3));
+        assertEquals(1, tree.getCost(2));
+        // 1->2->3 beats the direct link of weight 5
+        assertEquals(2, tree.getCost(1));
+        assertEquals(l12, tree.getTreeLink(1));
+        assertNull(tree.getTreeLink(3));
+        assertEquals(1, treeMultipath.getLinks(1).size());
+
+        // 1->3 ties with 1->2->3
+        linkCost.put(l13, 2);
+        g = new ClusterGraph(c, linkCost);
+        g.computeTrees(g.indexOf(3), new ClusterGraph.IntMinHeap(3), trees);
+        treeMultipath = (BroadcastTreeMultipath) trees[1];
+        assertEquals(2, treeMultipath.getLinks(1).size());
+        assertTrue(treeMultipath.getLinks(1).contains(l12));
+        assertTrue(treeMultipath.getLinks(1).contains(l13));
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        TopologyComputeBenchmark fatTree = new TopologyComputeBenchmark(4);
+        assertEquals(20, fatTree.getSwitchCount());
+        TopologyInstance sequential = fatTree.createInstance(null);
+        sequential.compute();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        TopologyInstance parallel = fatTree.createInstance(pool);
+        parallel.compute();
+        pool.shutdown();
+
+        assertEquals(20, parallel.getComputedTreeCount());
+        assertEquals(sequential.destinationRootedTrees.keySet(),
+                     parallel.destinationRootedTrees.keySet());
+        for (Long dst : sequential.destinationRootedTrees.keySet()) {
+            assertEquals(sequential.destinationRootedTrees.get(dst).getCosts(),
+                         parallel.destinationRootedTrees.get(dst).getCosts());
+            assertEquals(sequential.destinationRootedTreesMultipath.get(dst)
+                                 .getLinks(),
+                         parallel.destinationRootedTreesMultipath.get(dst)
+                                 .getLinks());
+        }
+    }
+}
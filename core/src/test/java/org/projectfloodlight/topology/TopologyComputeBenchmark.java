@@ -0,0 +1,160 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+
+package org.projectfloodlight.topology;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.projectfloodlight.routing.Link;
+
+/**
+ * Benchmark of {@link TopologyInstance#compute()} on k-ary fat-tree
+ * topologies, comparing the sequential shortest path tree computation
+ * with the fork/join one at increasing thread counts. A k-ary fat-tree
+ * has 5k^2/4 switches, so k = 40 gives 2000 switches.
+ *
+ * Not run as part of the unit tests. Run it with
+ * <pre>
+ * java -Xmx4g -cp target/classes:target/test-classes:&lt;deps&gt; \
+ *     org.projectfloodlight.topology.TopologyComputeBenchmark [k...]
+ * </pre>
+ */
+public class TopologyComputeBenchmark {
+    private static final long TUNNEL_DOMAIN = 0x00FFFFFFFFFFFFFFL;
+    private static final int ROUNDS = 3;
+
+    private final Map<Long, Set<Short>> switchPorts =
+            new HashMap<Long, Set<Short>>();
+    private final Map<NodePortTuple, Set<Link>> switchPortLinks =
+            new HashMap<NodePortTuple, Set<Link>>();
+    private final Map<Long, Short> nextPort = new HashMap<Long, Short>();
+
+    private short allocatePort(long sw) {
+        Short port = nextPort.get(sw);
+        short p = (port == null) ? 1 : port;
+        nextPort.put(sw, (short) (p + 1));
+        if (!switchPorts.containsKey(sw))
+            switchPorts.put(sw, new HashSet<Short>());
+        switchPorts.get(sw).add(p);
+        return p;
+    }
+
+    private void addLink(Link l) {
+        NodePortTuple n1 = new NodePortTuple(l.getSrc(), l.getSrcPort());
+        NodePortTuple n2 = new NodePortTuple(l.getDst(), l.getDstPort());
+        if (!switchPortLinks.containsKey(n1))
+            switchPortLinks.put(n1, new HashSet<Link>());
+        if (!switchPortLinks.containsKey(n2))
+            switchPortLinks.put(n2, new HashSet<Link>());
+        switchPortLinks.get(n1).add(l);
+        switchPortLinks.get(n2).add(l);
+    }
+
+    private void connect(long sw1, long sw2) {
+        short p1 = allocatePort(sw1);
+        short p2 = allocatePort(sw2);
+        addLink(new Link(sw1, p1, sw2, p2));
+        addLink(new Link(sw2, p2, sw1, p1));
+    }
+
+    /**
+     * Build a k-ary fat-tree: k pods of k/2 edge and k/2 aggregation
+     * switches, fully connected within the pod, and (k/2)^2 core switches.
+     * Aggregation switch i of every pod connects to core switches
+     * i*k/2 .. (i+1)*k/2-1.
+     * @param k an even number of ports per switch
+     */
+    public TopologyComputeBenchmark(int k) {
+        int half = k / 2;
+        long core = 1;
+        long pods = core + half * half;
+        for (int p = 0; p < k; p++) {
+            long edge = pods + (long) p * k;
+            long agg = edge + half;
+            for (int i = 0; i < half; i++) {
+                for (int j = 0; j < half; j++)
+                    connect(edge + i, agg + j);
+                for (int j = 0; j < half; j++)
+                    connect(agg + i, core + i * half + j);
+            }
+        }
+    }
+
+    public int getSwitchCount() {
+        return switchPorts.size();
+    }
+
+    /**
+     * Create a topology instance of the fat-tree
+     * @param pool the pool for shortest path trees or null
+     */
+    public TopologyInstance createInstance(ForkJoinPool pool) {
+        TopologyInstance ti =
+                new TopologyInstance(switchPorts,
+                                     new HashSet<NodePortTuple>(),
+                                     switchPortLinks,
+                                     new HashSet<NodePortTuple>(),
+                                     new HashSet<NodePortTuple>(),
+                                     null,
+                                     TUNNEL_DOMAIN,
+                                     null,
+                                     null,
+                                     true,
+                                     true);
+        ti.setTreeComputePool(pool);
+        return ti;
+    }
+
+    private long timeCompute(ForkJoinPool pool) {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            TopologyInstance ti = createInstance(pool);
+            long start = System.nanoTime();
+            ti.compute();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) {
+        int[] ks = (args.length > 0) ? new int[args.length] :
+                                       new int[] { 16, 24, 32, 40 };
+        for (int i = 0; i < args.length; i++)
+            ks[i] = Integer.parseInt(args[i]);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        for (int k : ks) {
+            TopologyComputeBenchmark b = new TopologyComputeBenchmark(k);
+            long seq = b.timeCompute(null);
+            System.out.printf("k=%d switches=%d sequential: %d ms%n",
+                              k, b.getSwitchCount(), seq / 1000000);
+            for (int threads = 1; threads <= cores; threads <<= 1) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                long par = b.timeCompute(pool);
+                pool.shutdown();
+                System.out.printf("k=%d switches=%d fork/join %d threads: " +
+                                  "%d ms (%.2fx)%n",
+                                  k, b.getSwitchCount(), threads,
+                                  par / 1000000, (double) seq / par);
+            }
+        }
+    }
+}
@@ -18,8 +18,10 @@ package org.projectfloodlight.topology;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.Assert.*;
@@ -33,6 +35,8 @@ import org.projectfloodlight.core.test.MockFloodlightProvider;
 import org.projectfloodlight.core.test.MockThreadPoolService;
 import org.projectfloodlight.linkdiscovery.ILinkDiscovery;
 import org.projectfloodlight.linkdiscovery.ILinkDiscoveryService;
+import org.projectfloodlight.routing.BroadcastTree;
+import org.projectfloodlight.routing.Route;
 import org.projectfloodlight.threadpool.IThreadPoolService;
 import org.projectfloodlight.topology.NodePortTuple;
 import org.projectfloodlight.topology.TopologyInstance;
@@ -467,4 +471,176 @@ public class TopologyInstanceTest {
                 verifyClusters(expectedClusters);
         }
     }
+
+    private void assertSameCosts(TopologyInstance expected,
+                                 TopologyInstance actual) {
+        assertEquals(expected.destinationRootedTrees.keySet(),
+                     actual.destinationRootedTrees.keySet());
+        for (Map.Entry<Long, BroadcastTree> e :
+                expected.destinationRootedTrees.entrySet()) {
+            BroadcastTree tree = actual.destinationRootedTrees.get(e.getKey());
+            assertEquals(e.getValue().getCosts(), tree.getCosts());
+            assertEquals(expected.destinationRootedTreesMultipath
+                                 .get(e.getKey()).getLinks(),
+                         actual.destinationRootedTreesMultipath
+                                 .get(e.getKey()).getLinks());
+        }
+    }
+
+    @Test
+    public void testIncrementalComputation() throws Exception {
+        topologyManager.incrementalTopology = true;
+        int [][] linkArray = {
+                              // island 1: a triangle
+                              {1, 1, 2, 1, DIRECT_LINK},
+                              {2, 1, 1, 1, DIRECT_LINK},
+                              {2, 2, 3, 1, DIRECT_LINK},
+                              {3, 1, 2, 2, DIRECT_LINK},
+                              {3, 2, 1, 2, DIRECT_LINK},
+                              {1, 2, 3, 2, DIRECT_LINK},
+                              // island 2: a line
+                              {4, 1, 5, 1, DIRECT_LINK},
+                              {5, 1, 4, 1, DIRECT_LINK},
+                              {5, 2, 6, 1, DIRECT_LINK},
+                              {6, 1, 5, 2, DIRECT_LINK},
+        };
+        createTopologyFromLinks(linkArray);
+        TopologyInstance before = topologyManager.getCurrentInstance(true);
+        Map<Long, BroadcastTree> treesBefore =
+                new HashMap<Long, BroadcastTree>(before.destinationRootedTrees);
+
+        // Close the line into a ring. Only island 2 is affected.
+        int [][] newLinks = {
+                             {6, 2, 4, 2, DIRECT_LINK},
+                             {4, 2, 6, 2, DIRECT_LINK},
+        };
+        createTopologyFromLinks(newLinks);
+        TopologyInstance incremental = topologyManager.getCurrentInstance(true);
+        assertNull(incremental.previousInstance);
+        for (long sw = 1; sw <= 3; sw++) {
+            assertSame(treesBefore.get(sw),
+                       incremental.destinationRootedTrees.get(sw));
+        }
+        // The new links give no shorter path to 5
+        assertSame(treesBefore.get(5L),
+                   incremental.destinationRootedTrees.get(5L));
+        assertNotSame(treesBefore.get(4L),
+                      incremental.destinationRootedTrees.get(4L));
+        assertNotSame(treesBefore.get(6L),
+                      incremental.destinationRootedTrees.get(6L));
+        assertEquals(4, incremental.getReusedTreeCount());
+        assertEquals(2, incremental.getComputedTreeCount());
+
+        topologyManager.incrementalTopology = false;
+        topologyManager.createNewInstance();
+        assertSameCosts(topologyManager.getCurrentInstance(true), incremental);
+
+        topologyManager.incrementalTopology = true;
+        topologyManager.removeLink(6, (short)2, 4, (short)2);
+        topologyManager.createNewInstance();
+        TopologyInstance afterRemoval = topologyManager.getCurrentInstance(true);
+        topologyManager.incrementalTopology = false;
+        topologyManager.createNewInstance();
+        assertSameCosts(topologyManager.getCurrentInstance(true), afterRemoval);
+    }
+
+    @Test
+    public void testRoutePathSets() throws Exception {
+        int [][] linkArray = {
+                              // two equal-cost paths from 1 to 4
+                              {1, 1, 2, 1, DIRECT_LINK},
+                              {2, 1, 1, 1, DIRECT_LINK},
+                              {2, 2, 4, 1, DIRECT_LINK},
+                              {4, 1, 2, 2, DIRECT_LINK},
+                              {1, 2, 3, 1, DIRECT_LINK},
+                              {3, 1, 1, 2, DIRECT_LINK},
+                              {3, 2, 4, 2, DIRECT_LINK},
+                              {4, 2, 3, 2, DIRECT_LINK},
+        };
+        createTopologyFromLinks(linkArray);
+        TopologyInstance ti = topologyManager.getCurrentInstance(true);
+        List<Route> routes = ti.getRoutes(1, 4);
+        assertEquals(2, routes.size());
+        assertFalse(routes.get(0).getPath().equals(routes.get(1).getPath()));
+        assertEquals(2, routes.get(0).getRouteCount());
+
+        // Each cookie always gets the same route, and both routes are used
+        Set<Route> picked = new HashSet<Route>();
+        for (long cookie = 0; cookie < 64; cookie++) {
+            Route r = ti.getRoute(1, 4, cookie);
+            assertTrue(routes.contains(r));
+            assertSame(r, ti.getRoute(1, 4, cookie));
+            picked.add(r);
+        }
+        assertEquals(2, picked.size());
+        assertNull(ti.getRoute(1, 1, 0));
+
+        // A new island doesn't touch the cached routes
+        int [][] newLinks = {
+                             {5, 1, 6, 1, DIRECT_LINK},
+                             {6, 1, 5, 1, DIRECT_LINK},
+        };
+        createTopologyFromLinks(newLinks);
+        ti = topologyManager.getCurrentInstance(true);
+        assertTrue(ti.getCarriedRouteCount() > 0);
+        assertEquals(routes, ti.getRoutes(1, 4));
+        assertSame(routes.get(0), ti.getRoutes(1, 4).get(0));
+        Route route34 = ti.getRoute(3, 4, 0);
+        assertNotNull(route34);
+
+        // Removing a link only drops the routes over it
+        topologyManager.removeLink(2, (short)2, 4, (short)1);
+        topologyManager.removeLink(4, (short)1, 2, (short)2);
+        topologyManager.createNewInstance();
+        ti = topologyManager.getCurrentInstance(true);
+        assertSame(route34, ti.getRoute(3, 4, 0));
+        List<Route> after = ti.getRoutes(1, 4);
+        assertEquals(1, after.size());
+        assertEquals(Arrays.asList(new NodePortTuple(1L, (short)2),
+                                   new NodePortTuple(3L, (short)1),
+                                   new NodePortTuple(3L, (short)2),
+                                   new NodePortTuple(4L, (short)2)),
+                     after.get(0).getPath());
+    }
+
+    /**
+     * With more equal-cost paths than maxEcmpPaths, the routes kept must
+     * still leave through every first hop
+     */
+    @Test
+    public void testEcmpPathsUseAllFirstHops() throws Exception {
+        topologyManager.maxEcmpPaths = 4;
+        // 3 first hops from switch 1, each followed by the same 4 second
+        // hops: 12 equal-cost paths from 1 to 99
+        List<int[]> links = new ArrayList<int[]>();
+        for (int a = 1; a <= 3; a++) {
+            links.add(new int[] {1, a, 10 + a, 1, DIRECT_LINK});
+            links.add(new int[] {10 + a, 1, 1, a, DIRECT_LINK});
+            for (int b = 1; b <= 4; b++) {
+                links.add(new int[] {10 + a, 1 + b, 20 + b, a, DIRECT_LINK});
+                links.add(new int[] {20 + b, a, 10 + a, 1 + b, DIRECT_LINK});
+            }
+        }
+        for (int b = 1; b <= 4; b++) {
+            links.add(new int[] {20 + b, 4, 99, b, DIRECT_LINK});
+            links.add(new int[] {99, b, 20 + b, 4, DIRECT_LINK});
+        }
+        createTopologyFromLinks(links.toArray(new int[links.size()][]));
+        TopologyInstance ti = topologyManager.getCurrentInstance(true);
+
+        List<Route> routes = ti.getRoutes(1, 99);
+        assertEquals(4, routes.size());
+        Set<Short> firstHops = new HashSet<Short>();
+        Set<Long> secondHops = new HashSet<Long>();
+        for (Route r : routes) {
+            List<NodePortTuple> path = r.getPath();
+            assertEquals(6, path.size());
+            firstHops.add(path.get(0).getPortId());
+            secondHops.add(path.get(3).getNodeId());
+        }
+        assertEquals(new HashSet<Short>(Arrays.asList((short)1, (short)2,
+                                                      (short)3)),
+                     firstHops);
+        assertTrue(secondHops.size() > 1);
+    }
 }
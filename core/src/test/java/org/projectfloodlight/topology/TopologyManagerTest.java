@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 
 import org.easymock.EasyMock;
 import org.junit.Before;
@@ -183,6 +184,26 @@ public class TopologyManagerTest extends FloodlightTestCase {
         assertTrue(tm.getPortBroadcastDomainLinks().size()==0);
     }
 
+    @Test
+    public void testShutdownTreeComputePool() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        tm.treeComputePool = pool;
+        tm.addOrUpdateLink(1, (short)1, 2, (short)1, ILinkDiscovery.LinkType.DIRECT_LINK);
+        tm.addOrUpdateLink(2, (short)2, 3, (short)1, ILinkDiscovery.LinkType.DIRECT_LINK);
+        tm.createNewInstance();
+        assertNotNull(tm.getRoute(1L, 3L, 0));
+
+        tm.shutdown();
+        assertTrue(pool.isShutdown());
+        assertNull(tm.treeComputePool);
+
+        // Trees are computed on the calling thread after a shutdown
+        tm.removeLink(2, (short)2, 3, (short)1);
+        tm.addOrUpdateLink(2, (short)3, 3, (short)2, ILinkDiscovery.LinkType.DIRECT_LINK);
+        tm.createNewInstance();
+        assertNotNull(tm.getRoute(1L, 3L, 0));
+    }
+
     @Test
     public void testBasic2() throws Exception {
         tm.addOrUpdateLink(1, (short)1, 2, (short)1, ILinkDiscovery.LinkType.DIRECT_LINK);
@@ -40,6 +40,7 @@ import org.projectfloodlight.core.IOFSwitch;
 import org.projectfloodlight.core.ImmutablePort;
 import org.projectfloodlight.core.IFloodlightProviderService.Role;
 import org.projectfloodlight.core.internal.Controller;
+import org.projectfloodlight.core.internal.OFSwitchOutputQueue;
 import org.projectfloodlight.debugcounter.IDebugCounterService;
 import org.projectfloodlight.threadpool.IThreadPoolService;
 import org.projectfloodlight.util.OFMessageDamper;
@@ -358,6 +359,17 @@ public class OFMessageDamperMockSwitch implements IOFSwitch {
         fail("Unexpected method call");
     }
 
+    @Override
+    public void setOutputQueue(OFSwitchOutputQueue outputQueue) {
+        fail("Unexpected method call");
+    }
+
+    @Override
+    public OFSwitchOutputQueue getOutputQueue() {
+        fail("Unexpected method call");
+        return null;
+    }
+
     @Override
     public void setFloodlightProvider(Controller controller) {
         fail("Unexpected method call");
@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2013, Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package org.projectfloodlight.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StripedLongIndexTest {
+
+    @Test
+    public void testBasic() {
+        StripedLongIndex idx = new StripedLongIndex(4, 0);
+        assertEquals(StripedLongIndex.NO_VALUE, idx.get(5));
+        assertEquals(StripedLongIndex.NO_VALUE, idx.put(5, 50));
+        assertEquals(50, idx.put(5, 51));
+        assertEquals(51, idx.putIfAbsent(5, 52));
+        assertEquals(51, idx.get(5));
+
+        // 0 is a valid key
+        assertEquals(StripedLongIndex.NO_VALUE, idx.putIfAbsent(0, 7));
+        assertEquals(7, idx.get(0));
+        assertEquals(2, idx.size());
+
+        assertFalse(idx.removeValue(5, 50));
+        assertTrue(idx.removeValue(5, 51));
+        assertEquals(StripedLongIndex.NO_VALUE, idx.get(5));
+        assertTrue(idx.remove(0));
+        assertFalse(idx.remove(0));
+        assertEquals(0, idx.size());
+
+        try {
+            idx.put(1, -5);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMultiValue() {
+        StripedLongIndex idx = new StripedLongIndex(1, 0);
+        idx.addValue(10, 1);
+        idx.addValue(10, 1);
+        assertEquals(Collections.singletonList(1L), idx.getValues(10));
+        idx.addValue(10, 2);
+        idx.addValue(10, 3);
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 3L)),
+                     new HashSet<Long>(idx.getValues(10)));
+        assertEquals(3, idx.values().size());
+        assertEquals(1, idx.size());
+
+        assertTrue(idx.removeValue(10, 2));
+        assertFalse(idx.removeValue(10, 2));
+        assertTrue(idx.removeValue(10, 1));
+        // collapsed back to a single inline value
+        assertEquals(Collections.singletonList(3L), idx.getValues(10));
+        assertEquals(3, idx.get(10));
+
+        idx.addValue(10, 4);
+        assertTrue(idx.remove(10));
+        assertTrue(idx.getValues(10).isEmpty());
+        assertTrue(idx.values().isEmpty());
+    }
+
+    /**
+     * Random operations checked against a HashMap. Keys are drawn from
+     * a small range so probe sequences collide and removals shift entries.
+     */
+    @Test
+    public void testRandomAgainstHashMap() {
+        Random rand = new Random(1234);
+        StripedLongIndex idx = new StripedLongIndex(8, 0);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        for (int i = 0; i < 200000; i++) {
+            long key = rand.nextInt(5000) - 100;
+            long value = rand.nextInt(1000000);
+            switch (rand.nextInt(4)) {
+                case 0:
+                case 1:
+                    Long prev = expected.put(key, value);
+                    assertEquals(prev == null ? StripedLongIndex.NO_VALUE :
+                                                prev.longValue(),
+                                 idx.put(key, value));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key) != null,
+                                 idx.remove(key));
+                    break;
+                default:
+                    Long v = expected.get(key);
+                    assertEquals(v == null ? StripedLongIndex.NO_VALUE :
+                                             v.longValue(),
+                                 idx.get(key));
+                    break;
+            }
+        }
+        assertEquals(expected.size(), idx.size());
+        for (Map.Entry<Long, Long> e : expected.entrySet())
+            assertEquals(e.getValue().longValue(), idx.get(e.getKey()));
+        idx.clear();
+        assertEquals(0, idx.size());
+    }
+}